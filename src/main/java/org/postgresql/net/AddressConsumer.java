@@ -0,0 +1,17 @@
+package org.postgresql.net;
+
+/**
+ *	Receives addresses in their packed two word form, see
+ *	{@link PGNetworkBase#getHighWord()} and {@link PGNetworkBase#getLowWord()}.
+ *
+ *	<p>This is used where handing out a PGinet per address would cost
+ *	more than the work done with it.</p>
+ */
+public interface AddressConsumer
+{
+	/**
+	 *	@param high The high word of the address, 0 for IPv4.
+	 *	@param low The low word of the address.
+	 */
+	void accept( long high, long low );
+}
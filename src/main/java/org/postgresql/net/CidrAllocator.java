@@ -0,0 +1,433 @@
+package org.postgresql.net;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ *	An in-memory buddy allocator handing out subnets and host addresses
+ *	from a set of cidr pools.
+ *
+ *	<p>Free space is kept as one sorted set of free blocks per prefix
+ *	length and family.  An allocation takes the lowest free block of the
+ *	longest prefix that still fits, the best fit, and splits it in halves
+ *	down to the requested length, putting the unused halves back on the
+ *	free lists.  A release merges a block with its buddy for as long as the
+ *	buddy is free and the result stays inside its pool.  Every step is a
+ *	lookup in a sorted set, so allocate and release cost O(W log n) where
+ *	W is the address width and n the number of free blocks.</p>
+ *
+ *	<p>The state can be saved with {@link #getPools()} and
+ *	{@link #getAllocated()} and rebuilt by passing both to
+ *	{@link #CidrAllocator(Collection, Collection)}.  All methods are
+ *	synchronized.</p>
+ */
+public final class CidrAllocator
+{
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private final TreeSet<Block>[] free4 = new TreeSet[ 33 ];
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private final TreeSet<Block>[] free6 = new TreeSet[ 129 ];
+	private final TreeSet<Block> pools = new TreeSet<Block>();
+	private final TreeSet<Block> allocated = new TreeSet<Block>();
+
+	/**
+	 *	Create an allocator without any pools.
+	 */
+	public CidrAllocator()
+	{
+		for( int i = 0; i < this.free4.length; ++i )
+		{
+			this.free4[i] = new TreeSet<Block>();
+		}
+		for( int i = 0; i < this.free6.length; ++i )
+		{
+			this.free6[i] = new TreeSet<Block>();
+		}
+	}
+
+	/**
+	 *	Create an allocator from saved state.
+	 *
+	 *	@param pools The pools to allocate from.
+	 *	@param allocated The blocks which are already in use.
+	 *	@exception IllegalArgumentException If two pools overlap, or an
+	 *		allocation lies outside the pools or overlaps another one.
+	 */
+	public CidrAllocator( Collection<PGcidr> pools, Collection<PGcidr> allocated )
+	{
+		this();
+		for( PGcidr pool : pools )
+		{
+			addPool( pool );
+		}
+		for( PGcidr block : allocated )
+		{
+			if( !reserve( block ) )
+			{
+				throw( new IllegalArgumentException( "Allocation " + block.getValue() +
+					" is not free within the pools" ) );
+			}
+		}
+	}
+
+	/**
+	 *	Add a pool to allocate from.
+	 *
+	 *	@param pool The network to add.
+	 *	@exception IllegalArgumentException If it overlaps an existing pool.
+	 */
+	public synchronized void addPool( PGcidr pool )
+	{
+		Block b = Block.of( pool );
+		if( findPool( b ) != null )
+		{
+			throw( new IllegalArgumentException( "Pool " + pool.getValue() + " overlaps an existing pool" ) );
+		}
+		Block next = this.pools.ceiling( b );
+		if( ( next != null ) && b.contains( next ) )
+		{
+			throw( new IllegalArgumentException( "Pool " + pool.getValue() + " overlaps an existing pool" ) );
+		}
+		this.pools.add( b );
+		freeList( b ).add( b );
+	}
+
+	/**
+	 *	Allocate the lowest free block of the given size from any pool.
+	 *
+	 *	@param family 4 for IPv4, 6 for IPv6.
+	 *	@param prefixLength The netmask of the block, 32 or 128 for a
+	 *		single host.
+	 *	@return The allocated block or null if there is no room left.
+	 */
+	public synchronized PGcidr allocate( int family, int prefixLength )
+	{
+		boolean ipv6 = checkFamily( family, prefixLength );
+		TreeSet<Block>[] free = ipv6 ? this.free6 : this.free4;
+		for( int len = prefixLength; len >= 0; --len )
+		{
+			if( !free[len].isEmpty() )
+			{
+				return( take( free[len].first(), prefixLength ) );
+			}
+		}
+		return( null );
+	}
+
+	/**
+	 *	Allocate the lowest free block of the given size within a network,
+	 *	which does not need to be one of the pools.
+	 *
+	 *	@param within The network the block must lie in.
+	 *	@param prefixLength The netmask of the block.
+	 *	@return The allocated block or null if there is no room left.
+	 */
+	public synchronized PGcidr allocate( PGcidr within, int prefixLength )
+	{
+		Block range = Block.of( within );
+		checkFamily( within.family(), prefixLength );
+		if( prefixLength < range.len )
+		{
+			return( null );
+		}
+
+		// if a bigger free block holds the whole range, split it down first.
+		for( int len = 0; len < range.len; ++len )
+		{
+			Block outer = range.truncate( len );
+			if( freeList( outer ).contains( outer ) )
+			{
+				freeList( range ).add( carve( outer, range ) );
+				break;
+			}
+		}
+
+		for( int len = prefixLength; len >= range.len; --len )
+		{
+			Block candidate = freeList( range.ipv6, len ).ceiling( range.truncate( len ) );
+			if( ( candidate != null ) && range.contains( candidate ) )
+			{
+				return( take( candidate, prefixLength ) );
+			}
+		}
+		return( null );
+	}
+
+	/**
+	 *	Mark a block as allocated, for example one loaded from the database.
+	 *
+	 *	@param block The block to mark.
+	 *	@return false if any part of the block is already allocated or it
+	 *		does not lie within a pool.
+	 */
+	public synchronized boolean reserve( PGcidr block )
+	{
+		Block target = Block.of( block );
+		for( int len = 0; len <= target.len; ++len )
+		{
+			Block outer = target.truncate( len );
+			if( freeList( outer ).contains( outer ) )
+			{
+				this.allocated.add( carve( outer, target ) );
+				return( true );
+			}
+		}
+		return( false );
+	}
+
+	/**
+	 *	Return a block to the free lists, merging it with its buddies.
+	 *
+	 *	@param block A block returned by allocate() or passed to reserve().
+	 *	@return false if the block was not allocated.
+	 */
+	public synchronized boolean release( PGcidr block )
+	{
+		Block b = Block.of( block );
+		if( !this.allocated.remove( b ) )
+		{
+			return( false );
+		}
+
+		int poolLen = findPool( b ).len;
+		while( b.len > poolLen )
+		{
+			if( !freeList( b ).remove( b.buddy() ) )
+			{
+				break;
+			}
+			b = b.truncate( b.len - 1 );
+		}
+		freeList( b ).add( b );
+		return( true );
+	}
+
+	/**
+	 *	@return The pools, IPv4 first and in address order.
+	 */
+	public synchronized List<PGcidr> getPools()
+	{
+		return( toCidrs( this.pools ) );
+	}
+
+	/**
+	 *	@return The allocated blocks, IPv4 first and in address order.
+	 */
+	public synchronized List<PGcidr> getAllocated()
+	{
+		return( toCidrs( this.allocated ) );
+	}
+
+	/**
+	 *	@return The free blocks, IPv4 first and in address order.
+	 */
+	public synchronized List<PGcidr> getFree()
+	{
+		TreeSet<Block> all = new TreeSet<Block>();
+		for( TreeSet<Block> list : this.free4 )
+		{
+			all.addAll( list );
+		}
+		for( TreeSet<Block> list : this.free6 )
+		{
+			all.addAll( list );
+		}
+		return( toCidrs( all ) );
+	}
+
+	/**
+	 *	Remove a free block, split it down to prefixLength and
+	 *	allocate the first part.
+	 */
+	private PGcidr take( Block from, int prefixLength )
+	{
+		Block b = carve( from, from.truncate( prefixLength ) );
+		this.allocated.add( b );
+		return( b.toCidr() );
+	}
+
+	/**
+	 *	Remove the free block from and split it until target is reached,
+	 *	the halves which do not hold target go back on the free lists.
+	 *
+	 *	@return target, which is not on any list.
+	 */
+	private Block carve( Block from, Block target )
+	{
+		freeList( from ).remove( from );
+		Block b = from;
+		while( b.len < target.len )
+		{
+			Block lower = b.child( false );
+			Block upper = b.child( true );
+			if( upper.contains( target ) )
+			{
+				freeList( lower ).add( lower );
+				b = upper;
+			}
+			else
+			{
+				freeList( upper ).add( upper );
+				b = lower;
+			}
+		}
+		return( b );
+	}
+
+	/**
+	 *	@return The pool holding b, or null.
+	 */
+	private Block findPool( Block b )
+	{
+		Block pool = this.pools.floor( b );
+		if( ( pool != null ) && pool.contains( b ) )
+		{
+			return( pool );
+		}
+		return( null );
+	}
+
+	private TreeSet<Block> freeList( Block b )
+	{
+		return( freeList( b.ipv6, b.len ) );
+	}
+
+	private TreeSet<Block> freeList( boolean ipv6, int len )
+	{
+		return( ipv6 ? this.free6[len] : this.free4[len] );
+	}
+
+	private static boolean checkFamily( int family, int prefixLength )
+	{
+		if( ( family != 4 ) && ( family != 6 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid address family: " + family ) );
+		}
+		if( ( prefixLength < 0 ) || ( prefixLength > ( ( family == 6 ) ? 128 : 32 ) ) )
+		{
+			throw( new IllegalArgumentException( "Invalid prefix length: " + prefixLength ) );
+		}
+		return( family == 6 );
+	}
+
+	private static List<PGcidr> toCidrs( Collection<Block> blocks )
+	{
+		List<PGcidr> result = new ArrayList<PGcidr>( blocks.size() );
+		for( Block b : blocks )
+		{
+			result.add( b.toCidr() );
+		}
+		return( result );
+	}
+
+	/**
+	 *	A network address and prefix length, ordered by family, then
+	 *	address, then prefix length.
+	 */
+	private static final class Block implements Comparable<Block>
+	{
+		final boolean ipv6;
+		final long high;
+		final long low;
+		final int len;
+
+		Block( boolean ipv6, long high, long low, int len )
+		{
+			this.ipv6 = ipv6;
+			this.high = high;
+			this.low = low;
+			this.len = len;
+		}
+
+		static Block of( PGcidr cidr )
+		{
+			return( new Block( cidr.isIPv6(), cidr.getHighWord(), cidr.getLowWord(), cidr.getNetmask() ) );
+		}
+
+		/**
+		 *	The block of length len which holds this one.
+		 */
+		Block truncate( int len )
+		{
+			return( new Block( this.ipv6, this.high & InetBits.maskHigh( len, this.ipv6 ),
+				this.low & InetBits.maskLow( len, this.ipv6 ), len ) );
+		}
+
+		/**
+		 *	The lower or upper half of this block.
+		 */
+		Block child( boolean upper )
+		{
+			if( !upper )
+			{
+				return( new Block( this.ipv6, this.high, this.low, this.len + 1 ) );
+			}
+			return( flip( this.len, this.len + 1 ) );
+		}
+
+		/**
+		 *	The other half of the block one bit shorter than this one.
+		 */
+		Block buddy()
+		{
+			return( flip( this.len - 1, this.len ) );
+		}
+
+		private Block flip( int bit, int newLen )
+		{
+			if( !this.ipv6 )
+			{
+				return( new Block( false, 0L, this.low ^ ( 1L << ( 31 - bit ) ), newLen ) );
+			}
+			if( bit < 64 )
+			{
+				return( new Block( true, this.high ^ ( 1L << ( 63 - bit ) ), this.low, newLen ) );
+			}
+			return( new Block( true, this.high, this.low ^ ( 1L << ( 127 - bit ) ), newLen ) );
+		}
+
+		boolean contains( Block other )
+		{
+			return( ( this.ipv6 == other.ipv6 ) && ( other.len >= this.len ) &&
+				( ( other.high & InetBits.maskHigh( this.len, this.ipv6 ) ) == this.high ) &&
+				( ( other.low & InetBits.maskLow( this.len, this.ipv6 ) ) == this.low ) );
+		}
+
+		PGcidr toCidr()
+		{
+			PGcidr cidr = new PGcidr();
+			cidr.setAddress( InetBits.toBytes( this.ipv6, this.high, this.low ), this.len, false );
+			return( cidr );
+		}
+
+		public int compareTo( Block o )
+		{
+			if( this.ipv6 != o.ipv6 )
+			{
+				return( this.ipv6 ? 1 : -1 );
+			}
+			int c = Long.compareUnsigned( this.high, o.high );
+			if( c == 0 )
+			{
+				c = Long.compareUnsigned( this.low, o.low );
+			}
+			if( c == 0 )
+			{
+				c = this.len - o.len;
+			}
+			return( c );
+		}
+
+		public boolean equals( Object obj )
+		{
+			return( ( obj instanceof Block ) && ( compareTo( (Block)obj ) == 0 ) );
+		}
+
+		public int hashCode()
+		{
+			return( Long.hashCode( this.high ) * 31 + Long.hashCode( this.low ) * 17 + this.len );
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package org.postgresql.net;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+/**
+ *	A Spliterator over the addresses, or the subnets of a given prefix
+ *	length, within a cidr whose addresses all fit in a single word.
+ *
+ *	<p>This covers every IPv4 network, where the values are the unsigned
+ *	32 bit addresses, and IPv6 networks with a netmask of 64 or more,
+ *	where the values are the low words and the high word is that of the
+ *	network.  There are at most 2^62 values, so every address of a /64 or
+ *	/65 needs {@link CidrSpliterator128}, as do larger IPv6 networks.</p>
+ *
+ *	<p>The i-th value is computed as base + (i &lt;&lt; shift), so no object is
+ *	created per address and the range always splits exactly in half.</p>
+ *
+ *	@see PGcidr#spliterator(int)
+ */
+public final class CidrSpliterator implements Spliterator.OfLong
+{
+	private final long base;
+	private final int shift;
+	private final boolean sorted;
+	private long origin;
+	private final long fence;
+
+	/**
+	 *	@param base The first value.
+	 *	@param shift log2 of the distance between two values.
+	 *	@param count The number of values, at most 2^62.
+	 *	@param sorted true if the values do not cross the sign bit.
+	 */
+	CidrSpliterator( long base, int shift, long count, boolean sorted )
+	{
+		this( base, shift, 0L, count, sorted );
+	}
+
+	private CidrSpliterator( long base, int shift, long origin, long fence, boolean sorted )
+	{
+		this.base = base;
+		this.shift = shift;
+		this.origin = origin;
+		this.fence = fence;
+		this.sorted = sorted;
+	}
+
+	public boolean tryAdvance( LongConsumer action )
+	{
+		if( this.origin >= this.fence )
+		{
+			return( false );
+		}
+		action.accept( this.base + ( this.origin++ << this.shift ) );
+		return( true );
+	}
+
+	public void forEachRemaining( LongConsumer action )
+	{
+		long v = this.base + ( this.origin << this.shift );
+		long step = 1L << this.shift;
+		for( long i = this.origin; i < this.fence; ++i )
+		{
+			action.accept( v );
+			v += step;
+		}
+		this.origin = this.fence;
+	}
+
+	public CidrSpliterator trySplit()
+	{
+		long mid = ( this.origin + this.fence ) >>> 1;
+		if( mid <= this.origin )
+		{
+			return( null );
+		}
+		CidrSpliterator prefix = new CidrSpliterator( this.base, this.shift, this.origin, mid, this.sorted );
+		this.origin = mid;
+		return( prefix );
+	}
+
+	public long estimateSize()
+	{
+		return( this.fence - this.origin );
+	}
+
+	public int characteristics()
+	{
+		return( ORDERED | DISTINCT | SIZED | SUBSIZED | NONNULL | IMMUTABLE |
+			( this.sorted ? SORTED : 0 ) );
+	}
+
+	public Comparator<? super Long> getComparator()
+	{
+		if( this.sorted )
+		{
+			return( null );
+		}
+		throw( new IllegalStateException() );
+	}
+}
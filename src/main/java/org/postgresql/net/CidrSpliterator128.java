@@ -0,0 +1,215 @@
+package org.postgresql.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *	The 128 bit counterpart of {@link CidrSpliterator} which can walk
+ *	the addresses, or the subnets of a given prefix length, of any
+ *	network including IPv6 networks shorter than /64.
+ *
+ *	<p>The position is kept as a 128 bit index so a range of any size
+ *	splits exactly in half.  The addresses are handed out in their two
+ *	word form through an {@link AddressConsumer}, since there is no
+ *	primitive 128 bit type to build a java.util.Spliterator on.</p>
+ *
+ *	@see PGcidr#spliterator128(int)
+ */
+public final class CidrSpliterator128
+{
+	/**
+	 *	forEachParallel() stops splitting below this many addresses.
+	 */
+	private static final long PARALLEL_THRESHOLD = 4096;
+
+	private final long baseHigh;
+	private final long baseLow;
+	private final int shift;
+	private long indexHigh;
+	private long indexLow;
+	private final long lastHigh;
+	private final long lastLow;
+	private boolean done;
+
+	/**
+	 *	@param baseHigh The high word of the network address.
+	 *	@param baseLow The low word of the network address.
+	 *	@param shift log2 of the distance between two values, 0 to 128.
+	 *	@param depth log2 of the number of values, 0 to 128.
+	 */
+	CidrSpliterator128( long baseHigh, long baseLow, int shift, int depth )
+	{
+		this( baseHigh, baseLow, shift, 0L, 0L,
+			( depth <= 64 ) ? 0L : ( ( depth == 128 ) ? -1L : ( 1L << ( depth - 64 ) ) - 1 ),
+			( depth >= 64 ) ? -1L : ( 1L << depth ) - 1 );
+	}
+
+	private CidrSpliterator128( long baseHigh, long baseLow, int shift,
+		long indexHigh, long indexLow, long lastHigh, long lastLow )
+	{
+		this.baseHigh = baseHigh;
+		this.baseLow = baseLow;
+		this.shift = shift;
+		this.indexHigh = indexHigh;
+		this.indexLow = indexLow;
+		this.lastHigh = lastHigh;
+		this.lastLow = lastLow;
+	}
+
+	/**
+	 *	Hand the next address to action.
+	 *
+	 *	@param action Receives the address.
+	 *	@return false if there were no addresses left.
+	 */
+	public boolean tryAdvance( AddressConsumer action )
+	{
+		if( this.done )
+		{
+			return( false );
+		}
+		action.accept( this.baseHigh | shiftHigh( this.indexHigh, this.indexLow, this.shift ),
+			this.baseLow | shiftLow( this.indexLow, this.shift ) );
+		if( ( this.indexHigh == this.lastHigh ) && ( this.indexLow == this.lastLow ) )
+		{
+			this.done = true;
+		}
+		else if( ++this.indexLow == 0L )
+		{
+			++this.indexHigh;
+		}
+		return( true );
+	}
+
+	/**
+	 *	Hand all remaining addresses to action in order.
+	 *
+	 *	@param action Receives each address.
+	 */
+	public void forEachRemaining( AddressConsumer action )
+	{
+		while( tryAdvance( action ) )
+		{
+		}
+	}
+
+	/**
+	 *	Hand all remaining addresses to action using the common fork join
+	 *	pool, in no particular order.
+	 *
+	 *	@param action Receives each address, it must be thread safe.
+	 */
+	public void forEachParallel( AddressConsumer action )
+	{
+		ForkJoinPool.commonPool().invoke( new ForEachTask( this, action ) );
+	}
+
+	/**
+	 *	Split off the first half of the remaining addresses.
+	 *
+	 *	@return A spliterator over the first half, or null if there is at
+	 *		most one address left.
+	 */
+	public CidrSpliterator128 trySplit()
+	{
+		if( this.done )
+		{
+			return( null );
+		}
+
+		// remaining = last - index, half = remaining / 2
+		long remLow = this.lastLow - this.indexLow;
+		long remHigh = this.lastHigh - this.indexHigh -
+			( InetBits.unsignedLess( this.lastLow, this.indexLow ) ? 1L : 0L );
+		long halfLow = ( remLow >>> 1 ) | ( remHigh << 63 );
+		long halfHigh = remHigh >>> 1;
+		if( ( remHigh == 0L ) && ( remLow == 0L ) )
+		{
+			return( null );
+		}
+
+		// the prefix covers [index, index + half]
+		long midLow = this.indexLow + halfLow;
+		long midHigh = this.indexHigh + halfHigh + ( InetBits.unsignedLess( midLow, this.indexLow ) ? 1L : 0L );
+		CidrSpliterator128 prefix = new CidrSpliterator128( this.baseHigh, this.baseLow, this.shift,
+			this.indexHigh, this.indexLow, midHigh, midLow );
+
+		this.indexLow = midLow + 1;
+		this.indexHigh = midHigh + ( ( this.indexLow == 0L ) ? 1L : 0L );
+		return( prefix );
+	}
+
+	/**
+	 *	@return The number of addresses left, or Long.MAX_VALUE if that
+	 *		does not fit in a long.
+	 */
+	public long estimateSize()
+	{
+		if( this.done )
+		{
+			return( 0L );
+		}
+		long remLow = this.lastLow - this.indexLow;
+		long remHigh = this.lastHigh - this.indexHigh -
+			( InetBits.unsignedLess( this.lastLow, this.indexLow ) ? 1L : 0L );
+		if( ( remHigh != 0L ) || ( remLow < 0L ) || ( remLow == Long.MAX_VALUE ) )
+		{
+			return( Long.MAX_VALUE );
+		}
+		return( remLow + 1 );
+	}
+
+	private static long shiftHigh( long high, long low, int n )
+	{
+		if( n == 0 )
+		{
+			return( high );
+		}
+		if( n >= 128 )
+		{
+			return( 0L );
+		}
+		if( n >= 64 )
+		{
+			return( low << ( n - 64 ) );
+		}
+		return( ( high << n ) | ( low >>> ( 64 - n ) ) );
+	}
+
+	private static long shiftLow( long low, int n )
+	{
+		return( ( n >= 64 ) ? 0L : low << n );
+	}
+
+	private static final class ForEachTask extends RecursiveAction
+	{
+		private final CidrSpliterator128 spliterator;
+		private final AddressConsumer action;
+
+		ForEachTask( CidrSpliterator128 spliterator, AddressConsumer action )
+		{
+			this.spliterator = spliterator;
+			this.action = action;
+		}
+
+		protected void compute()
+		{
+			CidrSpliterator128 rest = this.spliterator;
+			List<ForEachTask> forked = new ArrayList<ForEachTask>();
+			CidrSpliterator128 prefix;
+			while( ( rest.estimateSize() > PARALLEL_THRESHOLD ) && ( ( prefix = rest.trySplit() ) != null ) )
+			{
+				ForEachTask task = new ForEachTask( prefix, this.action );
+				task.fork();
+				forked.add( task );
+			}
+			rest.forEachRemaining( this.action );
+			for( ForEachTask task : forked )
+			{
+				task.join();
+			}
+		}
+	}
+}
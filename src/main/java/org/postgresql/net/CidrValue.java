@@ -0,0 +1,99 @@
+package org.postgresql.net;
+
+import java.io.ObjectStreamException;
+import java.sql.SQLException;
+
+/**
+ *	An immutable cidr value which can be shared between threads and
+ *	used as a key in shared caches without copying.
+ *
+ *	<p>Use {@link #of(PGcidr)} and {@link #toPGcidr()} to move between this
+ *	and the mutable PGcidr used with JDBC, neither goes through the
+ *	string parser.</p>
+ */
+public final class CidrValue extends NetworkValue
+{
+	private CidrValue( boolean ipv6, long high, long low, int netmask, boolean embeddedIPv4, String text )
+	{
+		super( ipv6, high, low, netmask, embeddedIPv4, text );
+		if( ( ( high & ~InetBits.maskHigh( netmask, ipv6 ) ) != 0L ) ||
+			( ( low & ~InetBits.maskLow( netmask, ipv6 ) ) != 0L ) )
+		{
+			throw( new IllegalArgumentException( "Host bits are not all zero in " + getValue() ) );
+		}
+	}
+
+	/**
+	 *	Take an immutable snapshot of a PGcidr.
+	 *
+	 *	@param cidr The value to copy.
+	 *	@return A new CidrValue equal to cidr.
+	 */
+	public static CidrValue of( PGcidr cidr )
+	{
+		cidr.resolve();
+		return( new CidrValue( cidr.isIPv6(), cidr.getHighWord(), cidr.getLowWord(),
+			cidr.netmask, cidr.embedded_ipv4, cidr.formattedText() ) );
+	}
+
+	/**
+	 *	Parse a cidr value.
+	 *
+	 *	@param s The value in any format accepted by PGcidr.
+	 *	@return A new CidrValue.
+	 *	@exception SQLException If the string is not a valid cidr.
+	 */
+	public static CidrValue valueOf( String s )
+	throws SQLException
+	{
+		return( of( new PGcidr( s ) ) );
+	}
+
+	/**
+	 *	@param address The 32 bits of an IPv4 network address.
+	 *	@param netmask The netmask, 0 to 32.
+	 *	@return A new CidrValue.
+	 *	@exception IllegalArgumentException If bits to the right of the
+	 *		netmask are set.
+	 */
+	public static CidrValue ofIPv4( int address, int netmask )
+	{
+		return( new CidrValue( false, 0L, address & 0xFFFFFFFFL, netmask, false, null ) );
+	}
+
+	/**
+	 *	@param high The first 64 bits of an IPv6 network address.
+	 *	@param low The last 64 bits of an IPv6 network address.
+	 *	@param netmask The netmask, 0 to 128.
+	 *	@return A new CidrValue.
+	 *	@exception IllegalArgumentException If bits to the right of the
+	 *		netmask are set.
+	 */
+	public static CidrValue ofIPv6( long high, long low, int netmask )
+	{
+		return( new CidrValue( true, high, low, netmask, false, null ) );
+	}
+
+	/**
+	 *	@return A new PGcidr equal to this value.
+	 */
+	public PGcidr toPGcidr()
+	{
+		return( copyTo( new PGcidr() ) );
+	}
+
+	private Object writeReplace()
+	throws ObjectStreamException
+	{
+		return( CompactForm.of( this, InetCompactCodec.KIND_CIDR ) );
+	}
+
+	/**
+	 *	@param obj The object to compare with.
+	 *	@return true if obj is a CidrValue for the same network.
+	 */
+	public boolean equals( Object obj )
+	{
+		return( ( obj instanceof CidrValue ) && sameAddress( (CidrValue)obj ) );
+	}
+}
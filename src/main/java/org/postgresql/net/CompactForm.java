@@ -0,0 +1,116 @@
+package org.postgresql.net;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import org.postgresql.util.PGobject;
+
+/**
+ *	The serialized form of the network types.  Each class returns one of
+ *	these from writeReplace() so the stream holds the few bytes of the
+ *	{@link InetCompactCodec} encoding rather than the default field by
+ *	field form, and readResolve() turns it back in to the original type.
+ */
+final class CompactForm implements Externalizable
+{
+	private static final long serialVersionUID = 1L;
+
+	private byte[] encoded;
+	private Object value;
+
+	/**
+	 *	Only for Externalizable.
+	 */
+	public CompactForm()
+	{
+	}
+
+	CompactForm( byte[] encoded )
+	{
+		this.encoded = encoded;
+	}
+
+	static CompactForm of( PGobject value )
+	{
+		return( new CompactForm( InetCompactCodec.encode( value ) ) );
+	}
+
+	static CompactForm of( NetworkValue value, int kind )
+	{
+		byte[] addr = value.getBytes();
+		ByteBuffer dst = ByteBuffer.allocate( InetCompactCodec.encodedSize( value.ipv6, value.netmask ) );
+		InetCompactCodec.encodeNetwork( dst, kind, addr, value.netmask, value.embeddedIPv4 );
+		dst.put( 0, (byte)( dst.get( 0 ) | InetCompactCodec.FLAG_VALUE ) );
+		return( new CompactForm( dst.array() ) );
+	}
+
+	static CompactForm of( MacaddrValue value )
+	{
+		ByteBuffer dst = ByteBuffer.allocate( 7 );
+		dst.put( (byte)( InetCompactCodec.KIND_MACADDR | InetCompactCodec.FLAG_VALUE ) );
+		dst.put( value.getBytes() );
+		return( new CompactForm( dst.array() ) );
+	}
+
+	public void writeExternal( ObjectOutput out )
+	throws IOException
+	{
+		out.write( this.encoded );
+	}
+
+	public void readExternal( ObjectInput in )
+	throws IOException
+	{
+		int header = in.readUnsignedByte();
+		int length = InetCompactCodec.encodedSize( header );
+		byte[] b = new byte[ length ];
+		b[0] = (byte)header;
+		in.readFully( b, 1, length - 1 );
+		this.value = decode( b );
+	}
+
+	private Object readResolve()
+	throws ObjectStreamException
+	{
+		return( this.value );
+	}
+
+	private static Object decode( byte[] b )
+	throws InvalidObjectException
+	{
+		try
+		{
+			ByteBuffer src = ByteBuffer.wrap( b );
+			int header = src.get() & 0xFF;
+			if( ( header & InetCompactCodec.FLAG_RESERVED ) != 0 )
+			{
+				throw( InetCompactCodec.invalid( "header " + header ) );
+			}
+			PGobject value = InetCompactCodec.decodeBody( src, header );
+			if( ( header & InetCompactCodec.FLAG_VALUE ) == 0 )
+			{
+				return( value );
+			}
+			if( value instanceof PGmacaddr )
+			{
+				return( MacaddrValue.of( (PGmacaddr)value ) );
+			}
+			if( value instanceof PGcidr )
+			{
+				return( CidrValue.of( (PGcidr)value ) );
+			}
+			return( InetValue.of( (PGinet)value ) );
+		}
+		catch( SQLException e )
+		{
+			InvalidObjectException ioe = new InvalidObjectException( e.getMessage() );
+			ioe.initCause( e );
+			throw( ioe );
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.postgresql.net;
+
+import java.sql.SQLException;
+
+/**
+ *	The handling of text given to a lazy type, which keeps the text and
+ *	only parses it on first use.  PGNetworkBase and PGmacaddr each hold
+ *	the text in a field of their own and have one instance of this which
+ *	reaches their fields, so the lazy subclasses are left with thin
+ *	overrides which reach the parser of the class they extend.
+ *
+ *	<p>getValue() returns the text as it was given, before and after it
+ *	is parsed.  Text which fails to parse is kept, so every later use
+ *	fails the same way.</p>
+ */
+abstract class DeferredText<T>
+{
+	/**
+	 *	@return The text held back by value, null if there is none.
+	 */
+	abstract String pending( T value );
+
+	/**
+	 *	Clear the fields of value and keep v as the pending text and the
+	 *	text getValue() returns.
+	 */
+	abstract void defer( T value, String v );
+
+	/**
+	 *	Run the real parser of value on v.
+	 */
+	abstract void parse( T value, String v )
+	throws SQLException;
+
+	/**
+	 *	Keep v as the text getValue() returns once value has parsed it.
+	 */
+	abstract void parsed( T value, String v );
+
+	/**
+	 *	Parse the text held back by value, if any.
+	 *
+	 *	@exception IllegalStateException If the text is not valid, with
+	 *		the SQLException from the parser as its cause.
+	 */
+	final void resolve( T value )
+	{
+		if( pending( value ) != null )
+		{
+			try
+			{
+				resolveChecked( value );
+			}
+			catch( SQLException e )
+			{
+				throw( new IllegalStateException( e.getMessage(), e ) );
+			}
+		}
+	}
+
+	/**
+	 *	Parse the text held back by value, if any.
+	 *
+	 *	@exception SQLException If the text is not valid.
+	 */
+	final void resolveChecked( T value )
+	throws SQLException
+	{
+		String v = pending( value );
+		if( v != null )
+		{
+			try
+			{
+				parse( value, v );
+			}
+			catch( SQLException e )
+			{
+				defer( value, v );
+				throw( e );
+			}
+			parsed( value, v );
+		}
+	}
+}
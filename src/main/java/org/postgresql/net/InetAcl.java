@@ -0,0 +1,508 @@
+package org.postgresql.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *	An ordered list of rules matching source and destination prefixes,
+ *	compiled for first match evaluation in time bounded by the address
+ *	width rather than the number of rules.
+ *
+ *	<p>Each rule holds a set of source prefixes, a set of destination
+ *	prefixes and an action.  A connection matches a rule when its source
+ *	is inside one of the rule's source prefixes and its destination is
+ *	inside one of its destination prefixes; an empty set matches any
+ *	address of either family.  The first rule that matches decides.</p>
+ *
+ *	<pre>
+ *	InetAcl acl = new InetAcl.Builder()
+ *		.add( DENY, new PGcidr[]{ new PGcidr( "10.1.0.0/16" ) }, null )
+ *		.add( ALLOW, new PGcidr[]{ new PGcidr( "10.0.0.0/8" ) }, new PGcidr[]{ new PGcidr( "192.168.0.0/16" ) } )
+ *		.build();
+ *	int action = acl.evaluate( source, destination, DENY );
+ *	</pre>
+ *
+ *	<p>Each of the two dimensions is compiled in to a binary trie per
+ *	family.  Every trie node is labelled with the set of rules whose
+ *	prefixes in that dimension cover it, as a bitset in rule order.  The
+ *	bitsets are interned, so nodes with the same set of rules share one.
+ *	A lookup walks each trie along the address, at most 32 or 128 steps,
+ *	and intersects the two bitsets it ends on; the lowest common bit is
+ *	the first matching rule.  Each bitset carries a summary with a bit
+ *	per word that is not zero, and only the words set in both summaries
+ *	are intersected, so sparse rule sets are cheap to compare.
+ *	An InetAcl is immutable and safe to share between threads.</p>
+ */
+public final class InetAcl
+{
+	private final int[] actions;
+	private final Dimension sources;
+	private final Dimension destinations;
+
+	private InetAcl( int[] actions, Dimension sources, Dimension destinations )
+	{
+		this.actions = actions;
+		this.sources = sources;
+		this.destinations = destinations;
+	}
+
+	/**
+	 *	@return The number of rules.
+	 */
+	public int size()
+	{
+		return( this.actions.length );
+	}
+
+	/**
+	 *	@param rule The index of a rule, in the order it was added.
+	 *	@return The action of the rule.
+	 */
+	public int getAction( int rule )
+	{
+		return( this.actions[rule] );
+	}
+
+	/**
+	 *	@return The number of distinct rule sets the source and destination
+	 *		tries are labelled with.
+	 */
+	public int getClassCount()
+	{
+		return( this.sources.classes.length + this.destinations.classes.length );
+	}
+
+	/**
+	 *	Find the action for a connection.
+	 *
+	 *	@param source The source address, its netmask is ignored.
+	 *	@param destination The destination address, its netmask is
+	 *		ignored.
+	 *	@param defaultAction The action when no rule matches.
+	 *	@return The action of the first matching rule, or defaultAction.
+	 */
+	public int evaluate( PGinet source, PGinet destination, int defaultAction )
+	{
+		int rule = firstMatch( source, destination );
+		return( ( rule < 0 ) ? defaultAction : this.actions[rule] );
+	}
+
+	/**
+	 *	Find the first rule matching a connection.
+	 *
+	 *	@param source The source address, its netmask is ignored.
+	 *	@param destination The destination address, its netmask is
+	 *		ignored.
+	 *	@return The index of the first matching rule, -1 if none does.
+	 */
+	public int firstMatch( PGinet source, PGinet destination )
+	{
+		source.resolve();
+		destination.resolve();
+		return( firstMatch( source.isIPv6(), source.getHighWord(), source.getLowWord(),
+			destination.isIPv6(), destination.getHighWord(), destination.getLowWord() ) );
+	}
+
+	/**
+	 *	Find the first rule matching a connection given as words.
+	 *
+	 *	@param sourceIPv6 true for a 128 bit source address.
+	 *	@param sourceHigh The first 64 bits of an IPv6 source, 0 for IPv4.
+	 *	@param sourceLow The last 64 bits of an IPv6 source, or the 32 bits
+	 *		of an IPv4 source.
+	 *	@param destinationIPv6 true for a 128 bit destination address.
+	 *	@param destinationHigh The first 64 bits of an IPv6 destination, 0
+	 *		for IPv4.
+	 *	@param destinationLow The last 64 bits of an IPv6 destination, or
+	 *		the 32 bits of an IPv4 destination.
+	 *	@return The index of the first matching rule, -1 if none does.
+	 */
+	public int firstMatch( boolean sourceIPv6, long sourceHigh, long sourceLow,
+		boolean destinationIPv6, long destinationHigh, long destinationLow )
+	{
+		int a = this.sources.lookup( sourceIPv6, sourceHigh, sourceLow );
+		int b = this.destinations.lookup( destinationIPv6, destinationHigh, destinationLow );
+		long[] x = this.sources.classes[a];
+		long[] y = this.destinations.classes[b];
+		long[] sx = this.sources.summaries[a];
+		long[] sy = this.destinations.summaries[b];
+		for( int s = 0; s < sx.length; ++s )
+		{
+			// only the words both rule sets have bits in
+			for( long candidates = sx[s] & sy[s]; candidates != 0L; candidates &= candidates - 1L )
+			{
+				int w = ( s << 6 ) + Long.numberOfTrailingZeros( candidates );
+				long both = x[w] & y[w];
+				if( both != 0L )
+				{
+					return( ( w << 6 ) + Long.numberOfTrailingZeros( both ) );
+				}
+			}
+		}
+		return( -1 );
+	}
+
+	/**
+	 *	Gathers rules in order and compiles them.  A builder is not thread
+	 *	safe.
+	 */
+	public static final class Builder
+	{
+		private final List<PGcidr[]> sources = new ArrayList<PGcidr[]>();
+		private final List<PGcidr[]> destinations = new ArrayList<PGcidr[]>();
+		private int[] actions = new int[ 16 ];
+
+		/**
+		 *	Add a rule after those already added.
+		 *
+		 *	@param action The action, returned when the rule is the first to
+		 *		match.
+		 *	@param sourcePrefixes The source prefixes, null or empty to match
+		 *		any source.
+		 *	@param destinationPrefixes The destination prefixes, null or
+		 *		empty to match any destination.
+		 *	@return this.
+		 */
+		public Builder add( int action, PGcidr[] sourcePrefixes, PGcidr[] destinationPrefixes )
+		{
+			int n = this.sources.size();
+			if( n == this.actions.length )
+			{
+				this.actions = Arrays.copyOf( this.actions, n * 2 );
+			}
+			this.actions[n] = action;
+			this.sources.add( check( sourcePrefixes ) );
+			this.destinations.add( check( destinationPrefixes ) );
+			return( this );
+		}
+
+		/**
+		 *	@return The number of rules added.
+		 */
+		public int size()
+		{
+			return( this.sources.size() );
+		}
+
+		/**
+		 *	Compile the rules added so far.
+		 *
+		 *	@return The compiled list.
+		 */
+		public InetAcl build()
+		{
+			Object event = NetworkEvents.begin( NetworkEvents.PREFIX_TABLE_BUILD );
+			int n = this.sources.size();
+			InetAcl acl = new InetAcl( Arrays.copyOf( this.actions, n ),
+				new Dimension( this.sources ), new Dimension( this.destinations ) );
+			NetworkEvents.end( event, n, 0L );
+			return( acl );
+		}
+
+		private static PGcidr[] check( PGcidr[] prefixes )
+		{
+			if( prefixes == null )
+			{
+				return( new PGcidr[ 0 ] );
+			}
+			// copies, so later changes to the caller's values do not reach the rules
+			PGcidr[] copy = new PGcidr[ prefixes.length ];
+			for( int i = 0; i < prefixes.length; ++i )
+			{
+				if( prefixes[i] == null )
+				{
+					throw( new IllegalArgumentException( "A rule prefix can not be null" ) );
+				}
+				copy[i] = new PGcidr( prefixes[i] );
+				copy[i].resolve();
+				if( copy[i].addr == null )
+				{
+					throw( new IllegalArgumentException( "A rule prefix can not be SQL NULL" ) );
+				}
+			}
+			return( copy );
+		}
+	}
+
+	/**
+	 *	The compiled tries and rule sets of one of the two addresses.
+	 */
+	private static final class Dimension
+	{
+		final long[][] classes;
+		/** A bit for each non zero word of each class. */
+		final long[][] summaries;
+		private final Trie ipv4;
+		private final Trie ipv6;
+
+		Dimension( List<PGcidr[]> rules )
+		{
+			int words = Math.max( 1, ( rules.size() + 63 ) >>> 6 );
+			long[] any = new long[ words ];
+			this.ipv4 = new Trie( 32 );
+			this.ipv6 = new Trie( 128 );
+			for( int r = 0; r < rules.size(); ++r )
+			{
+				PGcidr[] prefixes = rules.get( r );
+				if( prefixes.length == 0 )
+				{
+					any[r >>> 6] |= 1L << r;
+				}
+				for( PGcidr prefix : prefixes )
+				{
+					Trie trie = prefix.isIPv6() ? this.ipv6 : this.ipv4;
+					trie.insert( prefix.getHighWord(), prefix.getLowWord(), prefix.getNetmask(), r, words );
+				}
+			}
+			Map<Bits, Integer> interned = new HashMap<Bits, Integer>();
+			List<long[]> sets = new ArrayList<long[]>();
+			this.ipv4.compile( any, interned, sets );
+			this.ipv6.compile( any, interned, sets );
+			this.classes = sets.toArray( new long[ sets.size() ][] );
+			this.summaries = new long[ this.classes.length ][];
+			for( int c = 0; c < this.classes.length; ++c )
+			{
+				this.summaries[c] = new long[ ( words + 63 ) >>> 6 ];
+				for( int w = 0; w < words; ++w )
+				{
+					if( this.classes[c][w] != 0L )
+					{
+						this.summaries[c][w >>> 6] |= 1L << w;
+					}
+				}
+			}
+		}
+
+		int lookup( boolean v6, long high, long low )
+		{
+			return( v6 ? this.ipv6.lookup( high, low ) : this.ipv4.lookup( low << 32, 0L ) );
+		}
+	}
+
+	/**
+	 *	A prefix trie, built as a binary trie and then expanded in to a
+	 *	multibit trie for lookups.
+	 *
+	 *	<p>While building, node 0 is the root and the children of node i
+	 *	are child[2i] and child[2i + 1], 0 where there is none.  Once every
+	 *	node is labelled it is expanded a stride at a time, 8 bits for the
+	 *	first two levels and 4 after that, so an IPv4 lookup reads at most
+	 *	six entries and an IPv6 lookup thirty.  An expanded node is a run of
+	 *	entries in next and leaf, one per value of its stride; next holds
+	 *	the offset of the node below, 0 for none, and leaf the class of the
+	 *	deepest prefix on the path to the entry.</p>
+	 */
+	private static final class Trie
+	{
+		private final int width;
+		private int[] child = new int[ 64 ];
+		private long[][] own = new long[ 32 ][];
+		/** The class of the rules covering each binary node. */
+		private int[] label;
+		private int nodes = 1;
+		private int[] next;
+		private int[] leaf;
+		private int entries;
+
+		Trie( int width )
+		{
+			this.width = width;
+		}
+
+		void insert( long high, long low, int bits, int rule, int words )
+		{
+			if( this.width == 32 )
+			{
+				high = low << 32;
+				low = 0L;
+			}
+			int node = 0;
+			for( int i = 0; i < bits; ++i )
+			{
+				int slot = 2 * node + bit( high, low, i );
+				if( this.child[slot] == 0 )
+				{
+					if( this.nodes == this.own.length )
+					{
+						this.own = Arrays.copyOf( this.own, this.nodes * 2 );
+						this.child = Arrays.copyOf( this.child, this.nodes * 4 );
+					}
+					this.child[slot] = this.nodes++;
+				}
+				node = this.child[slot];
+			}
+			if( this.own[node] == null )
+			{
+				this.own[node] = new long[ words ];
+			}
+			this.own[node][rule >>> 6] |= 1L << rule;
+		}
+
+		/**
+		 *	Label every node with the interned union of its own rules and
+		 *	those of its ancestors, then expand the trie.
+		 */
+		void compile( long[] any, Map<Bits, Integer> interned, List<long[]> sets )
+		{
+			this.label = new int[ this.nodes ];
+			label( 0, any, intern( any, interned, sets ), interned, sets );
+			this.own = null;
+			this.next = new int[ 256 ];
+			this.leaf = new int[ 256 ];
+			this.entries = 256;
+			expand( 0, 0, 0 );
+			this.next = Arrays.copyOf( this.next, this.entries );
+			this.leaf = Arrays.copyOf( this.leaf, this.entries );
+			this.child = null;
+			this.label = null;
+		}
+
+		private void label( int node, long[] inherited, int inheritedClass, Map<Bits, Integer> interned, List<long[]> sets )
+		{
+			long[] set = inherited;
+			int c = inheritedClass;
+			if( this.own[node] != null )
+			{
+				set = inherited.clone();
+				for( int w = 0; w < set.length; ++w )
+				{
+					set[w] |= this.own[node][w];
+				}
+				c = intern( set, interned, sets );
+			}
+			this.label[node] = c;
+			for( int b = 0; b < 2; ++b )
+			{
+				if( this.child[2 * node + b] != 0 )
+				{
+					label( this.child[2 * node + b], set, c, interned, sets );
+				}
+			}
+		}
+
+		private static int intern( long[] set, Map<Bits, Integer> interned, List<long[]> sets )
+		{
+			Bits key = new Bits( set );
+			Integer c = interned.get( key );
+			if( c == null )
+			{
+				c = Integer.valueOf( sets.size() );
+				interned.put( key, c );
+				sets.add( set );
+			}
+			return( c.intValue() );
+		}
+
+		private static int stride( int depth )
+		{
+			return( ( depth < 16 ) ? 8 : 4 );
+		}
+
+		/**
+		 *	Fill the expanded node at base from the binary node at the given
+		 *	depth.
+		 */
+		private void expand( int base, int node, int depth )
+		{
+			fill( base, node, depth, 0, stride( depth ) );
+		}
+
+		/**
+		 *	Fill the entries of an expanded node below a binary node reached
+		 *	after taking the given bits of the stride.
+		 */
+		private void fill( int base, int node, int depth, int path, int left )
+		{
+			if( left == 0 )
+			{
+				this.leaf[base + path] = this.label[node];
+				if( ( depth < this.width ) && ( ( this.child[2 * node] | this.child[2 * node + 1] ) != 0 ) )
+				{
+					int size = 1 << stride( depth );
+					if( this.entries + size > this.next.length )
+					{
+						this.next = Arrays.copyOf( this.next, Math.max( this.entries + size, this.next.length * 2 ) );
+						this.leaf = Arrays.copyOf( this.leaf, this.next.length );
+					}
+					int below = this.entries;
+					this.entries += size;
+					this.next[base + path] = below;
+					expand( below, node, depth );
+				}
+				return;
+			}
+			for( int b = 0; b < 2; ++b )
+			{
+				int c = this.child[2 * node + b];
+				int p = ( path << 1 ) | b;
+				if( c != 0 )
+				{
+					fill( base, c, depth + 1, p, left - 1 );
+				}
+				else
+				{
+					// every entry under a missing child gets this node's rules
+					int span = 1 << ( left - 1 );
+					Arrays.fill( this.leaf, base + p * span, base + ( p + 1 ) * span, this.label[node] );
+				}
+			}
+		}
+
+		/**
+		 *	@return The class of the deepest prefix on the path of an
+		 *		address, IPv4 addresses are given in the top of the high word.
+		 */
+		int lookup( long high, long low )
+		{
+			int[] n = this.next;
+			int e = (int)( high >>> 56 );
+			int below = n[e];
+			if( below == 0 )
+			{
+				return( this.leaf[e] );
+			}
+			e = below + ( (int)( high >>> 48 ) & 0xFF );
+			int depth = 16;
+			while( ( below = n[e] ) != 0 )
+			{
+				long word = ( depth < 64 ) ? high : low;
+				e = below + ( (int)( word >>> ( 60 - ( depth & 63 ) ) ) & 0xF );
+				depth += 4;
+			}
+			return( this.leaf[e] );
+		}
+
+		private static int bit( long high, long low, int i )
+		{
+			return( (int)( ( ( i < 64 ) ? high << i : low << ( i - 64 ) ) >>> 63 ) );
+		}
+	}
+
+	/**
+	 *	A rule set as a hash key.
+	 */
+	private static final class Bits
+	{
+		private final long[] words;
+		private final int hash;
+
+		Bits( long[] words )
+		{
+			this.words = words;
+			this.hash = Arrays.hashCode( words );
+		}
+
+		public int hashCode()
+		{
+			return( this.hash );
+		}
+
+		public boolean equals( Object o )
+		{
+			return( ( o instanceof Bits ) && Arrays.equals( this.words, ( (Bits)o ).words ) );
+		}
+	}
+}
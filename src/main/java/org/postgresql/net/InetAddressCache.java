@@ -0,0 +1,113 @@
+package org.postgresql.net;
+
+import java.net.InetAddress;
+
+/**
+ *	A small cache for turning the InetAddress of a socket peer in to an
+ *	inet value.  The conversion itself is cheap, see
+ *	{@link PGinet#PGinet(InetAddress)}, but the value is usually formatted
+ *	straight away to be sent to the server, and the same few peers tend
+ *	to come back again and again.  A hit returns a copy carrying the text
+ *	and hash code formatted the first time.
+ *
+ *	<p>The cache is direct mapped: each address has one slot and a new
+ *	address simply replaces whatever was there.  Slots hold immutable
+ *	entries, so the cache can be shared between threads without locking;
+ *	two threads racing for a slot only cost a miss.</p>
+ */
+public final class InetAddressCache
+{
+	/**
+	 *	The default number of slots.
+	 */
+	public static final int DEFAULT_SIZE = 256;
+
+	private static final class Entry
+	{
+		final InetAddress address;
+		final InetValue value;
+
+		Entry( InetAddress address, InetValue value )
+		{
+			this.address = address;
+			this.value = value;
+		}
+	}
+
+	private final Entry[] entries;
+	private final int mask;
+
+	/**
+	 *	Create a cache with the default number of slots.
+	 */
+	public InetAddressCache()
+	{
+		this( DEFAULT_SIZE );
+	}
+
+	/**
+	 *	Create a cache.
+	 *
+	 *	@param size The number of slots, rounded up to a power of two.
+	 */
+	public InetAddressCache( int size )
+	{
+		if( ( size < 1 ) || ( size > ( 1 << 20 ) ) )
+		{
+			throw( new IllegalArgumentException( "Invalid cache size: " + size ) );
+		}
+		int slots = 1;
+		while( slots < size )
+		{
+			slots <<= 1;
+		}
+		this.entries = new Entry[ slots ];
+		this.mask = slots - 1;
+	}
+
+	/**
+	 *	@param address The address, null gives null.
+	 *	@return The shared immutable value of the address, as
+	 *		{@link InetValue#of(InetAddress)}.
+	 */
+	public InetValue toInetValue( InetAddress address )
+	{
+		if( address == null )
+		{
+			return( null );
+		}
+		// InetAddress.equals() compares the address bytes only.
+		int slot = (int)InetBits.fmix( address.hashCode() ) & this.mask;
+		Entry entry = this.entries[slot];
+		if( ( entry != null ) && entry.address.equals( address ) )
+		{
+			return( entry.value );
+		}
+		InetValue value = InetValue.of( address );
+		value.getValue();
+		this.entries[slot] = new Entry( address, value );
+		return( value );
+	}
+
+	/**
+	 *	@param address The address, null gives null.
+	 *	@return A new PGinet equal to new PGinet( address ), with its text
+	 *		and hash code already filled in.
+	 */
+	public PGinet toPGinet( InetAddress address )
+	{
+		InetValue value = toInetValue( address );
+		return( ( value == null ) ? null : value.toPGinet() );
+	}
+
+	/**
+	 *	Empty the cache.
+	 */
+	public void clear()
+	{
+		for( int i = 0; i < this.entries.length; ++i )
+		{
+			this.entries[i] = null;
+		}
+	}
+}
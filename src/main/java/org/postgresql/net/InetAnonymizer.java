@@ -0,0 +1,374 @@
+package org.postgresql.net;
+
+import java.security.GeneralSecurityException;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ *	Prefix preserving anonymization of addresses, the Crypto-PAn scheme
+ *	of Xu, Fan, Ammar and Moon.  Two addresses sharing a prefix of n bits
+ *	map to two addresses sharing a prefix of exactly n bits, so subnet
+ *	structure survives while the addresses themselves do not.  The
+ *	mapping is a permutation fixed by a 32 byte key: the first half is
+ *	the AES key, the second half is encrypted to make the padding.
+ *
+ *	<p>Bit i of the result is bit i of the address flipped by the first
+ *	bit of AES applied to the first i bits of the address followed by
+ *	the padding.  IPv4 is the original scheme and gives the same results
+ *	as the reference implementation; IPv6 uses the same construction over
+ *	128 bits.</p>
+ *
+ *	<p>That is one AES call per bit, so the flips found for the prefixes
+ *	of every whole number of bytes are kept in a direct mapped cache.  An
+ *	address starts from the longest cached prefix it has, so a repeated
+ *	address costs nothing and a new address in a known /24 costs eight
+ *	calls instead of 32.  Netmasks are kept; a cidr is anonymized as its
+ *	network address and masked again, which keeps it consistent with the
+ *	addresses inside it.</p>
+ *
+ *	<p>An anonymizer is not thread safe, use {@link #copy()} for each
+ *	thread.  The batch method {@link #anonymize(InetColumn)} does this
+ *	itself, with a cache per thread.</p>
+ */
+public final class InetAnonymizer
+{
+	/**
+	 *	The default number of cache entries.
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 1 << 16;
+
+	private final byte[] key;
+	private final long padHigh;
+	private final long padLow;
+	private final Cipher cipher;
+	private final byte[] block = new byte[ 16 ];
+	private final byte[] out = new byte[ 16 ];
+	private final int mask;
+	private final long[] keyHigh;
+	private final long[] keyLow;
+	/** The prefix length of each entry, 0 for an empty entry. */
+	private final byte[] keyBits;
+	private final long[] flipHigh;
+	private final long[] flipLow;
+	private long cipherCalls;
+	/** The result of the last call to flips(). */
+	private long flipsHigh;
+	private long flipsLow;
+
+	/**
+	 *	Create an anonymizer with the default cache size.
+	 *
+	 *	@param key The 32 byte key.
+	 */
+	public InetAnonymizer( byte[] key )
+	{
+		this( key, DEFAULT_CACHE_SIZE );
+	}
+
+	/**
+	 *	Create an anonymizer.
+	 *
+	 *	@param key The 32 byte key.
+	 *	@param cacheSize The number of prefixes to cache, rounded up to a
+	 *		power of two.  Each takes 33 bytes.
+	 */
+	public InetAnonymizer( byte[] key, int cacheSize )
+	{
+		if( ( key == null ) || ( key.length != 32 ) )
+		{
+			throw( new IllegalArgumentException( "The key must be 32 bytes" ) );
+		}
+		if( ( cacheSize < 1 ) || ( cacheSize > ( 1 << 30 ) ) )
+		{
+			throw( new IllegalArgumentException( "Invalid cache size: " + cacheSize ) );
+		}
+		this.key = key.clone();
+		this.cipher = cipher( this.key );
+		System.arraycopy( this.key, 16, this.block, 0, 16 );
+		encrypt();
+		this.padHigh = InetBits.readLong( this.out, 0 );
+		this.padLow = InetBits.readLong( this.out, 8 );
+		int size = 1;
+		while( size < cacheSize )
+		{
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.keyHigh = new long[ size ];
+		this.keyLow = new long[ size ];
+		this.keyBits = new byte[ size ];
+		this.flipHigh = new long[ size ];
+		this.flipLow = new long[ size ];
+	}
+
+	/**
+	 *	@return A new anonymizer with the same key and cache size and an
+	 *		empty cache, for use on another thread.
+	 */
+	public InetAnonymizer copy()
+	{
+		return( new InetAnonymizer( this.key, this.mask + 1 ) );
+	}
+
+	/**
+	 *	@return The number of AES calls made so far, a measure of how well
+	 *		the cache is doing.
+	 */
+	public long getCipherCalls()
+	{
+		return( this.cipherCalls );
+	}
+
+	/**
+	 *	@param address An IPv4 address.
+	 *	@return The anonymized address.
+	 */
+	public int anonymizeIPv4( int address )
+	{
+		long aligned = (long)address << 32;
+		flips( false, aligned, 0L );
+		return( (int)( ( aligned ^ this.flipsHigh ) >>> 32 ) );
+	}
+
+	/**
+	 *	@param value A value, null gives null.
+	 *	@return A new PGinet holding the anonymized address with the same
+	 *		netmask.
+	 */
+	public PGinet anonymize( PGinet value )
+	{
+		if( value == null )
+		{
+			return( null );
+		}
+		InetCursor cursor = new InetCursor();
+		cursor.set( value );
+		anonymize( cursor );
+		return( cursor.toPGinet() );
+	}
+
+	/**
+	 *	@param value A value, null gives null.
+	 *	@return A new PGcidr holding the anonymized network with the same
+	 *		netmask.
+	 */
+	public PGcidr anonymize( PGcidr value )
+	{
+		if( value == null )
+		{
+			return( null );
+		}
+		value.resolve();
+		if( value.addr == null )
+		{
+			return( new PGcidr() );
+		}
+		boolean ipv6 = value.isIPv6();
+		int bits = value.getNetmask();
+		long[] result = anonymize( ipv6, value.getHighWord(), value.getLowWord() );
+		PGcidr cidr = new PGcidr();
+		cidr.setAddress( InetBits.toBytes( ipv6, result[0] & InetBits.maskHigh( bits, ipv6 ),
+			result[1] & InetBits.maskLow( bits, ipv6 ) ), bits, false );
+		return( cidr );
+	}
+
+	/**
+	 *	Anonymize the value in a cursor in place, keeping its netmask.
+	 *
+	 *	@param cursor The cursor, SQL NULL is left alone.
+	 */
+	public void anonymize( InetCursor cursor )
+	{
+		if( cursor.isNull() )
+		{
+			return;
+		}
+		if( cursor.isIPv6() )
+		{
+			long[] result = anonymize( true, cursor.getHighWord(), cursor.getLowWord() );
+			cursor.setIPv6( result[0], result[1], cursor.getNetmask() );
+		}
+		else
+		{
+			cursor.setIPv4( anonymizeIPv4( (int)cursor.getLowWord() ), cursor.getNetmask() );
+		}
+	}
+
+	/**
+	 *	Anonymize a column in parallel over the common fork join pool, with
+	 *	a copy of this anonymizer for each part.  This anonymizer's own
+	 *	cache is not used.
+	 *
+	 *	@param column The values.
+	 *	@return A new column of the anonymized values with the same
+	 *		netmasks and SQL NULLs.
+	 */
+	public InetColumn anonymize( final InetColumn column )
+	{
+		Object event = NetworkEvents.begin( NetworkEvents.SET_OPERATION );
+		final int n = column.size();
+		final int parts = Math.max( 1, Math.min( Runtime.getRuntime().availableProcessors(), n >>> 14 ) );
+		final long[] high = new long[ n ];
+		final long[] low = new long[ n ];
+		// each part fills its own slice of the words
+		IntStream.range( 0, parts ).parallel().forEach( new IntConsumer()
+		{
+			public void accept( int part )
+			{
+				InetAnonymizer anonymizer = copy();
+				int to = (int)( (long)n * ( part + 1 ) / parts );
+				for( int i = (int)( (long)n * part / parts ); i < to; ++i )
+				{
+					if( column.isNull( i ) )
+					{
+						continue;
+					}
+					if( column.isIPv6( i ) )
+					{
+						anonymizer.flips( true, column.getHighWord( i ), column.getLowWord( i ) );
+						high[i] = column.getHighWord( i ) ^ anonymizer.flipsHigh;
+						low[i] = column.getLowWord( i ) ^ anonymizer.flipsLow;
+					}
+					else
+					{
+						low[i] = anonymizer.anonymizeIPv4( (int)column.getLowWord( i ) );
+					}
+				}
+			}
+		} );
+		InetColumn result = new InetColumn( n );
+		for( int i = 0; i < n; ++i )
+		{
+			if( column.isNull( i ) )
+			{
+				result.addNull();
+			}
+			else if( column.isIPv6( i ) )
+			{
+				result.addIPv6( high[i], low[i], column.getNetmask( i ) );
+			}
+			else
+			{
+				result.addIPv4( (int)low[i], column.getNetmask( i ) );
+			}
+		}
+		NetworkEvents.end( event, n, 0L );
+		return( result );
+	}
+
+	/**
+	 *	@return The anonymized { high, low } words of an address.
+	 */
+	private long[] anonymize( boolean ipv6, long high, long low )
+	{
+		if( !ipv6 )
+		{
+			return( new long[]{ 0L, anonymizeIPv4( (int)low ) & 0xFFFFFFFFL } );
+		}
+		flips( true, high, low );
+		return( new long[]{ high ^ this.flipsHigh, low ^ this.flipsLow } );
+	}
+
+	/**
+	 *	Find the bits to flip in an address aligned to the top of the two
+	 *	words, IPv4 in the top 32 bits of high, and leave them in flipsHigh
+	 *	and flipsLow.
+	 */
+	private void flips( boolean ipv6, long high, long low )
+	{
+		int width = ipv6 ? 128 : 32;
+		long fh = 0L;
+		long fl = 0L;
+		int pos = 0;
+		// start from the longest prefix in the cache
+		for( int bits = width; bits > 0; bits -= 8 )
+		{
+			long h = high & maskHigh( bits );
+			long l = low & maskLow( bits );
+			int slot = slot( h, l, bits );
+			if( ( ( this.keyBits[slot] & 0xFF ) == bits ) && ( this.keyHigh[slot] == h ) && ( this.keyLow[slot] == l ) )
+			{
+				fh = this.flipHigh[slot];
+				fl = this.flipLow[slot];
+				pos = bits;
+				break;
+			}
+		}
+		for( ; pos < width; ++pos )
+		{
+			long mh = maskHigh( pos );
+			long ml = maskLow( pos );
+			InetBits.writeLong( ( high & mh ) | ( this.padHigh & ~mh ), this.block, 0 );
+			InetBits.writeLong( ( low & ml ) | ( this.padLow & ~ml ), this.block, 8 );
+			encrypt();
+			long bit = ( this.out[0] >>> 7 ) & 1L;
+			if( pos < 64 )
+			{
+				fh |= bit << ( 63 - pos );
+			}
+			else
+			{
+				fl |= bit << ( 127 - pos );
+			}
+			if( ( ( pos + 1 ) & 7 ) == 0 )
+			{
+				int bits = pos + 1;
+				long h = high & maskHigh( bits );
+				long l = low & maskLow( bits );
+				int slot = slot( h, l, bits );
+				this.keyHigh[slot] = h;
+				this.keyLow[slot] = l;
+				this.keyBits[slot] = (byte)bits;
+				this.flipHigh[slot] = fh;
+				this.flipLow[slot] = fl;
+			}
+		}
+		this.flipsHigh = fh;
+		this.flipsLow = fl;
+	}
+
+	private int slot( long high, long low, int bits )
+	{
+		return( (int)InetBits.mix( true, high, low, bits ) & this.mask );
+	}
+
+	private static long maskHigh( int bits )
+	{
+		return( InetBits.maskHigh( bits, true ) );
+	}
+
+	private static long maskLow( int bits )
+	{
+		return( InetBits.maskLow( bits, true ) );
+	}
+
+	private void encrypt()
+	{
+		try
+		{
+			this.cipher.update( this.block, 0, 16, this.out, 0 );
+		}
+		catch( GeneralSecurityException e )
+		{
+			throw( new IllegalStateException( e ) );
+		}
+		++this.cipherCalls;
+	}
+
+	private static Cipher cipher( byte[] key )
+	{
+		try
+		{
+			Cipher cipher = Cipher.getInstance( "AES/ECB/NoPadding" );
+			cipher.init( Cipher.ENCRYPT_MODE, new SecretKeySpec( key, 0, 16, "AES" ) );
+			return( cipher );
+		}
+		catch( GeneralSecurityException e )
+		{
+			// every Java platform is required to support AES
+			throw( new IllegalStateException( e ) );
+		}
+	}
+}
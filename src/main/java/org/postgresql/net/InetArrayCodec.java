@@ -0,0 +1,823 @@
+package org.postgresql.net;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.postgresql.util.GT;
+import org.postgresql.util.PGobject;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.PSQLState;
+
+/**
+ *	Encoder and decoder for one dimensional arrays of inet, cidr
+ *	and macaddr values.
+ *
+ *	<p>The text methods read the array literal the server returns for
+ *	an inet[], cidr[] or macaddr[] column, for example through
+ *	ResultSet.getString(), and build the elements directly without
+ *	cutting each one out of the literal first.  The binary methods read
+ *	the array_send format, as found in binary COPY output.</p>
+ *
+ *	<p>For the other direction {@link #toArrayLiteral(Collection)} builds a
+ *	whole literal in a single buffer, and {@link #toArrayParameter(Collection, String)}
+ *	wraps it so it can be bound to a statement such as
+ *	<code>SELECT * FROM hosts WHERE address = ANY(?)</code>.</p>
+ */
+public final class InetArrayCodec
+{
+	static final int INET_OID = 869;
+	static final int CIDR_OID = 650;
+	static final int MACADDR_OID = 829;
+
+	/**
+	 *	The address family codes used by inet_send/inet_recv.
+	 */
+	static final int PGSQL_AF_INET = 2;
+	static final int PGSQL_AF_INET6 = 3;
+
+	private InetArrayCodec()
+	{
+	}
+
+	/**
+	 *	Parse an inet[] array literal such as {192.168.1.1,::1/64,NULL}.
+	 *
+	 *	@param literal The array literal.
+	 *	@return The elements, NULL elements are returned as null.
+	 *	@exception SQLException If the literal or any element is invalid.
+	 */
+	public static PGinet[] parseInetArray( String literal )
+	throws SQLException
+	{
+		final List<PGinet> result = new ArrayList<PGinet>();
+		scan( literal, "inet[]", new TextSink()
+		{
+			public void element( CharSequence s, int start, int end )
+			throws SQLException
+			{
+				int r = InetText.parse( s, start, end, this.scratch );
+				if( r == InetText.FAIL )
+				{
+					result.add( new PGinet( s.subSequence( start, end ).toString() ) );
+					return;
+				}
+				PGinet inet = new PGinet();
+				set( inet, r, this.scratch );
+				result.add( inet );
+			}
+
+			public void nullElement()
+			{
+				result.add( null );
+			}
+		} );
+		return( result.toArray( new PGinet[ result.size() ] ) );
+	}
+
+	/**
+	 *	Parse a cidr[] array literal such as {10.0.0.0/8,2001:db8::/32}.
+	 *
+	 *	@param literal The array literal.
+	 *	@return The elements, NULL elements are returned as null.
+	 *	@exception SQLException If the literal or any element is invalid.
+	 */
+	public static PGcidr[] parseCidrArray( String literal )
+	throws SQLException
+	{
+		final List<PGcidr> result = new ArrayList<PGcidr>();
+		scan( literal, "cidr[]", new TextSink()
+		{
+			public void element( CharSequence s, int start, int end )
+			throws SQLException
+			{
+				int r = InetText.parse( s, start, end, this.scratch );
+				if( ( r == InetText.FAIL ) || ( ( r & InetText.EXPLICIT_NETMASK ) == 0 ) )
+				{
+					// a cidr without a netmask needs the classful rules
+					// in PGcidr.getMinimalNetmask().
+					result.add( new PGcidr( s.subSequence( start, end ).toString() ) );
+					return;
+				}
+				PGcidr cidr = new PGcidr();
+				set( cidr, r, this.scratch );
+				cidr.ensureHostBitsAreZero();
+				result.add( cidr );
+			}
+
+			public void nullElement()
+			{
+				result.add( null );
+			}
+		} );
+		return( result.toArray( new PGcidr[ result.size() ] ) );
+	}
+
+	/**
+	 *	Parse a macaddr[] array literal such as {08:00:2b:01:02:03}.
+	 *
+	 *	@param literal The array literal.
+	 *	@return The elements, NULL elements are returned as null.
+	 *	@exception SQLException If the literal or any element is invalid.
+	 */
+	public static PGmacaddr[] parseMacaddrArray( String literal )
+	throws SQLException
+	{
+		final List<PGmacaddr> result = new ArrayList<PGmacaddr>();
+		scan( literal, "macaddr[]", new TextSink()
+		{
+			public void element( CharSequence s, int start, int end )
+			throws SQLException
+			{
+				if( !InetText.parseMacaddr( s, start, end, this.scratch ) )
+				{
+					result.add( new PGmacaddr( s.subSequence( start, end ).toString() ) );
+					return;
+				}
+				PGmacaddr mac = new PGmacaddr();
+				byte[] b = new byte[ 6 ];
+				System.arraycopy( this.scratch, 0, b, 0, 6 );
+				mac.setBytes( b );
+				result.add( mac );
+			}
+
+			public void nullElement()
+			{
+				result.add( null );
+			}
+		} );
+		return( result.toArray( new PGmacaddr[ result.size() ] ) );
+	}
+
+	/**
+	 *	Parse an inet[] or cidr[] array literal in to a column without
+	 *	creating an object per element.
+	 *
+	 *	@param literal The array literal.
+	 *	@return A new column holding the elements.
+	 *	@exception SQLException If the literal or any element is invalid.
+	 */
+	public static InetColumn parseColumn( String literal )
+	throws SQLException
+	{
+		final InetColumn column = new InetColumn();
+		scan( literal, "inet[]", new TextSink()
+		{
+			public void element( CharSequence s, int start, int end )
+			throws SQLException
+			{
+				int r = InetText.parse( s, start, end, this.scratch );
+				if( r == InetText.FAIL )
+				{
+					PGinet inet = new PGinet( s.subSequence( start, end ).toString() );
+					column.add( inet );
+					return;
+				}
+				boolean ipv6 = ( r & InetText.IPV6 ) != 0;
+				byte[] b = this.scratch;
+				column.add( ipv6, ipv6 ? InetBits.readLong( b, 0 ) : 0L,
+					ipv6 ? InetBits.readLong( b, 8 ) : ( InetBits.readInt( b, 0 ) & 0xFFFFFFFFL ),
+					r & 0xFF, ( r & InetText.EMBEDDED_IPV4 ) != 0 );
+			}
+
+			public void nullElement()
+			{
+				column.addNull();
+			}
+		} );
+		return( column );
+	}
+
+	/**
+	 *	Decode an inet[] or cidr[] array in the binary array_send format.
+	 *
+	 *	@param data The binary array.
+	 *	@return The elements, NULL elements are returned as null.
+	 *	@exception SQLException If the data is not a valid binary array.
+	 */
+	public static PGinet[] decodeInetArray( byte[] data )
+	throws SQLException
+	{
+		Object event = NetworkEvents.begin( NetworkEvents.ARRAY_DECODE );
+		long start = NetworkMetrics.ENABLED ? System.nanoTime() : 0L;
+		int count = decodeHeader( data, "inet[]", INET_OID, CIDR_OID );
+		PGinet[] result = new PGinet[ count ];
+		int p = 20;
+		for( int i = 0; i < count; ++i )
+		{
+			int len = elementLength( data, p, "inet[]" );
+			p += 4;
+			if( len >= 0 )
+			{
+				PGinet inet = new PGinet();
+				decodeNetwork( data, p, len, inet );
+				result[i] = inet;
+				p += len;
+			}
+		}
+		if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordCompleted( NetworkMetrics.Operation.ARRAY_DECODE, System.nanoTime() - start, result.length );
+		}
+		NetworkEvents.end( event, result.length, data.length );
+		return( result );
+	}
+
+	/**
+	 *	Decode a cidr[] array in the binary array_send format.
+	 *
+	 *	@param data The binary array.
+	 *	@return The elements, NULL elements are returned as null.
+	 *	@exception SQLException If the data is not a valid binary array.
+	 */
+	public static PGcidr[] decodeCidrArray( byte[] data )
+	throws SQLException
+	{
+		Object event = NetworkEvents.begin( NetworkEvents.ARRAY_DECODE );
+		long start = NetworkMetrics.ENABLED ? System.nanoTime() : 0L;
+		int count = decodeHeader( data, "cidr[]", CIDR_OID, CIDR_OID );
+		PGcidr[] result = new PGcidr[ count ];
+		int p = 20;
+		for( int i = 0; i < count; ++i )
+		{
+			int len = elementLength( data, p, "cidr[]" );
+			p += 4;
+			if( len >= 0 )
+			{
+				PGcidr cidr = new PGcidr();
+				decodeNetwork( data, p, len, cidr );
+				cidr.ensureHostBitsAreZero();
+				result[i] = cidr;
+				p += len;
+			}
+		}
+		if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordCompleted( NetworkMetrics.Operation.ARRAY_DECODE, System.nanoTime() - start, result.length );
+		}
+		NetworkEvents.end( event, result.length, data.length );
+		return( result );
+	}
+
+	/**
+	 *	Decode a macaddr[] array in the binary array_send format.
+	 *
+	 *	@param data The binary array.
+	 *	@return The elements, NULL elements are returned as null.
+	 *	@exception SQLException If the data is not a valid binary array.
+	 */
+	public static PGmacaddr[] decodeMacaddrArray( byte[] data )
+	throws SQLException
+	{
+		Object event = NetworkEvents.begin( NetworkEvents.ARRAY_DECODE );
+		long start = NetworkMetrics.ENABLED ? System.nanoTime() : 0L;
+		int count = decodeHeader( data, "macaddr[]", MACADDR_OID, MACADDR_OID );
+		PGmacaddr[] result = new PGmacaddr[ count ];
+		int p = 20;
+		for( int i = 0; i < count; ++i )
+		{
+			int len = elementLength( data, p, "macaddr[]" );
+			p += 4;
+			if( len >= 0 )
+			{
+				if( len != 6 )
+				{
+					throw( decodeError( "macaddr[]", "element length", "invalid element length " + len ) );
+				}
+				byte[] b = new byte[ 6 ];
+				System.arraycopy( data, p, b, 0, 6 );
+				PGmacaddr mac = new PGmacaddr();
+				mac.setBytes( b );
+				result[i] = mac;
+				p += len;
+			}
+		}
+		if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordCompleted( NetworkMetrics.Operation.ARRAY_DECODE, System.nanoTime() - start, result.length );
+		}
+		NetworkEvents.end( event, result.length, data.length );
+		return( result );
+	}
+
+	/**
+	 *	Decode an inet[] or cidr[] array in the binary array_send format
+	 *	in to a column without creating an object per element.
+	 *
+	 *	@param data The binary array.
+	 *	@return A new column holding the elements.
+	 *	@exception SQLException If the data is not a valid binary array.
+	 */
+	public static InetColumn decodeColumn( byte[] data )
+	throws SQLException
+	{
+		Object event = NetworkEvents.begin( NetworkEvents.ARRAY_DECODE );
+		long start = NetworkMetrics.ENABLED ? System.nanoTime() : 0L;
+		int count = decodeHeader( data, "inet[]", INET_OID, CIDR_OID );
+		InetColumn column = new InetColumn( count );
+		int p = 20;
+		for( int i = 0; i < count; ++i )
+		{
+			int len = elementLength( data, p, "inet[]" );
+			p += 4;
+			if( len < 0 )
+			{
+				column.addNull();
+				continue;
+			}
+			int bits = checkNetwork( data, p, len );
+			boolean ipv6 = len == 20;
+			column.add( ipv6, ipv6 ? InetBits.readLong( data, p + 4 ) : 0L,
+				ipv6 ? InetBits.readLong( data, p + 12 ) : ( InetBits.readInt( data, p + 4 ) & 0xFFFFFFFFL ),
+				bits, false );
+			p += len;
+		}
+		if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordCompleted( NetworkMetrics.Operation.ARRAY_DECODE, System.nanoTime() - start, count );
+		}
+		NetworkEvents.end( event, count, data.length );
+		return( column );
+	}
+
+	/**
+	 *	Build an array literal from a collection of PGinet, PGcidr or
+	 *	PGmacaddr values.
+	 *
+	 *	@param values The elements, null elements are written as NULL.
+	 *	@return The array literal.
+	 */
+	public static String toArrayLiteral( Collection<? extends PGobject> values )
+	{
+		Object event = NetworkEvents.begin( NetworkEvents.ARRAY_FORMAT );
+		long start = NetworkMetrics.ENABLED ? System.nanoTime() : 0L;
+		StringBuilder sb = new StringBuilder( 2 + values.size() * 20 );
+		sb.append( '{' );
+		boolean first = true;
+		for( PGobject value : values )
+		{
+			if( !first )
+			{
+				sb.append( ',' );
+			}
+			first = false;
+			appendElement( sb, value );
+		}
+		sb.append( '}' );
+		if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordCompleted( NetworkMetrics.Operation.ARRAY_FORMAT, System.nanoTime() - start, values.size() );
+		}
+		NetworkEvents.end( event, values.size(), sb.length() );
+		return( sb.toString() );
+	}
+
+	/**
+	 *	Build an array literal from a column.
+	 *
+	 *	@param column The elements.
+	 *	@return The array literal.
+	 */
+	public static String toArrayLiteral( InetColumn column )
+	{
+		Object event = NetworkEvents.begin( NetworkEvents.ARRAY_FORMAT );
+		long start = NetworkMetrics.ENABLED ? System.nanoTime() : 0L;
+		int size = column.size();
+		StringBuilder sb = new StringBuilder( 2 + size * 20 );
+		sb.append( '{' );
+		for( int i = 0; i < size; ++i )
+		{
+			if( i > 0 )
+			{
+				sb.append( ',' );
+			}
+			if( !column.appendTo( sb, i ) )
+			{
+				sb.append( "NULL" );
+			}
+		}
+		sb.append( '}' );
+		if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordCompleted( NetworkMetrics.Operation.ARRAY_FORMAT, System.nanoTime() - start, size );
+		}
+		NetworkEvents.end( event, size, sb.length() );
+		return( sb.toString() );
+	}
+
+	/**
+	 *	Build an array parameter which can be passed to setObject().
+	 *
+	 *	@param values The elements.
+	 *	@param elementType The name of the element type, inet, cidr or macaddr.
+	 *	@return A PGobject holding the array literal.
+	 *	@exception SQLException If the literal cannot be assigned.
+	 */
+	public static PGobject toArrayParameter( Collection<? extends PGobject> values, String elementType )
+	throws SQLException
+	{
+		PGobject array = new PGobject();
+		array.setType( "_" + elementType );
+		array.setValue( toArrayLiteral( values ) );
+		return( array );
+	}
+
+	private static void appendElement( StringBuilder sb, PGobject value )
+	{
+		if( value instanceof PGNetworkBase )
+		{
+			PGNetworkBase n = (PGNetworkBase)value;
+			// lazy text is parsed, so bad text fails here rather than at
+			// the server, but is passed through as it was given.
+			n.resolve();
+			if( n.addr == null )
+			{
+				sb.append( "NULL" );
+			}
+			else if( ( n.addrString != null ) && ( !n.textGiven || isPlain( n.addrString ) ) )
+			{
+				sb.append( n.addrString );
+			}
+			else
+			{
+				InetText.append( sb, n.addr.length == 16, InetBits.high( n.addr ),
+					InetBits.low( n.addr ), n.netmask, n.embedded_ipv4 );
+			}
+		}
+		else if( value instanceof PGmacaddr )
+		{
+			PGmacaddr mac = (PGmacaddr)value;
+			String given = mac.pending;
+			mac.resolve();
+			if( mac.macaddress == null )
+			{
+				sb.append( "NULL" );
+			}
+			else if( ( given != null ) && isPlain( given ) )
+			{
+				sb.append( given );
+			}
+			else
+			{
+				InetText.appendMacaddr( sb, mac.macaddress );
+			}
+		}
+		else if( ( value == null ) || ( value.getValue() == null ) )
+		{
+			sb.append( "NULL" );
+		}
+		else
+		{
+			// some other type, quote it the way array_out does.
+			String v = value.getValue();
+			sb.append( '"' );
+			for( int i = 0; i < v.length(); ++i )
+			{
+				char c = v.charAt( i );
+				if( ( c == '"' ) || ( c == '\\' ) )
+				{
+					sb.append( '\\' );
+				}
+				sb.append( c );
+			}
+			sb.append( '"' );
+		}
+	}
+
+	/**
+	 *	Check that the text given to a lazy value can go in to an array
+	 *	literal as it is, anything which might need quoting is written in
+	 *	the canonical form instead.
+	 */
+	private static boolean isPlain( String s )
+	{
+		int n = s.length();
+		if( ( n == 0 ) || ( n > 64 ) )
+		{
+			return( false );
+		}
+		for( int i = 0; i < n; ++i )
+		{
+			char c = s.charAt( i );
+			if( ( InetText.hexValue( c ) < 0 ) && ( c != '.' ) && ( c != ':' ) && ( c != '/' ) && ( c != '-' ) )
+			{
+				return( false );
+			}
+		}
+		return( !s.equalsIgnoreCase( "NULL" ) );
+	}
+
+	private static void set( PGNetworkBase target, int r, byte[] scratch )
+	{
+		byte[] b = new byte[ ( ( r & InetText.IPV6 ) != 0 ) ? 16 : 4 ];
+		System.arraycopy( scratch, 0, b, 0, b.length );
+		target.setAddress( b, r & 0xFF, ( r & InetText.EMBEDDED_IPV4 ) != 0 );
+	}
+
+	/**
+	 *	Receives each element found by scan().
+	 */
+	private static abstract class TextSink
+	{
+		final byte[] scratch = new byte[ 16 ];
+
+		abstract void element( CharSequence s, int start, int end ) throws SQLException;
+
+		abstract void nullElement();
+	}
+
+	/**
+	 *	Walk a one dimensional array literal, handing each element to sink.
+	 */
+	private static void scan( String literal, String type, TextSink sink )
+	throws SQLException
+	{
+		Object event = NetworkEvents.begin( NetworkEvents.ARRAY_PARSE );
+		long start = NetworkMetrics.ENABLED ? System.nanoTime() : 0L;
+		int count = 0;
+		if( literal == null )
+		{
+			throw( parseError( type, "null", null ) );
+		}
+
+		int n = literal.length();
+		int p = skipSpace( literal, 0 );
+
+		// a lower bound other than 1 is written as [lo:hi]={...}
+		if( ( p < n ) && ( literal.charAt( p ) == '[' ) )
+		{
+			int eq = literal.indexOf( '=', p );
+			if( ( eq == -1 ) || ( literal.lastIndexOf( '[', eq ) != p ) )
+			{
+				throw( parseError( type, "syntax", literal ) );
+			}
+			p = skipSpace( literal, eq + 1 );
+		}
+
+		if( ( p >= n ) || ( literal.charAt( p ) != '{' ) )
+		{
+			throw( parseError( type, "syntax", literal ) );
+		}
+		p = skipSpace( literal, p + 1 );
+
+		if( ( p < n ) && ( literal.charAt( p ) == '}' ) )
+		{
+			p = skipSpace( literal, p + 1 );
+		}
+		else
+		{
+			StringBuilder unescaped = null;
+			while( true )
+			{
+				if( p >= n )
+				{
+					throw( parseError( type, "syntax", literal ) );
+				}
+
+				char c = literal.charAt( p );
+				if( c == '{' )
+				{
+					// multidimensional arrays cannot be returned as a flat array.
+					throw( parseError( type, "dimensions", literal ) );
+				}
+				else if( c == '"' )
+				{
+					int q = p + 1;
+					boolean escaped = false;
+					while( ( q < n ) && ( literal.charAt( q ) != '"' ) )
+					{
+						if( literal.charAt( q ) == '\\' )
+						{
+							escaped = true;
+							++q;
+						}
+						++q;
+					}
+					if( q >= n )
+					{
+						throw( parseError( type, "syntax", literal ) );
+					}
+
+					if( escaped )
+					{
+						if( unescaped == null )
+						{
+							unescaped = new StringBuilder();
+						}
+						unescaped.setLength( 0 );
+						for( int i = p + 1; i < q; ++i )
+						{
+							char ch = literal.charAt( i );
+							if( ch == '\\' )
+							{
+								ch = literal.charAt( ++i );
+							}
+							unescaped.append( ch );
+						}
+						sink.element( unescaped, 0, unescaped.length() );
+						++count;
+					}
+					else
+					{
+						sink.element( literal, p + 1, q );
+						++count;
+					}
+					p = skipSpace( literal, q + 1 );
+				}
+				else
+				{
+					int q = p;
+					while( ( q < n ) && ( literal.charAt( q ) != ',' ) && ( literal.charAt( q ) != '}' ) )
+					{
+						++q;
+					}
+					int e = q;
+					while( ( e > p ) && Character.isWhitespace( literal.charAt( e - 1 ) ) )
+					{
+						--e;
+					}
+					if( e == p )
+					{
+						throw( parseError( type, "syntax", literal ) );
+					}
+					if( ( e - p == 4 ) && literal.regionMatches( true, p, "NULL", 0, 4 ) )
+					{
+						sink.nullElement();
+						++count;
+					}
+					else
+					{
+						sink.element( literal, p, e );
+						++count;
+					}
+					p = q;
+				}
+
+				if( p >= n )
+				{
+					throw( parseError( type, "syntax", literal ) );
+				}
+				c = literal.charAt( p );
+				if( c == '}' )
+				{
+					p = skipSpace( literal, p + 1 );
+					break;
+				}
+				if( c != ',' )
+				{
+					throw( parseError( type, "syntax", literal ) );
+				}
+				p = skipSpace( literal, p + 1 );
+			}
+		}
+
+		if( p != n )
+		{
+			throw( parseError( type, "syntax", literal ) );
+		}
+		if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordCompleted( NetworkMetrics.Operation.ARRAY_PARSE, System.nanoTime() - start, count );
+		}
+		NetworkEvents.end( event, count, n );
+	}
+
+	private static int skipSpace( String s, int p )
+	{
+		while( ( p < s.length() ) && Character.isWhitespace( s.charAt( p ) ) )
+		{
+			++p;
+		}
+		return( p );
+	}
+
+	/**
+	 *	Read the array_send header and return the number of elements.
+	 */
+	private static int decodeHeader( byte[] data, String type, int oid, int altOid )
+	throws SQLException
+	{
+		if( ( data == null ) || ( data.length < 12 ) )
+		{
+			throw( decodeError( type, "truncated", "truncated array header" ) );
+		}
+		int ndim = InetBits.readInt( data, 0 );
+		int elementOid = InetBits.readInt( data, 8 );
+		if( ( elementOid != oid ) && ( elementOid != altOid ) )
+		{
+			throw( decodeError( type, "element type", "unexpected element type " + elementOid ) );
+		}
+		if( ndim == 0 )
+		{
+			return( 0 );
+		}
+		if( ( ndim != 1 ) || ( data.length < 20 ) )
+		{
+			throw( decodeError( type, "dimensions", "only one dimensional arrays are supported" ) );
+		}
+		int count = InetBits.readInt( data, 12 );
+		if( ( count < 0 ) || ( count > ( data.length - 20 ) / 4 ) )
+		{
+			throw( decodeError( type, "element count", "invalid element count " + count ) );
+		}
+		return( count );
+	}
+
+	/**
+	 *	Read the length word of the element at p, -1 for NULL.
+	 */
+	private static int elementLength( byte[] data, int p, String type )
+	throws SQLException
+	{
+		if( p + 4 > data.length )
+		{
+			throw( decodeError( type, "truncated", "truncated array" ) );
+		}
+		int len = InetBits.readInt( data, p );
+		if( ( len < -1 ) || ( p + 4 + len > data.length ) )
+		{
+			throw( decodeError( type, "truncated", "truncated array" ) );
+		}
+		return( len );
+	}
+
+	private static void decodeNetwork( byte[] data, int p, int len, PGNetworkBase target )
+	throws SQLException
+	{
+		int bits = checkNetwork( data, p, len );
+		byte[] b = new byte[ len - 4 ];
+		System.arraycopy( data, p + 4, b, 0, b.length );
+		target.setAddress( b, bits, false );
+	}
+
+	/**
+	 *	Validate an inet_send element and return its netmask.
+	 */
+	private static int checkNetwork( byte[] data, int p, int len )
+	throws SQLException
+	{
+		if( len < 4 )
+		{
+			throw( decodeError( "inet", "element length", "invalid element length " + len ) );
+		}
+		int bits = networkBits( data, p, len );
+		if( bits < 0 )
+		{
+			throw( decodeError( "inet", "address family", "invalid address family " + ( data[p] & 0xFF ) +
+				" with " + ( data[p + 3] & 0xFF ) + " bytes and netmask " + ( data[p + 1] & 0xFF ) ) );
+		}
+		return( bits );
+	}
+
+	/**
+	 *	@return The netmask of an inet_send value, -1 if it is not valid.
+	 */
+	static int networkBits( byte[] data, int p, int len )
+	{
+		if( len < 4 )
+		{
+			return( -1 );
+		}
+		int family = data[p] & 0xFF;
+		int bits = data[p + 1] & 0xFF;
+		int nb = data[p + 3] & 0xFF;
+		int expected = ( family == PGSQL_AF_INET ) ? 4 : ( family == PGSQL_AF_INET6 ) ? 16 : -1;
+		if( ( nb != expected ) || ( len != nb + 4 ) || ( bits > nb * 8 ) )
+		{
+			return( -1 );
+		}
+		return( bits );
+	}
+
+	/**
+	 *	Build the exception for an invalid array literal, recording the
+	 *	fixed reason when metrics are enabled.
+	 */
+	private static PSQLException parseError( String type, String reason, String detail )
+	{
+		if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordFailure( NetworkMetrics.Operation.ARRAY_PARSE, reason );
+		}
+		return( conversionError( type, detail ) );
+	}
+
+	/**
+	 *	Build the exception for an invalid binary array, recording the
+	 *	fixed reason when metrics are enabled.
+	 */
+	private static PSQLException decodeError( String type, String reason, String detail )
+	{
+		if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordFailure( NetworkMetrics.Operation.ARRAY_DECODE, reason );
+		}
+		return( conversionError( type, detail ) );
+	}
+
+	private static PSQLException conversionError( String type, String detail )
+	{
+		return( new PSQLException( GT.tr( "Conversion to type {0} failed: {1}.",
+			new Object[]{ type, detail } ), PSQLState.DATA_TYPE_MISMATCH ) );
+	}
+}
@@ -0,0 +1,1093 @@
+package org.postgresql.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ *	An exact set of IPv4 addresses which stays small for both sparse and
+ *	dense sets, up to the whole 2^32 address space.
+ *
+ *	<p>The set is split in to /16 blocks in the manner of a roaring
+ *	bitmap.  A block with up to 4096 addresses is held as a sorted array
+ *	of 16 bit values, a denser block as a 8KiB bitmap, and a complete
+ *	block as a shared marker, so it costs only its 6 byte entry in the
+ *	block index and even 0.0.0.0/0 fits in under 400KiB.  {@link #or(InetBitmap, InetBitmap)},
+ *	{@link #and(InetBitmap, InetBitmap)} and
+ *	{@link #andNot(InetBitmap, InetBitmap)} work a block at a time on
+ *	whole words, and {@link #toCidrs()} turns the set back in to the
+ *	fewest cidr blocks for storing in a cidr column.</p>
+ *
+ *	<p>Addresses are passed as int values holding the 32 bits of the
+ *	address, so 255.255.255.255 is -1.  A bitmap is not thread safe, and
+ *	must not be changed while it is being iterated.</p>
+ */
+public final class InetBitmap implements Iterable<PGinet>
+{
+	private static final int ARRAY_MAX = 4096;
+
+	private static final Container FULL = new FullContainer();
+
+	private char[] keys;
+	private Container[] containers;
+	private int size;
+
+	/**
+	 *	Create an empty set.
+	 */
+	public InetBitmap()
+	{
+		this( 4 );
+	}
+
+	private InetBitmap( int capacity )
+	{
+		this.keys = new char[ Math.max( capacity, 1 ) ];
+		this.containers = new Container[ this.keys.length ];
+	}
+
+	/**
+	 *	Create a set of the addresses in IPv4 cidr blocks.
+	 *
+	 *	@param cidrs The blocks, they may overlap.
+	 *	@return The set.
+	 *	@exception IllegalArgumentException If a block is IPv6.
+	 */
+	public static InetBitmap fromCidrs( Iterable<PGcidr> cidrs )
+	{
+		InetBitmap bitmap = new InetBitmap();
+		for( PGcidr cidr : cidrs )
+		{
+			bitmap.add( cidr );
+		}
+		return( bitmap );
+	}
+
+	/**
+	 *	@param address The address.
+	 *	@return true if it was not in the set already.
+	 */
+	public boolean add( int address )
+	{
+		char key = (char)( address >>> 16 );
+		int low = address & 0xFFFF;
+		int i = index( key );
+		if( i < 0 )
+		{
+			i = -i - 1;
+			insert( i, key, new ArrayContainer( new char[]{ (char)low }, 1 ) );
+			return( true );
+		}
+		Container c = this.containers[i];
+		if( c.contains( low ) )
+		{
+			return( false );
+		}
+		this.containers[i] = c.add( low );
+		return( true );
+	}
+
+	/**
+	 *	Add an address, its netmask is ignored.
+	 *
+	 *	@param address An IPv4 address.
+	 *	@return true if it was not in the set already.
+	 *	@exception IllegalArgumentException If the address is IPv6.
+	 */
+	public boolean add( PGinet address )
+	{
+		return( add( ipv4( address ) ) );
+	}
+
+	/**
+	 *	Add every address in a cidr block.
+	 *
+	 *	@param cidr An IPv4 block.
+	 *	@exception IllegalArgumentException If the block is IPv6.
+	 */
+	public void add( PGcidr cidr )
+	{
+		cidr.resolve();
+		if( cidr.isIPv6() )
+		{
+			throw( new IllegalArgumentException( "Not an IPv4 network: " + cidr.getValue() ) );
+		}
+		int first = (int)cidr.getLowWord();
+		int host = (int)( 0xFFFFFFFFL >>> cidr.netmask );
+		addRange( first & ~host, first | host );
+	}
+
+	/**
+	 *	Add every address in a range.
+	 *
+	 *	@param range An IPv4 range.
+	 *	@exception IllegalArgumentException If the range is IPv6.
+	 */
+	public void add( InetRange range )
+	{
+		if( range.isIPv6() )
+		{
+			throw( new IllegalArgumentException( "Not an IPv4 range: " + range ) );
+		}
+		addRange( (int)range.getFirstLowWord(), (int)range.getLastLowWord() );
+	}
+
+	/**
+	 *	Add every address from first to last.
+	 *
+	 *	@param first The first address.
+	 *	@param last The last address, not before first as unsigned values.
+	 */
+	public void addRange( int first, int last )
+	{
+		if( Integer.compareUnsigned( first, last ) > 0 )
+		{
+			throw( new IllegalArgumentException( "The first address is after the last" ) );
+		}
+		int firstKey = first >>> 16;
+		int lastKey = last >>> 16;
+		if( firstKey == lastKey )
+		{
+			char key = (char)firstKey;
+			int i = index( key );
+			int lo = first & 0xFFFF;
+			int hi = last & 0xFFFF;
+			if( i >= 0 )
+			{
+				this.containers[i] = this.containers[i].addRange( lo, hi );
+			}
+			else
+			{
+				insert( -i - 1, key, new ArrayContainer( new char[ 0 ], 0 ).addRange( lo, hi ) );
+			}
+			return;
+		}
+		// build the range on its own, keys in order, then merge it in
+		InetBitmap range = new InetBitmap( lastKey - firstKey + 1 );
+		for( int k = firstKey; k <= lastKey; ++k )
+		{
+			int lo = ( k == firstKey ) ? first & 0xFFFF : 0;
+			int hi = ( k == lastKey ) ? last & 0xFFFF : 0xFFFF;
+			Container c = ( ( lo == 0 ) && ( hi == 0xFFFF ) ) ? FULL : new ArrayContainer( new char[ 0 ], 0 ).addRange( lo, hi );
+			range.insert( range.size, (char)k, c );
+		}
+		InetBitmap merged = or( this, range );
+		this.keys = merged.keys;
+		this.containers = merged.containers;
+		this.size = merged.size;
+	}
+
+	/**
+	 *	@param address The address.
+	 *	@return true if it was in the set.
+	 */
+	public boolean remove( int address )
+	{
+		int i = index( (char)( address >>> 16 ) );
+		int low = address & 0xFFFF;
+		if( ( i < 0 ) || !this.containers[i].contains( low ) )
+		{
+			return( false );
+		}
+		Container c = this.containers[i].remove( low );
+		if( c != null )
+		{
+			this.containers[i] = c;
+		}
+		else
+		{
+			System.arraycopy( this.keys, i + 1, this.keys, i, this.size - i - 1 );
+			System.arraycopy( this.containers, i + 1, this.containers, i, this.size - i - 1 );
+			this.containers[--this.size] = null;
+		}
+		return( true );
+	}
+
+	/**
+	 *	@param address The address.
+	 *	@return true if it is in the set.
+	 */
+	public boolean contains( int address )
+	{
+		int i = index( (char)( address >>> 16 ) );
+		return( ( i >= 0 ) && this.containers[i].contains( address & 0xFFFF ) );
+	}
+
+	/**
+	 *	@param address An address, its netmask is ignored.
+	 *	@return true if it is in the set, always false for IPv6.
+	 */
+	public boolean contains( PGinet address )
+	{
+		address.resolve();
+		return( !address.isIPv6() && contains( (int)address.getLowWord() ) );
+	}
+
+	/**
+	 *	@param address An address.
+	 *	@return The number of addresses in the set up to and including
+	 *		the given one.
+	 */
+	public long rank( int address )
+	{
+		char key = (char)( address >>> 16 );
+		long rank = 0L;
+		for( int i = 0; ( i < this.size ) && ( this.keys[i] <= key ); ++i )
+		{
+			rank += ( this.keys[i] < key ) ? this.containers[i].cardinality() : this.containers[i].rank( address & 0xFFFF );
+		}
+		return( rank );
+	}
+
+	/**
+	 *	@return The number of addresses in the set.
+	 */
+	public long cardinality()
+	{
+		long n = 0L;
+		for( int i = 0; i < this.size; ++i )
+		{
+			n += this.containers[i].cardinality();
+		}
+		return( n );
+	}
+
+	/**
+	 *	@return true if the set holds no address.
+	 */
+	public boolean isEmpty()
+	{
+		return( this.size == 0 );
+	}
+
+	/**
+	 *	An estimate of the heap used by the set, counting array payloads
+	 *	but not object headers.
+	 *
+	 *	@return The estimate in bytes.
+	 */
+	public long getSizeInBytes()
+	{
+		long bytes = 6L * this.keys.length;
+		for( int i = 0; i < this.size; ++i )
+		{
+			bytes += this.containers[i].bytes();
+		}
+		return( bytes );
+	}
+
+	/**
+	 *	@param a A set.
+	 *	@param b A set.
+	 *	@return A new set of the addresses in either.
+	 */
+	public static InetBitmap or( InetBitmap a, InetBitmap b )
+	{
+		InetBitmap r = new InetBitmap( a.size + b.size );
+		int i = 0;
+		int j = 0;
+		while( ( i < a.size ) || ( j < b.size ) )
+		{
+			int c = ( i == a.size ) ? 1 : ( j == b.size ) ? -1 : a.keys[i] - b.keys[j];
+			if( c < 0 )
+			{
+				r.insert( r.size, a.keys[i], a.containers[i].copy() );
+				++i;
+			}
+			else if( c > 0 )
+			{
+				r.insert( r.size, b.keys[j], b.containers[j].copy() );
+				++j;
+			}
+			else
+			{
+				r.insert( r.size, a.keys[i], or( a.containers[i], b.containers[j] ) );
+				++i;
+				++j;
+			}
+		}
+		return( r );
+	}
+
+	/**
+	 *	@param a A set.
+	 *	@param b A set.
+	 *	@return A new set of the addresses in both.
+	 */
+	public static InetBitmap and( InetBitmap a, InetBitmap b )
+	{
+		InetBitmap r = new InetBitmap( Math.min( a.size, b.size ) );
+		int i = 0;
+		int j = 0;
+		while( ( i < a.size ) && ( j < b.size ) )
+		{
+			int c = a.keys[i] - b.keys[j];
+			if( c < 0 )
+			{
+				++i;
+			}
+			else if( c > 0 )
+			{
+				++j;
+			}
+			else
+			{
+				Container x = and( a.containers[i], b.containers[j] );
+				if( x != null )
+				{
+					r.insert( r.size, a.keys[i], x );
+				}
+				++i;
+				++j;
+			}
+		}
+		return( r );
+	}
+
+	/**
+	 *	@param a A set.
+	 *	@param b A set.
+	 *	@return A new set of the addresses in a but not in b.
+	 */
+	public static InetBitmap andNot( InetBitmap a, InetBitmap b )
+	{
+		InetBitmap r = new InetBitmap( a.size );
+		int j = 0;
+		for( int i = 0; i < a.size; ++i )
+		{
+			while( ( j < b.size ) && ( b.keys[j] < a.keys[i] ) )
+			{
+				++j;
+			}
+			Container x = ( ( j < b.size ) && ( b.keys[j] == a.keys[i] ) ) ?
+				andNot( a.containers[i], b.containers[j] ) : a.containers[i].copy();
+			if( x != null )
+			{
+				r.insert( r.size, a.keys[i], x );
+			}
+		}
+		return( r );
+	}
+
+	/**
+	 *	@return The addresses in ascending unsigned order, as int values.
+	 */
+	public PrimitiveIterator.OfInt intIterator()
+	{
+		return( new PrimitiveIterator.OfInt()
+		{
+			private int index;
+			private int value = ( InetBitmap.this.size > 0 ) ? InetBitmap.this.containers[0].nextSet( 0 ) : -1;
+
+			public boolean hasNext()
+			{
+				return( this.index < InetBitmap.this.size );
+			}
+
+			public int nextInt()
+			{
+				if( !hasNext() )
+				{
+					throw( new NoSuchElementException() );
+				}
+				int result = ( InetBitmap.this.keys[this.index] << 16 ) | this.value;
+				this.value = ( this.value == 0xFFFF ) ? -1 : InetBitmap.this.containers[this.index].nextSet( this.value + 1 );
+				if( this.value < 0 )
+				{
+					++this.index;
+					this.value = hasNext() ? InetBitmap.this.containers[this.index].nextSet( 0 ) : -1;
+				}
+				return( result );
+			}
+		} );
+	}
+
+	/**
+	 *	@return The addresses in ascending order, as a new PGinet each.
+	 */
+	public Iterator<PGinet> iterator()
+	{
+		final PrimitiveIterator.OfInt it = intIterator();
+		return( new Iterator<PGinet>()
+		{
+			public boolean hasNext()
+			{
+				return( it.hasNext() );
+			}
+
+			public PGinet next()
+			{
+				PGinet inet = new PGinet();
+				inet.setAddress( InetBits.toBytes( false, 0L, it.nextInt() & 0xFFFFFFFFL ), 32, false );
+				return( inet );
+			}
+		} );
+	}
+
+	/**
+	 *	@return The smallest list of cidr blocks which covers exactly the
+	 *		set, in address order.
+	 */
+	public List<PGcidr> toCidrs()
+	{
+		final List<PGcidr> cidrs = new ArrayList<PGcidr>();
+		forEachCidr( new PrefixConsumer()
+		{
+			public void accept( long high, long low, int prefixLength )
+			{
+				PGcidr cidr = new PGcidr();
+				cidr.setAddress( InetBits.toBytes( false, high, low ), prefixLength, false );
+				cidrs.add( cidr );
+			}
+		} );
+		return( cidrs );
+	}
+
+	/**
+	 *	Pass the blocks of {@link #toCidrs()} to a callback instead.
+	 *
+	 *	@param action Receives each block in address order.
+	 *	@return The number of blocks.
+	 */
+	public int forEachCidr( PrefixConsumer action )
+	{
+		int count = 0;
+		long p = nextSet( 0L );
+		while( p >= 0L )
+		{
+			long end = nextClear( p );
+			count += InetRange.decomposeIPv4( (int)p, (int)( end - 1L ), action );
+			p = ( end < ( 1L << 32 ) ) ? nextSet( end ) : -1L;
+		}
+		return( count );
+	}
+
+	/**
+	 *	@return The first address at or after from, -1 if there is none.
+	 */
+	private long nextSet( long from )
+	{
+		int i = index( (char)( from >>> 16 ) );
+		if( i >= 0 )
+		{
+			int v = this.containers[i].nextSet( (int)from & 0xFFFF );
+			if( v >= 0 )
+			{
+				return( ( from & ~0xFFFFL ) | v );
+			}
+			++i;
+		}
+		else
+		{
+			i = -i - 1;
+		}
+		return( ( i < this.size ) ? ( (long)this.keys[i] << 16 ) | this.containers[i].nextSet( 0 ) : -1L );
+	}
+
+	/**
+	 *	@return The first address at or after from not in the set, 2^32 if
+	 *		there is none.
+	 */
+	private long nextClear( long from )
+	{
+		int key = (int)( from >>> 16 );
+		int low = (int)from & 0xFFFF;
+		while( key < 0x10000 )
+		{
+			int i = index( (char)key );
+			if( i < 0 )
+			{
+				return( ( (long)key << 16 ) | low );
+			}
+			int c = this.containers[i].nextClear( low );
+			if( c < 0x10000 )
+			{
+				return( ( (long)key << 16 ) | c );
+			}
+			++key;
+			low = 0;
+		}
+		return( 1L << 32 );
+	}
+
+	private int index( char key )
+	{
+		int lo = 0;
+		int hi = this.size - 1;
+		while( lo <= hi )
+		{
+			int mid = ( lo + hi ) >>> 1;
+			if( this.keys[mid] < key )
+			{
+				lo = mid + 1;
+			}
+			else if( this.keys[mid] > key )
+			{
+				hi = mid - 1;
+			}
+			else
+			{
+				return( mid );
+			}
+		}
+		return( -lo - 1 );
+	}
+
+	private void insert( int i, char key, Container c )
+	{
+		if( this.size == this.keys.length )
+		{
+			this.keys = Arrays.copyOf( this.keys, this.size * 2 );
+			this.containers = Arrays.copyOf( this.containers, this.size * 2 );
+		}
+		System.arraycopy( this.keys, i, this.keys, i + 1, this.size - i );
+		System.arraycopy( this.containers, i, this.containers, i + 1, this.size - i );
+		this.keys[i] = key;
+		this.containers[i] = c;
+		++this.size;
+	}
+
+	private static int ipv4( PGinet address )
+	{
+		address.resolve();
+		if( address.isIPv6() )
+		{
+			throw( new IllegalArgumentException( "Not an IPv4 address: " + address.getValue() ) );
+		}
+		return( (int)address.getLowWord() );
+	}
+
+	private static Container or( Container a, Container b )
+	{
+		if( ( a == FULL ) || ( b == FULL ) )
+		{
+			return( FULL );
+		}
+		if( ( a instanceof ArrayContainer ) && ( b instanceof ArrayContainer ) )
+		{
+			ArrayContainer x = (ArrayContainer)a;
+			ArrayContainer y = (ArrayContainer)b;
+			char[] v = new char[ x.size + y.size ];
+			int n = 0;
+			int i = 0;
+			int j = 0;
+			while( ( i < x.size ) || ( j < y.size ) )
+			{
+				int c = ( i == x.size ) ? 1 : ( j == y.size ) ? -1 : x.values[i] - y.values[j];
+				v[n++] = ( c <= 0 ) ? x.values[i] : y.values[j];
+				i += ( c <= 0 ) ? 1 : 0;
+				j += ( c >= 0 ) ? 1 : 0;
+			}
+			return( ( n <= ARRAY_MAX ) ? new ArrayContainer( v, n ) : new ArrayContainer( v, n ).toBitmap() );
+		}
+		BitmapContainer r = ( a instanceof BitmapContainer ) ? a.toBitmap() : b.toBitmap();
+		r.or( ( a instanceof BitmapContainer ) ? b : a );
+		return( r.normalize() );
+	}
+
+	private static Container and( Container a, Container b )
+	{
+		if( a == FULL )
+		{
+			return( b.copy() );
+		}
+		if( b == FULL )
+		{
+			return( a.copy() );
+		}
+		if( ( a instanceof ArrayContainer ) || ( b instanceof ArrayContainer ) )
+		{
+			ArrayContainer x = (ArrayContainer)( ( a instanceof ArrayContainer ) ? a : b );
+			Container y = ( x == a ) ? b : a;
+			char[] v = new char[ x.size ];
+			int n = 0;
+			for( int i = 0; i < x.size; ++i )
+			{
+				if( y.contains( x.values[i] ) )
+				{
+					v[n++] = x.values[i];
+				}
+			}
+			return( ( n == 0 ) ? null : new ArrayContainer( v, n ) );
+		}
+		BitmapContainer r = a.toBitmap();
+		long[] w = ( (BitmapContainer)b ).words;
+		for( int i = 0; i < r.words.length; ++i )
+		{
+			r.words[i] &= w[i];
+		}
+		r.recount();
+		return( r.normalize() );
+	}
+
+	private static Container andNot( Container a, Container b )
+	{
+		if( b == FULL )
+		{
+			return( null );
+		}
+		if( a instanceof ArrayContainer )
+		{
+			ArrayContainer x = (ArrayContainer)a;
+			char[] v = new char[ x.size ];
+			int n = 0;
+			for( int i = 0; i < x.size; ++i )
+			{
+				if( !b.contains( x.values[i] ) )
+				{
+					v[n++] = x.values[i];
+				}
+			}
+			return( ( n == 0 ) ? null : new ArrayContainer( v, n ) );
+		}
+		BitmapContainer r = a.toBitmap();
+		if( b instanceof ArrayContainer )
+		{
+			ArrayContainer y = (ArrayContainer)b;
+			for( int i = 0; i < y.size; ++i )
+			{
+				r.words[y.values[i] >>> 6] &= ~( 1L << y.values[i] );
+			}
+		}
+		else
+		{
+			long[] w = ( (BitmapContainer)b ).words;
+			for( int i = 0; i < r.words.length; ++i )
+			{
+				r.words[i] &= ~w[i];
+			}
+		}
+		r.recount();
+		return( r.normalize() );
+	}
+
+	/**
+	 *	The addresses of one /16 block, as 16 bit values.  Changes return
+	 *	the container to use from then on, which is a different kind when
+	 *	the density crosses a threshold.
+	 */
+	private static abstract class Container
+	{
+		abstract int cardinality();
+
+		abstract boolean contains( int low );
+
+		abstract Container add( int low );
+
+		/**
+		 *	@return null once the block is empty.
+		 */
+		abstract Container remove( int low );
+
+		abstract Container addRange( int first, int last );
+
+		/**
+		 *	@return The number of values up to and including low.
+		 */
+		abstract int rank( int low );
+
+		/**
+		 *	@return The first value at or after from, -1 if there is none.
+		 */
+		abstract int nextSet( int from );
+
+		/**
+		 *	@return The first value at or after from not in the block,
+		 *		0x10000 if there is none.
+		 */
+		abstract int nextClear( int from );
+
+		abstract Container copy();
+
+		/**
+		 *	@return A new bitmap holding the same values.
+		 */
+		abstract BitmapContainer toBitmap();
+
+		abstract long bytes();
+	}
+
+	private static final class ArrayContainer extends Container
+	{
+		char[] values;
+		int size;
+
+		ArrayContainer( char[] values, int size )
+		{
+			this.values = values;
+			this.size = size;
+		}
+
+		int cardinality()
+		{
+			return( this.size );
+		}
+
+		boolean contains( int low )
+		{
+			return( Arrays.binarySearch( this.values, 0, this.size, (char)low ) >= 0 );
+		}
+
+		Container add( int low )
+		{
+			int i = Arrays.binarySearch( this.values, 0, this.size, (char)low );
+			if( i >= 0 )
+			{
+				return( this );
+			}
+			if( this.size == ARRAY_MAX )
+			{
+				return( toBitmap().add( low ) );
+			}
+			i = -i - 1;
+			if( this.size == this.values.length )
+			{
+				this.values = Arrays.copyOf( this.values, Math.min( ARRAY_MAX, Math.max( 4, this.size * 2 ) ) );
+			}
+			System.arraycopy( this.values, i, this.values, i + 1, this.size - i );
+			this.values[i] = (char)low;
+			++this.size;
+			return( this );
+		}
+
+		Container remove( int low )
+		{
+			int i = Arrays.binarySearch( this.values, 0, this.size, (char)low );
+			if( i >= 0 )
+			{
+				System.arraycopy( this.values, i + 1, this.values, i, this.size - i - 1 );
+				--this.size;
+			}
+			return( ( this.size == 0 ) ? null : this );
+		}
+
+		Container addRange( int first, int last )
+		{
+			int count = last - first + 1;
+			if( this.size + count > ARRAY_MAX )
+			{
+				return( toBitmap().addRange( first, last ) );
+			}
+			char[] v = new char[ this.size + count ];
+			int n = 0;
+			int i = 0;
+			while( ( i < this.size ) && ( this.values[i] < first ) )
+			{
+				v[n++] = this.values[i++];
+			}
+			for( int x = first; x <= last; ++x )
+			{
+				v[n++] = (char)x;
+			}
+			while( ( i < this.size ) && ( this.values[i] <= last ) )
+			{
+				++i;
+			}
+			while( i < this.size )
+			{
+				v[n++] = this.values[i++];
+			}
+			this.values = v;
+			this.size = n;
+			return( this );
+		}
+
+		int rank( int low )
+		{
+			int i = Arrays.binarySearch( this.values, 0, this.size, (char)low );
+			return( ( i >= 0 ) ? i + 1 : -i - 1 );
+		}
+
+		int nextSet( int from )
+		{
+			int i = Arrays.binarySearch( this.values, 0, this.size, (char)from );
+			if( i < 0 )
+			{
+				i = -i - 1;
+			}
+			return( ( i < this.size ) ? this.values[i] : -1 );
+		}
+
+		int nextClear( int from )
+		{
+			int i = Arrays.binarySearch( this.values, 0, this.size, (char)from );
+			if( i < 0 )
+			{
+				return( from );
+			}
+			while( ( i + 1 < this.size ) && ( this.values[i + 1] == this.values[i] + 1 ) )
+			{
+				++i;
+			}
+			return( this.values[i] + 1 );
+		}
+
+		Container copy()
+		{
+			return( new ArrayContainer( Arrays.copyOf( this.values, this.size ), this.size ) );
+		}
+
+		BitmapContainer toBitmap()
+		{
+			BitmapContainer b = new BitmapContainer();
+			for( int i = 0; i < this.size; ++i )
+			{
+				b.words[this.values[i] >>> 6] |= 1L << this.values[i];
+			}
+			b.cardinality = this.size;
+			return( b );
+		}
+
+		long bytes()
+		{
+			return( 2L * this.values.length );
+		}
+	}
+
+	private static final class BitmapContainer extends Container
+	{
+		final long[] words = new long[ 1024 ];
+		int cardinality;
+
+		int cardinality()
+		{
+			return( this.cardinality );
+		}
+
+		boolean contains( int low )
+		{
+			return( ( this.words[low >>> 6] & ( 1L << low ) ) != 0L );
+		}
+
+		Container add( int low )
+		{
+			long bit = 1L << low;
+			if( ( this.words[low >>> 6] & bit ) == 0L )
+			{
+				this.words[low >>> 6] |= bit;
+				++this.cardinality;
+			}
+			return( ( this.cardinality == 0x10000 ) ? FULL : this );
+		}
+
+		Container remove( int low )
+		{
+			long bit = 1L << low;
+			if( ( this.words[low >>> 6] & bit ) != 0L )
+			{
+				this.words[low >>> 6] &= ~bit;
+				--this.cardinality;
+			}
+			return( normalize() );
+		}
+
+		Container addRange( int first, int last )
+		{
+			int fw = first >>> 6;
+			int lw = last >>> 6;
+			for( int w = fw; w <= lw; ++w )
+			{
+				long m = -1L;
+				if( w == fw )
+				{
+					m &= -1L << first;
+				}
+				if( w == lw )
+				{
+					m &= -1L >>> ( 63 - ( last & 63 ) );
+				}
+				this.cardinality += Long.bitCount( m & ~this.words[w] );
+				this.words[w] |= m;
+			}
+			return( ( this.cardinality == 0x10000 ) ? FULL : this );
+		}
+
+		int rank( int low )
+		{
+			int rank = 0;
+			int w = low >>> 6;
+			for( int i = 0; i < w; ++i )
+			{
+				rank += Long.bitCount( this.words[i] );
+			}
+			return( rank + Long.bitCount( this.words[w] & ( -1L >>> ( 63 - ( low & 63 ) ) ) ) );
+		}
+
+		int nextSet( int from )
+		{
+			int w = from >>> 6;
+			long word = this.words[w] & ( -1L << from );
+			while( word == 0L )
+			{
+				if( ++w == this.words.length )
+				{
+					return( -1 );
+				}
+				word = this.words[w];
+			}
+			return( ( w << 6 ) + Long.numberOfTrailingZeros( word ) );
+		}
+
+		int nextClear( int from )
+		{
+			int w = from >>> 6;
+			long word = ~this.words[w] & ( -1L << from );
+			while( word == 0L )
+			{
+				if( ++w == this.words.length )
+				{
+					return( 0x10000 );
+				}
+				word = ~this.words[w];
+			}
+			return( ( w << 6 ) + Long.numberOfTrailingZeros( word ) );
+		}
+
+		Container copy()
+		{
+			return( toBitmap() );
+		}
+
+		BitmapContainer toBitmap()
+		{
+			BitmapContainer b = new BitmapContainer();
+			System.arraycopy( this.words, 0, b.words, 0, this.words.length );
+			b.cardinality = this.cardinality;
+			return( b );
+		}
+
+		long bytes()
+		{
+			return( 8L * this.words.length );
+		}
+
+		void or( Container other )
+		{
+			if( other instanceof ArrayContainer )
+			{
+				ArrayContainer a = (ArrayContainer)other;
+				for( int i = 0; i < a.size; ++i )
+				{
+					this.words[a.values[i] >>> 6] |= 1L << a.values[i];
+				}
+			}
+			else
+			{
+				long[] w = ( (BitmapContainer)other ).words;
+				for( int i = 0; i < this.words.length; ++i )
+				{
+					this.words[i] |= w[i];
+				}
+			}
+			recount();
+		}
+
+		void recount()
+		{
+			int n = 0;
+			for( int i = 0; i < this.words.length; ++i )
+			{
+				n += Long.bitCount( this.words[i] );
+			}
+			this.cardinality = n;
+		}
+
+		/**
+		 *	@return The smallest form of the block, null if it is empty.
+		 */
+		Container normalize()
+		{
+			if( this.cardinality == 0 )
+			{
+				return( null );
+			}
+			if( this.cardinality == 0x10000 )
+			{
+				return( FULL );
+			}
+			if( this.cardinality > ARRAY_MAX )
+			{
+				return( this );
+			}
+			char[] v = new char[ this.cardinality ];
+			int n = 0;
+			for( int w = 0; w < this.words.length; ++w )
+			{
+				long word = this.words[w];
+				while( word != 0L )
+				{
+					v[n++] = (char)( ( w << 6 ) + Long.numberOfTrailingZeros( word ) );
+					word &= word - 1L;
+				}
+			}
+			return( new ArrayContainer( v, n ) );
+		}
+	}
+
+	/**
+	 *	A block holding all 65536 values, shared as it never changes.
+	 */
+	private static final class FullContainer extends Container
+	{
+		int cardinality()
+		{
+			return( 0x10000 );
+		}
+
+		boolean contains( int low )
+		{
+			return( true );
+		}
+
+		Container add( int low )
+		{
+			return( this );
+		}
+
+		Container remove( int low )
+		{
+			return( toBitmap().remove( low ) );
+		}
+
+		Container addRange( int first, int last )
+		{
+			return( this );
+		}
+
+		int rank( int low )
+		{
+			return( low + 1 );
+		}
+
+		int nextSet( int from )
+		{
+			return( from );
+		}
+
+		int nextClear( int from )
+		{
+			return( 0x10000 );
+		}
+
+		Container copy()
+		{
+			return( this );
+		}
+
+		BitmapContainer toBitmap()
+		{
+			BitmapContainer b = new BitmapContainer();
+			Arrays.fill( b.words, -1L );
+			b.cardinality = 0x10000;
+			return( b );
+		}
+
+		long bytes()
+		{
+			return( 0L );
+		}
+	}
+}
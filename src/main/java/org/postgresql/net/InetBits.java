@@ -0,0 +1,231 @@
+package org.postgresql.net;
+
+/**
+ *	Static helpers for moving between the byte[] form of an address used
+ *	by {@link PGNetworkBase} and the packed form used by the bulk APIs.
+ *
+ *	<p>An address is packed into two 64 bit words.  For IPv6 the high word
+ *	holds the first 8 bytes of the address and the low word the last 8
+ *	bytes, both in network order.  For IPv4 the high word is always zero
+ *	and the low word holds the address as an unsigned 32 bit value.</p>
+ */
+final class InetBits
+{
+	private InetBits()
+	{
+	}
+
+	/**
+	 *	Read the high word of an address.
+	 *
+	 *	@param a The 4 or 16 address bytes.
+	 *	@return The first 8 bytes of an IPv6 address, 0 for IPv4.
+	 */
+	static long high( byte[] a )
+	{
+		if( a.length != 16 )
+		{
+			return( 0L );
+		}
+		return( readLong( a, 0 ) );
+	}
+
+	/**
+	 *	Read the low word of an address.
+	 *
+	 *	@param a The 4 or 16 address bytes.
+	 *	@return The last 8 bytes of an IPv6 address, or the unsigned
+	 *		32 bit value of an IPv4 address.
+	 */
+	static long low( byte[] a )
+	{
+		if( a.length != 16 )
+		{
+			return( readInt( a, 0 ) & 0xFFFFFFFFL );
+		}
+		return( readLong( a, 8 ) );
+	}
+
+	/**
+	 *	Unpack a pair of words in to a newly allocated address.
+	 *
+	 *	@param ipv6 true for a 16 byte address, false for 4 bytes.
+	 *	@param hi The high word, ignored for IPv4.
+	 *	@param lo The low word.
+	 *	@return The address bytes in network order.
+	 */
+	static byte[] toBytes( boolean ipv6, long hi, long lo )
+	{
+		byte[] a = new byte[ ipv6 ? 16 : 4 ];
+		toBytes( ipv6, hi, lo, a, 0 );
+		return( a );
+	}
+
+	/**
+	 *	Unpack a pair of words in to an existing buffer.
+	 */
+	static void toBytes( boolean ipv6, long hi, long lo, byte[] dst, int off )
+	{
+		if( ipv6 )
+		{
+			writeLong( hi, dst, off );
+			writeLong( lo, dst, off + 8 );
+		}
+		else
+		{
+			writeInt( (int)lo, dst, off );
+		}
+	}
+
+	/**
+	 *	The high word of the netmask for a prefix length.
+	 *
+	 *	@param bits The prefix length.
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@return The mask, always 0 for IPv4.
+	 */
+	static long maskHigh( int bits, boolean ipv6 )
+	{
+		if( !ipv6 || ( bits <= 0 ) )
+		{
+			return( 0L );
+		}
+		return( ( bits >= 64 ) ? -1L : -1L << ( 64 - bits ) );
+	}
+
+	/**
+	 *	The low word of the netmask for a prefix length.
+	 *
+	 *	@param bits The prefix length.
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@return The mask, an unsigned 32 bit value for IPv4.
+	 */
+	static long maskLow( int bits, boolean ipv6 )
+	{
+		if( !ipv6 )
+		{
+			return( ( bits <= 0 ) ? 0L : ( 0xFFFFFFFFL << ( 32 - bits ) ) & 0xFFFFFFFFL );
+		}
+		if( bits <= 64 )
+		{
+			return( 0L );
+		}
+		return( ( bits >= 128 ) ? -1L : -1L << ( 128 - bits ) );
+	}
+
+	/**
+	 *	The hash of an address, the same value {@link PGNetworkBase#hashCode()}
+	 *	computes from the address bytes.
+	 */
+	static int hash( boolean ipv6, long hi, long lo, int netmask )
+	{
+		int hashValue = netmask | (~netmask << 8) | ( netmask << 16) << (~netmask << 24);
+		if( !ipv6 )
+		{
+			for( int i = 0; i < 4; ++i )
+			{
+				hashValue ^= ( (byte)( lo >>> ( 24 - ( i << 3 ) ) ) ) << ( i << 3 );
+			}
+			return( hashValue );
+		}
+		for( int i = 0; i < 16; ++i )
+		{
+			long word = ( i < 8 ) ? hi : lo;
+			hashValue ^= ( (byte)( word >>> ( 56 - ( ( i & 7 ) << 3 ) ) ) ) << ( ( i % 4 ) << 3 );
+		}
+		return( hashValue );
+	}
+
+	/**
+	 *	Compare two addresses in the server's sort order for inet and
+	 *	cidr, network_cmp() in src/backend/utils/adt/network.c.  IPv4
+	 *	sorts before IPv6, then the common prefix is compared, then the
+	 *	netmask, then the whole address.
+	 *
+	 *	@return A negative, zero or positive value.
+	 */
+	static int compare( boolean ipv6a, long hia, long loa, int bitsa,
+		boolean ipv6b, long hib, long lob, int bitsb )
+	{
+		if( ipv6a != ipv6b )
+		{
+			return( ipv6a ? 1 : -1 );
+		}
+		int common = Math.min( bitsa, bitsb );
+		long mh = maskHigh( common, ipv6a );
+		long ml = maskLow( common, ipv6a );
+		int c = Long.compareUnsigned( hia & mh, hib & mh );
+		if( c == 0 )
+		{
+			c = Long.compareUnsigned( loa & ml, lob & ml );
+		}
+		if( c == 0 )
+		{
+			c = bitsa - bitsb;
+		}
+		if( c == 0 )
+		{
+			c = Long.compareUnsigned( hia, hib );
+		}
+		if( c == 0 )
+		{
+			c = Long.compareUnsigned( loa, lob );
+		}
+		return( c );
+	}
+
+	/**
+	 *	A well mixed 64 bit hash of an address or prefix for the in
+	 *	memory tables and sketches, built from the murmur3 finalizer.
+	 *	Unlike {@link #hash(boolean, long, long, int)} every bit of the
+	 *	result depends on every bit of the input.
+	 */
+	static long mix( boolean ipv6, long hi, long lo, int bits )
+	{
+		long h = fmix( hi ^ ( ( ( (long)bits << 1 ) | ( ipv6 ? 1L : 0L ) ) * 0x9E3779B97F4A7C15L ) );
+		return( fmix( h ^ lo ) );
+	}
+
+	static long fmix( long h )
+	{
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return( h );
+	}
+
+	/**
+	 *	Compare two words as unsigned values.
+	 */
+	static boolean unsignedLess( long a, long b )
+	{
+		return( ( a ^ Long.MIN_VALUE ) < ( b ^ Long.MIN_VALUE ) );
+	}
+
+	static long readLong( byte[] b, int off )
+	{
+		return( ( (long)readInt( b, off ) << 32 ) | ( readInt( b, off + 4 ) & 0xFFFFFFFFL ) );
+	}
+
+	static int readInt( byte[] b, int off )
+	{
+		return( ( ( b[off] & 0xFF ) << 24 ) | ( ( b[off + 1] & 0xFF ) << 16 ) |
+			( ( b[off + 2] & 0xFF ) << 8 ) | ( b[off + 3] & 0xFF ) );
+	}
+
+	static void writeLong( long v, byte[] b, int off )
+	{
+		writeInt( (int)( v >>> 32 ), b, off );
+		writeInt( (int)v, b, off + 4 );
+	}
+
+	static void writeInt( int v, byte[] b, int off )
+	{
+		b[off] = (byte)( v >>> 24 );
+		b[off + 1] = (byte)( v >>> 16 );
+		b[off + 2] = (byte)( v >>> 8 );
+		b[off + 3] = (byte)v;
+	}
+}
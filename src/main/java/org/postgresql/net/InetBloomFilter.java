@@ -0,0 +1,466 @@
+package org.postgresql.net;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.function.BinaryOperator;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import org.postgresql.util.GT;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.PSQLState;
+
+/**
+ *	A Bloom filter of addresses, to answer most lookups against a large
+ *	blocklist without asking the database.
+ *
+ *	<p>{@link #mightContain(PGinet)} never returns false for an address
+ *	that was added, and returns true for an address that was not with
+ *	about the false positive rate the filter was sized for, as long as no
+ *	more than the expected number of addresses are added.  Addresses can
+ *	be rolled up to a covering prefix, so adding 192.0.2.7 to a filter of
+ *	/24 prefixes makes every address in 192.0.2.0/24 match.</p>
+ *
+ *	<p>A filter is not thread safe while it is being built.  Give each
+ *	thread its own filter of the same shape and combine them with
+ *	{@link #merge(InetBloomFilter)}, or use
+ *	{@link #build(InetColumn, double, int, int)}.  Once built it can be
+ *	read from any number of threads, and written to a file or bytea with
+ *	{@link #writeTo(OutputStream)} or {@link #toByteArray()}.</p>
+ */
+public final class InetBloomFilter
+{
+	/** The first byte of the serialized form. */
+	static final byte MAGIC = 'B';
+
+	private static final long SECOND_HASH = 0x632BE59BD9B4E019L;
+
+	/** The number of words read from a stream at a time. */
+	private static final int BLOCK_WORDS = 8192;
+
+	private final int hashes;
+	private final int ipv4Prefix;
+	private final int ipv6Prefix;
+	private final long[] words;
+	private final long bitCount;
+
+	/**
+	 *	Create a filter of single addresses.
+	 *
+	 *	@param expectedInsertions The number of addresses to be added.
+	 *	@param falsePositiveRate The wanted rate, greater than 0 and less
+	 *		than 1.
+	 */
+	public InetBloomFilter( long expectedInsertions, double falsePositiveRate )
+	{
+		this( expectedInsertions, falsePositiveRate, 32, 128 );
+	}
+
+	/**
+	 *	Create a filter of covering prefixes.
+	 *
+	 *	@param expectedInsertions The number of addresses to be added.
+	 *	@param falsePositiveRate The wanted rate, greater than 0 and less
+	 *		than 1.
+	 *	@param ipv4Prefix The prefix length IPv4 addresses are added and
+	 *		looked up at.
+	 *	@param ipv6Prefix The prefix length IPv6 addresses are added and
+	 *		looked up at.
+	 */
+	public InetBloomFilter( long expectedInsertions, double falsePositiveRate, int ipv4Prefix, int ipv6Prefix )
+	{
+		this( hashes( expectedInsertions, falsePositiveRate ), words( expectedInsertions, falsePositiveRate ),
+			ipv4Prefix, ipv6Prefix );
+	}
+
+	private InetBloomFilter( int hashes, int words, int ipv4Prefix, int ipv6Prefix )
+	{
+		this( hashes, new long[ words ], ipv4Prefix, ipv6Prefix );
+	}
+
+	private InetBloomFilter( int hashes, long[] words, int ipv4Prefix, int ipv6Prefix )
+	{
+		if( ( ipv4Prefix < 0 ) || ( ipv4Prefix > 32 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv4 prefix length: " + ipv4Prefix ) );
+		}
+		if( ( ipv6Prefix < 0 ) || ( ipv6Prefix > 128 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv6 prefix length: " + ipv6Prefix ) );
+		}
+		this.hashes = hashes;
+		this.ipv4Prefix = ipv4Prefix;
+		this.ipv6Prefix = ipv6Prefix;
+		this.words = words;
+		this.bitCount = 64L * words.length;
+	}
+
+	/**
+	 *	Build a filter of the addresses in a column, splitting the work
+	 *	over the common fork join pool.  SQL NULLs are skipped.
+	 *
+	 *	@param column The addresses.
+	 *	@param falsePositiveRate The wanted rate.
+	 *	@param ipv4Prefix The prefix length IPv4 addresses are added at.
+	 *	@param ipv6Prefix The prefix length IPv6 addresses are added at.
+	 *	@return The filter.
+	 */
+	public static InetBloomFilter build( final InetColumn column, final double falsePositiveRate,
+		final int ipv4Prefix, final int ipv6Prefix )
+	{
+		final int n = column.size();
+		final int parts = Math.max( 1, Math.min( Runtime.getRuntime().availableProcessors(), n >>> 16 ) );
+		return( IntStream.range( 0, parts ).parallel().mapToObj( new IntFunction<InetBloomFilter>()
+		{
+			public InetBloomFilter apply( int part )
+			{
+				InetBloomFilter filter = new InetBloomFilter( Math.max( n, 1 ), falsePositiveRate, ipv4Prefix, ipv6Prefix );
+				int end = (int)( (long)n * ( part + 1 ) / parts );
+				for( int i = (int)( (long)n * part / parts ); i < end; ++i )
+				{
+					if( !column.isNull( i ) )
+					{
+						filter.add( column.isIPv6( i ), column.getHighWord( i ), column.getLowWord( i ) );
+					}
+				}
+				return( filter );
+			}
+		} ).reduce( new BinaryOperator<InetBloomFilter>()
+		{
+			public InetBloomFilter apply( InetBloomFilter a, InetBloomFilter b )
+			{
+				a.merge( b );
+				return( a );
+			}
+		} ).get() );
+	}
+
+	/**
+	 *	Add an address, its netmask is ignored.
+	 *
+	 *	@param value The address, null is ignored.
+	 */
+	public void add( PGinet value )
+	{
+		if( value != null )
+		{
+			value.resolve();
+		}
+		if( ( value != null ) && ( value.addr != null ) )
+		{
+			add( value.addr.length == 16, InetBits.high( value.addr ), InetBits.low( value.addr ) );
+		}
+	}
+
+	/**
+	 *	Add the address in a cursor.
+	 *
+	 *	@param cursor The cursor, SQL NULL is ignored.
+	 */
+	public void add( InetCursor cursor )
+	{
+		if( !cursor.isNull() )
+		{
+			add( cursor.isIPv6(), cursor.getHighWord(), cursor.getLowWord() );
+		}
+	}
+
+	/**
+	 *	Add an address given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 */
+	public void add( boolean ipv6, long high, long low )
+	{
+		long h = hash( ipv6, high, low );
+		long step = InetBits.fmix( h ^ SECOND_HASH );
+		for( int i = 0; i < this.hashes; ++i )
+		{
+			long bit = ( h & Long.MAX_VALUE ) % this.bitCount;
+			this.words[(int)( bit >>> 6 )] |= 1L << bit;
+			h += step;
+		}
+	}
+
+	/**
+	 *	@param value An address, its netmask is ignored.
+	 *	@return false if the address was certainly not added, true if it
+	 *		probably was.  false for null.
+	 */
+	public boolean mightContain( PGinet value )
+	{
+		if( value == null )
+		{
+			return( false );
+		}
+		value.resolve();
+		return( ( value.addr != null ) &&
+			mightContain( value.addr.length == 16, InetBits.high( value.addr ), InetBits.low( value.addr ) ) );
+	}
+
+	/**
+	 *	@param cursor The cursor holding an address.
+	 *	@return false if the address was certainly not added, true if it
+	 *		probably was.  false for SQL NULL.
+	 */
+	public boolean mightContain( InetCursor cursor )
+	{
+		return( !cursor.isNull() && mightContain( cursor.isIPv6(), cursor.getHighWord(), cursor.getLowWord() ) );
+	}
+
+	/**
+	 *	Test an address given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@return false if the address was certainly not added, true if it
+	 *		probably was.
+	 */
+	public boolean mightContain( boolean ipv6, long high, long low )
+	{
+		long h = hash( ipv6, high, low );
+		long step = InetBits.fmix( h ^ SECOND_HASH );
+		for( int i = 0; i < this.hashes; ++i )
+		{
+			long bit = ( h & Long.MAX_VALUE ) % this.bitCount;
+			if( ( this.words[(int)( bit >>> 6 )] & ( 1L << bit ) ) == 0L )
+			{
+				return( false );
+			}
+			h += step;
+		}
+		return( true );
+	}
+
+	/**
+	 *	Add the contents of another filter to this one.
+	 *
+	 *	@param other A filter of the same size, hash count and prefix
+	 *		lengths.
+	 */
+	public void merge( InetBloomFilter other )
+	{
+		if( ( other.words.length != this.words.length ) || ( other.hashes != this.hashes ) ||
+			( other.ipv4Prefix != this.ipv4Prefix ) || ( other.ipv6Prefix != this.ipv6Prefix ) )
+		{
+			throw( new IllegalArgumentException( "Filters of different shapes can not be merged" ) );
+		}
+		for( int i = 0; i < this.words.length; ++i )
+		{
+			this.words[i] |= other.words[i];
+		}
+	}
+
+	/**
+	 *	@return The number of bits in the filter.
+	 */
+	public long getBitCount()
+	{
+		return( this.bitCount );
+	}
+
+	/**
+	 *	@return The number of bits set for each address.
+	 */
+	public int getHashCount()
+	{
+		return( this.hashes );
+	}
+
+	/**
+	 *	The false positive rate implied by the share of bits now set, which
+	 *	grows past the configured rate when more addresses than expected
+	 *	have been added.
+	 *
+	 *	@return The estimated rate.
+	 */
+	public double getFalsePositiveRate()
+	{
+		long set = 0L;
+		for( int i = 0; i < this.words.length; ++i )
+		{
+			set += Long.bitCount( this.words[i] );
+		}
+		return( Math.pow( (double)set / this.bitCount, this.hashes ) );
+	}
+
+	/**
+	 *	Write the filter in the form read by {@link #readFrom(InputStream)}.
+	 *
+	 *	@param out The stream, it is flushed but not closed.
+	 *	@exception IOException If writing fails.
+	 */
+	public void writeTo( OutputStream out )
+	throws IOException
+	{
+		DataOutputStream data = new DataOutputStream( new BufferedOutputStream( out, 65536 ) );
+		data.writeByte( MAGIC );
+		data.writeByte( this.hashes );
+		data.writeByte( this.ipv4Prefix );
+		data.writeByte( this.ipv6Prefix );
+		data.writeInt( this.words.length );
+		for( int i = 0; i < this.words.length; ++i )
+		{
+			data.writeLong( this.words[i] );
+		}
+		data.flush();
+	}
+
+	/**
+	 *	Read a filter written by {@link #writeTo(OutputStream)}.
+	 *
+	 *	@param in The stream, it is read to the end of the filter but not
+	 *		closed.
+	 *	@return The filter.
+	 *	@exception IOException If reading fails.
+	 *	@exception SQLException If the stream does not hold a valid filter.
+	 */
+	public static InetBloomFilter readFrom( InputStream in )
+	throws IOException, SQLException
+	{
+		// not buffered, a buffer would read past the end of the filter
+		DataInputStream data = new DataInputStream( in );
+		try
+		{
+			if( data.readByte() != MAGIC )
+			{
+				throw( invalid( "not a Bloom filter" ) );
+			}
+			int hashes = data.readUnsignedByte();
+			int ipv4Prefix = data.readUnsignedByte();
+			int ipv6Prefix = data.readUnsignedByte();
+			int words = data.readInt();
+			if( ( hashes < 1 ) || ( hashes > 30 ) || ( ipv4Prefix > 32 ) || ( ipv6Prefix > 128 ) || ( words < 1 ) ||
+				( words > Integer.MAX_VALUE - 8 ) )
+			{
+				throw( invalid( "bad header" ) );
+			}
+			// grown as the words arrive, so a bad header cannot force a
+			// huge allocation before the stream runs out
+			long[] body = new long[ Math.min( words, BLOCK_WORDS ) ];
+			byte[] block = new byte[ 8 * body.length ];
+			for( int i = 0; i < words; i += BLOCK_WORDS )
+			{
+				int n = Math.min( words - i, BLOCK_WORDS );
+				data.readFully( block, 0, 8 * n );
+				if( i + n > body.length )
+				{
+					body = Arrays.copyOf( body, (int)Math.min( words, 2L * body.length ) );
+				}
+				for( int j = 0; j < n; ++j )
+				{
+					body[i + j] = InetBits.readLong( block, 8 * j );
+				}
+			}
+			return( new InetBloomFilter( hashes, body, ipv4Prefix, ipv6Prefix ) );
+		}
+		catch( EOFException e )
+		{
+			throw( invalid( "truncated" ) );
+		}
+	}
+
+	/**
+	 *	@return The filter in a form that can be stored in a bytea column
+	 *		and read back with {@link #fromByteArray(byte[])}.
+	 */
+	public byte[] toByteArray()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream( 8 + 8 * this.words.length );
+		try
+		{
+			writeTo( out );
+		}
+		catch( IOException e )
+		{
+			throw( new IllegalStateException( e ) );
+		}
+		return( out.toByteArray() );
+	}
+
+	/**
+	 *	Read a filter written by {@link #toByteArray()}.
+	 *
+	 *	@param b The serialized filter.
+	 *	@return The filter.
+	 *	@exception SQLException If the bytes are not a valid filter.
+	 */
+	public static InetBloomFilter fromByteArray( byte[] b )
+	throws SQLException
+	{
+		if( b.length < 8 )
+		{
+			throw( invalid( "truncated" ) );
+		}
+		if( b.length != 8 + 8L * InetBits.readInt( b, 4 ) )
+		{
+			throw( invalid( "bad length" ) );
+		}
+		try
+		{
+			return( readFrom( new ByteArrayInputStream( b ) ) );
+		}
+		catch( IOException e )
+		{
+			throw( new IllegalStateException( e ) );
+		}
+	}
+
+	private long hash( boolean ipv6, long high, long low )
+	{
+		int bits = ipv6 ? this.ipv6Prefix : this.ipv4Prefix;
+		return( InetBits.mix( ipv6, high & InetBits.maskHigh( bits, ipv6 ), low & InetBits.maskLow( bits, ipv6 ), bits ) );
+	}
+
+	/**
+	 *	The optimal number of hashes, ln 2 times the bits per address.
+	 */
+	private static int hashes( long expectedInsertions, double falsePositiveRate )
+	{
+		check( expectedInsertions, falsePositiveRate );
+		int k = (int)Math.round( -Math.log( falsePositiveRate ) / Math.log( 2.0 ) );
+		return( Math.max( 1, Math.min( 30, k ) ) );
+	}
+
+	private static int words( long expectedInsertions, double falsePositiveRate )
+	{
+		check( expectedInsertions, falsePositiveRate );
+		double bits = -expectedInsertions * Math.log( falsePositiveRate ) / ( Math.log( 2.0 ) * Math.log( 2.0 ) );
+		double words = Math.ceil( bits / 64.0 );
+		if( words > Integer.MAX_VALUE - 8 )
+		{
+			throw( new IllegalArgumentException( "Filter too large: " + (long)bits + " bits" ) );
+		}
+		return( Math.max( 1, (int)words ) );
+	}
+
+	private static void check( long expectedInsertions, double falsePositiveRate )
+	{
+		if( expectedInsertions <= 0L )
+		{
+			throw( new IllegalArgumentException( "Invalid expected insertions: " + expectedInsertions ) );
+		}
+		if( !( falsePositiveRate > 0.0 ) || !( falsePositiveRate < 1.0 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid false positive rate: " + falsePositiveRate ) );
+		}
+	}
+
+	static PSQLException invalid( String detail )
+	{
+		return( new PSQLException( GT.tr( "Invalid filter: {0}.", detail ), PSQLState.DATA_ERROR ) );
+	}
+}
@@ -0,0 +1,297 @@
+package org.postgresql.net;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ *	A growable column of inet or cidr values held in primitive arrays.
+ *
+ *	<p>Each element is stored as the two address words described on
+ *	{@link PGNetworkBase#getHighWord()} and {@link PGNetworkBase#getLowWord()}
+ *	plus its netmask, so a column of any size costs a fixed 18 bytes per
+ *	element and no objects.  PGinet or PGcidr objects are only created on
+ *	request through {@link #getInet(int)} and {@link #getCidr(int)}.</p>
+ *
+ *	<p>Columns are filled by {@link InetArrayCodec} or by the add methods
+ *	and can be turned back in to an array literal with
+ *	{@link InetArrayCodec#toArrayLiteral(InetColumn)}.</p>
+ */
+public final class InetColumn
+{
+	private static final byte FLAG_IPV6 = 1;
+	private static final byte FLAG_EMBEDDED_IPV4 = 2;
+	private static final byte FLAG_NULL = 4;
+
+	private long[] high;
+	private long[] low;
+	private byte[] netmask;
+	private byte[] flags;
+	private int size;
+
+	/**
+	 *	Create an empty column.
+	 */
+	public InetColumn()
+	{
+		this( 16 );
+	}
+
+	/**
+	 *	Create an empty column with room for capacity elements.
+	 *
+	 *	@param capacity The number of elements to reserve space for.
+	 */
+	public InetColumn( int capacity )
+	{
+		if( capacity < 0 )
+		{
+			throw( new IllegalArgumentException( "Negative capacity: " + capacity ) );
+		}
+		this.high = new long[ capacity ];
+		this.low = new long[ capacity ];
+		this.netmask = new byte[ capacity ];
+		this.flags = new byte[ capacity ];
+	}
+
+	/**
+	 *	@return The number of elements in this column.
+	 */
+	public int size()
+	{
+		return( this.size );
+	}
+
+	/**
+	 *	Remove all elements, keeping the allocated space.
+	 */
+	public void clear()
+	{
+		this.size = 0;
+	}
+
+	/**
+	 *	@param i The index of the element.
+	 *	@return true if the element is an SQL NULL.
+	 */
+	public boolean isNull( int i )
+	{
+		return( ( flags( i ) & FLAG_NULL ) != 0 );
+	}
+
+	/**
+	 *	@param i The index of the element.
+	 *	@return true if the element is an IPv6 address.
+	 */
+	public boolean isIPv6( int i )
+	{
+		return( ( flags( i ) & FLAG_IPV6 ) != 0 );
+	}
+
+	/**
+	 *	@param i The index of the element.
+	 *	@return The high word of the address, 0 for IPv4 and NULL.
+	 */
+	public long getHighWord( int i )
+	{
+		checkIndex( i );
+		return( this.high[i] );
+	}
+
+	/**
+	 *	@param i The index of the element.
+	 *	@return The low word of the address, 0 for NULL.
+	 */
+	public long getLowWord( int i )
+	{
+		checkIndex( i );
+		return( this.low[i] );
+	}
+
+	/**
+	 *	@param i The index of the element.
+	 *	@return The netmask of the element, 0 for NULL.
+	 */
+	public int getNetmask( int i )
+	{
+		checkIndex( i );
+		return( this.netmask[i] & 0xFF );
+	}
+
+	/**
+	 *	Create a PGinet for an element.
+	 *
+	 *	@param i The index of the element.
+	 *	@return A new PGinet or null if the element is NULL.
+	 */
+	public PGinet getInet( int i )
+	{
+		int f = flags( i );
+		if( ( f & FLAG_NULL ) != 0 )
+		{
+			return( null );
+		}
+		PGinet inet = new PGinet();
+		copyTo( inet, i, f );
+		return( inet );
+	}
+
+	/**
+	 *	Create a PGcidr for an element.
+	 *
+	 *	@param i The index of the element.
+	 *	@return A new PGcidr or null if the element is NULL.
+	 *	@exception SQLException If the element has bits set to the right
+	 *		of its netmask and therefore is not a valid cidr.
+	 */
+	public PGcidr getCidr( int i )
+	throws SQLException
+	{
+		int f = flags( i );
+		if( ( f & FLAG_NULL ) != 0 )
+		{
+			return( null );
+		}
+		PGcidr cidr = new PGcidr();
+		copyTo( cidr, i, f );
+		cidr.ensureHostBitsAreZero();
+		return( cidr );
+	}
+
+	/**
+	 *	Append an inet value.
+	 *
+	 *	@param value The value to append, null appends an SQL NULL.
+	 */
+	public void add( PGinet value )
+	{
+		addNetwork( value );
+	}
+
+	/**
+	 *	Append a cidr value.
+	 *
+	 *	@param value The value to append, null appends an SQL NULL.
+	 */
+	public void add( PGcidr value )
+	{
+		addNetwork( value );
+	}
+
+	/**
+	 *	Append an IPv4 address.
+	 *
+	 *	@param address The 32 bits of the address.
+	 *	@param netmask The netmask, 0 to 32.
+	 */
+	public void addIPv4( int address, int netmask )
+	{
+		if( ( netmask < 0 ) || ( netmask > 32 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv4 netmask: " + netmask ) );
+		}
+		add( false, 0L, address & 0xFFFFFFFFL, netmask, false );
+	}
+
+	/**
+	 *	Append an IPv6 address.
+	 *
+	 *	@param high The first 64 bits of the address.
+	 *	@param low The last 64 bits of the address.
+	 *	@param netmask The netmask, 0 to 128.
+	 */
+	public void addIPv6( long high, long low, int netmask )
+	{
+		if( ( netmask < 0 ) || ( netmask > 128 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv6 netmask: " + netmask ) );
+		}
+		add( true, high, low, netmask, false );
+	}
+
+	/**
+	 *	Append an SQL NULL.
+	 */
+	public void addNull()
+	{
+		int i = reserve();
+		this.high[i] = 0L;
+		this.low[i] = 0L;
+		this.netmask[i] = 0;
+		this.flags[i] = FLAG_NULL;
+	}
+
+	void add( boolean ipv6, long hi, long lo, int mask, boolean embedded )
+	{
+		int i = reserve();
+		this.high[i] = hi;
+		this.low[i] = lo;
+		this.netmask[i] = (byte)mask;
+		this.flags[i] = (byte)( ( ipv6 ? FLAG_IPV6 : 0 ) | ( embedded ? FLAG_EMBEDDED_IPV4 : 0 ) );
+	}
+
+	/**
+	 *	Append an element in the same format as {@link PGNetworkBase#getValue()}.
+	 *
+	 *	@return false if the element is NULL and nothing was appended.
+	 */
+	boolean appendTo( StringBuilder sb, int i )
+	{
+		int f = flags( i );
+		if( ( f & FLAG_NULL ) != 0 )
+		{
+			return( false );
+		}
+		InetText.append( sb, ( f & FLAG_IPV6 ) != 0, this.high[i], this.low[i],
+			this.netmask[i] & 0xFF, ( f & FLAG_EMBEDDED_IPV4 ) != 0 );
+		return( true );
+	}
+
+	private void addNetwork( PGNetworkBase value )
+	{
+		if( value != null )
+		{
+			value.resolve();
+		}
+		if( ( value == null ) || ( value.addr == null ) )
+		{
+			addNull();
+			return;
+		}
+		add( value.addr.length == 16, InetBits.high( value.addr ), InetBits.low( value.addr ),
+			value.netmask, value.embedded_ipv4 );
+	}
+
+	private void copyTo( PGNetworkBase target, int i, int f )
+	{
+		boolean ipv6 = ( f & FLAG_IPV6 ) != 0;
+		target.setAddress( InetBits.toBytes( ipv6, this.high[i], this.low[i] ),
+			this.netmask[i] & 0xFF, ( f & FLAG_EMBEDDED_IPV4 ) != 0 );
+	}
+
+	private int reserve()
+	{
+		if( this.size == this.flags.length )
+		{
+			int capacity = Math.max( 16, this.size + ( this.size >> 1 ) );
+			this.high = Arrays.copyOf( this.high, capacity );
+			this.low = Arrays.copyOf( this.low, capacity );
+			this.netmask = Arrays.copyOf( this.netmask, capacity );
+			this.flags = Arrays.copyOf( this.flags, capacity );
+		}
+		return( this.size++ );
+	}
+
+	private int flags( int i )
+	{
+		checkIndex( i );
+		return( this.flags[i] );
+	}
+
+	private void checkIndex( int i )
+	{
+		if( ( i < 0 ) || ( i >= this.size ) )
+		{
+			throw( new IndexOutOfBoundsException( "Index: " + i + ", Size: " + this.size ) );
+		}
+	}
+}
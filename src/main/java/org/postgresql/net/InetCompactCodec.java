@@ -0,0 +1,293 @@
+package org.postgresql.net;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import org.postgresql.util.GT;
+import org.postgresql.util.PGobject;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.PSQLState;
+
+/**
+ *	A compact binary encoding of the network types for caches and queues
+ *	which do not use Java serialization.  It is also the encoding used
+ *	when a PGinet, PGcidr or PGmacaddr is written to an ObjectOutputStream.
+ *
+ *	<p>Every value starts with one header byte.  The low two bits give the
+ *	type (0 inet, 1 cidr, 2 macaddr), bit 2 is set for IPv6, bit 3 for an
+ *	IPv4 address embedded in IPv6 and bit 4 when the netmask is the full
+ *	width of the address and so is not written.  Otherwise a netmask byte
+ *	follows, then the 4, 16 or 6 address bytes in network order.  A host
+ *	address takes 5 bytes for IPv4, 17 for IPv6 and a mac address 7.</p>
+ */
+public final class InetCompactCodec
+{
+	/**
+	 *	The longest encoded value, an IPv6 network with its netmask.
+	 */
+	public static final int MAX_ENCODED_SIZE = 18;
+
+	static final int KIND_INET = 0;
+	static final int KIND_CIDR = 1;
+	static final int KIND_MACADDR = 2;
+	static final int KIND_MASK = 0x03;
+	static final int FLAG_IPV6 = 0x04;
+	static final int FLAG_EMBEDDED = 0x08;
+	static final int FLAG_HOST = 0x10;
+
+	/**
+	 *	Set only on the serialization proxy of the immutable value types,
+	 *	never by the public encode methods.
+	 */
+	static final int FLAG_VALUE = 0x20;
+	static final int FLAG_RESERVED = 0xC0;
+
+	private InetCompactCodec()
+	{
+	}
+
+	/**
+	 *	Get the number of bytes {@link #encode(PGobject, ByteBuffer)}
+	 *	will write for a value.
+	 *
+	 *	@param value A PGinet, PGcidr or PGmacaddr with a value.
+	 *	@return The encoded size in bytes.
+	 */
+	public static int encodedSize( PGobject value )
+	{
+		if( value instanceof PGmacaddr )
+		{
+			checkMacaddr( (PGmacaddr)value );
+			return( 7 );
+		}
+		PGNetworkBase net = checkNetwork( value );
+		return( encodedSize( net.addr.length == 16, net.netmask ) );
+	}
+
+	/**
+	 *	Encode a value in to a buffer.
+	 *
+	 *	@param value A PGinet, PGcidr or PGmacaddr with a value.
+	 *	@param dst The buffer to write to.
+	 *	@exception IllegalArgumentException If value is another type or
+	 *		has not been given a value.
+	 *	@exception java.nio.BufferOverflowException If dst does not have
+	 *		{@link #encodedSize(PGobject)} bytes remaining.
+	 */
+	public static void encode( PGobject value, ByteBuffer dst )
+	{
+		if( value instanceof PGmacaddr )
+		{
+			dst.put( (byte)KIND_MACADDR );
+			dst.put( checkMacaddr( (PGmacaddr)value ) );
+			return;
+		}
+		PGNetworkBase net = checkNetwork( value );
+		int kind = ( net instanceof PGcidr ) ? KIND_CIDR : KIND_INET;
+		encodeNetwork( dst, kind, net.addr, net.netmask, net.embedded_ipv4 );
+	}
+
+	/**
+	 *	Encode a value in to a new array.
+	 *
+	 *	@param value A PGinet, PGcidr or PGmacaddr with a value.
+	 *	@return The encoded bytes.
+	 */
+	public static byte[] encode( PGobject value )
+	{
+		byte[] b = new byte[ encodedSize( value ) ];
+		encode( value, ByteBuffer.wrap( b ) );
+		return( b );
+	}
+
+	/**
+	 *	Decode one value from a buffer, leaving the position after it.
+	 *
+	 *	@param src The buffer to read from.
+	 *	@return A new PGinet, PGcidr or PGmacaddr.
+	 *	@exception SQLException If the bytes are not a valid encoding.
+	 */
+	public static PGobject decode( ByteBuffer src )
+	throws SQLException
+	{
+		try
+		{
+			int header = src.get() & 0xFF;
+			if( ( header & ( FLAG_RESERVED | FLAG_VALUE ) ) != 0 )
+			{
+				throw( invalid( "header " + header ) );
+			}
+			return( decodeBody( src, header ) );
+		}
+		catch( BufferUnderflowException e )
+		{
+			throw( invalid( "truncated value" ) );
+		}
+	}
+
+	/**
+	 *	Decode a value from an array holding exactly one encoded value.
+	 *
+	 *	@param b The encoded bytes.
+	 *	@return A new PGinet, PGcidr or PGmacaddr.
+	 *	@exception SQLException If the bytes are not a valid encoding.
+	 */
+	public static PGobject decode( byte[] b )
+	throws SQLException
+	{
+		ByteBuffer src = ByteBuffer.wrap( b );
+		PGobject value = decode( src );
+		if( src.hasRemaining() )
+		{
+			throw( invalid( src.remaining() + " trailing bytes" ) );
+		}
+		return( value );
+	}
+
+	/**
+	 *	Decode a value which must be an inet.
+	 */
+	public static PGinet decodeInet( ByteBuffer src )
+	throws SQLException
+	{
+		return( (PGinet)expect( decode( src ), PGinet.class ) );
+	}
+
+	/**
+	 *	Decode a value which must be a cidr.
+	 */
+	public static PGcidr decodeCidr( ByteBuffer src )
+	throws SQLException
+	{
+		return( (PGcidr)expect( decode( src ), PGcidr.class ) );
+	}
+
+	/**
+	 *	Decode a value which must be a macaddr.
+	 */
+	public static PGmacaddr decodeMacaddr( ByteBuffer src )
+	throws SQLException
+	{
+		return( (PGmacaddr)expect( decode( src ), PGmacaddr.class ) );
+	}
+
+	static int encodedSize( boolean ipv6, int netmask )
+	{
+		int maxBits = ipv6 ? 128 : 32;
+		return( ( ipv6 ? 17 : 5 ) + ( ( netmask == maxBits ) ? 0 : 1 ) );
+	}
+
+	/**
+	 *	The full encoded size of a value given its header byte.
+	 */
+	static int encodedSize( int header )
+	{
+		if( ( header & KIND_MASK ) == KIND_MACADDR )
+		{
+			return( 7 );
+		}
+		return( ( ( ( header & FLAG_IPV6 ) != 0 ) ? 17 : 5 ) + ( ( ( header & FLAG_HOST ) != 0 ) ? 0 : 1 ) );
+	}
+
+	static void encodeNetwork( ByteBuffer dst, int kind, byte[] addr, int netmask, boolean embedded )
+	{
+		boolean ipv6 = addr.length == 16;
+		boolean host = netmask == ( ipv6 ? 128 : 32 );
+		int header = kind | ( ipv6 ? FLAG_IPV6 : 0 ) | ( ( ipv6 && embedded ) ? FLAG_EMBEDDED : 0 ) |
+			( host ? FLAG_HOST : 0 );
+		dst.put( (byte)header );
+		if( !host )
+		{
+			dst.put( (byte)netmask );
+		}
+		dst.put( addr );
+	}
+
+	/**
+	 *	Decode everything after the header byte.  The caller has
+	 *	already checked the reserved bits.
+	 */
+	static PGobject decodeBody( ByteBuffer src, int header )
+	throws SQLException
+	{
+		int kind = header & KIND_MASK;
+		if( kind == KIND_MACADDR )
+		{
+			if( ( header & ~( KIND_MASK | FLAG_VALUE ) ) != 0 )
+			{
+				throw( invalid( "header " + header ) );
+			}
+			byte[] mac = new byte[ 6 ];
+			src.get( mac );
+			PGmacaddr value = new PGmacaddr();
+			value.setBytes( mac );
+			return( value );
+		}
+		if( kind != KIND_INET && kind != KIND_CIDR )
+		{
+			throw( invalid( "type " + kind ) );
+		}
+		boolean ipv6 = ( header & FLAG_IPV6 ) != 0;
+		int maxBits = ipv6 ? 128 : 32;
+		int netmask = ( ( header & FLAG_HOST ) != 0 ) ? maxBits : ( src.get() & 0xFF );
+		if( netmask > maxBits )
+		{
+			throw( invalid( "netmask " + netmask ) );
+		}
+		byte[] addr = new byte[ ipv6 ? 16 : 4 ];
+		src.get( addr );
+		boolean embedded = ipv6 && ( header & FLAG_EMBEDDED ) != 0;
+		if( kind == KIND_CIDR )
+		{
+			PGcidr cidr = new PGcidr();
+			cidr.setAddress( addr, netmask, embedded );
+			cidr.ensureHostBitsAreZero();
+			return( cidr );
+		}
+		PGinet inet = new PGinet();
+		inet.setAddress( addr, netmask, embedded );
+		return( inet );
+	}
+
+	static PSQLException invalid( String detail )
+	{
+		return( new PSQLException( GT.tr( "Invalid compact network value: {0}.", detail ), PSQLState.DATA_ERROR ) );
+	}
+
+	private static PGobject expect( PGobject value, Class<?> type )
+	throws SQLException
+	{
+		if( !type.isInstance( value ) )
+		{
+			throw( new PSQLException( GT.tr( "Conversion to type {0} failed: {1}.",
+				new Object[]{ type.getSimpleName(), value.getValue() } ), PSQLState.DATA_TYPE_MISMATCH ) );
+		}
+		return( value );
+	}
+
+	private static PGNetworkBase checkNetwork( PGobject value )
+	{
+		if( !( value instanceof PGNetworkBase ) )
+		{
+			throw( new IllegalArgumentException( "Not a network type: " +
+				( ( value == null ) ? null : value.getClass().getName() ) ) );
+		}
+		PGNetworkBase net = (PGNetworkBase)value;
+		net.resolve();
+		if( net.addr == null )
+		{
+			throw( new IllegalArgumentException( "No value has been set" ) );
+		}
+		return( net );
+	}
+
+	private static byte[] checkMacaddr( PGmacaddr value )
+	{
+		value.resolve();
+		if( value.macaddress == null )
+		{
+			throw( new IllegalArgumentException( "No value has been set" ) );
+		}
+		return( value.macaddress );
+	}
+}
@@ -0,0 +1,555 @@
+package org.postgresql.net;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import org.postgresql.util.GT;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.PSQLState;
+
+/**
+ *	A Count-Min sketch of per-address counts with a list of the heaviest
+ *	hitters, for traffic volumes where exact counting costs too much.
+ *
+ *	<p>The sketch is a depth by width table of counters.  Every update adds
+ *	to one counter per row and an estimate is the smallest of those
+ *	counters, so estimates are never too low and exceed the true count by
+ *	at most e / width of the total with probability 1 - e^-depth.  The
+ *	topK addresses with the highest estimates seen so far are tracked
+ *	alongside in a small heap and returned by {@link #topK()}.</p>
+ *
+ *	<p>Addresses can be rolled up to a covering prefix as they are
+ *	counted.  Sketches with the same shape can be merged, so each thread or
+ *	node can keep its own and combine them later, and
+ *	{@link #toByteArray()} gives a form that can be stored in a bytea
+ *	column.  A sketch is not thread safe.</p>
+ */
+public final class InetCountMinSketch
+{
+	/** The first byte of the serialized form. */
+	static final byte MAGIC = 'C';
+
+	private static final int MAX_CELLS = 1 << 26;
+
+	private final int width;
+	private final int depth;
+	private final int ipv4Prefix;
+	private final int ipv6Prefix;
+	private final long[] table;
+	private long total;
+
+	// the candidate heavy hitters, a slot per candidate
+	private final int topK;
+	private final boolean[] candidateIPv6;
+	private final long[] candidateHigh;
+	private final long[] candidateLow;
+	private final byte[] candidateBits;
+	private final long[] candidateHash;
+	private final long[] candidateEstimate;
+	// a min-heap of slots by estimate and each slot's place in it
+	private final int[] heap;
+	private final int[] heapIndex;
+	private int candidates;
+	// a linear probing index from key hash to slot + 1
+	private final int[] index;
+
+	/**
+	 *	Create a sketch counting single addresses.
+	 *
+	 *	@param width The number of counters per row.
+	 *	@param depth The number of rows.
+	 *	@param topK The number of heavy hitters to track, may be 0.
+	 */
+	public InetCountMinSketch( int width, int depth, int topK )
+	{
+		this( width, depth, topK, 32, 128 );
+	}
+
+	/**
+	 *	Create a sketch counting covering prefixes.
+	 *
+	 *	@param width The number of counters per row.
+	 *	@param depth The number of rows.
+	 *	@param topK The number of heavy hitters to track, may be 0.
+	 *	@param ipv4Prefix The prefix length IPv4 addresses are counted at.
+	 *	@param ipv6Prefix The prefix length IPv6 addresses are counted at.
+	 */
+	public InetCountMinSketch( int width, int depth, int topK, int ipv4Prefix, int ipv6Prefix )
+	{
+		if( ( width <= 0 ) || ( depth <= 0 ) || ( (long)width * depth > MAX_CELLS ) )
+		{
+			throw( new IllegalArgumentException( "Invalid sketch size: " + width + " by " + depth ) );
+		}
+		if( ( topK < 0 ) || ( topK > ( 1 << 20 ) ) )
+		{
+			throw( new IllegalArgumentException( "Invalid number of heavy hitters: " + topK ) );
+		}
+		if( ( ipv4Prefix < 0 ) || ( ipv4Prefix > 32 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv4 prefix length: " + ipv4Prefix ) );
+		}
+		if( ( ipv6Prefix < 0 ) || ( ipv6Prefix > 128 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv6 prefix length: " + ipv6Prefix ) );
+		}
+		this.width = width;
+		this.depth = depth;
+		this.ipv4Prefix = ipv4Prefix;
+		this.ipv6Prefix = ipv6Prefix;
+		this.table = new long[ width * depth ];
+		this.topK = topK;
+		this.candidateIPv6 = new boolean[ topK ];
+		this.candidateHigh = new long[ topK ];
+		this.candidateLow = new long[ topK ];
+		this.candidateBits = new byte[ topK ];
+		this.candidateHash = new long[ topK ];
+		this.candidateEstimate = new long[ topK ];
+		this.heap = new int[ topK ];
+		this.heapIndex = new int[ topK ];
+		this.index = new int[ ( topK == 0 ) ? 0 : Integer.highestOneBit( topK ) << 2 ];
+	}
+
+	/**
+	 *	Create a sketch from error bounds.
+	 *
+	 *	@param epsilon The error of an estimate as a fraction of the
+	 *		total count, for example 0.0001.
+	 *	@param confidence The probability that an estimate is within
+	 *		that error, for example 0.999.
+	 *	@param topK The number of heavy hitters to track, may be 0.
+	 *	@return The sketch.
+	 */
+	public static InetCountMinSketch withError( double epsilon, double confidence, int topK )
+	{
+		if( !( epsilon > 0.0 ) || !( confidence > 0.0 ) || !( confidence < 1.0 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid error bounds: " + epsilon + ", " + confidence ) );
+		}
+		int width = (int)Math.min( MAX_CELLS, Math.ceil( Math.E / epsilon ) );
+		int depth = (int)Math.ceil( Math.log( 1.0 / ( 1.0 - confidence ) ) );
+		return( new InetCountMinSketch( width, Math.max( 1, Math.min( depth, MAX_CELLS / width ) ), topK ) );
+	}
+
+	/**
+	 *	Count one occurrence of an address, its netmask is ignored.
+	 *
+	 *	@param value The address, null is ignored.
+	 */
+	public void add( PGinet value )
+	{
+		if( value != null )
+		{
+			value.resolve();
+		}
+		if( ( value != null ) && ( value.addr != null ) )
+		{
+			add( value.addr.length == 16, InetBits.high( value.addr ), InetBits.low( value.addr ), 1L );
+		}
+	}
+
+	/**
+	 *	Count one occurrence of the address in a cursor.
+	 *
+	 *	@param cursor The cursor, SQL NULL is ignored.
+	 */
+	public void add( InetCursor cursor )
+	{
+		if( !cursor.isNull() )
+		{
+			add( cursor.isIPv6(), cursor.getHighWord(), cursor.getLowWord(), 1L );
+		}
+	}
+
+	/**
+	 *	Add to the count of an address given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@param count The amount to add, not negative.
+	 */
+	public void add( boolean ipv6, long high, long low, long count )
+	{
+		if( count < 0 )
+		{
+			throw( new IllegalArgumentException( "Invalid count: " + count ) );
+		}
+		int bits = ipv6 ? this.ipv6Prefix : this.ipv4Prefix;
+		long hi = high & InetBits.maskHigh( bits, ipv6 );
+		long lo = low & InetBits.maskLow( bits, ipv6 );
+		long h = InetBits.mix( ipv6, hi, lo, bits );
+		long estimate = Long.MAX_VALUE;
+		for( int row = 0; row < this.depth; ++row )
+		{
+			int cell = cell( h, row );
+			long v = this.table[cell] += count;
+			estimate = Math.min( estimate, v );
+		}
+		this.total += count;
+		if( this.topK > 0 )
+		{
+			offer( ipv6, hi, lo, bits, h, estimate );
+		}
+	}
+
+	/**
+	 *	@param value An address.
+	 *	@return The estimated count of the address or its prefix.
+	 */
+	public long estimate( PGinet value )
+	{
+		value.resolve();
+		if( value.addr == null )
+		{
+			return( 0L );
+		}
+		return( estimate( value.addr.length == 16, InetBits.high( value.addr ), InetBits.low( value.addr ) ) );
+	}
+
+	/**
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@return The estimated count of the address or its prefix, never
+	 *		less than the true count.
+	 */
+	public long estimate( boolean ipv6, long high, long low )
+	{
+		int bits = ipv6 ? this.ipv6Prefix : this.ipv4Prefix;
+		long hi = high & InetBits.maskHigh( bits, ipv6 );
+		long lo = low & InetBits.maskLow( bits, ipv6 );
+		return( estimate( InetBits.mix( ipv6, hi, lo, bits ) ) );
+	}
+
+	/**
+	 *	@return The sum of all counts added.
+	 */
+	public long total()
+	{
+		return( this.total );
+	}
+
+	/**
+	 *	@return The tracked heavy hitters with their estimated counts,
+	 *		highest first.
+	 */
+	public InetCounts topK()
+	{
+		int n = this.candidates;
+		boolean[] ipv6 = new boolean[ n ];
+		long[] high = new long[ n ];
+		long[] low = new long[ n ];
+		byte[] bits = new byte[ n ];
+		long[] count = new long[ n ];
+		for( int i = 0; i < n; ++i )
+		{
+			ipv6[i] = this.candidateIPv6[i];
+			high[i] = this.candidateHigh[i];
+			low[i] = this.candidateLow[i];
+			bits[i] = this.candidateBits[i];
+			count[i] = this.candidateEstimate[i];
+		}
+		return( new InetCounts( ipv6, high, low, bits, count ).top( n ) );
+	}
+
+	/**
+	 *	Add the counts of another sketch to this one.  The heavy hitters
+	 *	of both are estimated again from the merged counters.
+	 *
+	 *	@param other A sketch with the same width, depth and prefix lengths.
+	 */
+	public void merge( InetCountMinSketch other )
+	{
+		if( ( other.width != this.width ) || ( other.depth != this.depth ) ||
+			( other.ipv4Prefix != this.ipv4Prefix ) || ( other.ipv6Prefix != this.ipv6Prefix ) )
+		{
+			throw( new IllegalArgumentException( "Sketches of different shapes can not be merged" ) );
+		}
+		for( int i = 0; i < this.table.length; ++i )
+		{
+			this.table[i] += other.table[i];
+		}
+		this.total += other.total;
+		if( this.topK == 0 )
+		{
+			return;
+		}
+		// estimate the tracked keys again and restore the heap order
+		for( int slot = 0; slot < this.candidates; ++slot )
+		{
+			this.candidateEstimate[slot] = estimate( this.candidateHash[slot] );
+		}
+		for( int i = this.candidates - 1; i >= 0; --i )
+		{
+			siftDown( i );
+		}
+		for( int slot = 0; slot < other.candidates; ++slot )
+		{
+			long h = other.candidateHash[slot];
+			offer( other.candidateIPv6[slot], other.candidateHigh[slot], other.candidateLow[slot],
+				other.candidateBits[slot] & 0xFF, h, estimate( h ) );
+		}
+	}
+
+	/**
+	 *	@return The sketch in a form that can be stored in a bytea column
+	 *		and read back with {@link #fromByteArray(byte[])}.
+	 */
+	public byte[] toByteArray()
+	{
+		ByteBuffer b = ByteBuffer.allocate( 28 + 18 * this.candidates + 8 * this.table.length );
+		b.put( MAGIC );
+		b.put( (byte)this.ipv4Prefix );
+		b.put( (byte)this.ipv6Prefix );
+		b.put( (byte)0 );
+		b.putInt( this.width );
+		b.putInt( this.depth );
+		b.putInt( this.topK );
+		b.putInt( this.candidates );
+		b.putLong( this.total );
+		for( int slot = 0; slot < this.candidates; ++slot )
+		{
+			b.put( (byte)( this.candidateIPv6[slot] ? 1 : 0 ) );
+			b.put( this.candidateBits[slot] );
+			b.putLong( this.candidateHigh[slot] );
+			b.putLong( this.candidateLow[slot] );
+		}
+		for( int i = 0; i < this.table.length; ++i )
+		{
+			b.putLong( this.table[i] );
+		}
+		return( b.array() );
+	}
+
+	/**
+	 *	Read a sketch written by {@link #toByteArray()}.
+	 *
+	 *	@param bytes The serialized sketch.
+	 *	@return The sketch.
+	 *	@exception SQLException If the bytes are not a valid sketch.
+	 */
+	public static InetCountMinSketch fromByteArray( byte[] bytes )
+	throws SQLException
+	{
+		try
+		{
+			ByteBuffer b = ByteBuffer.wrap( bytes );
+			if( b.get() != MAGIC )
+			{
+				throw( invalid( "not a Count-Min sketch" ) );
+			}
+			int ipv4Prefix = b.get() & 0xFF;
+			int ipv6Prefix = b.get() & 0xFF;
+			b.get();
+			int width = b.getInt();
+			int depth = b.getInt();
+			int topK = b.getInt();
+			int candidates = b.getInt();
+			long total = b.getLong();
+			if( ( width <= 0 ) || ( depth <= 0 ) || ( (long)width * depth > MAX_CELLS ) ||
+				( topK < 0 ) || ( topK > ( 1 << 20 ) ) || ( candidates < 0 ) || ( candidates > topK ) ||
+				( ipv4Prefix > 32 ) || ( ipv6Prefix > 128 ) ||
+				( b.remaining() != 18L * candidates + 8L * width * depth ) )
+			{
+				throw( invalid( "bad header or length" ) );
+			}
+			InetCountMinSketch sketch = new InetCountMinSketch( width, depth, topK, ipv4Prefix, ipv6Prefix );
+			boolean[] ipv6 = new boolean[ candidates ];
+			long[] high = new long[ candidates ];
+			long[] low = new long[ candidates ];
+			int[] bits = new int[ candidates ];
+			for( int i = 0; i < candidates; ++i )
+			{
+				ipv6[i] = b.get() != 0;
+				bits[i] = b.get() & 0xFF;
+				high[i] = b.getLong();
+				low[i] = b.getLong();
+				if( bits[i] != ( ipv6[i] ? ipv6Prefix : ipv4Prefix ) )
+				{
+					throw( invalid( "bad heavy hitter" ) );
+				}
+			}
+			for( int i = 0; i < sketch.table.length; ++i )
+			{
+				sketch.table[i] = b.getLong();
+			}
+			sketch.total = total;
+			for( int i = 0; i < candidates; ++i )
+			{
+				long h = InetBits.mix( ipv6[i], high[i], low[i], bits[i] );
+				sketch.offer( ipv6[i], high[i], low[i], bits[i], h, sketch.estimate( h ) );
+			}
+			return( sketch );
+		}
+		catch( BufferUnderflowException e )
+		{
+			throw( invalid( "truncated sketch" ) );
+		}
+	}
+
+	private long estimate( long h )
+	{
+		long estimate = Long.MAX_VALUE;
+		for( int row = 0; row < this.depth; ++row )
+		{
+			estimate = Math.min( estimate, this.table[cell( h, row )] );
+		}
+		return( estimate );
+	}
+
+	/**
+	 *	The counter of a key in a row, double hashing the two halves of
+	 *	the key hash and mapping the result to the row by multiply-shift.
+	 */
+	private int cell( long h, int row )
+	{
+		int x = (int)h + row * ( (int)( h >>> 32 ) | 1 );
+		return( row * this.width + (int)( ( ( x & 0xFFFFFFFFL ) * this.width ) >>> 32 ) );
+	}
+
+	/**
+	 *	Track a key as a heavy hitter if it is one already or its
+	 *	estimate beats the lowest tracked one.
+	 */
+	private void offer( boolean ipv6, long hi, long lo, int bits, long h, long estimate )
+	{
+		int slot = find( ipv6, hi, lo, bits, h );
+		if( slot >= 0 )
+		{
+			this.candidateEstimate[slot] = estimate;
+			siftDown( this.heapIndex[slot] );
+			return;
+		}
+		if( this.candidates < this.topK )
+		{
+			slot = this.candidates++;
+			this.heap[slot] = slot;
+			this.heapIndex[slot] = slot;
+		}
+		else if( estimate > this.candidateEstimate[this.heap[0]] )
+		{
+			slot = this.heap[0];
+			unindex( slot );
+		}
+		else
+		{
+			return;
+		}
+		this.candidateIPv6[slot] = ipv6;
+		this.candidateHigh[slot] = hi;
+		this.candidateLow[slot] = lo;
+		this.candidateBits[slot] = (byte)bits;
+		this.candidateHash[slot] = h;
+		this.candidateEstimate[slot] = estimate;
+		siftUp( this.heapIndex[slot] );
+		siftDown( this.heapIndex[slot] );
+		int mask = this.index.length - 1;
+		int i = (int)h & mask;
+		while( this.index[i] != 0 )
+		{
+			i = ( i + 1 ) & mask;
+		}
+		this.index[i] = slot + 1;
+	}
+
+	private int find( boolean ipv6, long hi, long lo, int bits, long h )
+	{
+		int mask = this.index.length - 1;
+		for( int i = (int)h & mask; this.index[i] != 0; i = ( i + 1 ) & mask )
+		{
+			int slot = this.index[i] - 1;
+			if( ( this.candidateHash[slot] == h ) && ( this.candidateLow[slot] == lo ) &&
+				( this.candidateHigh[slot] == hi ) && ( this.candidateIPv6[slot] == ipv6 ) &&
+				( this.candidateBits[slot] == (byte)bits ) )
+			{
+				return( slot );
+			}
+		}
+		return( -1 );
+	}
+
+	/**
+	 *	Remove a slot from the index, shifting back the entries after it
+	 *	so no probe sequence is broken.
+	 */
+	private void unindex( int slot )
+	{
+		int mask = this.index.length - 1;
+		int i = (int)this.candidateHash[slot] & mask;
+		while( this.index[i] != slot + 1 )
+		{
+			i = ( i + 1 ) & mask;
+		}
+		int j = i;
+		while( true )
+		{
+			j = ( j + 1 ) & mask;
+			if( this.index[j] == 0 )
+			{
+				break;
+			}
+			int home = (int)this.candidateHash[this.index[j] - 1] & mask;
+			// move the entry back unless its home lies cyclically in ( i, j ]
+			boolean stays = ( i <= j ) ? ( ( home > i ) && ( home <= j ) ) : ( ( home > i ) || ( home <= j ) );
+			if( !stays )
+			{
+				this.index[i] = this.index[j];
+				i = j;
+			}
+		}
+		this.index[i] = 0;
+	}
+
+	private void siftUp( int i )
+	{
+		while( i > 0 )
+		{
+			int parent = ( i - 1 ) >>> 1;
+			if( this.candidateEstimate[this.heap[parent]] <= this.candidateEstimate[this.heap[i]] )
+			{
+				return;
+			}
+			swap( i, parent );
+			i = parent;
+		}
+	}
+
+	private void siftDown( int i )
+	{
+		while( true )
+		{
+			int child = 2 * i + 1;
+			if( child >= this.candidates )
+			{
+				return;
+			}
+			if( ( child + 1 < this.candidates ) &&
+				( this.candidateEstimate[this.heap[child + 1]] < this.candidateEstimate[this.heap[child]] ) )
+			{
+				++child;
+			}
+			if( this.candidateEstimate[this.heap[i]] <= this.candidateEstimate[this.heap[child]] )
+			{
+				return;
+			}
+			swap( i, child );
+			i = child;
+		}
+	}
+
+	private void swap( int i, int j )
+	{
+		int t = this.heap[i];
+		this.heap[i] = this.heap[j];
+		this.heap[j] = t;
+		this.heapIndex[this.heap[i]] = i;
+		this.heapIndex[this.heap[j]] = j;
+	}
+
+	private static PSQLException invalid( String detail )
+	{
+		return( new PSQLException( GT.tr( "Invalid sketch: {0}.", detail ), PSQLState.DATA_ERROR ) );
+	}
+}
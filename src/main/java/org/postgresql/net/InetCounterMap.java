@@ -0,0 +1,431 @@
+package org.postgresql.net;
+
+import java.util.Arrays;
+
+/**
+ *	A concurrent map from addresses to counts, for per-source request
+ *	counting at high update rates.
+ *
+ *	<p>Keys are held as their two address words in open addressing hash
+ *	tables built from primitive arrays, so counting an address that is
+ *	already present allocates nothing and a new one only allocates when a
+ *	table grows.  The map is split in to stripes, each with its own table
+ *	and lock, chosen by the hash of the address, so threads counting
+ *	different addresses rarely wait for each other.</p>
+ *
+ *	<p>A map can roll addresses up to a covering prefix as they are
+ *	counted, for example to count per /24 and per /64:</p>
+ *
+ *	<pre>
+ *	InetCounterMap perNetwork = new InetCounterMap( 24, 64 );
+ *	perNetwork.increment( source );
+ *	InetCounts top = perNetwork.snapshotAndReset().top( 100 );
+ *	</pre>
+ *
+ *	<p>Only the address of a counted value is used, its netmask is
+ *	ignored.  Snapshots lock one stripe at a time, so they are consistent
+ *	per stripe but not across the whole map; snapshotAndReset() never
+ *	loses an increment.</p>
+ */
+public final class InetCounterMap
+{
+	private static final byte EMPTY = 0;
+	private static final byte IPV4 = 1;
+	private static final byte IPV6 = 2;
+
+	private static final float LOAD_FACTOR = 0.6f;
+
+	private final Stripe[] stripes;
+	private final int ipv4Prefix;
+	private final int ipv6Prefix;
+
+	/**
+	 *	Create a map counting single addresses.
+	 */
+	public InetCounterMap()
+	{
+		this( 32, 128 );
+	}
+
+	/**
+	 *	Create a map counting covering prefixes.
+	 *
+	 *	@param ipv4Prefix The prefix length IPv4 addresses are counted at,
+	 *		0 to 32.
+	 *	@param ipv6Prefix The prefix length IPv6 addresses are counted at,
+	 *		0 to 128.
+	 */
+	public InetCounterMap( int ipv4Prefix, int ipv6Prefix )
+	{
+		this( ipv4Prefix, ipv6Prefix, defaultStripes(), 64 );
+	}
+
+	/**
+	 *	Create a map with a given number of stripes.
+	 *
+	 *	@param ipv4Prefix The prefix length IPv4 addresses are counted at,
+	 *		0 to 32.
+	 *	@param ipv6Prefix The prefix length IPv6 addresses are counted at,
+	 *		0 to 128.
+	 *	@param stripes The number of stripes, rounded up to a power of
+	 *		two.  A few times the number of updating threads is enough.
+	 *	@param expectedKeys The number of keys to size the tables for.
+	 */
+	public InetCounterMap( int ipv4Prefix, int ipv6Prefix, int stripes, int expectedKeys )
+	{
+		if( ( ipv4Prefix < 0 ) || ( ipv4Prefix > 32 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv4 prefix length: " + ipv4Prefix ) );
+		}
+		if( ( ipv6Prefix < 0 ) || ( ipv6Prefix > 128 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv6 prefix length: " + ipv6Prefix ) );
+		}
+		if( ( stripes <= 0 ) || ( stripes > ( 1 << 16 ) ) )
+		{
+			throw( new IllegalArgumentException( "Invalid number of stripes: " + stripes ) );
+		}
+		this.ipv4Prefix = ipv4Prefix;
+		this.ipv6Prefix = ipv6Prefix;
+		int n = Integer.highestOneBit( stripes - 1 ) << 1;
+		n = ( stripes == 1 ) ? 1 : n;
+		this.stripes = new Stripe[ n ];
+		int capacity = tableSize( Math.max( 0, expectedKeys ) / n );
+		for( int i = 0; i < n; ++i )
+		{
+			this.stripes[i] = new Stripe( capacity );
+		}
+	}
+
+	/**
+	 *	Count one occurrence of an address.
+	 *
+	 *	@param value The address, null is ignored.
+	 *	@return The new count of the address or its prefix, 0 for null.
+	 */
+	public long increment( PGinet value )
+	{
+		if( value != null )
+		{
+			value.resolve();
+		}
+		if( ( value == null ) || ( value.addr == null ) )
+		{
+			return( 0L );
+		}
+		return( add( value.addr.length == 16, InetBits.high( value.addr ), InetBits.low( value.addr ), 1L ) );
+	}
+
+	/**
+	 *	Count one occurrence of the address in a cursor.
+	 *
+	 *	@param cursor The cursor, SQL NULL is ignored.
+	 *	@return The new count of the address or its prefix, 0 for NULL.
+	 */
+	public long increment( InetCursor cursor )
+	{
+		if( cursor.isNull() )
+		{
+			return( 0L );
+		}
+		return( add( cursor.isIPv6(), cursor.getHighWord(), cursor.getLowWord(), 1L ) );
+	}
+
+	/**
+	 *	Add to the count of an address given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@param delta The amount to add.
+	 *	@return The new count of the address or its prefix.
+	 */
+	public long add( boolean ipv6, long high, long low, long delta )
+	{
+		return( add( ipv6, high, low, ipv6 ? 128 : 32, delta ) );
+	}
+
+	/**
+	 *	Add to the count of a prefix, which is counted at the shorter of
+	 *	its own length and the map's prefix length.
+	 */
+	long add( boolean ipv6, long high, long low, int netmask, long delta )
+	{
+		int bits = Math.min( netmask, ipv6 ? this.ipv6Prefix : this.ipv4Prefix );
+		long hi = high & InetBits.maskHigh( bits, ipv6 );
+		long lo = low & InetBits.maskLow( bits, ipv6 );
+		long h = hash( ipv6, hi, lo, bits );
+		return( stripe( h ).add( ipv6 ? IPV6 : IPV4, hi, lo, bits, h, delta ) );
+	}
+
+	/**
+	 *	@param value An address.
+	 *	@return The count of the address or its prefix, 0 if it has not
+	 *		been counted.
+	 */
+	public long get( PGinet value )
+	{
+		value.resolve();
+		if( value.addr == null )
+		{
+			return( 0L );
+		}
+		return( get( value.addr.length == 16, InetBits.high( value.addr ), InetBits.low( value.addr ) ) );
+	}
+
+	/**
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@return The count of the address or its prefix, 0 if it has not
+	 *		been counted.
+	 */
+	public long get( boolean ipv6, long high, long low )
+	{
+		int bits = ipv6 ? this.ipv6Prefix : this.ipv4Prefix;
+		long hi = high & InetBits.maskHigh( bits, ipv6 );
+		long lo = low & InetBits.maskLow( bits, ipv6 );
+		long h = hash( ipv6, hi, lo, bits );
+		return( stripe( h ).get( ipv6 ? IPV6 : IPV4, hi, lo, bits, h ) );
+	}
+
+	/**
+	 *	@return The number of distinct keys counted.
+	 */
+	public int size()
+	{
+		int size = 0;
+		for( int i = 0; i < this.stripes.length; ++i )
+		{
+			synchronized( this.stripes[i] )
+			{
+				size += this.stripes[i].size;
+			}
+		}
+		return( size );
+	}
+
+	/**
+	 *	@return A copy of the current counts.
+	 */
+	public InetCounts snapshot()
+	{
+		return( collect( false ) );
+	}
+
+	/**
+	 *	Copy the current counts and empty the map in one step per stripe,
+	 *	for reporting counts per interval.  The tables keep their size.
+	 *
+	 *	@return The counts up to the reset.
+	 */
+	public InetCounts snapshotAndReset()
+	{
+		return( collect( true ) );
+	}
+
+	/**
+	 *	Remove every key.  The tables keep their size.
+	 */
+	public void reset()
+	{
+		for( int i = 0; i < this.stripes.length; ++i )
+		{
+			synchronized( this.stripes[i] )
+			{
+				this.stripes[i].clear();
+			}
+		}
+	}
+
+	/**
+	 *	@param n The number of entries to return.
+	 *	@return The n keys with the highest counts, highest first.
+	 */
+	public InetCounts top( int n )
+	{
+		return( snapshot().top( n ) );
+	}
+
+	private InetCounts collect( boolean reset )
+	{
+		int capacity = 0;
+		for( int i = 0; i < this.stripes.length; ++i )
+		{
+			capacity += this.stripes[i].size;
+		}
+		int n = 0;
+		boolean[] ipv6 = new boolean[ capacity ];
+		long[] high = new long[ capacity ];
+		long[] low = new long[ capacity ];
+		byte[] netmask = new byte[ capacity ];
+		long[] count = new long[ capacity ];
+		for( int s = 0; s < this.stripes.length; ++s )
+		{
+			Stripe stripe = this.stripes[s];
+			synchronized( stripe )
+			{
+				if( n + stripe.size > ipv6.length )
+				{
+					int grown = Math.max( ipv6.length * 2, n + stripe.size );
+					ipv6 = Arrays.copyOf( ipv6, grown );
+					high = Arrays.copyOf( high, grown );
+					low = Arrays.copyOf( low, grown );
+					netmask = Arrays.copyOf( netmask, grown );
+					count = Arrays.copyOf( count, grown );
+				}
+				for( int i = 0; i < stripe.state.length; ++i )
+				{
+					if( stripe.state[i] != EMPTY )
+					{
+						ipv6[n] = stripe.state[i] == IPV6;
+						high[n] = stripe.high[i];
+						low[n] = stripe.low[i];
+						netmask[n] = stripe.netmask[i];
+						count[n] = stripe.count[i];
+						++n;
+					}
+				}
+				if( reset )
+				{
+					stripe.clear();
+				}
+			}
+		}
+		return( new InetCounts( Arrays.copyOf( ipv6, n ), Arrays.copyOf( high, n ), Arrays.copyOf( low, n ),
+			Arrays.copyOf( netmask, n ), Arrays.copyOf( count, n ) ) );
+	}
+
+	private Stripe stripe( long h )
+	{
+		return( this.stripes[(int)( h >>> 40 ) & ( this.stripes.length - 1 )] );
+	}
+
+	private static long hash( boolean ipv6, long hi, long lo, int bits )
+	{
+		return( InetBits.mix( ipv6, hi, lo, bits ) );
+	}
+
+	private static int defaultStripes()
+	{
+		return( Math.min( 1024, 4 * Runtime.getRuntime().availableProcessors() ) );
+	}
+
+	private static int tableSize( int keys )
+	{
+		int size = 16;
+		while( ( size < ( 1 << 30 ) ) && ( keys > size * LOAD_FACTOR ) )
+		{
+			size <<= 1;
+		}
+		return( size );
+	}
+
+	/**
+	 *	One linear probing table, guarded by its own monitor.
+	 */
+	private static final class Stripe
+	{
+		byte[] state;
+		long[] high;
+		long[] low;
+		byte[] netmask;
+		long[] count;
+		int size;
+		int threshold;
+
+		Stripe( int capacity )
+		{
+			allocate( capacity );
+		}
+
+		synchronized long add( byte kind, long hi, long lo, int bits, long h, long delta )
+		{
+			int i = find( kind, hi, lo, bits, h );
+			if( this.state[i] != EMPTY )
+			{
+				return( this.count[i] += delta );
+			}
+			if( this.size >= this.threshold )
+			{
+				grow();
+				i = find( kind, hi, lo, bits, h );
+			}
+			this.state[i] = kind;
+			this.high[i] = hi;
+			this.low[i] = lo;
+			this.netmask[i] = (byte)bits;
+			this.count[i] = delta;
+			++this.size;
+			return( delta );
+		}
+
+		synchronized long get( byte kind, long hi, long lo, int bits, long h )
+		{
+			int i = find( kind, hi, lo, bits, h );
+			return( ( this.state[i] != EMPTY ) ? this.count[i] : 0L );
+		}
+
+		/**
+		 *	@return The slot holding the key, or the empty slot where it
+		 *		belongs.
+		 */
+		private int find( byte kind, long hi, long lo, int bits, long h )
+		{
+			int mask = this.state.length - 1;
+			int i = (int)h & mask;
+			while( this.state[i] != EMPTY )
+			{
+				if( ( this.state[i] == kind ) && ( this.low[i] == lo ) && ( this.high[i] == hi ) &&
+					( this.netmask[i] == (byte)bits ) )
+				{
+					return( i );
+				}
+				i = ( i + 1 ) & mask;
+			}
+			return( i );
+		}
+
+		private void grow()
+		{
+			byte[] oldState = this.state;
+			long[] oldHigh = this.high;
+			long[] oldLow = this.low;
+			byte[] oldNetmask = this.netmask;
+			long[] oldCount = this.count;
+			allocate( oldState.length * 2 );
+			for( int j = 0; j < oldState.length; ++j )
+			{
+				if( oldState[j] != EMPTY )
+				{
+					int bits = oldNetmask[j] & 0xFF;
+					int i = find( oldState[j], oldHigh[j], oldLow[j], bits,
+						hash( oldState[j] == IPV6, oldHigh[j], oldLow[j], bits ) );
+					this.state[i] = oldState[j];
+					this.high[i] = oldHigh[j];
+					this.low[i] = oldLow[j];
+					this.netmask[i] = oldNetmask[j];
+					this.count[i] = oldCount[j];
+				}
+			}
+		}
+
+		private void allocate( int capacity )
+		{
+			this.state = new byte[ capacity ];
+			this.high = new long[ capacity ];
+			this.low = new long[ capacity ];
+			this.netmask = new byte[ capacity ];
+			this.count = new long[ capacity ];
+			this.threshold = (int)( capacity * LOAD_FACTOR );
+		}
+
+		void clear()
+		{
+			Arrays.fill( this.state, EMPTY );
+			this.size = 0;
+		}
+	}
+}
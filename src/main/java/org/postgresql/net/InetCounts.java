@@ -0,0 +1,238 @@
+package org.postgresql.net;
+
+/**
+ *	An immutable list of addresses or prefixes with a count for each, as
+ *	returned by {@link InetCounterMap#snapshot()}.
+ *
+ *	<p>The entries are held in primitive arrays and are only turned in to
+ *	objects on request through {@link #getValue(int)}.  Unless the list
+ *	came from {@link #top(int)} the order of the entries is undefined.</p>
+ */
+public final class InetCounts
+{
+	private final boolean[] ipv6;
+	private final long[] high;
+	private final long[] low;
+	private final byte[] netmask;
+	private final long[] count;
+
+	InetCounts( boolean[] ipv6, long[] high, long[] low, byte[] netmask, long[] count )
+	{
+		this.ipv6 = ipv6;
+		this.high = high;
+		this.low = low;
+		this.netmask = netmask;
+		this.count = count;
+	}
+
+	/**
+	 *	@return The number of entries.
+	 */
+	public int size()
+	{
+		return( this.count.length );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return true if the entry is an IPv6 address or prefix.
+	 */
+	public boolean isIPv6( int i )
+	{
+		return( this.ipv6[i] );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return The first 64 bits of an IPv6 entry, 0 for IPv4.
+	 */
+	public long getHighWord( int i )
+	{
+		return( this.high[i] );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return The last 64 bits of an IPv6 entry, or the 32 bits of an
+	 *		IPv4 entry as an unsigned value.
+	 */
+	public long getLowWord( int i )
+	{
+		return( this.low[i] );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return The prefix length the entry was counted at, 32 or 128
+	 *		for single addresses.
+	 */
+	public int getNetmask( int i )
+	{
+		return( this.netmask[i] & 0xFF );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return The count of the entry.
+	 */
+	public long getCount( int i )
+	{
+		return( this.count[i] );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return The address or prefix of the entry.
+	 */
+	public InetValue getValue( int i )
+	{
+		return( this.ipv6[i] ? InetValue.ofIPv6( this.high[i], this.low[i], getNetmask( i ) ) :
+			InetValue.ofIPv4( (int)this.low[i], getNetmask( i ) ) );
+	}
+
+	/**
+	 *	@return The sum of all counts.
+	 */
+	public long total()
+	{
+		long total = 0;
+		for( int i = 0; i < this.count.length; ++i )
+		{
+			total += this.count[i];
+		}
+		return( total );
+	}
+
+	/**
+	 *	The n entries with the highest counts, highest first.  Equal
+	 *	counts are ordered by address in the server's sort order so the
+	 *	result does not depend on the order of this list.
+	 *
+	 *	@param n The number of entries to return.
+	 *	@return The entries, fewer than n if this list is shorter.
+	 */
+	public InetCounts top( int n )
+	{
+		if( n < 0 )
+		{
+			throw( new IllegalArgumentException( "Invalid count: " + n ) );
+		}
+		int k = Math.min( n, this.count.length );
+		// a min-heap of the best k entries seen so far
+		int[] heap = new int[ k ];
+		int size = 0;
+		for( int i = 0; i < this.count.length; ++i )
+		{
+			if( size < k )
+			{
+				heap[size] = i;
+				siftUp( heap, size++ );
+			}
+			else if( ( k > 0 ) && ranksBelow( heap[0], i ) )
+			{
+				heap[0] = i;
+				siftDown( heap, 0, size );
+			}
+		}
+		// pop the heap from the back, leaving the best entry first
+		for( int end = size - 1; end > 0; --end )
+		{
+			int t = heap[0];
+			heap[0] = heap[end];
+			heap[end] = t;
+			siftDown( heap, 0, end );
+		}
+		return( select( heap ) );
+	}
+
+	/**
+	 *	Merge the entries in to their covering prefixes.  Entries which
+	 *	are already shorter than the prefix length are kept as they are.
+	 *
+	 *	@param ipv4Prefix The prefix length for IPv4 entries, 0 to 32.
+	 *	@param ipv6Prefix The prefix length for IPv6 entries, 0 to 128.
+	 *	@return The merged counts.
+	 */
+	public InetCounts rollUp( int ipv4Prefix, int ipv6Prefix )
+	{
+		InetCounterMap map = new InetCounterMap( ipv4Prefix, ipv6Prefix, 1, this.count.length );
+		for( int i = 0; i < this.count.length; ++i )
+		{
+			map.add( this.ipv6[i], this.high[i], this.low[i], getNetmask( i ), this.count[i] );
+		}
+		return( map.snapshot() );
+	}
+
+	private InetCounts select( int[] index )
+	{
+		int n = index.length;
+		boolean[] v6 = new boolean[ n ];
+		long[] hi = new long[ n ];
+		long[] lo = new long[ n ];
+		byte[] bits = new byte[ n ];
+		long[] c = new long[ n ];
+		for( int i = 0; i < n; ++i )
+		{
+			int j = index[i];
+			v6[i] = this.ipv6[j];
+			hi[i] = this.high[j];
+			lo[i] = this.low[j];
+			bits[i] = this.netmask[j];
+			c[i] = this.count[j];
+		}
+		return( new InetCounts( v6, hi, lo, bits, c ) );
+	}
+
+	/**
+	 *	@return true if entry a ranks below entry b.
+	 */
+	private boolean ranksBelow( int a, int b )
+	{
+		if( this.count[a] != this.count[b] )
+		{
+			return( this.count[a] < this.count[b] );
+		}
+		return( InetBits.compare( this.ipv6[a], this.high[a], this.low[a], getNetmask( a ),
+			this.ipv6[b], this.high[b], this.low[b], getNetmask( b ) ) > 0 );
+	}
+
+	private void siftUp( int[] heap, int i )
+	{
+		while( i > 0 )
+		{
+			int parent = ( i - 1 ) >>> 1;
+			if( !ranksBelow( heap[i], heap[parent] ) )
+			{
+				return;
+			}
+			int t = heap[i];
+			heap[i] = heap[parent];
+			heap[parent] = t;
+			i = parent;
+		}
+	}
+
+	private void siftDown( int[] heap, int i, int size )
+	{
+		while( true )
+		{
+			int child = 2 * i + 1;
+			if( child >= size )
+			{
+				return;
+			}
+			if( ( child + 1 < size ) && ranksBelow( heap[child + 1], heap[child] ) )
+			{
+				++child;
+			}
+			if( !ranksBelow( heap[child], heap[i] ) )
+			{
+				return;
+			}
+			int t = heap[i];
+			heap[i] = heap[child];
+			heap[child] = t;
+			i = child;
+		}
+	}
+}
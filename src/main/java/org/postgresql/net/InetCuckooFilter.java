@@ -0,0 +1,603 @@
+package org.postgresql.net;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.function.BinaryOperator;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ *	A cuckoo filter of addresses.  It answers the same question as
+ *	{@link InetBloomFilter}, but a lookup reads at most two cache lines
+ *	whatever the rate, and addresses can be removed again when they leave
+ *	a blocklist.
+ *
+ *	<p>Each address is stored as a fingerprint of 4 to 16 bits in one of
+ *	two buckets of 4 slots.  Slots are 16 bits wide whatever the
+ *	fingerprint length, which trades some space for simple indexing.  The
+ *	false positive rate is about 8 / 2^bits.  Adding an address whose
+ *	fingerprint is already in one of its buckets stores nothing, so
+ *	rolling many addresses up to one prefix does not fill the filter;
+ *	the flip side is that {@link #remove(boolean, long, long)} should only
+ *	be used for addresses known to have been added, and may also remove an
+ *	address sharing the fingerprint.</p>
+ *
+ *	<p>A filter is not thread safe while it is being built.  Give each
+ *	thread its own filter of the same shape and combine them with
+ *	{@link #merge(InetCuckooFilter)}, or use
+ *	{@link #build(InetColumn, double, int, int)}.</p>
+ */
+public final class InetCuckooFilter
+{
+	/** The first byte of the serialized form. */
+	static final byte MAGIC = 'K';
+
+	private static final int SLOTS = 4;
+	private static final int MAX_KICKS = 500;
+	private static final int MAX_BUCKETS = 1 << 28;
+	/** The number of slots read from a stream at a time. */
+	private static final int BLOCK_SLOTS = 32768;
+
+	private final int fingerprintBits;
+	private final int ipv4Prefix;
+	private final int ipv6Prefix;
+	private final char[] slots;
+	private final int mask;
+	private int size;
+
+	// a fingerprint that could not be placed, the filter is full while set
+	private int victimBucket;
+	private char victim;
+
+	private long random = 0x9E3779B97F4A7C15L;
+
+	/**
+	 *	Create a filter of single addresses.
+	 *
+	 *	@param expectedInsertions The number of distinct addresses to be
+	 *		added.
+	 *	@param falsePositiveRate The wanted rate, greater than 0 and less
+	 *		than 1.
+	 */
+	public InetCuckooFilter( long expectedInsertions, double falsePositiveRate )
+	{
+		this( expectedInsertions, falsePositiveRate, 32, 128 );
+	}
+
+	/**
+	 *	Create a filter of covering prefixes.
+	 *
+	 *	@param expectedInsertions The number of distinct prefixes to be
+	 *		added.
+	 *	@param falsePositiveRate The wanted rate, greater than 0 and less
+	 *		than 1.
+	 *	@param ipv4Prefix The prefix length IPv4 addresses are added and
+	 *		looked up at.
+	 *	@param ipv6Prefix The prefix length IPv6 addresses are added and
+	 *		looked up at.
+	 */
+	public InetCuckooFilter( long expectedInsertions, double falsePositiveRate, int ipv4Prefix, int ipv6Prefix )
+	{
+		this( fingerprintBits( falsePositiveRate ), buckets( expectedInsertions ), ipv4Prefix, ipv6Prefix );
+	}
+
+	private InetCuckooFilter( int fingerprintBits, int buckets, int ipv4Prefix, int ipv6Prefix )
+	{
+		this( fingerprintBits, new char[ buckets * SLOTS ], ipv4Prefix, ipv6Prefix );
+	}
+
+	private InetCuckooFilter( int fingerprintBits, char[] slots, int ipv4Prefix, int ipv6Prefix )
+	{
+		if( ( ipv4Prefix < 0 ) || ( ipv4Prefix > 32 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv4 prefix length: " + ipv4Prefix ) );
+		}
+		if( ( ipv6Prefix < 0 ) || ( ipv6Prefix > 128 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv6 prefix length: " + ipv6Prefix ) );
+		}
+		this.fingerprintBits = fingerprintBits;
+		this.ipv4Prefix = ipv4Prefix;
+		this.ipv6Prefix = ipv6Prefix;
+		this.slots = slots;
+		this.mask = slots.length / SLOTS - 1;
+	}
+
+	/**
+	 *	Build a filter of the addresses in a column, splitting the work
+	 *	over the common fork join pool.  SQL NULLs are skipped.
+	 *
+	 *	@param column The addresses.
+	 *	@param falsePositiveRate The wanted rate.
+	 *	@param ipv4Prefix The prefix length IPv4 addresses are added at.
+	 *	@param ipv6Prefix The prefix length IPv6 addresses are added at.
+	 *	@return The filter.
+	 *	@exception IllegalStateException If the filter fills up, which
+	 *		should not happen as it is sized for every row of the column.
+	 */
+	public static InetCuckooFilter build( final InetColumn column, final double falsePositiveRate,
+		final int ipv4Prefix, final int ipv6Prefix )
+	{
+		final int n = column.size();
+		final int parts = Math.max( 1, Math.min( Runtime.getRuntime().availableProcessors(), n >>> 16 ) );
+		return( IntStream.range( 0, parts ).parallel().mapToObj( new IntFunction<InetCuckooFilter>()
+		{
+			public InetCuckooFilter apply( int part )
+			{
+				InetCuckooFilter filter = new InetCuckooFilter( Math.max( n, 1 ), falsePositiveRate, ipv4Prefix, ipv6Prefix );
+				int end = (int)( (long)n * ( part + 1 ) / parts );
+				for( int i = (int)( (long)n * part / parts ); i < end; ++i )
+				{
+					if( !column.isNull( i ) &&
+						!filter.add( column.isIPv6( i ), column.getHighWord( i ), column.getLowWord( i ) ) )
+					{
+						throw( new IllegalStateException( "Filter full" ) );
+					}
+				}
+				return( filter );
+			}
+		} ).reduce( new BinaryOperator<InetCuckooFilter>()
+		{
+			public InetCuckooFilter apply( InetCuckooFilter a, InetCuckooFilter b )
+			{
+				a.merge( b );
+				return( a );
+			}
+		} ).get() );
+	}
+
+	/**
+	 *	Add an address, its netmask is ignored.
+	 *
+	 *	@param value The address, null is ignored.
+	 *	@return false if the filter is full and the address was not added.
+	 */
+	public boolean add( PGinet value )
+	{
+		if( value != null )
+		{
+			value.resolve();
+		}
+		if( ( value == null ) || ( value.addr == null ) )
+		{
+			return( true );
+		}
+		return( add( value.addr.length == 16, InetBits.high( value.addr ), InetBits.low( value.addr ) ) );
+	}
+
+	/**
+	 *	Add the address in a cursor.
+	 *
+	 *	@param cursor The cursor, SQL NULL is ignored.
+	 *	@return false if the filter is full and the address was not added.
+	 */
+	public boolean add( InetCursor cursor )
+	{
+		return( cursor.isNull() || add( cursor.isIPv6(), cursor.getHighWord(), cursor.getLowWord() ) );
+	}
+
+	/**
+	 *	Add an address given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@return false if the filter is full and the address was not added.
+	 */
+	public boolean add( boolean ipv6, long high, long low )
+	{
+		long h = hash( ipv6, high, low );
+		return( insert( (int)( h >>> 32 ) & this.mask, fingerprint( h ) ) );
+	}
+
+	/**
+	 *	@param value An address, its netmask is ignored.
+	 *	@return false if the address was certainly not added, true if it
+	 *		probably was.  false for null.
+	 */
+	public boolean mightContain( PGinet value )
+	{
+		if( value == null )
+		{
+			return( false );
+		}
+		value.resolve();
+		return( ( value.addr != null ) &&
+			mightContain( value.addr.length == 16, InetBits.high( value.addr ), InetBits.low( value.addr ) ) );
+	}
+
+	/**
+	 *	@param cursor The cursor holding an address.
+	 *	@return false if the address was certainly not added, true if it
+	 *		probably was.  false for SQL NULL.
+	 */
+	public boolean mightContain( InetCursor cursor )
+	{
+		return( !cursor.isNull() && mightContain( cursor.isIPv6(), cursor.getHighWord(), cursor.getLowWord() ) );
+	}
+
+	/**
+	 *	Test an address given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@return false if the address was certainly not added, true if it
+	 *		probably was.
+	 */
+	public boolean mightContain( boolean ipv6, long high, long low )
+	{
+		long h = hash( ipv6, high, low );
+		char fp = fingerprint( h );
+		int i = (int)( h >>> 32 ) & this.mask;
+		return( contains( i, fp ) || contains( alternate( i, fp ), fp ) || isVictim( i, fp ) );
+	}
+
+	/**
+	 *	Remove an address which was added.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@return true if its fingerprint was found and removed.
+	 */
+	public boolean remove( boolean ipv6, long high, long low )
+	{
+		long h = hash( ipv6, high, low );
+		char fp = fingerprint( h );
+		int i = (int)( h >>> 32 ) & this.mask;
+		if( isVictim( i, fp ) )
+		{
+			this.victim = 0;
+			--this.size;
+			return( true );
+		}
+		if( !delete( i, fp ) && !delete( alternate( i, fp ), fp ) )
+		{
+			return( false );
+		}
+		--this.size;
+		if( this.victim != 0 )
+		{
+			// there is room now, place the fingerprint left over when full
+			char v = this.victim;
+			this.victim = 0;
+			--this.size;
+			insert( this.victimBucket, v );
+		}
+		return( true );
+	}
+
+	/**
+	 *	Add the contents of another filter to this one.
+	 *
+	 *	@param other A filter of the same size, fingerprint length and
+	 *		prefix lengths.
+	 *	@exception IllegalStateException If this filter fills up.
+	 */
+	public void merge( InetCuckooFilter other )
+	{
+		if( ( other.slots.length != this.slots.length ) || ( other.fingerprintBits != this.fingerprintBits ) ||
+			( other.ipv4Prefix != this.ipv4Prefix ) || ( other.ipv6Prefix != this.ipv6Prefix ) )
+		{
+			throw( new IllegalArgumentException( "Filters of different shapes can not be merged" ) );
+		}
+		// a fingerprint can be placed by its bucket alone, as the other
+		// bucket of the pair only depends on the two
+		for( int s = 0; s < other.slots.length; ++s )
+		{
+			if( ( other.slots[s] != 0 ) && !insert( s / SLOTS, other.slots[s] ) )
+			{
+				throw( new IllegalStateException( "Filter full" ) );
+			}
+		}
+		if( ( other.victim != 0 ) && !insert( other.victimBucket, other.victim ) )
+		{
+			throw( new IllegalStateException( "Filter full" ) );
+		}
+	}
+
+	/**
+	 *	@return The number of fingerprints stored.
+	 */
+	public int size()
+	{
+		return( this.size );
+	}
+
+	/**
+	 *	@return The share of slots in use, adds start to fail at about
+	 *		0.95.
+	 */
+	public double getLoadFactor()
+	{
+		return( (double)this.size / this.slots.length );
+	}
+
+	/**
+	 *	@return The number of bits in each fingerprint.
+	 */
+	public int getFingerprintBits()
+	{
+		return( this.fingerprintBits );
+	}
+
+	/**
+	 *	Write the filter in the form read by {@link #readFrom(InputStream)}.
+	 *
+	 *	@param out The stream, it is flushed but not closed.
+	 *	@exception IOException If writing fails.
+	 */
+	public void writeTo( OutputStream out )
+	throws IOException
+	{
+		DataOutputStream data = new DataOutputStream( new BufferedOutputStream( out, 65536 ) );
+		data.writeByte( MAGIC );
+		data.writeByte( this.fingerprintBits );
+		data.writeByte( this.ipv4Prefix );
+		data.writeByte( this.ipv6Prefix );
+		data.writeInt( this.slots.length / SLOTS );
+		data.writeInt( this.size );
+		data.writeInt( this.victimBucket );
+		data.writeChar( this.victim );
+		for( int i = 0; i < this.slots.length; ++i )
+		{
+			data.writeChar( this.slots[i] );
+		}
+		data.flush();
+	}
+
+	/**
+	 *	Read a filter written by {@link #writeTo(OutputStream)}.
+	 *
+	 *	@param in The stream, it is read to the end of the filter but not
+	 *		closed.
+	 *	@return The filter.
+	 *	@exception IOException If reading fails.
+	 *	@exception SQLException If the stream does not hold a valid filter.
+	 */
+	public static InetCuckooFilter readFrom( InputStream in )
+	throws IOException, SQLException
+	{
+		// not buffered, a buffer would read past the end of the filter
+		DataInputStream data = new DataInputStream( in );
+		try
+		{
+			if( data.readByte() != MAGIC )
+			{
+				throw( InetBloomFilter.invalid( "not a cuckoo filter" ) );
+			}
+			int fingerprintBits = data.readUnsignedByte();
+			int ipv4Prefix = data.readUnsignedByte();
+			int ipv6Prefix = data.readUnsignedByte();
+			int buckets = data.readInt();
+			int size = data.readInt();
+			int victimBucket = data.readInt();
+			char victim = data.readChar();
+			if( ( fingerprintBits < 4 ) || ( fingerprintBits > 16 ) || ( ipv4Prefix > 32 ) || ( ipv6Prefix > 128 ) ||
+				( buckets < 1 ) || ( buckets > MAX_BUCKETS ) || ( ( buckets & ( buckets - 1 ) ) != 0 ) ||
+				( victimBucket < 0 ) || ( victimBucket >= buckets ) || ( ( victim >>> fingerprintBits ) != 0 ) )
+			{
+				throw( InetBloomFilter.invalid( "bad header" ) );
+			}
+			int used = ( victim != 0 ) ? 1 : 0;
+			int slots = buckets * SLOTS;
+			// grown as the slots arrive, so a bad header cannot force a
+			// huge allocation before the stream runs out
+			char[] body = new char[ Math.min( slots, BLOCK_SLOTS ) ];
+			byte[] block = new byte[ 2 * body.length ];
+			for( int i = 0; i < slots; i += BLOCK_SLOTS )
+			{
+				int n = Math.min( slots - i, BLOCK_SLOTS );
+				data.readFully( block, 0, 2 * n );
+				if( i + n > body.length )
+				{
+					body = Arrays.copyOf( body, (int)Math.min( slots, 2L * body.length ) );
+				}
+				for( int j = 0; j < n; ++j )
+				{
+					char fp = (char)( ( ( block[2 * j] & 0xFF ) << 8 ) | ( block[2 * j + 1] & 0xFF ) );
+					if( ( fp >>> fingerprintBits ) != 0 )
+					{
+						throw( InetBloomFilter.invalid( "bad fingerprint" ) );
+					}
+					body[i + j] = fp;
+					used += ( fp != 0 ) ? 1 : 0;
+				}
+			}
+			if( used != size )
+			{
+				throw( InetBloomFilter.invalid( "bad size" ) );
+			}
+			InetCuckooFilter filter = new InetCuckooFilter( fingerprintBits, body, ipv4Prefix, ipv6Prefix );
+			filter.size = size;
+			filter.victimBucket = victimBucket;
+			filter.victim = victim;
+			return( filter );
+		}
+		catch( EOFException e )
+		{
+			throw( InetBloomFilter.invalid( "truncated" ) );
+		}
+	}
+
+	/**
+	 *	@return The filter in a form that can be stored in a bytea column
+	 *		and read back with {@link #fromByteArray(byte[])}.
+	 */
+	public byte[] toByteArray()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream( 18 + 2 * this.slots.length );
+		try
+		{
+			writeTo( out );
+		}
+		catch( IOException e )
+		{
+			throw( new IllegalStateException( e ) );
+		}
+		return( out.toByteArray() );
+	}
+
+	/**
+	 *	Read a filter written by {@link #toByteArray()}.
+	 *
+	 *	@param b The serialized filter.
+	 *	@return The filter.
+	 *	@exception SQLException If the bytes are not a valid filter.
+	 */
+	public static InetCuckooFilter fromByteArray( byte[] b )
+	throws SQLException
+	{
+		if( b.length < 18 )
+		{
+			throw( InetBloomFilter.invalid( "truncated" ) );
+		}
+		if( b.length != 18 + 2L * SLOTS * InetBits.readInt( b, 4 ) )
+		{
+			throw( InetBloomFilter.invalid( "bad length" ) );
+		}
+		try
+		{
+			return( readFrom( new ByteArrayInputStream( b ) ) );
+		}
+		catch( IOException e )
+		{
+			throw( new IllegalStateException( e ) );
+		}
+	}
+
+	private boolean insert( int i, char fp )
+	{
+		int j = alternate( i, fp );
+		if( contains( i, fp ) || contains( j, fp ) || isVictim( i, fp ) )
+		{
+			return( true );
+		}
+		if( this.victim != 0 )
+		{
+			return( false );
+		}
+		++this.size;
+		if( put( i, fp ) || put( j, fp ) )
+		{
+			return( true );
+		}
+		// evict a random resident to its other bucket until one fits
+		i = ( ( this.random & 1L ) == 0L ) ? i : j;
+		for( int kick = 0; kick < MAX_KICKS; ++kick )
+		{
+			this.random ^= this.random << 13;
+			this.random ^= this.random >>> 7;
+			this.random ^= this.random << 17;
+			int s = i * SLOTS + (int)( this.random & ( SLOTS - 1 ) );
+			char evicted = this.slots[s];
+			this.slots[s] = fp;
+			fp = evicted;
+			i = alternate( i, fp );
+			if( put( i, fp ) )
+			{
+				return( true );
+			}
+		}
+		this.victimBucket = i;
+		this.victim = fp;
+		return( true );
+	}
+
+	private boolean put( int i, char fp )
+	{
+		for( int s = i * SLOTS; s < ( i + 1 ) * SLOTS; ++s )
+		{
+			if( this.slots[s] == 0 )
+			{
+				this.slots[s] = fp;
+				return( true );
+			}
+		}
+		return( false );
+	}
+
+	private boolean contains( int i, char fp )
+	{
+		int s = i * SLOTS;
+		return( ( this.slots[s] == fp ) || ( this.slots[s + 1] == fp ) ||
+			( this.slots[s + 2] == fp ) || ( this.slots[s + 3] == fp ) );
+	}
+
+	private boolean delete( int i, char fp )
+	{
+		for( int s = i * SLOTS; s < ( i + 1 ) * SLOTS; ++s )
+		{
+			if( this.slots[s] == fp )
+			{
+				this.slots[s] = 0;
+				return( true );
+			}
+		}
+		return( false );
+	}
+
+	private boolean isVictim( int i, char fp )
+	{
+		return( ( this.victim == fp ) && ( ( this.victimBucket == i ) || ( this.victimBucket == alternate( i, fp ) ) ) );
+	}
+
+	private int alternate( int i, char fp )
+	{
+		return( ( i ^ (int)InetBits.fmix( fp ) ) & this.mask );
+	}
+
+	private char fingerprint( long h )
+	{
+		int fp = (int)h & ( ( 1 << this.fingerprintBits ) - 1 );
+		return( (char)( ( fp == 0 ) ? 1 : fp ) );
+	}
+
+	private long hash( boolean ipv6, long high, long low )
+	{
+		int bits = ipv6 ? this.ipv6Prefix : this.ipv4Prefix;
+		return( InetBits.mix( ipv6, high & InetBits.maskHigh( bits, ipv6 ), low & InetBits.maskLow( bits, ipv6 ), bits ) );
+	}
+
+	private static int fingerprintBits( double falsePositiveRate )
+	{
+		if( !( falsePositiveRate > 0.0 ) || !( falsePositiveRate < 1.0 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid false positive rate: " + falsePositiveRate ) );
+		}
+		int bits = (int)Math.ceil( Math.log( 2.0 * SLOTS / falsePositiveRate ) / Math.log( 2.0 ) );
+		if( bits > 16 )
+		{
+			throw( new IllegalArgumentException( "False positive rate too low for a cuckoo filter: " + falsePositiveRate ) );
+		}
+		return( Math.max( 4, bits ) );
+	}
+
+	private static int buckets( long expectedInsertions )
+	{
+		if( expectedInsertions <= 0L )
+		{
+			throw( new IllegalArgumentException( "Invalid expected insertions: " + expectedInsertions ) );
+		}
+		long buckets = Math.max( 1L, (long)Math.ceil( expectedInsertions / ( SLOTS * 0.95 ) ) );
+		if( buckets > MAX_BUCKETS )
+		{
+			throw( new IllegalArgumentException( "Filter too large: " + expectedInsertions + " insertions" ) );
+		}
+		// a power of two, so the xor of a bucket and a hash stays in range
+		return( ( buckets == 1L ) ? 1 : Integer.highestOneBit( ( (int)buckets - 1 ) << 1 ) );
+	}
+}
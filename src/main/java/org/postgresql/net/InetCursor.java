@@ -0,0 +1,377 @@
+package org.postgresql.net;
+
+import java.sql.SQLException;
+import org.postgresql.util.GT;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.PSQLState;
+
+/**
+ *	A reusable view of one inet or cidr value for scanning large result
+ *	sets without creating an object per row.
+ *
+ *	<p>Each set method overwrites the current value in place.  Once the
+ *	cursor exists nothing is allocated when it is set from the server text
+ *	format, the binary format or primitive words, so the only garbage a
+ *	scan makes is whatever the caller keeps.  Use {@link #toInetValue()}
+ *	or {@link #toPGinet()} to keep a copy of a row.</p>
+ *
+ *	<pre>
+ *	InetCursor cursor = new InetCursor();
+ *	while( rs.next() )
+ *	{
+ *		cursor.setText( rs.getString( 1 ) );
+ *		counts.increment( cursor.getHighWord(), cursor.getLowWord() );
+ *	}
+ *	</pre>
+ *
+ *	<p>A cursor is not thread safe, give each thread its own.  It does
+ *	not override equals() or hashCode() since its value changes, use
+ *	{@link #valueHash()} and {@link #sameValue(PGinet)} instead.</p>
+ */
+public final class InetCursor
+{
+	private final byte[] scratch = new byte[ 16 ];
+	private boolean ipv6;
+	private long high;
+	private long low;
+	private int netmask;
+	private boolean embeddedIPv4;
+	private boolean isNull = true;
+
+	/**
+	 *	Only used for text outside the strict server format.
+	 */
+	private PGinet fallback;
+
+	/**
+	 *	Create a cursor holding SQL NULL.
+	 */
+	public InetCursor()
+	{
+	}
+
+	/**
+	 *	Set the cursor from inet or cidr text, null is taken as SQL NULL.
+	 *
+	 *	@param s The text.
+	 *	@exception SQLException If s is not a valid inet value.
+	 */
+	public void setText( CharSequence s )
+	throws SQLException
+	{
+		if( s == null )
+		{
+			setNull();
+			return;
+		}
+		setText( s, 0, s.length() );
+	}
+
+	/**
+	 *	Set the cursor from part of a larger piece of text, for example
+	 *	one field of a COPY row, without cutting it out first.
+	 *
+	 *	@param s The text.
+	 *	@param start The index of the first character of the value.
+	 *	@param end One past the index of the last character of the value.
+	 *	@exception SQLException If the range is not a valid inet value,
+	 *		the cursor is left holding SQL NULL.
+	 */
+	public void setText( CharSequence s, int start, int end )
+	throws SQLException
+	{
+		int r = InetText.parse( s, start, end, this.scratch );
+		if( r == InetText.FAIL )
+		{
+			// the general parser handles the other forms and
+			// produces the error message.
+			if( this.fallback == null )
+			{
+				this.fallback = new PGinet();
+			}
+			try
+			{
+				this.fallback.setValue( s.subSequence( start, end ).toString() );
+			}
+			catch( SQLException e )
+			{
+				// never leave the previous row behind for a caller which skips bad rows
+				setNull();
+				throw( e );
+			}
+			setNetwork( this.fallback );
+			return;
+		}
+		this.ipv6 = ( r & InetText.IPV6 ) != 0;
+		this.high = this.ipv6 ? InetBits.readLong( this.scratch, 0 ) : 0L;
+		this.low = this.ipv6 ? InetBits.readLong( this.scratch, 8 ) : ( InetBits.readInt( this.scratch, 0 ) & 0xFFFFFFFFL );
+		this.netmask = r & 0xFF;
+		this.embeddedIPv4 = ( r & InetText.EMBEDDED_IPV4 ) != 0;
+		this.isNull = false;
+	}
+
+	/**
+	 *	Set the cursor from a value in the inet_send binary format, as
+	 *	returned for a binary result column or found in a binary COPY row.
+	 *
+	 *	@param data The buffer holding the value.
+	 *	@param offset The index of the first byte of the value.
+	 *	@param length The length of the value, -1 for SQL NULL.
+	 *	@exception SQLException If the bytes are not a valid inet value,
+	 *		the cursor is left holding SQL NULL.
+	 */
+	public void setBinary( byte[] data, int offset, int length )
+	throws SQLException
+	{
+		if( length < 0 )
+		{
+			setNull();
+			return;
+		}
+		int bits = InetArrayCodec.networkBits( data, offset, length );
+		if( bits < 0 )
+		{
+			setNull();
+			throw( new PSQLException( GT.tr( "Conversion to type {0} failed: {1}.",
+				new Object[]{ "inet", "invalid binary value of " + length + " bytes" } ), PSQLState.DATA_TYPE_MISMATCH ) );
+		}
+		this.ipv6 = length == 20;
+		this.high = this.ipv6 ? InetBits.readLong( data, offset + 4 ) : 0L;
+		this.low = this.ipv6 ? InetBits.readLong( data, offset + 12 ) : ( InetBits.readInt( data, offset + 4 ) & 0xFFFFFFFFL );
+		this.netmask = bits;
+		this.embeddedIPv4 = false;
+		this.isNull = false;
+	}
+
+	/**
+	 *	@param address The 32 bits of an IPv4 address.
+	 *	@param netmask The netmask, 0 to 32.
+	 */
+	public void setIPv4( int address, int netmask )
+	{
+		checkNetmask( netmask, 32 );
+		this.ipv6 = false;
+		this.high = 0L;
+		this.low = address & 0xFFFFFFFFL;
+		this.netmask = netmask;
+		this.embeddedIPv4 = false;
+		this.isNull = false;
+	}
+
+	/**
+	 *	@param high The first 64 bits of an IPv6 address.
+	 *	@param low The last 64 bits of an IPv6 address.
+	 *	@param netmask The netmask, 0 to 128.
+	 */
+	public void setIPv6( long high, long low, int netmask )
+	{
+		checkNetmask( netmask, 128 );
+		this.ipv6 = true;
+		this.high = high;
+		this.low = low;
+		this.netmask = netmask;
+		this.embeddedIPv4 = false;
+		this.isNull = false;
+	}
+
+	/**
+	 *	Copy the value of a PGinet, null is taken as SQL NULL.
+	 *
+	 *	@param value The value to copy.
+	 */
+	public void set( PGinet value )
+	{
+		setNetwork( value );
+	}
+
+	/**
+	 *	Copy the value of a PGcidr, null is taken as SQL NULL.
+	 *
+	 *	@param value The value to copy.
+	 */
+	public void set( PGcidr value )
+	{
+		setNetwork( value );
+	}
+
+	private void setNetwork( PGNetworkBase value )
+	{
+		if( value != null )
+		{
+			value.resolve();
+		}
+		if( ( value == null ) || ( value.addr == null ) )
+		{
+			setNull();
+			return;
+		}
+		this.ipv6 = value.addr.length == 16;
+		this.high = InetBits.high( value.addr );
+		this.low = InetBits.low( value.addr );
+		this.netmask = value.netmask;
+		this.embeddedIPv4 = value.embedded_ipv4;
+		this.isNull = false;
+	}
+
+	/**
+	 *	Set the cursor to SQL NULL.
+	 */
+	public void setNull()
+	{
+		this.ipv6 = false;
+		this.high = 0L;
+		this.low = 0L;
+		this.netmask = 0;
+		this.embeddedIPv4 = false;
+		this.isNull = true;
+	}
+
+	/**
+	 *	@return true if the cursor holds SQL NULL, the other getters
+	 *		return 0 in that case.
+	 */
+	public boolean isNull()
+	{
+		return( this.isNull );
+	}
+
+	/**
+	 *	@return true for a 128 bit IPv6 address.
+	 */
+	public boolean isIPv6()
+	{
+		return( this.ipv6 );
+	}
+
+	/**
+	 *	@return 4 for IPv4, 6 for IPv6.
+	 */
+	public int family()
+	{
+		return( this.ipv6 ? 6 : 4 );
+	}
+
+	/**
+	 *	@return The first 64 bits of an IPv6 address, always 0 for IPv4.
+	 */
+	public long getHighWord()
+	{
+		return( this.high );
+	}
+
+	/**
+	 *	@return The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address as an unsigned value.
+	 */
+	public long getLowWord()
+	{
+		return( this.low );
+	}
+
+	/**
+	 *	@return The netmask of the current value.
+	 */
+	public int getNetmask()
+	{
+		return( this.netmask );
+	}
+
+	/**
+	 *	@return The hash code a PGinet or PGcidr with the current value
+	 *		would return, 0 for SQL NULL.
+	 */
+	public int valueHash()
+	{
+		return( this.isNull ? 0 : InetBits.hash( this.ipv6, this.high, this.low, this.netmask ) );
+	}
+
+	/**
+	 *	@param value A PGinet.
+	 *	@return true if value has the same address and netmask as the
+	 *		current value.
+	 */
+	public boolean sameValue( PGinet value )
+	{
+		return( sameNetwork( value ) );
+	}
+
+	/**
+	 *	@param value A PGcidr.
+	 *	@return true if value has the same address and netmask as the
+	 *		current value.
+	 */
+	public boolean sameValue( PGcidr value )
+	{
+		return( sameNetwork( value ) );
+	}
+
+	private boolean sameNetwork( PGNetworkBase value )
+	{
+		if( value != null )
+		{
+			value.resolve();
+		}
+		if( ( value == null ) || ( value.addr == null ) || this.isNull )
+		{
+			return( false );
+		}
+		return( ( ( value.addr.length == 16 ) == this.ipv6 ) && ( value.netmask == this.netmask ) &&
+			( InetBits.high( value.addr ) == this.high ) && ( InetBits.low( value.addr ) == this.low ) );
+	}
+
+	/**
+	 *	Append the current value in the same literal format as PGinet.
+	 *	This does not allocate if sb already has room.
+	 *
+	 *	@param sb The buffer to append to.
+	 *	@return sb.
+	 */
+	public StringBuilder appendTo( StringBuilder sb )
+	{
+		if( this.isNull )
+		{
+			return( sb.append( "NULL" ) );
+		}
+		InetText.append( sb, this.ipv6, this.high, this.low, this.netmask, this.embeddedIPv4 );
+		return( sb );
+	}
+
+	/**
+	 *	@return An immutable copy of the current value, null for SQL NULL.
+	 */
+	public InetValue toInetValue()
+	{
+		if( this.isNull )
+		{
+			return( null );
+		}
+		return( InetValue.of( this.ipv6, this.high, this.low, this.netmask, this.embeddedIPv4 ) );
+	}
+
+	/**
+	 *	@return A new PGinet holding the current value, null for SQL NULL.
+	 */
+	public PGinet toPGinet()
+	{
+		if( this.isNull )
+		{
+			return( null );
+		}
+		PGinet inet = new PGinet();
+		inet.setAddress( InetBits.toBytes( this.ipv6, this.high, this.low ), this.netmask, this.embeddedIPv4 );
+		return( inet );
+	}
+
+	public String toString()
+	{
+		return( appendTo( new StringBuilder( 48 ) ).toString() );
+	}
+
+	private static void checkNetmask( int netmask, int maxBits )
+	{
+		if( ( netmask < 0 ) || ( netmask > maxBits ) )
+		{
+			throw( new IllegalArgumentException( "Invalid netmask: " + netmask ) );
+		}
+	}
+}
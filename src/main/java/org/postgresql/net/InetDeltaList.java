@@ -0,0 +1,258 @@
+package org.postgresql.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ *	Random access to a list written by {@link InetDeltaWriter}, kept in
+ *	its encoded form.
+ *
+ *	<p>Opening the list decodes it once to check it and to index its
+ *	blocks: the offset, position and first address of each.  An address
+ *	is then found by a binary search of the block index and a decode of
+ *	at most one block, and {@link #reader(int)} starts a sequential
+ *	reader at any position, skipping the blocks before it.  A list is
+ *	immutable and safe to share between threads.</p>
+ */
+public final class InetDeltaList
+{
+	private final byte[] data;
+	private final int size;
+	private final int endOffset;
+	private final int[] blockOffset;
+	private final int[] blockStart;
+	private final boolean[] blockIPv6;
+	private final long[] firstHigh;
+	private final long[] firstLow;
+
+	/**
+	 *	Open a list.
+	 *
+	 *	@param data The encoded list, it is not copied and must not change.
+	 *	@exception SQLException If the bytes are not a valid list.
+	 */
+	public InetDeltaList( byte[] data )
+	throws SQLException
+	{
+		this.data = data;
+		InetDeltaReader r = new InetDeltaReader( ByteBuffer.wrap( data ) );
+		int[] offsets = new int[ 16 ];
+		int[] starts = new int[ 16 ];
+		boolean[] ipv6 = new boolean[ 16 ];
+		long[] high = new long[ 16 ];
+		long[] low = new long[ 16 ];
+		int blocks = 0;
+		int n = 0;
+		int lastOffset = -1;
+		try
+		{
+			while( r.next() )
+			{
+				if( r.blockOffset != lastOffset )
+				{
+					if( blocks == offsets.length )
+					{
+						offsets = Arrays.copyOf( offsets, blocks * 2 );
+						starts = Arrays.copyOf( starts, blocks * 2 );
+						ipv6 = Arrays.copyOf( ipv6, blocks * 2 );
+						high = Arrays.copyOf( high, blocks * 2 );
+						low = Arrays.copyOf( low, blocks * 2 );
+					}
+					lastOffset = r.blockOffset;
+					offsets[blocks] = lastOffset;
+					starts[blocks] = n;
+					ipv6[blocks] = r.isIPv6();
+					high[blocks] = r.getHighWord();
+					low[blocks] = r.getLowWord();
+					++blocks;
+				}
+				if( ++n < 0 )
+				{
+					throw( InetDeltaReader.invalid( "too many addresses" ) );
+				}
+			}
+		}
+		catch( IOException e )
+		{
+			throw( new IllegalStateException( e ) );
+		}
+		this.size = n;
+		this.endOffset = r.blockOffset;
+		this.blockOffset = Arrays.copyOf( offsets, blocks );
+		this.blockStart = Arrays.copyOf( starts, blocks );
+		this.blockIPv6 = Arrays.copyOf( ipv6, blocks );
+		this.firstHigh = Arrays.copyOf( high, blocks );
+		this.firstLow = Arrays.copyOf( low, blocks );
+	}
+
+	/**
+	 *	@return The number of addresses.
+	 */
+	public int size()
+	{
+		return( this.size );
+	}
+
+	/**
+	 *	@return The number of blocks.
+	 */
+	public int getBlockCount()
+	{
+		return( this.blockOffset.length );
+	}
+
+	/**
+	 *	@param i The position of an address.
+	 *	@return A new PGinet holding it.
+	 */
+	public PGinet get( int i )
+	{
+		return( reader( i, true ).getInet() );
+	}
+
+	/**
+	 *	Copy the address at a position to a cursor.
+	 *
+	 *	@param i The position of an address.
+	 *	@param cursor The cursor to set.
+	 */
+	public void get( int i, InetCursor cursor )
+	{
+		reader( i, true ).get( cursor );
+	}
+
+	/**
+	 *	Start reading at a position.
+	 *
+	 *	@param from The position of the first address to read, 0 to
+	 *		{@link #size()}.
+	 *	@return A reader whose first call to next() moves to that address.
+	 */
+	public InetDeltaReader reader( int from )
+	{
+		return( reader( from, false ) );
+	}
+
+	/**
+	 *	@param value An address, its netmask is ignored.
+	 *	@return The position of the address, or -(insertion point) - 1 if
+	 *		it is not in the list, as for Arrays.binarySearch.
+	 */
+	public int indexOf( PGinet value )
+	{
+		value.resolve();
+		return( indexOf( value.isIPv6(), value.getHighWord(), value.getLowWord() ) );
+	}
+
+	/**
+	 *	@param value An address, its netmask is ignored.
+	 *	@return true if the address is in the list.
+	 */
+	public boolean contains( PGinet value )
+	{
+		return( indexOf( value ) >= 0 );
+	}
+
+	/**
+	 *	Find an address given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@return The position of the address, or -(insertion point) - 1 if
+	 *		it is not in the list.
+	 */
+	public int indexOf( boolean ipv6, long high, long low )
+	{
+		// the last block starting at or before the address
+		int lo = 0;
+		int hi = this.blockOffset.length;
+		while( lo < hi )
+		{
+			int mid = ( lo + hi ) >>> 1;
+			if( compare( this.blockIPv6[mid], this.firstHigh[mid], this.firstLow[mid], ipv6, high, low ) <= 0 )
+			{
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid;
+			}
+		}
+		if( lo == 0 )
+		{
+			return( -1 );
+		}
+		int b = lo - 1;
+		int end = ( lo < this.blockStart.length ) ? this.blockStart[lo] : this.size;
+		InetDeltaReader r = new InetDeltaReader( this.data, this.blockOffset[b] );
+		for( int i = this.blockStart[b]; i < end; ++i )
+		{
+			next( r );
+			int c = compare( r.isIPv6(), r.getHighWord(), r.getLowWord(), ipv6, high, low );
+			if( c == 0 )
+			{
+				return( i );
+			}
+			if( c > 0 )
+			{
+				return( -i - 1 );
+			}
+		}
+		return( -end - 1 );
+	}
+
+	private InetDeltaReader reader( int from, boolean onto )
+	{
+		if( ( from < 0 ) || ( from > this.size ) || ( onto && ( from == this.size ) ) )
+		{
+			throw( new IndexOutOfBoundsException( "Index: " + from + ", size: " + this.size ) );
+		}
+		int b = Arrays.binarySearch( this.blockStart, from );
+		if( b < 0 )
+		{
+			b = -b - 2;
+		}
+		if( b < 0 )
+		{
+			// an empty list
+			return( new InetDeltaReader( this.data, this.endOffset ) );
+		}
+		InetDeltaReader r = new InetDeltaReader( this.data, this.blockOffset[b] );
+		for( int i = this.blockStart[b]; i < ( onto ? from + 1 : from ); ++i )
+		{
+			next( r );
+		}
+		return( r );
+	}
+
+	private static void next( InetDeltaReader r )
+	{
+		try
+		{
+			r.next();
+		}
+		catch( IOException e )
+		{
+			throw( new IllegalStateException( e ) );
+		}
+		catch( SQLException e )
+		{
+			// the list was checked when it was opened
+			throw( new IllegalStateException( e ) );
+		}
+	}
+
+	private static int compare( boolean ipv6a, long higha, long lowa, boolean ipv6b, long highb, long lowb )
+	{
+		if( ipv6a != ipv6b )
+		{
+			return( ipv6a ? 1 : -1 );
+		}
+		int c = Long.compareUnsigned( higha, highb );
+		return( ( c != 0 ) ? c : Long.compareUnsigned( lowa, lowb ) );
+	}
+}
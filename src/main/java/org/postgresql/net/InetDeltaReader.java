@@ -0,0 +1,507 @@
+package org.postgresql.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import org.postgresql.util.GT;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.PSQLState;
+
+/**
+ *	Reads a list written by {@link InetDeltaWriter}, one address at a
+ *	time in to reused fields, so a pass over the list allocates nothing
+ *	per address.
+ *
+ *	<pre>
+ *	InetDeltaReader r = new InetDeltaReader( in );
+ *	while( r.next() )
+ *	{
+ *		long address = r.getLowWord();
+ *	}
+ *	</pre>
+ *
+ *	<p>A reader on a heap ByteBuffer decodes in place and leaves the
+ *	buffer positioned after the list once the end is reached.  A reader on
+ *	a stream reads each block whole, so it need not be buffered, and stops
+ *	at the end of the list.  A reader is not thread safe.</p>
+ */
+public final class InetDeltaReader
+{
+	private final InputStream in;
+	private final ByteBuffer src;
+
+	// the bytes of the current block, and for a heap buffer the list
+	private byte[] buf;
+	private int pos;
+	private int end;
+	private int cursor;
+	private final int limit;
+	private final int base;
+
+	private int remaining;
+	private boolean first;
+	private boolean started;
+	private boolean ordered;
+	private boolean done;
+
+	private boolean ipv6;
+	private long high;
+	private long low;
+
+	/** The offset of the current block header in a heap buffer. */
+	int blockOffset;
+
+	/** The number of addresses in the current block. */
+	int blockCount;
+
+	/**
+	 *	Read a list from a stream.
+	 *
+	 *	@param in The stream, positioned at the start of the list.
+	 *	@exception IOException If reading fails.
+	 *	@exception SQLException If the stream does not start a list.
+	 */
+	public InetDeltaReader( InputStream in )
+	throws IOException, SQLException
+	{
+		this.in = in;
+		this.src = null;
+		this.buf = new byte[ 256 ];
+		this.limit = 0;
+		this.base = 0;
+		checkHeader( readByte(), readByte() );
+	}
+
+	/**
+	 *	Read a list from a buffer.
+	 *
+	 *	@param src The buffer, positioned at the start of the list.
+	 *	@exception SQLException If the buffer does not start a list.
+	 */
+	public InetDeltaReader( ByteBuffer src )
+	throws SQLException
+	{
+		this.in = null;
+		this.src = src;
+		if( src.hasArray() )
+		{
+			this.buf = src.array();
+			this.base = src.arrayOffset();
+			this.cursor = this.base + src.position();
+			this.limit = this.base + src.limit();
+		}
+		else
+		{
+			this.buf = new byte[ 256 ];
+			this.base = 0;
+			this.limit = 0;
+		}
+		try
+		{
+			checkHeader( readByte(), readByte() );
+		}
+		catch( IOException e )
+		{
+			throw( invalid( "truncated" ) );
+		}
+	}
+
+	/**
+	 *	Read from the block starting at an offset of a list already
+	 *	checked by {@link InetDeltaList}.
+	 */
+	InetDeltaReader( byte[] data, int offset )
+	{
+		this.in = null;
+		this.src = null;
+		this.buf = data;
+		this.base = 0;
+		this.cursor = offset;
+		this.limit = data.length;
+	}
+
+	/**
+	 *	Move to the next address.
+	 *
+	 *	@return false at the end of the list.
+	 *	@exception IOException If reading from the stream fails.
+	 *	@exception SQLException If the list is not valid.
+	 */
+	public boolean next()
+	throws IOException, SQLException
+	{
+		if( ( this.remaining == 0 ) && !nextBlock() )
+		{
+			return( false );
+		}
+		byte[] b = this.buf;
+		int p = this.pos;
+		int e = this.end;
+		byte x;
+		if( !this.ipv6 )
+		{
+			long v = 0L;
+			int shift = 0;
+			do
+			{
+				if( p == e )
+				{
+					throw( invalid( "truncated block" ) );
+				}
+				x = b[p++];
+				v |= (long)( x & 0x7F ) << shift;
+				shift += 7;
+			}
+			while( ( x < 0 ) && ( shift < 35 ) );
+			if( !this.first )
+			{
+				v += this.low + 1L;
+			}
+			if( ( x < 0 ) || ( v > 0xFFFFFFFFL ) )
+			{
+				throw( invalid( "bad IPv4 address" ) );
+			}
+			if( this.first && this.ordered && ( v <= this.low ) )
+			{
+				throw( invalid( "blocks out of order" ) );
+			}
+			this.low = v;
+		}
+		else
+		{
+			long lo = 0L;
+			long hi = 0L;
+			int shift = 0;
+			do
+			{
+				if( p == e )
+				{
+					throw( invalid( "truncated block" ) );
+				}
+				x = b[p++];
+				long bits = x & 0x7F;
+				if( shift < 64 )
+				{
+					lo |= bits << shift;
+					if( shift > 57 )
+					{
+						hi |= bits >>> ( 64 - shift );
+					}
+				}
+				else
+				{
+					hi |= bits << ( shift - 64 );
+				}
+				shift += 7;
+			}
+			while( ( x < 0 ) && ( shift < 133 ) );
+			if( ( x < 0 ) || ( ( shift == 133 ) && ( ( x & 0x7C ) != 0 ) ) )
+			{
+				throw( invalid( "bad IPv6 address" ) );
+			}
+			if( !this.first )
+			{
+				// the previous address plus the distance plus one
+				long sum = this.low + lo;
+				hi += this.high + ( InetBits.unsignedLess( sum, lo ) ? 1L : 0L );
+				lo = sum + 1L;
+				if( lo == 0L )
+				{
+					++hi;
+				}
+				if( !after( hi, lo ) )
+				{
+					throw( invalid( "bad IPv6 address" ) );
+				}
+			}
+			else if( this.ordered && !after( hi, lo ) )
+			{
+				throw( invalid( "blocks out of order" ) );
+			}
+			this.high = hi;
+			this.low = lo;
+		}
+		this.pos = p;
+		this.first = false;
+		this.started = true;
+		if( ( --this.remaining == 0 ) && ( p != e ) )
+		{
+			throw( invalid( "bad block length" ) );
+		}
+		return( true );
+	}
+
+	/**
+	 *	Decode addresses in bulk.  One call returns addresses from one
+	 *	block at most, so they are all of the family {@link #isIPv6()}
+	 *	reports after it, and the last of them is the current address.
+	 *
+	 *	@param high Receives the high words.
+	 *	@param low Receives the low words.
+	 *	@param off The first index to fill.
+	 *	@param len The most addresses to decode, at least 1.
+	 *	@return The number of addresses decoded, -1 at the end of the
+	 *		list.
+	 *	@exception IOException If reading from the stream fails.
+	 *	@exception SQLException If the list is not valid.
+	 */
+	public int read( long[] high, long[] low, int off, int len )
+	throws IOException, SQLException
+	{
+		if( !next() )
+		{
+			return( -1 );
+		}
+		high[off] = this.high;
+		low[off] = this.low;
+		int n = Math.min( len, this.remaining + 1 );
+		if( this.ipv6 )
+		{
+			for( int i = 1; i < n; ++i )
+			{
+				next();
+				high[off + i] = this.high;
+				low[off + i] = this.low;
+			}
+			return( n );
+		}
+		// the IPv4 case of next() without the per address field updates
+		byte[] b = this.buf;
+		int p = this.pos;
+		int e = this.end;
+		long v = this.low;
+		for( int i = 1; i < n; ++i )
+		{
+			if( p == e )
+			{
+				throw( invalid( "truncated block" ) );
+			}
+			byte x = b[p++];
+			long gap = x & 0x7F;
+			for( int shift = 7; x < 0; shift += 7 )
+			{
+				if( ( p == e ) || ( shift == 35 ) )
+				{
+					throw( invalid( "bad IPv4 address" ) );
+				}
+				x = b[p++];
+				gap |= (long)( x & 0x7F ) << shift;
+			}
+			v += gap + 1L;
+			high[off + i] = 0L;
+			low[off + i] = v;
+		}
+		if( v > 0xFFFFFFFFL )
+		{
+			throw( invalid( "bad IPv4 address" ) );
+		}
+		this.pos = p;
+		this.low = v;
+		this.remaining -= n - 1;
+		if( ( this.remaining == 0 ) && ( p != e ) )
+		{
+			throw( invalid( "bad block length" ) );
+		}
+		return( n );
+	}
+
+	/**
+	 *	@return true if the current address is IPv6.
+	 */
+	public boolean isIPv6()
+	{
+		return( this.ipv6 );
+	}
+
+	/**
+	 *	@return The first 64 bits of the current IPv6 address, 0 for
+	 *		IPv4.
+	 */
+	public long getHighWord()
+	{
+		return( this.high );
+	}
+
+	/**
+	 *	@return The last 64 bits of the current IPv6 address, or the 32
+	 *		bits of an IPv4 address.
+	 */
+	public long getLowWord()
+	{
+		return( this.low );
+	}
+
+	/**
+	 *	@return A new PGinet holding the current address.
+	 */
+	public PGinet getInet()
+	{
+		PGinet inet = new PGinet();
+		inet.setAddress( InetBits.toBytes( this.ipv6, this.high, this.low ), this.ipv6 ? 128 : 32, false );
+		return( inet );
+	}
+
+	/**
+	 *	Copy the current address to a cursor.
+	 *
+	 *	@param cursor The cursor to set.
+	 */
+	public void get( InetCursor cursor )
+	{
+		if( this.ipv6 )
+		{
+			cursor.setIPv6( this.high, this.low, 128 );
+		}
+		else
+		{
+			cursor.setIPv4( (int)this.low, 32 );
+		}
+	}
+
+	private boolean nextBlock()
+	throws IOException, SQLException
+	{
+		if( this.done )
+		{
+			return( false );
+		}
+		this.blockOffset = this.cursor;
+		int h = readVarint();
+		if( h == 0 )
+		{
+			this.done = true;
+			if( ( this.src != null ) && this.src.hasArray() )
+			{
+				// through Buffer so this links on Java 8 whatever JDK builds it
+				( (Buffer)this.src ).position( this.cursor - this.base );
+			}
+			return( false );
+		}
+		int n = h >>> 1;
+		boolean v6 = ( h & 1 ) != 0;
+		int length = readVarint();
+		if( ( n == 0 ) || ( n > 65536 ) || ( length < n ) || ( length > n * InetDeltaWriter.MAX_VARINT ) ||
+			( this.started && this.ipv6 && !v6 ) )
+		{
+			throw( invalid( "bad block header" ) );
+		}
+		if( this.in != null )
+		{
+			ensure( length );
+			int off = 0;
+			while( off < length )
+			{
+				int r = this.in.read( this.buf, off, length - off );
+				if( r < 0 )
+				{
+					throw( invalid( "truncated" ) );
+				}
+				off += r;
+			}
+			this.pos = 0;
+		}
+		else if( ( this.src == null ) || this.src.hasArray() )
+		{
+			if( length > this.limit - this.cursor )
+			{
+				throw( invalid( "truncated" ) );
+			}
+			this.pos = this.cursor;
+			this.cursor += length;
+		}
+		else
+		{
+			if( length > this.src.remaining() )
+			{
+				throw( invalid( "truncated" ) );
+			}
+			ensure( length );
+			this.src.get( this.buf, 0, length );
+			this.pos = 0;
+		}
+		this.end = this.pos + length;
+		this.remaining = n;
+		this.blockCount = n;
+		this.first = true;
+		// the first address must follow the last one of the block before,
+		// unless the block starts the IPv6 addresses
+		this.ordered = this.started && ( v6 == this.ipv6 );
+		this.ipv6 = v6;
+		return( true );
+	}
+
+	/**
+	 *	@return true if the IPv6 address is after the current one.
+	 */
+	private boolean after( long hi, long lo )
+	{
+		return( InetBits.unsignedLess( this.high, hi ) || ( ( hi == this.high ) && InetBits.unsignedLess( this.low, lo ) ) );
+	}
+
+	private void ensure( int length )
+	{
+		if( this.buf.length < length )
+		{
+			this.buf = new byte[ Math.max( length, this.buf.length * 2 ) ];
+		}
+	}
+
+	private int readVarint()
+	throws IOException, SQLException
+	{
+		int v = 0;
+		for( int shift = 0; shift < 35; shift += 7 )
+		{
+			int x = readByte();
+			v |= ( x & 0x7F ) << shift;
+			if( x < 0x80 )
+			{
+				return( ( v < 0 ) ? -1 : v );
+			}
+		}
+		throw( invalid( "bad block header" ) );
+	}
+
+	private int readByte()
+	throws IOException, SQLException
+	{
+		if( this.in != null )
+		{
+			int x = this.in.read();
+			if( x < 0 )
+			{
+				throw( invalid( "truncated" ) );
+			}
+			return( x );
+		}
+		if( ( this.src == null ) || this.src.hasArray() )
+		{
+			if( this.cursor >= this.limit )
+			{
+				throw( invalid( "truncated" ) );
+			}
+			return( this.buf[this.cursor++] & 0xFF );
+		}
+		if( !this.src.hasRemaining() )
+		{
+			throw( invalid( "truncated" ) );
+		}
+		return( this.src.get() & 0xFF );
+	}
+
+	private static void checkHeader( int magic, int version )
+	throws SQLException
+	{
+		if( ( magic != InetDeltaWriter.MAGIC ) || ( version != InetDeltaWriter.VERSION ) )
+		{
+			throw( invalid( "not a delta list" ) );
+		}
+	}
+
+	static PSQLException invalid( String detail )
+	{
+		return( new PSQLException( GT.tr( "Invalid delta list: {0}.", detail ), PSQLState.DATA_ERROR ) );
+	}
+}
@@ -0,0 +1,294 @@
+package org.postgresql.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ *	Writes an ascending list of addresses as deltas in variable length
+ *	integers, for archiving or sending large address sets.  Neighbouring
+ *	addresses in a dense set differ by little, so most take one or two
+ *	bytes in place of 4 or 16.
+ *
+ *	<p>The list is written in blocks of up to a given number of
+ *	addresses, all of one family.  A block starts with a varint holding
+ *	its count shifted left once with the low bit set for IPv6, and a
+ *	varint holding its length in bytes.  The first address of a block
+ *	follows in full, then each later address as its distance from the one
+ *	before less one.  A zero byte ends the list, and the whole is
+ *	preceded by the two bytes 'D' and a version of 1.  As each block can
+ *	be decoded on its own, {@link InetDeltaList} can index them for
+ *	random access and readers can step over blocks they do not need.</p>
+ *
+ *	<p>Addresses must be added in ascending order, IPv4 before IPv6 as
+ *	the server sorts them; a repeat of the previous address is skipped.
+ *	Netmasks are not written, the addresses decode as /32 or /128.  Call
+ *	{@link #finish()} after the last address.  A writer is not thread
+ *	safe.</p>
+ */
+public final class InetDeltaWriter
+{
+	/** The first byte of the encoding. */
+	static final byte MAGIC = 'D';
+	static final byte VERSION = 1;
+
+	/** The longest varint, a 128 bit value. */
+	static final int MAX_VARINT = 19;
+
+	/**
+	 *	The default number of addresses in a block.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 128;
+
+	private final OutputStream out;
+	private final ByteBuffer dst;
+	private final int blockSize;
+	private final byte[] block;
+	private final byte[] header = new byte[ 10 ];
+	private int length;
+	private int count;
+	private boolean ipv6;
+	private long high;
+	private long low;
+	private long total;
+	private boolean finished;
+
+	/**
+	 *	Start a list on a stream with the default block size.
+	 *
+	 *	@param out The stream to write to.
+	 *	@exception IOException If writing the header fails.
+	 */
+	public InetDeltaWriter( OutputStream out )
+	throws IOException
+	{
+		this( out, DEFAULT_BLOCK_SIZE );
+	}
+
+	/**
+	 *	Start a list on a stream.
+	 *
+	 *	@param out The stream to write to, a buffered stream is not
+	 *		needed as whole blocks are written at once.
+	 *	@param blockSize The number of addresses in a block, 1 to 65536.
+	 *		Smaller blocks make random access faster and the list a little
+	 *		larger.
+	 *	@exception IOException If writing the header fails.
+	 */
+	public InetDeltaWriter( OutputStream out, int blockSize )
+	throws IOException
+	{
+		this( out, null, blockSize );
+		out.write( new byte[]{ MAGIC, VERSION } );
+	}
+
+	/**
+	 *	Start a list in a buffer with the default block size.
+	 *
+	 *	@param dst The buffer to write to.
+	 *	@exception java.nio.BufferOverflowException If the buffer fills up,
+	 *		here or when adding.
+	 */
+	public InetDeltaWriter( ByteBuffer dst )
+	{
+		this( dst, DEFAULT_BLOCK_SIZE );
+	}
+
+	/**
+	 *	Start a list in a buffer.
+	 *
+	 *	@param dst The buffer to write to.
+	 *	@param blockSize The number of addresses in a block, 1 to 65536.
+	 *	@exception java.nio.BufferOverflowException If the buffer fills up,
+	 *		here or when adding.
+	 */
+	public InetDeltaWriter( ByteBuffer dst, int blockSize )
+	{
+		this( null, dst, blockSize );
+		dst.put( MAGIC ).put( VERSION );
+	}
+
+	private InetDeltaWriter( OutputStream out, ByteBuffer dst, int blockSize )
+	{
+		if( ( blockSize < 1 ) || ( blockSize > 65536 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid block size: " + blockSize ) );
+		}
+		this.out = out;
+		this.dst = dst;
+		this.blockSize = blockSize;
+		this.block = new byte[ blockSize * MAX_VARINT ];
+	}
+
+	/**
+	 *	Add an address, its netmask is ignored.
+	 *
+	 *	@param value The address.
+	 *	@exception IOException If writing a finished block fails.
+	 *	@exception IllegalArgumentException If the address is before the
+	 *		previous one.
+	 */
+	public void add( PGinet value )
+	throws IOException
+	{
+		value.resolve();
+		add( value.isIPv6(), value.getHighWord(), value.getLowWord() );
+	}
+
+	/**
+	 *	Add the address in a cursor.
+	 *
+	 *	@param cursor The cursor, it must not hold SQL NULL.
+	 *	@exception IOException If writing a finished block fails.
+	 *	@exception IllegalArgumentException If the address is before the
+	 *		previous one or the cursor holds SQL NULL.
+	 */
+	public void add( InetCursor cursor )
+	throws IOException
+	{
+		if( cursor.isNull() )
+		{
+			throw( new IllegalArgumentException( "A delta list can not hold SQL NULL" ) );
+		}
+		add( cursor.isIPv6(), cursor.getHighWord(), cursor.getLowWord() );
+	}
+
+	/**
+	 *	Add an address given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@exception IOException If writing a finished block fails.
+	 *	@exception IllegalArgumentException If the address is before the
+	 *		previous one.
+	 */
+	public void add( boolean ipv6, long high, long low )
+	throws IOException
+	{
+		if( this.finished )
+		{
+			throw( new IllegalStateException( "The list has been finished" ) );
+		}
+		if( !ipv6 && ( ( high != 0L ) || ( ( low >>> 32 ) != 0L ) ) )
+		{
+			throw( new IllegalArgumentException( "Not an IPv4 address" ) );
+		}
+		long gapHigh = high;
+		long gapLow = low;
+		if( this.total > 0L )
+		{
+			int c = ( ipv6 != this.ipv6 ) ? ( ipv6 ? 1 : -1 ) : Long.compareUnsigned( high, this.high );
+			if( c == 0 )
+			{
+				c = Long.compareUnsigned( low, this.low );
+			}
+			if( c == 0 )
+			{
+				return;
+			}
+			if( c < 0 )
+			{
+				throw( new IllegalArgumentException( "Addresses must be added in ascending order" ) );
+			}
+			if( ( ipv6 != this.ipv6 ) || ( this.count == this.blockSize ) )
+			{
+				flush();
+			}
+			if( this.count > 0 )
+			{
+				// the distance less one, as a 128 bit subtraction
+				gapLow = low - this.low;
+				gapHigh = high - this.high - ( InetBits.unsignedLess( low, this.low ) ? 1L : 0L );
+				if( gapLow == 0L )
+				{
+					--gapHigh;
+				}
+				--gapLow;
+			}
+		}
+		this.length = writeVarint( this.block, this.length, gapHigh, gapLow );
+		++this.count;
+		++this.total;
+		this.ipv6 = ipv6;
+		this.high = high;
+		this.low = low;
+	}
+
+	/**
+	 *	@return The number of addresses written, not counting repeats.
+	 */
+	public long getCount()
+	{
+		return( this.total );
+	}
+
+	/**
+	 *	Write the last block and the end of the list.  The stream is
+	 *	flushed but not closed.
+	 *
+	 *	@exception IOException If writing fails.
+	 */
+	public void finish()
+	throws IOException
+	{
+		if( this.finished )
+		{
+			return;
+		}
+		flush();
+		this.header[0] = 0;
+		write( this.header, 1 );
+		if( this.out != null )
+		{
+			this.out.flush();
+		}
+		this.finished = true;
+	}
+
+	private void flush()
+	throws IOException
+	{
+		if( this.count == 0 )
+		{
+			return;
+		}
+		int n = writeVarint( this.header, 0, 0L, ( (long)this.count << 1 ) | ( this.ipv6 ? 1L : 0L ) );
+		n = writeVarint( this.header, n, 0L, this.length );
+		write( this.header, n );
+		write( this.block, this.length );
+		this.count = 0;
+		this.length = 0;
+	}
+
+	private void write( byte[] b, int n )
+	throws IOException
+	{
+		if( this.out != null )
+		{
+			this.out.write( b, 0, n );
+		}
+		else
+		{
+			this.dst.put( b, 0, n );
+		}
+	}
+
+	/**
+	 *	Write a 128 bit value seven bits at a time, low bits first.
+	 *
+	 *	@return The position after the value.
+	 */
+	static int writeVarint( byte[] b, int p, long high, long low )
+	{
+		while( ( high != 0L ) || ( ( low & ~0x7FL ) != 0L ) )
+		{
+			b[p++] = (byte)( low | 0x80L );
+			low = ( low >>> 7 ) | ( high << 57 );
+			high >>>= 7;
+		}
+		b[p++] = (byte)low;
+		return( p );
+	}
+}
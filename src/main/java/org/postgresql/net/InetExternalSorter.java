@@ -0,0 +1,857 @@
+package org.postgresql.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ *	Sorts and removes repeats from more inet values than fit in memory,
+ *	in the server's sort order, ready for a bulk COPY in to a table.
+ *
+ *	<p>Values are gathered in primitive arrays up to the memory budget.
+ *	When the arrays fill they are cut in to one slice per thread, the
+ *	slices are sorted in parallel, and they are merged in to a run file
+ *	of fixed width 18 byte records: a short holding the family and
+ *	netmask, then the two address words.  Reading the result merges the
+ *	runs through a heap of run indexes, merging groups of runs in to
+ *	longer runs first when there are more than the budget can buffer at
+ *	once.  Every merge drops repeated values, so runs only hold distinct
+ *	values and the result has no repeats.  Values that fit in memory are
+ *	never written to disk.</p>
+ *
+ *	<p>Two values are the same when their family, address and netmask
+ *	are; 10.0.0.1/8 and 10.0.0.1/32 are both kept.  Call
+ *	{@link #close()} to remove the run files.  A sorter is not thread
+ *	safe, the threads it uses are its own.</p>
+ */
+public final class InetExternalSorter implements Closeable
+{
+	/**
+	 *	The default memory budget, 64 MiB.
+	 */
+	public static final long DEFAULT_MEMORY = 64L << 20;
+
+	/** The smallest memory budget. */
+	private static final long MIN_MEMORY = 64L << 10;
+	/** The bytes a value takes in memory and in a run file. */
+	private static final int RECORD = 18;
+	/** The least buffer worth giving each run while merging. */
+	private static final int MIN_RUN_BUFFER = 16 << 10;
+	private static final int MAX_FAN_IN = 256;
+	/** The least number of values worth sorting on a thread of its own. */
+	private static final int MIN_SLICE = 1 << 16;
+	private static final int IPV6 = 0x100;
+
+	private static final byte[] COPY_SIGNATURE = { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte)0xFF, '\r', '\n', 0 };
+
+	private final File directory;
+	private final long memory;
+	private final int parallelism;
+	private final int fanIn;
+	private final List<File> runs = new ArrayList<File>();
+	private short[] meta;
+	private long[] high;
+	private long[] low;
+	private int size;
+	private long count;
+	private ForkJoinPool pool;
+	private Merger merger;
+	private boolean closed;
+
+	/**
+	 *	Create a sorter with the default memory budget, one thread per
+	 *	processor and run files in the default temporary directory.
+	 */
+	public InetExternalSorter()
+	{
+		this( null, DEFAULT_MEMORY, Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 *	Create a sorter.
+	 *
+	 *	@param directory Where to put run files, null for the default
+	 *		temporary directory.
+	 *	@param memoryBytes The memory budget, at least 64 KiB.  About this
+	 *		much is held while values are added and while they are merged.
+	 *	@param parallelism The number of threads to sort with, 1 to sort
+	 *		on the calling thread.
+	 */
+	public InetExternalSorter( File directory, long memoryBytes, int parallelism )
+	{
+		if( memoryBytes < MIN_MEMORY )
+		{
+			throw( new IllegalArgumentException( "Invalid memory budget: " + memoryBytes ) );
+		}
+		if( parallelism < 1 )
+		{
+			throw( new IllegalArgumentException( "Invalid parallelism: " + parallelism ) );
+		}
+		this.directory = directory;
+		this.memory = memoryBytes;
+		this.parallelism = parallelism;
+		this.fanIn = (int)Math.max( 2L, Math.min( MAX_FAN_IN, memoryBytes / MIN_RUN_BUFFER - 1L ) );
+		int capacity = (int)Math.min( Integer.MAX_VALUE - 8, memoryBytes / RECORD );
+		this.meta = new short[ capacity ];
+		this.high = new long[ capacity ];
+		this.low = new long[ capacity ];
+	}
+
+	/**
+	 *	@param value The value to add, null is ignored.
+	 *	@exception IOException If writing a run fails.
+	 */
+	public void add( PGinet value )
+	throws IOException
+	{
+		addNetwork( value );
+	}
+
+	/**
+	 *	@param value The value to add, null is ignored.
+	 *	@exception IOException If writing a run fails.
+	 */
+	public void add( PGcidr value )
+	throws IOException
+	{
+		addNetwork( value );
+	}
+
+	/**
+	 *	@param cursor The value to add, SQL NULL is ignored.
+	 *	@exception IOException If writing a run fails.
+	 */
+	public void add( InetCursor cursor )
+	throws IOException
+	{
+		if( !cursor.isNull() )
+		{
+			add( cursor.isIPv6(), cursor.getHighWord(), cursor.getLowWord(), cursor.getNetmask() );
+		}
+	}
+
+	/**
+	 *	Add a value given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@param netmask The netmask.
+	 *	@exception IOException If writing a run fails.
+	 */
+	public void add( boolean ipv6, long high, long low, int netmask )
+	throws IOException
+	{
+		if( ( this.merger != null ) || this.closed )
+		{
+			throw( new IllegalStateException( "Values can not be added once reading has started" ) );
+		}
+		if( ( netmask < 0 ) || ( netmask > ( ipv6 ? 128 : 32 ) ) ||
+			( !ipv6 && ( ( high != 0L ) || ( ( low >>> 32 ) != 0L ) ) ) )
+		{
+			throw( new IllegalArgumentException( "Invalid address or netmask" ) );
+		}
+		if( this.size == this.meta.length )
+		{
+			spill();
+		}
+		this.meta[this.size] = (short)( ( ipv6 ? IPV6 : 0 ) | netmask );
+		this.high[this.size] = high;
+		this.low[this.size] = low;
+		++this.size;
+		++this.count;
+	}
+
+	/**
+	 *	Add values written one per line, as in a text COPY of a single
+	 *	column.  Blank lines and \N are skipped.
+	 *
+	 *	@param in The text, it is not closed.
+	 *	@return The number of values read.
+	 *	@exception IOException If reading or writing a run fails.
+	 *	@exception SQLException If a line is not a valid inet value.
+	 */
+	public long addText( Reader in )
+	throws IOException, SQLException
+	{
+		BufferedReader lines = ( in instanceof BufferedReader ) ? (BufferedReader)in : new BufferedReader( in, 1 << 16 );
+		InetCursor cursor = new InetCursor();
+		Object event = NetworkEvents.begin( NetworkEvents.COPY_DECODE );
+		long n = 0L;
+		long chars = 0L;
+		for( String line; ( line = lines.readLine() ) != null; )
+		{
+			chars += line.length() + 1;
+			String value = line.trim();
+			if( value.isEmpty() || value.equals( "\\N" ) )
+			{
+				continue;
+			}
+			cursor.setText( value );
+			add( cursor );
+			++n;
+		}
+		NetworkEvents.end( event, n, chars );
+		return( n );
+	}
+
+	/**
+	 *	@return The number of values added, counting repeats.
+	 */
+	public long getCount()
+	{
+		return( this.count );
+	}
+
+	/**
+	 *	@return The number of run files written so far.
+	 */
+	public int getRunCount()
+	{
+		return( this.runs.size() );
+	}
+
+	/**
+	 *	Move to the next value in sorted order.  No values can be added
+	 *	after the first call.
+	 *
+	 *	@param cursor Set to the value.
+	 *	@return false when there are no more values.
+	 *	@exception IOException If reading or writing a run fails.
+	 */
+	public boolean next( InetCursor cursor )
+	throws IOException
+	{
+		if( this.closed )
+		{
+			throw( new IllegalStateException( "The sorter has been closed" ) );
+		}
+		if( this.merger == null )
+		{
+			this.merger = start();
+		}
+		if( !this.merger.next() )
+		{
+			return( false );
+		}
+		if( ( this.merger.meta & IPV6 ) != 0 )
+		{
+			cursor.setIPv6( this.merger.high, this.merger.low, this.merger.meta & 0xFF );
+		}
+		else
+		{
+			cursor.setIPv4( (int)this.merger.low, this.merger.meta & 0xFF );
+		}
+		return( true );
+	}
+
+	/**
+	 *	Write the sorted values one per line, for COPY ... FROM STDIN in
+	 *	text or csv format.
+	 *
+	 *	@param out Where to write, it is flushed but not closed.
+	 *	@return The number of values written.
+	 *	@exception IOException If reading a run or writing fails.
+	 */
+	public long writeCopyText( Writer out )
+	throws IOException
+	{
+		Object event = NetworkEvents.begin( NetworkEvents.COPY_ENCODE );
+		InetCursor cursor = new InetCursor();
+		StringBuilder sb = new StringBuilder( 64 );
+		long n = 0L;
+		long chars = 0L;
+		while( next( cursor ) )
+		{
+			sb.setLength( 0 );
+			cursor.appendTo( sb ).append( '\n' );
+			out.append( sb );
+			chars += sb.length();
+			++n;
+		}
+		out.flush();
+		NetworkEvents.end( event, n, chars );
+		return( n );
+	}
+
+	/**
+	 *	Write the sorted values as a single column of inet in the binary
+	 *	COPY format, for COPY ... FROM STDIN WITH (FORMAT binary).
+	 *
+	 *	@param out Where to write, it is flushed but not closed.
+	 *	@return The number of values written.
+	 *	@exception IOException If reading a run or writing fails.
+	 */
+	public long writeCopyBinary( OutputStream out )
+	throws IOException
+	{
+		Object event = NetworkEvents.begin( NetworkEvents.COPY_ENCODE );
+		DataOutputStream data = new DataOutputStream( new BufferedOutputStream( out, 1 << 16 ) );
+		data.write( COPY_SIGNATURE );
+		data.writeInt( 0 );
+		data.writeInt( 0 );
+		InetCursor cursor = new InetCursor();
+		long n = 0L;
+		while( next( cursor ) )
+		{
+			boolean ipv6 = cursor.isIPv6();
+			data.writeShort( 1 );
+			data.writeInt( ipv6 ? 20 : 8 );
+			data.writeByte( ipv6 ? InetArrayCodec.PGSQL_AF_INET6 : InetArrayCodec.PGSQL_AF_INET );
+			data.writeByte( cursor.getNetmask() );
+			data.writeByte( 0 );
+			if( ipv6 )
+			{
+				data.writeByte( 16 );
+				data.writeLong( cursor.getHighWord() );
+				data.writeLong( cursor.getLowWord() );
+			}
+			else
+			{
+				data.writeByte( 4 );
+				data.writeInt( (int)cursor.getLowWord() );
+			}
+			++n;
+		}
+		data.writeShort( -1 );
+		data.flush();
+		NetworkEvents.end( event, n, data.size() );
+		return( n );
+	}
+
+	/**
+	 *	Remove the run files and stop the sorting threads.
+	 */
+	public void close()
+	{
+		if( this.closed )
+		{
+			return;
+		}
+		this.closed = true;
+		if( this.merger != null )
+		{
+			this.merger.close();
+		}
+		for( File run : this.runs )
+		{
+			run.delete();
+		}
+		this.runs.clear();
+		if( this.pool != null )
+		{
+			this.pool.shutdown();
+		}
+		this.meta = null;
+		this.high = null;
+		this.low = null;
+	}
+
+	private void addNetwork( PGNetworkBase value )
+	throws IOException
+	{
+		if( value == null )
+		{
+			return;
+		}
+		value.resolve();
+		if( value.addr != null )
+		{
+			add( value.isIPv6(), value.getHighWord(), value.getLowWord(), value.getNetmask() );
+		}
+	}
+
+	/**
+	 *	Sort the values in memory and merge them in to a new run.
+	 */
+	private void spill()
+	throws IOException
+	{
+		Merger slices = sortSlices();
+		File run = File.createTempFile( "inet", ".run", this.directory );
+		this.runs.add( run );
+		writeRun( slices, run );
+		this.size = 0;
+	}
+
+	/**
+	 *	Get ready to read the result, merging runs until one merge can
+	 *	read them all.
+	 */
+	private Merger start()
+	throws IOException
+	{
+		if( this.runs.isEmpty() )
+		{
+			return( sortSlices() );
+		}
+		if( this.size > 0 )
+		{
+			spill();
+		}
+		this.meta = null;
+		this.high = null;
+		this.low = null;
+		Object event = NetworkEvents.begin( NetworkEvents.SET_OPERATION );
+		long written = 0L;
+		while( this.runs.size() > this.fanIn )
+		{
+			List<File> group = new ArrayList<File>( this.runs.subList( 0, this.fanIn ) );
+			this.runs.subList( 0, this.fanIn ).clear();
+			File run = File.createTempFile( "inet", ".run", this.directory );
+			this.runs.add( run );
+			written += writeRun( openRuns( group ), run );
+			for( File f : group )
+			{
+				f.delete();
+			}
+		}
+		NetworkEvents.end( event, written, written * RECORD );
+		return( openRuns( this.runs ) );
+	}
+
+	private Merger openRuns( List<File> files )
+	throws IOException
+	{
+		int buffer = (int)Math.max( 8192L, Math.min( 1L << 24, this.memory / ( files.size() + 1 ) ) );
+		Source[] sources = new Source[ files.size() ];
+		try
+		{
+			for( int i = 0; i < sources.length; ++i )
+			{
+				sources[i] = new RunSource( files.get( i ), buffer );
+			}
+			return( new Merger( sources ) );
+		}
+		catch( IOException e )
+		{
+			for( Source s : sources )
+			{
+				if( s != null )
+				{
+					s.close();
+				}
+			}
+			throw( e );
+		}
+	}
+
+	private long writeRun( Merger merger, File run )
+	throws IOException
+	{
+		int buffer = (int)Math.max( 8192L, Math.min( 1L << 24, this.memory / ( this.fanIn + 1 ) ) );
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( run ), buffer ) );
+		long n = 0L;
+		try
+		{
+			while( merger.next() )
+			{
+				out.writeShort( merger.meta );
+				out.writeLong( merger.high );
+				out.writeLong( merger.low );
+				++n;
+			}
+		}
+		finally
+		{
+			merger.close();
+			out.close();
+		}
+		return( n );
+	}
+
+	/**
+	 *	Sort the values in memory as one slice per thread.
+	 *
+	 *	@return A merge of the sorted slices.
+	 */
+	private Merger sortSlices()
+	throws IOException
+	{
+		final int n = this.size;
+		int parts = Math.max( 1, Math.min( this.parallelism, n / MIN_SLICE ) );
+		final int[] bounds = new int[ parts + 1 ];
+		for( int i = 0; i <= parts; ++i )
+		{
+			bounds[i] = (int)( (long)n * i / parts );
+		}
+		if( parts == 1 )
+		{
+			sort( this.meta, this.high, this.low, 0, n );
+		}
+		else
+		{
+			if( this.pool == null )
+			{
+				this.pool = new ForkJoinPool( this.parallelism );
+			}
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			final short[] m = this.meta;
+			final long[] h = this.high;
+			final long[] l = this.low;
+			for( int i = 0; i < parts; ++i )
+			{
+				final int part = i;
+				tasks.add( new Callable<Void>()
+				{
+					public Void call()
+					{
+						sort( m, h, l, bounds[part], bounds[part + 1] );
+						return( null );
+					}
+				} );
+			}
+			try
+			{
+				for( Future<Void> f : this.pool.invokeAll( tasks ) )
+				{
+					f.get();
+				}
+			}
+			catch( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw( new InterruptedIOException( "Interrupted while sorting" ) );
+			}
+			catch( ExecutionException e )
+			{
+				throw( new IllegalStateException( e.getCause() ) );
+			}
+		}
+		Source[] sources = new Source[ parts ];
+		for( int i = 0; i < parts; ++i )
+		{
+			sources[i] = new SliceSource( this.meta, this.high, this.low, bounds[i], bounds[i + 1] );
+		}
+		return( new Merger( sources ) );
+	}
+
+	/**
+	 *	A three way quicksort of a range of the arrays, so runs of equal
+	 *	values are gathered in one pass.
+	 */
+	static void sort( short[] m, long[] h, long[] l, int from, int to )
+	{
+		while( to - from > 16 )
+		{
+			// the median of three as the pivot
+			int a = from;
+			int b = ( from + to ) >>> 1;
+			int c = to - 1;
+			if( compare( m, h, l, a, b ) > 0 )
+			{
+				int t = a;
+				a = b;
+				b = t;
+			}
+			if( compare( m, h, l, b, c ) > 0 )
+			{
+				b = ( compare( m, h, l, a, c ) > 0 ) ? a : c;
+			}
+			int pm = m[b];
+			long ph = h[b];
+			long pl = l[b];
+			int lt = from;
+			int gt = to - 1;
+			int i = from;
+			while( i <= gt )
+			{
+				int cmp = compare( m[i], h[i], l[i], pm, ph, pl );
+				if( cmp < 0 )
+				{
+					swap( m, h, l, lt++, i++ );
+				}
+				else if( cmp > 0 )
+				{
+					swap( m, h, l, i, gt-- );
+				}
+				else
+				{
+					++i;
+				}
+			}
+			// recurse on the smaller side to bound the stack
+			if( lt - from < to - gt - 1 )
+			{
+				sort( m, h, l, from, lt );
+				from = gt + 1;
+			}
+			else
+			{
+				sort( m, h, l, gt + 1, to );
+				to = lt;
+			}
+		}
+		for( int i = from + 1; i < to; ++i )
+		{
+			for( int j = i; ( j > from ) && ( compare( m, h, l, j - 1, j ) > 0 ); --j )
+			{
+				swap( m, h, l, j - 1, j );
+			}
+		}
+	}
+
+	private static int compare( short[] m, long[] h, long[] l, int x, int y )
+	{
+		return( compare( m[x], h[x], l[x], m[y], h[y], l[y] ) );
+	}
+
+	/**
+	 *	Compare two packed values in the server's sort order, see
+	 *	{@link InetBits#compare(boolean, long, long, int, boolean, long, long, int)}.
+	 */
+	static int compare( int ma, long ha, long la, int mb, long hb, long lb )
+	{
+		if( ( ma == mb ) && ( ( ma == 32 ) || ( ma == ( IPV6 | 128 ) ) ) )
+		{
+			// host addresses, the common case
+			int c = Long.compareUnsigned( ha, hb );
+			return( ( c != 0 ) ? c : Long.compareUnsigned( la, lb ) );
+		}
+		return( InetBits.compare( ( ma & IPV6 ) != 0, ha, la, ma & 0xFF, ( mb & IPV6 ) != 0, hb, lb, mb & 0xFF ) );
+	}
+
+	private static void swap( short[] m, long[] h, long[] l, int x, int y )
+	{
+		short tm = m[x];
+		m[x] = m[y];
+		m[y] = tm;
+		long th = h[x];
+		h[x] = h[y];
+		h[y] = th;
+		long tl = l[x];
+		l[x] = l[y];
+		l[y] = tl;
+	}
+
+	/**
+	 *	A sorted stream of values, with the current one in its fields.
+	 */
+	private static abstract class Source
+	{
+		int meta;
+		long high;
+		long low;
+
+		abstract boolean next()
+		throws IOException;
+
+		void close()
+		{
+		}
+	}
+
+	private static final class SliceSource extends Source
+	{
+		private final short[] m;
+		private final long[] h;
+		private final long[] l;
+		private int pos;
+		private final int end;
+
+		SliceSource( short[] m, long[] h, long[] l, int from, int to )
+		{
+			this.m = m;
+			this.h = h;
+			this.l = l;
+			this.pos = from;
+			this.end = to;
+		}
+
+		boolean next()
+		{
+			if( this.pos == this.end )
+			{
+				return( false );
+			}
+			this.meta = this.m[this.pos];
+			this.high = this.h[this.pos];
+			this.low = this.l[this.pos];
+			++this.pos;
+			return( true );
+		}
+	}
+
+	private static final class RunSource extends Source
+	{
+		private final DataInputStream in;
+		private long remaining;
+
+		RunSource( File run, int buffer )
+		throws IOException
+		{
+			long length = run.length();
+			if( length % RECORD != 0 )
+			{
+				throw( new IOException( "Truncated sort run " + run ) );
+			}
+			this.remaining = length / RECORD;
+			this.in = new DataInputStream( new BufferedInputStream( new FileInputStream( run ), buffer ) );
+		}
+
+		boolean next()
+		throws IOException
+		{
+			if( this.remaining == 0L )
+			{
+				return( false );
+			}
+			try
+			{
+				this.meta = this.in.readShort();
+				this.high = this.in.readLong();
+				this.low = this.in.readLong();
+			}
+			catch( EOFException e )
+			{
+				throw( new IOException( "Truncated sort run", e ) );
+			}
+			--this.remaining;
+			return( true );
+		}
+
+		void close()
+		{
+			try
+			{
+				this.in.close();
+			}
+			catch( IOException e )
+			{
+				// nothing was written
+			}
+		}
+	}
+
+	/**
+	 *	A k-way merge through a binary heap of source indexes that drops
+	 *	repeated values.
+	 */
+	private static final class Merger
+	{
+		private final Source[] sources;
+		private final int[] heap;
+		private int heapSize;
+		private boolean started;
+		int meta;
+		long high;
+		long low;
+
+		Merger( Source[] sources )
+		throws IOException
+		{
+			this.sources = sources;
+			this.heap = new int[ sources.length ];
+			for( int i = 0; i < sources.length; ++i )
+			{
+				if( sources[i].next() )
+				{
+					this.heap[this.heapSize] = i;
+					siftUp( this.heapSize++ );
+				}
+			}
+		}
+
+		boolean next()
+		throws IOException
+		{
+			while( this.heapSize > 0 )
+			{
+				Source top = this.sources[this.heap[0]];
+				int m = top.meta;
+				long h = top.high;
+				long l = top.low;
+				if( !top.next() )
+				{
+					top.close();
+					this.heap[0] = this.heap[--this.heapSize];
+				}
+				siftDown( 0 );
+				if( this.started && ( m == this.meta ) && ( h == this.high ) && ( l == this.low ) )
+				{
+					continue;
+				}
+				this.started = true;
+				this.meta = m;
+				this.high = h;
+				this.low = l;
+				return( true );
+			}
+			return( false );
+		}
+
+		void close()
+		{
+			for( Source s : this.sources )
+			{
+				s.close();
+			}
+			this.heapSize = 0;
+		}
+
+		private boolean less( int x, int y )
+		{
+			Source a = this.sources[this.heap[x]];
+			Source b = this.sources[this.heap[y]];
+			return( compare( a.meta, a.high, a.low, b.meta, b.high, b.low ) < 0 );
+		}
+
+		private void siftUp( int i )
+		{
+			while( ( i > 0 ) && less( i, ( i - 1 ) >>> 1 ) )
+			{
+				swap( i, ( i - 1 ) >>> 1 );
+				i = ( i - 1 ) >>> 1;
+			}
+		}
+
+		private void siftDown( int i )
+		{
+			while( true )
+			{
+				int c = 2 * i + 1;
+				if( c >= this.heapSize )
+				{
+					return;
+				}
+				if( ( c + 1 < this.heapSize ) && less( c + 1, c ) )
+				{
+					++c;
+				}
+				if( !less( c, i ) )
+				{
+					return;
+				}
+				swap( i, c );
+				i = c;
+			}
+		}
+
+		private void swap( int x, int y )
+		{
+			int t = this.heap[x];
+			this.heap[x] = this.heap[y];
+			this.heap[y] = t;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package org.postgresql.net;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.postgresql.util.GT;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.PSQLState;
+
+/**
+ *	A HyperLogLog estimate of the number of distinct addresses or
+ *	prefixes seen, in a fixed 2^precision bytes of memory.
+ *
+ *	<p>The relative standard error of {@link #cardinality()} is about
+ *	1.04 / sqrt( 2^precision ), 0.8% at the default precision of 14.
+ *	Addresses can be rolled up to a covering prefix as they are added, to
+ *	count distinct /24 or /64 networks.  Sketches with the same precision
+ *	and prefix lengths can be merged, and {@link #toByteArray()} gives a
+ *	form that can be stored in a bytea column.  A sketch is not thread
+ *	safe.</p>
+ */
+public final class InetHyperLogLog
+{
+	/** The first byte of the serialized form. */
+	static final byte MAGIC = 'H';
+
+	private final int precision;
+	private final int ipv4Prefix;
+	private final int ipv6Prefix;
+	private final byte[] registers;
+
+	/**
+	 *	Create a sketch of precision 14 counting single addresses.
+	 */
+	public InetHyperLogLog()
+	{
+		this( 14 );
+	}
+
+	/**
+	 *	Create a sketch counting single addresses.
+	 *
+	 *	@param precision The number of index bits, 4 to 18.
+	 */
+	public InetHyperLogLog( int precision )
+	{
+		this( precision, 32, 128 );
+	}
+
+	/**
+	 *	Create a sketch counting covering prefixes.
+	 *
+	 *	@param precision The number of index bits, 4 to 18.
+	 *	@param ipv4Prefix The prefix length IPv4 addresses are counted at.
+	 *	@param ipv6Prefix The prefix length IPv6 addresses are counted at.
+	 */
+	public InetHyperLogLog( int precision, int ipv4Prefix, int ipv6Prefix )
+	{
+		if( ( precision < 4 ) || ( precision > 18 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid precision: " + precision ) );
+		}
+		if( ( ipv4Prefix < 0 ) || ( ipv4Prefix > 32 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv4 prefix length: " + ipv4Prefix ) );
+		}
+		if( ( ipv6Prefix < 0 ) || ( ipv6Prefix > 128 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv6 prefix length: " + ipv6Prefix ) );
+		}
+		this.precision = precision;
+		this.ipv4Prefix = ipv4Prefix;
+		this.ipv6Prefix = ipv6Prefix;
+		this.registers = new byte[ 1 << precision ];
+	}
+
+	/**
+	 *	Add an address, its netmask is ignored.
+	 *
+	 *	@param value The address, null is ignored.
+	 */
+	public void add( PGinet value )
+	{
+		if( value != null )
+		{
+			value.resolve();
+		}
+		if( ( value != null ) && ( value.addr != null ) )
+		{
+			add( value.addr.length == 16, InetBits.high( value.addr ), InetBits.low( value.addr ) );
+		}
+	}
+
+	/**
+	 *	Add the address in a cursor.
+	 *
+	 *	@param cursor The cursor, SQL NULL is ignored.
+	 */
+	public void add( InetCursor cursor )
+	{
+		if( !cursor.isNull() )
+		{
+			add( cursor.isIPv6(), cursor.getHighWord(), cursor.getLowWord() );
+		}
+	}
+
+	/**
+	 *	Add an address given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 */
+	public void add( boolean ipv6, long high, long low )
+	{
+		int bits = ipv6 ? this.ipv6Prefix : this.ipv4Prefix;
+		long h = InetBits.mix( ipv6, high & InetBits.maskHigh( bits, ipv6 ), low & InetBits.maskLow( bits, ipv6 ), bits );
+		int i = (int)( h >>> ( 64 - this.precision ) );
+		// the position of the first 1 bit after the index bits
+		long w = h << this.precision;
+		int rank = ( w == 0L ) ? 65 - this.precision : Long.numberOfLeadingZeros( w ) + 1;
+		if( rank > this.registers[i] )
+		{
+			this.registers[i] = (byte)rank;
+		}
+	}
+
+	/**
+	 *	@return The estimated number of distinct addresses or prefixes.
+	 */
+	public long cardinality()
+	{
+		int m = this.registers.length;
+		double sum = 0.0;
+		int zeros = 0;
+		for( int i = 0; i < m; ++i )
+		{
+			sum += Double.longBitsToDouble( ( 1023L - this.registers[i] ) << 52 );
+			if( this.registers[i] == 0 )
+			{
+				++zeros;
+			}
+		}
+		double alpha = ( m == 16 ) ? 0.673 : ( m == 32 ) ? 0.697 : ( m == 64 ) ? 0.709 : 0.7213 / ( 1.0 + 1.079 / m );
+		double estimate = alpha * m * m / sum;
+		if( ( estimate <= 2.5 * m ) && ( zeros > 0 ) )
+		{
+			// linear counting is more accurate for small sets
+			estimate = m * Math.log( (double)m / zeros );
+		}
+		return( Math.round( estimate ) );
+	}
+
+	/**
+	 *	Add the contents of another sketch to this one.
+	 *
+	 *	@param other A sketch with the same precision and prefix lengths.
+	 */
+	public void merge( InetHyperLogLog other )
+	{
+		if( ( other.precision != this.precision ) ||
+			( other.ipv4Prefix != this.ipv4Prefix ) || ( other.ipv6Prefix != this.ipv6Prefix ) )
+		{
+			throw( new IllegalArgumentException( "Sketches of different shapes can not be merged" ) );
+		}
+		for( int i = 0; i < this.registers.length; ++i )
+		{
+			if( other.registers[i] > this.registers[i] )
+			{
+				this.registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	/**
+	 *	Forget every address added.
+	 */
+	public void clear()
+	{
+		Arrays.fill( this.registers, (byte)0 );
+	}
+
+	/**
+	 *	@return The sketch in a form that can be stored in a bytea column
+	 *		and read back with {@link #fromByteArray(byte[])}.
+	 */
+	public byte[] toByteArray()
+	{
+		byte[] b = new byte[ 4 + this.registers.length ];
+		b[0] = MAGIC;
+		b[1] = (byte)this.precision;
+		b[2] = (byte)this.ipv4Prefix;
+		b[3] = (byte)this.ipv6Prefix;
+		System.arraycopy( this.registers, 0, b, 4, this.registers.length );
+		return( b );
+	}
+
+	/**
+	 *	Read a sketch written by {@link #toByteArray()}.
+	 *
+	 *	@param b The serialized sketch.
+	 *	@return The sketch.
+	 *	@exception SQLException If the bytes are not a valid sketch.
+	 */
+	public static InetHyperLogLog fromByteArray( byte[] b )
+	throws SQLException
+	{
+		if( ( b.length < 4 ) || ( b[0] != MAGIC ) )
+		{
+			throw( invalid( "not a HyperLogLog sketch" ) );
+		}
+		int precision = b[1] & 0xFF;
+		int ipv4Prefix = b[2] & 0xFF;
+		int ipv6Prefix = b[3] & 0xFF;
+		if( ( precision < 4 ) || ( precision > 18 ) || ( ipv4Prefix > 32 ) || ( ipv6Prefix > 128 ) ||
+			( b.length != 4 + ( 1 << precision ) ) )
+		{
+			throw( invalid( "bad header or length" ) );
+		}
+		InetHyperLogLog sketch = new InetHyperLogLog( precision, ipv4Prefix, ipv6Prefix );
+		for( int i = 0; i < sketch.registers.length; ++i )
+		{
+			int rank = b[4 + i];
+			if( ( rank < 0 ) || ( rank > 65 - precision ) )
+			{
+				throw( invalid( "bad register " + rank ) );
+			}
+			sketch.registers[i] = (byte)rank;
+		}
+		return( sketch );
+	}
+
+	private static PSQLException invalid( String detail )
+	{
+		return( new PSQLException( GT.tr( "Invalid sketch: {0}.", detail ), PSQLState.DATA_ERROR ) );
+	}
+}
@@ -0,0 +1,282 @@
+package org.postgresql.net;
+
+import java.util.Arrays;
+
+/**
+ *	Accumulates a count and a sum per prefix at several prefix lengths in
+ *	one pass over a stream of addresses, in place of one GROUP BY per
+ *	level.
+ *
+ *	<pre>
+ *	InetPrefixAggregator agg = new InetPrefixAggregator();
+ *	while( rs.next() )
+ *	{
+ *		agg.add( (PGinet)rs.getObject( "src" ), rs.getLong( "bytes" ) );
+ *	}
+ *	InetPrefixTotals totals = agg.getTotals();
+ *	</pre>
+ *
+ *	<p>Every address updates one entry per configured level of its
+ *	family.  The entries live in a single open addressing table of
+ *	primitive arrays, so an update allocates nothing once a prefix has been
+ *	seen.  An aggregator is not thread safe; give each thread its own and
+ *	combine them with {@link #merge(InetPrefixAggregator)}.</p>
+ */
+public final class InetPrefixAggregator
+{
+	private static final int[] DEFAULT_IPV4_LEVELS = { 8, 16, 24, 32 };
+	private static final int[] DEFAULT_IPV6_LEVELS = { 32, 48, 64 };
+
+	private static final byte EMPTY = 0;
+	private static final byte IPV4 = 1;
+	private static final byte IPV6 = 2;
+
+	private final int[] ipv4Levels;
+	private final int[] ipv6Levels;
+
+	private byte[] state;
+	private long[] high;
+	private long[] low;
+	private byte[] netmask;
+	private long[] count;
+	private long[] sum;
+	private int size;
+
+	/**
+	 *	Create an aggregator for /8, /16, /24 and /32 IPv4 prefixes and
+	 *	/32, /48 and /64 IPv6 prefixes.
+	 */
+	public InetPrefixAggregator()
+	{
+		this( DEFAULT_IPV4_LEVELS, DEFAULT_IPV6_LEVELS );
+	}
+
+	/**
+	 *	Create an aggregator for the given prefix lengths.
+	 *
+	 *	@param ipv4Levels The IPv4 prefix lengths, 0 to 32, may be empty.
+	 *	@param ipv6Levels The IPv6 prefix lengths, 0 to 128, may be empty.
+	 */
+	public InetPrefixAggregator( int[] ipv4Levels, int[] ipv6Levels )
+	{
+		this.ipv4Levels = levels( ipv4Levels, 32 );
+		this.ipv6Levels = levels( ipv6Levels, 128 );
+		allocate( 64 );
+	}
+
+	/**
+	 *	Count an address with no amount, its netmask is ignored.
+	 *
+	 *	@param value The address, null is ignored.
+	 */
+	public void add( PGinet value )
+	{
+		add( value, 0L );
+	}
+
+	/**
+	 *	Count an address and add an amount, such as a byte count, to the
+	 *	sum of each of its prefixes.  The netmask of the value is ignored.
+	 *
+	 *	@param value The address, null is ignored.
+	 *	@param amount The amount to add.
+	 */
+	public void add( PGinet value, long amount )
+	{
+		if( value != null )
+		{
+			value.resolve();
+		}
+		if( ( value != null ) && ( value.addr != null ) )
+		{
+			add( value.addr.length == 16, InetBits.high( value.addr ), InetBits.low( value.addr ), amount );
+		}
+	}
+
+	/**
+	 *	Count the address in a cursor and add an amount to the sum of
+	 *	each of its prefixes.
+	 *
+	 *	@param cursor The cursor, SQL NULL is ignored.
+	 *	@param amount The amount to add.
+	 */
+	public void add( InetCursor cursor, long amount )
+	{
+		if( !cursor.isNull() )
+		{
+			add( cursor.isIPv6(), cursor.getHighWord(), cursor.getLowWord(), amount );
+		}
+	}
+
+	/**
+	 *	Count an address given as words and add an amount to the sum of
+	 *	each of its prefixes.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@param amount The amount to add.
+	 */
+	public void add( boolean ipv6, long high, long low, long amount )
+	{
+		int[] levels = ipv6 ? this.ipv6Levels : this.ipv4Levels;
+		for( int i = 0; i < levels.length; ++i )
+		{
+			int bits = levels[i];
+			update( ipv6, high & InetBits.maskHigh( bits, ipv6 ), low & InetBits.maskLow( bits, ipv6 ), bits, 1L, amount );
+		}
+	}
+
+	/**
+	 *	Add the totals of another aggregator to this one.
+	 *
+	 *	@param other An aggregator with the same levels.
+	 */
+	public void merge( InetPrefixAggregator other )
+	{
+		if( !Arrays.equals( other.ipv4Levels, this.ipv4Levels ) || !Arrays.equals( other.ipv6Levels, this.ipv6Levels ) )
+		{
+			throw( new IllegalArgumentException( "Aggregators with different levels can not be merged" ) );
+		}
+		for( int i = 0; i < other.state.length; ++i )
+		{
+			if( other.state[i] != EMPTY )
+			{
+				update( other.state[i] == IPV6, other.high[i], other.low[i], other.netmask[i] & 0xFF,
+					other.count[i], other.sum[i] );
+			}
+		}
+	}
+
+	/**
+	 *	@return The number of prefixes over all levels.
+	 */
+	public int size()
+	{
+		return( this.size );
+	}
+
+	/**
+	 *	Forget every prefix.  The table keeps its size.
+	 */
+	public void clear()
+	{
+		Arrays.fill( this.state, EMPTY );
+		this.size = 0;
+	}
+
+	/**
+	 *	@return A copy of the totals in the server's sort order for cidr,
+	 *		so each prefix is followed by the longer prefixes inside it.
+	 */
+	public InetPrefixTotals getTotals()
+	{
+		int n = this.size;
+		final boolean[] ipv6 = new boolean[ n ];
+		final long[] hi = new long[ n ];
+		final long[] lo = new long[ n ];
+		final byte[] bits = new byte[ n ];
+		long[] c = new long[ n ];
+		long[] s = new long[ n ];
+		for( int i = 0, j = 0; i < this.state.length; ++i )
+		{
+			if( this.state[i] != EMPTY )
+			{
+				ipv6[j] = this.state[i] == IPV6;
+				hi[j] = this.high[i];
+				lo[j] = this.low[i];
+				bits[j] = this.netmask[i];
+				c[j] = this.count[i];
+				s[j] = this.sum[i];
+				++j;
+			}
+		}
+		return( InetPrefixTotals.sorted( ipv6, hi, lo, bits, c, s ) );
+	}
+
+	private void update( boolean ipv6, long hi, long lo, int bits, long c, long s )
+	{
+		byte kind = ipv6 ? IPV6 : IPV4;
+		int i = find( kind, hi, lo, bits );
+		if( this.state[i] == EMPTY )
+		{
+			if( this.size >= this.state.length * 3 / 5 )
+			{
+				grow();
+				i = find( kind, hi, lo, bits );
+			}
+			this.state[i] = kind;
+			this.high[i] = hi;
+			this.low[i] = lo;
+			this.netmask[i] = (byte)bits;
+			++this.size;
+		}
+		this.count[i] += c;
+		this.sum[i] += s;
+	}
+
+	private int find( byte kind, long hi, long lo, int bits )
+	{
+		int mask = this.state.length - 1;
+		int i = (int)InetBits.mix( kind == IPV6, hi, lo, bits ) & mask;
+		while( this.state[i] != EMPTY )
+		{
+			if( ( this.state[i] == kind ) && ( this.low[i] == lo ) && ( this.high[i] == hi ) &&
+				( this.netmask[i] == (byte)bits ) )
+			{
+				return( i );
+			}
+			i = ( i + 1 ) & mask;
+		}
+		return( i );
+	}
+
+	private void grow()
+	{
+		byte[] oldState = this.state;
+		long[] oldHigh = this.high;
+		long[] oldLow = this.low;
+		byte[] oldNetmask = this.netmask;
+		long[] oldCount = this.count;
+		long[] oldSum = this.sum;
+		allocate( oldState.length * 2 );
+		for( int j = 0; j < oldState.length; ++j )
+		{
+			if( oldState[j] != EMPTY )
+			{
+				int i = find( oldState[j], oldHigh[j], oldLow[j], oldNetmask[j] & 0xFF );
+				this.state[i] = oldState[j];
+				this.high[i] = oldHigh[j];
+				this.low[i] = oldLow[j];
+				this.netmask[i] = oldNetmask[j];
+				this.count[i] = oldCount[j];
+				this.sum[i] = oldSum[j];
+			}
+		}
+	}
+
+	private void allocate( int capacity )
+	{
+		this.state = new byte[ capacity ];
+		this.high = new long[ capacity ];
+		this.low = new long[ capacity ];
+		this.netmask = new byte[ capacity ];
+		this.count = new long[ capacity ];
+		this.sum = new long[ capacity ];
+	}
+
+	private static int[] levels( int[] levels, int maxBits )
+	{
+		int[] sorted = levels.clone();
+		Arrays.sort( sorted );
+		for( int i = 0; i < sorted.length; ++i )
+		{
+			if( ( sorted[i] < 0 ) || ( sorted[i] > maxBits ) || ( ( i > 0 ) && ( sorted[i] == sorted[i - 1] ) ) )
+			{
+				throw( new IllegalArgumentException( "Invalid prefix length: " + sorted[i] ) );
+			}
+		}
+		return( sorted );
+	}
+}
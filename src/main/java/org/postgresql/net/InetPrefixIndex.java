@@ -0,0 +1,651 @@
+package org.postgresql.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ *	An index of cidr records answering stabbing queries: every record
+ *	whose prefix covers an address, or every record whose prefix
+ *	overlaps a query prefix.  Unlike a longest prefix match this returns
+ *	all of them, for example the allocation, the reassignment and any
+ *	blocklist entries covering an address at once.
+ *
+ *	<p>Records are numbered in the order they were added, and queries
+ *	return those numbers; {@link #getPrefix(int)} and
+ *	{@link #getValue(int)} give the record.  Any number of records may
+ *	share a prefix.</p>
+ *
+ *	<p>The prefixes are held in a path compressed binary trie per family,
+ *	built in one pass over the sorted prefixes.  Every node is a prefix
+ *	with records or a branch with two children, and holds the range of
+ *	the records on its prefix.  A covering query walks the path of the
+ *	address, reporting the records of each node, at most 33 or 129
+ *	nodes.  An overlapping query walks the path of the query prefix and
+ *	then reports the whole subtree under it, which has fewer branch
+ *	nodes than prefixes, so both cost the address width plus the size of
+ *	the result.  Results come in the server's sort order of their
+ *	prefixes, records of one prefix in the order they were added.  An
+ *	index is immutable and safe to share between threads.</p>
+ *
+ *	@param <V> The type of the values attached to the records.
+ */
+public final class InetPrefixIndex<V>
+{
+	private final boolean[] ipv6;
+	private final long[] high;
+	private final long[] low;
+	private final byte[] bits;
+	private final Object[] values;
+	private final Tree ipv4Tree;
+	private final Tree ipv6Tree;
+
+	private InetPrefixIndex( Builder<V> b )
+	{
+		int n = b.size;
+		this.ipv6 = Arrays.copyOf( b.ipv6, n );
+		this.high = Arrays.copyOf( b.high, n );
+		this.low = Arrays.copyOf( b.low, n );
+		this.bits = Arrays.copyOf( b.bits, n );
+		this.values = b.values.toArray();
+		int[] order = new int[ n ];
+		for( int i = 0; i < n; ++i )
+		{
+			order[i] = i;
+		}
+		sort( order );
+		int v4 = 0;
+		while( ( v4 < n ) && !this.ipv6[order[v4]] )
+		{
+			++v4;
+		}
+		this.ipv4Tree = new Tree( false, Arrays.copyOfRange( order, 0, v4 ) );
+		this.ipv6Tree = new Tree( true, Arrays.copyOfRange( order, v4, n ) );
+	}
+
+	/**
+	 *	@return The number of records.
+	 */
+	public int size()
+	{
+		return( this.values.length );
+	}
+
+	/**
+	 *	@param record The number of a record.
+	 *	@return A new PGcidr holding its prefix.
+	 */
+	public PGcidr getPrefix( int record )
+	{
+		PGcidr cidr = new PGcidr();
+		cidr.setAddress( InetBits.toBytes( this.ipv6[record], this.high[record], this.low[record] ),
+			this.bits[record] & 0xFF, false );
+		return( cidr );
+	}
+
+	/**
+	 *	@param record The number of a record.
+	 *	@return Its value.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public V getValue( int record )
+	{
+		return( (V)this.values[record] );
+	}
+
+	/**
+	 *	@param address An address, its netmask is ignored.
+	 *	@return The numbers of the records whose prefix covers it.
+	 */
+	public int[] covering( PGinet address )
+	{
+		address.resolve();
+		Collector out = new Collector();
+		covering( address.isIPv6(), address.getHighWord(), address.getLowWord(), out );
+		return( out.toArray() );
+	}
+
+	/**
+	 *	Report the records whose prefix covers an address given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@param action Called with the number of each record.
+	 *	@return The number of records reported.
+	 */
+	public int covering( boolean ipv6, long high, long low, IntConsumer action )
+	{
+		Tree tree = ipv6 ? this.ipv6Tree : this.ipv4Tree;
+		return( tree.walk( high, low, ipv6 ? 128 : 32, action ) );
+	}
+
+	/**
+	 *	@param prefix A prefix.
+	 *	@return The numbers of the records whose prefix covers it or lies
+	 *		inside it.
+	 */
+	public int[] overlapping( PGcidr prefix )
+	{
+		prefix.resolve();
+		Collector out = new Collector();
+		overlapping( prefix.isIPv6(), prefix.getHighWord(), prefix.getLowWord(), prefix.getNetmask(), out );
+		return( out.toArray() );
+	}
+
+	/**
+	 *	Report the records whose prefix overlaps a prefix given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit prefix.
+	 *	@param high The first 64 bits of an IPv6 prefix, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 prefix, or the 32 bits of
+	 *		an IPv4 prefix.
+	 *	@param netmask The prefix length, bits to its right are ignored.
+	 *	@param action Called with the number of each record.
+	 *	@return The number of records reported.
+	 */
+	public int overlapping( boolean ipv6, long high, long low, int netmask, IntConsumer action )
+	{
+		if( ( netmask < 0 ) || ( netmask > ( ipv6 ? 128 : 32 ) ) )
+		{
+			throw( new IllegalArgumentException( "Invalid netmask: " + netmask ) );
+		}
+		Tree tree = ipv6 ? this.ipv6Tree : this.ipv4Tree;
+		return( tree.walk( high & InetBits.maskHigh( netmask, ipv6 ), low & InetBits.maskLow( netmask, ipv6 ),
+			netmask, action ) );
+	}
+
+	/**
+	 *	Answer a covering query for every element of a column, over the
+	 *	common fork join pool.
+	 *
+	 *	@param addresses The addresses, netmasks are ignored and SQL NULLs
+	 *		match nothing.
+	 *	@return The records found for each element.
+	 */
+	public Matches covering( InetColumn addresses )
+	{
+		return( batch( addresses, false ) );
+	}
+
+	/**
+	 *	Answer an overlapping query for every element of a column, over
+	 *	the common fork join pool.
+	 *
+	 *	@param prefixes The prefixes, given by each element's address and
+	 *		netmask; SQL NULLs match nothing.
+	 *	@return The records found for each element.
+	 */
+	public Matches overlapping( InetColumn prefixes )
+	{
+		return( batch( prefixes, true ) );
+	}
+
+	private Matches batch( final InetColumn column, final boolean overlap )
+	{
+		Object event = NetworkEvents.begin( NetworkEvents.SET_OPERATION );
+		final int n = column.size();
+		final int parts = Math.max( 1, Math.min( Runtime.getRuntime().availableProcessors(), n >>> 12 ) );
+		Matches matches = IntStream.range( 0, parts ).parallel().mapToObj( new IntFunction<Matches>()
+		{
+			public Matches apply( int part )
+			{
+				int from = (int)( (long)n * part / parts );
+				int to = (int)( (long)n * ( part + 1 ) / parts );
+				int[] offsets = new int[ to - from + 1 ];
+				Collector out = new Collector();
+				for( int i = from; i < to; ++i )
+				{
+					if( !column.isNull( i ) )
+					{
+						if( overlap )
+						{
+							overlapping( column.isIPv6( i ), column.getHighWord( i ), column.getLowWord( i ),
+								column.getNetmask( i ), out );
+						}
+						else
+						{
+							covering( column.isIPv6( i ), column.getHighWord( i ), column.getLowWord( i ), out );
+						}
+					}
+					offsets[i - from + 1] = out.size;
+				}
+				return( new Matches( offsets, out.toArray() ) );
+			}
+		} ).reduce( new BinaryOperator<Matches>()
+		{
+			public Matches apply( Matches a, Matches b )
+			{
+				return( a.append( b ) );
+			}
+		} ).get();
+		NetworkEvents.end( event, n, matches.records.length );
+		return( matches );
+	}
+
+	/**
+	 *	Sort record numbers in the server's order of their prefixes, a
+	 *	merge sort so records of one prefix keep the order they were added.
+	 */
+	private void sort( int[] order )
+	{
+		int[] tmp = new int[ order.length ];
+		for( int width = 1; width < order.length; width <<= 1 )
+		{
+			for( int lo = 0; lo < order.length; lo += 2 * width )
+			{
+				int mid = Math.min( lo + width, order.length );
+				int hi = Math.min( lo + 2 * width, order.length );
+				int i = lo;
+				int j = mid;
+				for( int k = lo; k < hi; ++k )
+				{
+					if( ( i < mid ) && ( ( j >= hi ) || ( compare( order[i], order[j] ) <= 0 ) ) )
+					{
+						tmp[k] = order[i++];
+					}
+					else
+					{
+						tmp[k] = order[j++];
+					}
+				}
+			}
+			System.arraycopy( tmp, 0, order, 0, order.length );
+		}
+	}
+
+	private int compare( int x, int y )
+	{
+		return( InetBits.compare( this.ipv6[x], this.high[x], this.low[x], this.bits[x] & 0xFF,
+			this.ipv6[y], this.high[y], this.low[y], this.bits[y] & 0xFF ) );
+	}
+
+	/**
+	 *	The records found by a batch of queries, the numbers found for
+	 *	query i are get(i, 0) to get(i, count(i) - 1).
+	 */
+	public static final class Matches
+	{
+		private final int[] offsets;
+		private final int[] records;
+
+		Matches( int[] offsets, int[] records )
+		{
+			this.offsets = offsets;
+			this.records = records;
+		}
+
+		/**
+		 *	@return The number of queries.
+		 */
+		public int size()
+		{
+			return( this.offsets.length - 1 );
+		}
+
+		/**
+		 *	@return The number of records found by all the queries.
+		 */
+		public int total()
+		{
+			return( this.records.length );
+		}
+
+		/**
+		 *	@param query The index of a query.
+		 *	@return The number of records it found.
+		 */
+		public int count( int query )
+		{
+			return( this.offsets[query + 1] - this.offsets[query] );
+		}
+
+		/**
+		 *	@param query The index of a query.
+		 *	@param k The index of a record among those it found.
+		 *	@return The number of the record.
+		 */
+		public int get( int query, int k )
+		{
+			if( ( k < 0 ) || ( k >= count( query ) ) )
+			{
+				throw( new IndexOutOfBoundsException( "Index: " + k + ", count: " + count( query ) ) );
+			}
+			return( this.records[this.offsets[query] + k] );
+		}
+
+		/**
+		 *	@param query The index of a query.
+		 *	@return The numbers of the records it found.
+		 */
+		public int[] get( int query )
+		{
+			return( Arrays.copyOfRange( this.records, this.offsets[query], this.offsets[query + 1] ) );
+		}
+
+		Matches append( Matches other )
+		{
+			int n = size();
+			int[] offsets = Arrays.copyOf( this.offsets, n + other.offsets.length );
+			for( int i = 1; i < other.offsets.length; ++i )
+			{
+				offsets[n + i] = this.records.length + other.offsets[i];
+			}
+			int[] records = Arrays.copyOf( this.records, this.records.length + other.records.length );
+			System.arraycopy( other.records, 0, records, this.records.length, other.records.length );
+			return( new Matches( offsets, records ) );
+		}
+	}
+
+	/**
+	 *	Gathers records and builds an index.  A builder is not thread
+	 *	safe.
+	 *
+	 *	@param <V> The type of the values attached to the records.
+	 */
+	public static final class Builder<V>
+	{
+		private boolean[] ipv6 = new boolean[ 16 ];
+		private long[] high = new long[ 16 ];
+		private long[] low = new long[ 16 ];
+		private byte[] bits = new byte[ 16 ];
+		private final List<V> values = new ArrayList<V>();
+		private int size;
+
+		/**
+		 *	Add a record.
+		 *
+		 *	@param prefix The prefix of the record.
+		 *	@param value The value of the record, may be null.
+		 *	@return The number of the record.
+		 */
+		public int add( PGcidr prefix, V value )
+		{
+			prefix.resolve();
+			if( prefix.addr == null )
+			{
+				throw( new IllegalArgumentException( "A prefix can not be SQL NULL" ) );
+			}
+			return( add( prefix.isIPv6(), prefix.getHighWord(), prefix.getLowWord(), prefix.getNetmask(), value ) );
+		}
+
+		/**
+		 *	Add a record with a prefix given as words.
+		 *
+		 *	@param ipv6 true for a 128 bit prefix.
+		 *	@param high The first 64 bits of an IPv6 prefix, 0 for IPv4.
+		 *	@param low The last 64 bits of an IPv6 prefix, or the 32 bits of
+		 *		an IPv4 prefix.
+		 *	@param netmask The prefix length, bits to its right are ignored.
+		 *	@param value The value of the record, may be null.
+		 *	@return The number of the record.
+		 */
+		public int add( boolean ipv6, long high, long low, int netmask, V value )
+		{
+			if( ( netmask < 0 ) || ( netmask > ( ipv6 ? 128 : 32 ) ) ||
+				( !ipv6 && ( ( high != 0L ) || ( ( low >>> 32 ) != 0L ) ) ) )
+			{
+				throw( new IllegalArgumentException( "Invalid address or netmask" ) );
+			}
+			if( this.size == this.ipv6.length )
+			{
+				int n = this.size * 2;
+				this.ipv6 = Arrays.copyOf( this.ipv6, n );
+				this.high = Arrays.copyOf( this.high, n );
+				this.low = Arrays.copyOf( this.low, n );
+				this.bits = Arrays.copyOf( this.bits, n );
+			}
+			this.ipv6[this.size] = ipv6;
+			this.high[this.size] = high & InetBits.maskHigh( netmask, ipv6 );
+			this.low[this.size] = low & InetBits.maskLow( netmask, ipv6 );
+			this.bits[this.size] = (byte)netmask;
+			this.values.add( value );
+			return( this.size++ );
+		}
+
+		/**
+		 *	@return The number of records added.
+		 */
+		public int size()
+		{
+			return( this.size );
+		}
+
+		/**
+		 *	Build an index of the records added so far.
+		 *
+		 *	@return The index.
+		 */
+		public InetPrefixIndex<V> build()
+		{
+			Object event = NetworkEvents.begin( NetworkEvents.PREFIX_TABLE_BUILD );
+			InetPrefixIndex<V> index = new InetPrefixIndex<V>( this );
+			NetworkEvents.end( event, this.size, 0L );
+			return( index );
+		}
+	}
+
+	/**
+	 *	The path compressed trie of one family.  Node 0 is the root, the
+	 *	prefix of length 0, and a child of 0 means none.  The records on
+	 *	the prefix of node i are records[start[i]] to records[end[i] - 1],
+	 *	in the tree's own copy of the sorted record numbers; a branch has
+	 *	none.
+	 */
+	private final class Tree
+	{
+		private final boolean family;
+		private final long[] nodeHigh;
+		private final long[] nodeLow;
+		private final int[] nodeBits;
+		private final int[] left;
+		private final int[] right;
+		private final int[] start;
+		private final int[] end;
+		private final int[] records;
+		private int nodes = 1;
+
+		Tree( boolean ipv6, int[] sorted )
+		{
+			this.family = ipv6;
+			this.records = sorted;
+			int capacity = 2 * sorted.length + 1;
+			this.nodeHigh = new long[ capacity ];
+			this.nodeLow = new long[ capacity ];
+			this.nodeBits = new int[ capacity ];
+			this.left = new int[ capacity ];
+			this.right = new int[ capacity ];
+			this.start = new int[ capacity ];
+			this.end = new int[ capacity ];
+			// the right hand path of the tree built so far
+			int[] stack = new int[ 130 ];
+			int top = 0;
+			int current = 0;
+			for( int r = 0; r < sorted.length; ++r )
+			{
+				int record = sorted[r];
+				if( ( r > 0 ) && ( compare( sorted[r - 1], record ) == 0 ) )
+				{
+					// another record on the prefix of the newest node
+					++this.end[current];
+					continue;
+				}
+				long h = InetPrefixIndex.this.high[record];
+				long l = InetPrefixIndex.this.low[record];
+				int b = InetPrefixIndex.this.bits[record] & 0xFF;
+				if( b == 0 )
+				{
+					// ::/0 or 0.0.0.0/0, which sorts first
+					this.start[0] = r;
+					this.end[0] = r + 1;
+					continue;
+				}
+				int below = 0;
+				while( !covers( stack[top], h, l ) )
+				{
+					below = stack[top--];
+				}
+				int parent = stack[top];
+				current = node( h, l, b );
+				this.start[current] = r;
+				this.end[current] = r + 1;
+				int common = ( below != 0 ) ? commonBits( below, h, l ) : 0;
+				if( common > this.nodeBits[parent] )
+				{
+					// a branch where the new prefix leaves the path of the last subtree
+					int branch = node( h & InetBits.maskHigh( common, ipv6 ), l & InetBits.maskLow( common, ipv6 ), common );
+					link( parent, branch );
+					link( branch, below );
+					stack[++top] = branch;
+					parent = branch;
+				}
+				link( parent, current );
+				stack[++top] = current;
+			}
+		}
+
+		private int node( long h, long l, int b )
+		{
+			int i = this.nodes++;
+			this.nodeHigh[i] = h;
+			this.nodeLow[i] = l;
+			this.nodeBits[i] = b;
+			return( i );
+		}
+
+		private void link( int parent, int child )
+		{
+			if( bit( this.nodeHigh[child], this.nodeLow[child], this.nodeBits[parent] ) == 0 )
+			{
+				this.left[parent] = child;
+			}
+			else
+			{
+				this.right[parent] = child;
+			}
+		}
+
+		private boolean covers( int node, long h, long l )
+		{
+			int b = this.nodeBits[node];
+			return( ( ( h & InetBits.maskHigh( b, this.family ) ) == this.nodeHigh[node] ) &&
+				( ( l & InetBits.maskLow( b, this.family ) ) == this.nodeLow[node] ) );
+		}
+
+		/**
+		 *	@return The number of leading bits a node's prefix has in common
+		 *		with an address, at most the node's length.
+		 */
+		private int commonBits( int node, long h, long l )
+		{
+			int offset = this.family ? 0 : 96;
+			int common;
+			if( h != this.nodeHigh[node] )
+			{
+				common = Long.numberOfLeadingZeros( h ^ this.nodeHigh[node] );
+			}
+			else
+			{
+				common = 64 + Long.numberOfLeadingZeros( l ^ this.nodeLow[node] );
+			}
+			return( Math.min( common - offset, this.nodeBits[node] ) );
+		}
+
+		/**
+		 *	@return Bit i of a prefix, counting from the first bit of the
+		 *		family.
+		 */
+		private int bit( long h, long l, int i )
+		{
+			if( !this.family )
+			{
+				return( (int)( l >>> ( 31 - i ) ) & 1 );
+			}
+			return( (int)( ( ( i < 64 ) ? h << i : l << ( i - 64 ) ) >>> 63 ) );
+		}
+
+		/**
+		 *	Report the records of the nodes covering a prefix, then those of
+		 *	the subtree inside it.
+		 */
+		int walk( long h, long l, int b, IntConsumer action )
+		{
+			int reported = 0;
+			int node = 0;
+			while( this.nodeBits[node] < b )
+			{
+				if( !covers( node, h, l ) )
+				{
+					return( reported );
+				}
+				reported += report( node, action );
+				node = ( bit( h, l, this.nodeBits[node] ) == 0 ) ? this.left[node] : this.right[node];
+				if( node == 0 )
+				{
+					return( reported );
+				}
+			}
+			return( inside( node, h, l, b ) ? reported + subtree( node, action ) : reported );
+		}
+
+		/**
+		 *	@return true if a node's prefix lies inside the query prefix.
+		 */
+		private boolean inside( int node, long h, long l, int b )
+		{
+			return( ( ( this.nodeHigh[node] & InetBits.maskHigh( b, this.family ) ) == h ) &&
+				( ( this.nodeLow[node] & InetBits.maskLow( b, this.family ) ) == l ) );
+		}
+
+		private int subtree( int node, IntConsumer action )
+		{
+			int reported = report( node, action );
+			if( this.left[node] != 0 )
+			{
+				reported += subtree( this.left[node], action );
+			}
+			if( this.right[node] != 0 )
+			{
+				reported += subtree( this.right[node], action );
+			}
+			return( reported );
+		}
+
+		private int report( int node, IntConsumer action )
+		{
+			for( int k = this.start[node]; k < this.end[node]; ++k )
+			{
+				action.accept( this.records[k] );
+			}
+			return( this.end[node] - this.start[node] );
+		}
+	}
+
+	/**
+	 *	A growable list of record numbers.
+	 */
+	private static final class Collector implements IntConsumer
+	{
+		int[] ids = new int[ 16 ];
+		int size;
+
+		public void accept( int id )
+		{
+			if( this.size == this.ids.length )
+			{
+				this.ids = Arrays.copyOf( this.ids, this.size * 2 );
+			}
+			this.ids[this.size++] = id;
+		}
+
+		int[] toArray()
+		{
+			return( Arrays.copyOf( this.ids, this.size ) );
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package org.postgresql.net;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ *	An immutable list of prefixes with a count and a sum for each, as
+ *	returned by {@link InetPrefixAggregator#getTotals()}.
+ *
+ *	<p>The entries are in the server's sort order for cidr, so a prefix
+ *	comes before the longer prefixes inside it, and are only turned in to
+ *	PGcidr objects on request.</p>
+ */
+public final class InetPrefixTotals
+{
+	private final boolean[] ipv6;
+	private final long[] high;
+	private final long[] low;
+	private final byte[] netmask;
+	private final long[] count;
+	private final long[] sum;
+
+	private InetPrefixTotals( boolean[] ipv6, long[] high, long[] low, byte[] netmask, long[] count, long[] sum )
+	{
+		this.ipv6 = ipv6;
+		this.high = high;
+		this.low = low;
+		this.netmask = netmask;
+		this.count = count;
+		this.sum = sum;
+	}
+
+	/**
+	 *	Sort parallel arrays of entries and wrap them.
+	 */
+	static InetPrefixTotals sorted( final boolean[] ipv6, final long[] high, final long[] low,
+		final byte[] netmask, long[] count, long[] sum )
+	{
+		int n = ipv6.length;
+		Integer[] order = new Integer[ n ];
+		for( int i = 0; i < n; ++i )
+		{
+			order[i] = Integer.valueOf( i );
+		}
+		Arrays.sort( order, new Comparator<Integer>()
+		{
+			public int compare( Integer x, Integer y )
+			{
+				int a = x.intValue();
+				int b = y.intValue();
+				return( InetBits.compare( ipv6[a], high[a], low[a], netmask[a] & 0xFF,
+					ipv6[b], high[b], low[b], netmask[b] & 0xFF ) );
+			}
+		} );
+		InetPrefixTotals totals = new InetPrefixTotals( new boolean[ n ], new long[ n ], new long[ n ],
+			new byte[ n ], new long[ n ], new long[ n ] );
+		for( int i = 0; i < n; ++i )
+		{
+			int j = order[i].intValue();
+			totals.ipv6[i] = ipv6[j];
+			totals.high[i] = high[j];
+			totals.low[i] = low[j];
+			totals.netmask[i] = netmask[j];
+			totals.count[i] = count[j];
+			totals.sum[i] = sum[j];
+		}
+		return( totals );
+	}
+
+	/**
+	 *	@return The number of prefixes.
+	 */
+	public int size()
+	{
+		return( this.count.length );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return true for an IPv6 prefix.
+	 */
+	public boolean isIPv6( int i )
+	{
+		return( this.ipv6[i] );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return The first 64 bits of an IPv6 prefix, 0 for IPv4.
+	 */
+	public long getHighWord( int i )
+	{
+		return( this.high[i] );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return The last 64 bits of an IPv6 prefix, or the 32 bits of an
+	 *		IPv4 prefix as an unsigned value.
+	 */
+	public long getLowWord( int i )
+	{
+		return( this.low[i] );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return The prefix length of the entry.
+	 */
+	public int getNetmask( int i )
+	{
+		return( this.netmask[i] & 0xFF );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return A new PGcidr holding the prefix.
+	 */
+	public PGcidr getCidr( int i )
+	{
+		PGcidr cidr = new PGcidr();
+		cidr.setAddress( InetBits.toBytes( this.ipv6[i], this.high[i], this.low[i] ), getNetmask( i ), false );
+		return( cidr );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return The number of addresses counted in the prefix.
+	 */
+	public long getCount( int i )
+	{
+		return( this.count[i] );
+	}
+
+	/**
+	 *	@param i The index of an entry.
+	 *	@return The sum of the amounts added for the prefix.
+	 */
+	public long getSum( int i )
+	{
+		return( this.sum[i] );
+	}
+
+	/**
+	 *	Find a prefix by binary search.
+	 *
+	 *	@param prefix The prefix to look for.
+	 *	@return The index of its entry, -1 if it was not counted.
+	 */
+	public int indexOf( PGcidr prefix )
+	{
+		prefix.resolve();
+		if( prefix.addr == null )
+		{
+			return( -1 );
+		}
+		boolean v6 = prefix.addr.length == 16;
+		long hi = InetBits.high( prefix.addr );
+		long lo = InetBits.low( prefix.addr );
+		int bits = prefix.netmask;
+		int from = 0;
+		int to = this.count.length;
+		while( from < to )
+		{
+			int mid = ( from + to ) >>> 1;
+			int c = InetBits.compare( this.ipv6[mid], this.high[mid], this.low[mid], getNetmask( mid ), v6, hi, lo, bits );
+			if( c == 0 )
+			{
+				return( mid );
+			}
+			if( c < 0 )
+			{
+				from = mid + 1;
+			}
+			else
+			{
+				to = mid;
+			}
+		}
+		return( -1 );
+	}
+}
@@ -0,0 +1,393 @@
+package org.postgresql.net;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.postgresql.util.GT;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.PSQLState;
+
+/**
+ *	An immutable inclusive range of addresses from a first to a last
+ *	address of the same family, as found in threat intelligence and GeoIP
+ *	feeds.
+ *
+ *	<p>A range converts to the smallest list of cidr blocks covering
+ *	exactly the same addresses, and a cidr converts to a range.  The
+ *	decomposition works on the packed two word form with shifts and
+ *	carries, one block per step, and the static
+ *	{@link #decomposeIPv4(int, int, PrefixConsumer)} and
+ *	{@link #decomposeIPv6(long, long, long, long, PrefixConsumer)} stream the
+ *	blocks to a callback for bulk conversions without creating any
+ *	objects.</p>
+ *
+ *	<pre>
+ *	InetRange.valueOf( "10.0.0.5-10.0.0.20" ).toCidrs();
+ *	// 10.0.0.5/32, 10.0.0.6/31, 10.0.0.8/29, 10.0.0.16/30, 10.0.0.20/32
+ *	</pre>
+ */
+public final class InetRange implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final boolean ipv6;
+	private final long firstHigh;
+	private final long firstLow;
+	private final long lastHigh;
+	private final long lastLow;
+
+	private InetRange( boolean ipv6, long firstHigh, long firstLow, long lastHigh, long lastLow )
+	{
+		if( !ipv6 && ( ( firstHigh != 0L ) || ( lastHigh != 0L ) ||
+			( ( ( firstLow | lastLow ) & ~0xFFFFFFFFL ) != 0L ) ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv4 address words" ) );
+		}
+		if( compare( firstHigh, firstLow, lastHigh, lastLow ) > 0 )
+		{
+			throw( new IllegalArgumentException( "The first address of a range is after the last" ) );
+		}
+		this.ipv6 = ipv6;
+		this.firstHigh = firstHigh;
+		this.firstLow = firstLow;
+		this.lastHigh = lastHigh;
+		this.lastLow = lastLow;
+	}
+
+	/**
+	 *	@param first The first address, its netmask is ignored.
+	 *	@param last The last address, its netmask is ignored.
+	 *	@return The range of addresses from first to last.
+	 *	@exception IllegalArgumentException If the families differ or
+	 *		first is after last.
+	 */
+	public static InetRange of( PGinet first, PGinet last )
+	{
+		first.resolve();
+		last.resolve();
+		if( first.isIPv6() != last.isIPv6() )
+		{
+			throw( new IllegalArgumentException( "The addresses of a range must be of one family" ) );
+		}
+		return( new InetRange( first.isIPv6(), first.getHighWord(), first.getLowWord(),
+			last.getHighWord(), last.getLowWord() ) );
+	}
+
+	/**
+	 *	@param cidr A network.
+	 *	@return The range from its network address to its broadcast address.
+	 */
+	public static InetRange of( PGcidr cidr )
+	{
+		cidr.resolve();
+		boolean ipv6 = cidr.isIPv6();
+		long mh = InetBits.maskHigh( cidr.netmask, ipv6 );
+		long ml = InetBits.maskLow( cidr.netmask, ipv6 );
+		long hi = cidr.getHighWord();
+		long lo = cidr.getLowWord();
+		long allLow = ipv6 ? -1L : 0xFFFFFFFFL;
+		return( new InetRange( ipv6, hi & mh, lo & ml, hi | ( ipv6 ? ~mh : 0L ), lo | ( allLow & ~ml ) ) );
+	}
+
+	/**
+	 *	@param first The first IPv4 address.
+	 *	@param last The last IPv4 address, not before first as unsigned
+	 *		values.
+	 *	@return The range.
+	 */
+	public static InetRange ofIPv4( int first, int last )
+	{
+		return( new InetRange( false, 0L, first & 0xFFFFFFFFL, 0L, last & 0xFFFFFFFFL ) );
+	}
+
+	/**
+	 *	@return The range of IPv6 addresses from the first to the last
+	 *		pair of words.
+	 */
+	public static InetRange ofIPv6( long firstHigh, long firstLow, long lastHigh, long lastLow )
+	{
+		return( new InetRange( true, firstHigh, firstLow, lastHigh, lastLow ) );
+	}
+
+	/**
+	 *	Parse a range written as two addresses separated by a hyphen,
+	 *	"10.0.0.5-10.0.0.20", or as a single cidr.
+	 *
+	 *	@param s The text.
+	 *	@return The range.
+	 *	@exception SQLException If s is not a valid range.
+	 */
+	public static InetRange valueOf( String s )
+	throws SQLException
+	{
+		int dash = s.indexOf( '-' );
+		try
+		{
+			if( dash < 0 )
+			{
+				return( of( new PGcidr( s.trim() ) ) );
+			}
+			return( of( new PGinet( s.substring( 0, dash ).trim() ), new PGinet( s.substring( dash + 1 ).trim() ) ) );
+		}
+		catch( IllegalArgumentException e )
+		{
+			throw( new PSQLException( GT.tr( "Conversion to type {0} failed: {1}.",
+				new Object[]{ "range", s } ), PSQLState.DATA_TYPE_MISMATCH ) );
+		}
+	}
+
+	/**
+	 *	@return true for a range of IPv6 addresses.
+	 */
+	public boolean isIPv6()
+	{
+		return( this.ipv6 );
+	}
+
+	/**
+	 *	@return The high word of the first address, 0 for IPv4.
+	 */
+	public long getFirstHighWord()
+	{
+		return( this.firstHigh );
+	}
+
+	/**
+	 *	@return The low word of the first address.
+	 */
+	public long getFirstLowWord()
+	{
+		return( this.firstLow );
+	}
+
+	/**
+	 *	@return The high word of the last address, 0 for IPv4.
+	 */
+	public long getLastHighWord()
+	{
+		return( this.lastHigh );
+	}
+
+	/**
+	 *	@return The low word of the last address.
+	 */
+	public long getLastLowWord()
+	{
+		return( this.lastLow );
+	}
+
+	/**
+	 *	@return A new PGinet holding the first address.
+	 */
+	public PGinet getFirst()
+	{
+		return( address( this.firstHigh, this.firstLow ) );
+	}
+
+	/**
+	 *	@return A new PGinet holding the last address.
+	 */
+	public PGinet getLast()
+	{
+		return( address( this.lastHigh, this.lastLow ) );
+	}
+
+	/**
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@return true if the address lies in this range.
+	 */
+	public boolean contains( boolean ipv6, long high, long low )
+	{
+		return( ( ipv6 == this.ipv6 ) && ( compare( this.firstHigh, this.firstLow, high, low ) <= 0 ) &&
+			( compare( high, low, this.lastHigh, this.lastLow ) <= 0 ) );
+	}
+
+	/**
+	 *	@param address An address, its netmask is ignored.
+	 *	@return true if the address lies in this range.
+	 */
+	public boolean contains( PGinet address )
+	{
+		address.resolve();
+		return( contains( address.isIPv6(), address.getHighWord(), address.getLowWord() ) );
+	}
+
+	/**
+	 *	@return The smallest list of cidr blocks which covers exactly
+	 *		this range, in address order.
+	 */
+	public List<PGcidr> toCidrs()
+	{
+		final List<PGcidr> cidrs = new ArrayList<PGcidr>();
+		forEachCidr( new PrefixConsumer()
+		{
+			public void accept( long high, long low, int prefixLength )
+			{
+				PGcidr cidr = new PGcidr();
+				cidr.setAddress( InetBits.toBytes( ipv6, high, low ), prefixLength, false );
+				cidrs.add( cidr );
+			}
+		} );
+		return( cidrs );
+	}
+
+	/**
+	 *	Pass the blocks of {@link #toCidrs()} to a callback instead.
+	 *
+	 *	@param action Receives each block in address order.
+	 *	@return The number of blocks.
+	 */
+	public int forEachCidr( PrefixConsumer action )
+	{
+		return( decompose( this.ipv6, this.firstHigh, this.firstLow, this.lastHigh, this.lastLow, action ) );
+	}
+
+	/**
+	 *	Decompose an IPv4 range in to the smallest list of cidr blocks.
+	 *
+	 *	@param first The first address.
+	 *	@param last The last address, not before first as unsigned values.
+	 *	@param action Receives each block in address order, the high word
+	 *		is always 0.
+	 *	@return The number of blocks, at most 62.
+	 */
+	public static int decomposeIPv4( int first, int last, PrefixConsumer action )
+	{
+		if( Integer.compareUnsigned( first, last ) > 0 )
+		{
+			throw( new IllegalArgumentException( "The first address of a range is after the last" ) );
+		}
+		return( decompose( false, 0L, first & 0xFFFFFFFFL, 0L, last & 0xFFFFFFFFL, action ) );
+	}
+
+	/**
+	 *	Decompose an IPv6 range in to the smallest list of cidr blocks.
+	 *
+	 *	@param action Receives each block in address order.
+	 *	@return The number of blocks, at most 254.
+	 */
+	public static int decomposeIPv6( long firstHigh, long firstLow, long lastHigh, long lastLow, PrefixConsumer action )
+	{
+		if( compare( firstHigh, firstLow, lastHigh, lastLow ) > 0 )
+		{
+			throw( new IllegalArgumentException( "The first address of a range is after the last" ) );
+		}
+		return( decompose( true, firstHigh, firstLow, lastHigh, lastLow, action ) );
+	}
+
+	/**
+	 *	Each step takes the largest block which starts at the current
+	 *	address, limited by the alignment of the address, its trailing
+	 *	zero bits, and by the number of addresses left.
+	 */
+	private static int decompose( boolean ipv6, long hi, long lo, long lastHi, long lastLo, PrefixConsumer action )
+	{
+		int width = ipv6 ? 128 : 32;
+		int blocks = 0;
+		while( true )
+		{
+			// the number of addresses left, last - start + 1, wraps to 0 for all of IPv6
+			long remainingLow = lastLo - lo;
+			long remainingHigh = lastHi - hi - ( Long.compareUnsigned( lastLo, lo ) < 0 ? 1L : 0L );
+			remainingLow += 1L;
+			if( remainingLow == 0L )
+			{
+				++remainingHigh;
+			}
+			int fit = ( remainingHigh != 0L ) ? 127 - Long.numberOfLeadingZeros( remainingHigh ) :
+				( remainingLow != 0L ) ? 63 - Long.numberOfLeadingZeros( remainingLow ) : 128;
+			int aligned = ( lo != 0L ) ? Long.numberOfTrailingZeros( lo ) :
+				( hi != 0L ) ? 64 + Long.numberOfTrailingZeros( hi ) : 128;
+			int k = Math.min( Math.min( fit, aligned ), width );
+			action.accept( hi, lo, width - k );
+			++blocks;
+			if( k == 128 )
+			{
+				return( blocks );
+			}
+			// step past the block
+			if( k < 64 )
+			{
+				long next = lo + ( 1L << k );
+				if( Long.compareUnsigned( next, lo ) < 0 )
+				{
+					++hi;
+				}
+				lo = next;
+			}
+			else
+			{
+				hi += 1L << ( k - 64 );
+			}
+			if( ( ( hi | lo ) == 0L ) || ( compare( hi, lo, lastHi, lastLo ) > 0 ) )
+			{
+				return( blocks );
+			}
+		}
+	}
+
+	public boolean equals( Object obj )
+	{
+		if( !( obj instanceof InetRange ) )
+		{
+			return( false );
+		}
+		InetRange r = (InetRange)obj;
+		return( ( r.ipv6 == this.ipv6 ) && ( r.firstHigh == this.firstHigh ) && ( r.firstLow == this.firstLow ) &&
+			( r.lastHigh == this.lastHigh ) && ( r.lastLow == this.lastLow ) );
+	}
+
+	public int hashCode()
+	{
+		long h = InetBits.mix( this.ipv6, this.firstHigh, this.firstLow, 0 ) ^
+			InetBits.mix( this.ipv6, this.lastHigh, this.lastLow, 1 );
+		return( (int)( h ^ ( h >>> 32 ) ) );
+	}
+
+	/**
+	 *	@return The range as first-last.
+	 */
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder( 80 );
+		InetText.append( sb, this.ipv6, this.firstHigh, this.firstLow, this.ipv6 ? 128 : 32, false );
+		sb.append( '-' );
+		InetText.append( sb, this.ipv6, this.lastHigh, this.lastLow, this.ipv6 ? 128 : 32, false );
+		return( sb.toString() );
+	}
+
+	private PGinet address( long hi, long lo )
+	{
+		PGinet inet = new PGinet();
+		inet.setAddress( InetBits.toBytes( this.ipv6, hi, lo ), this.ipv6 ? 128 : 32, false );
+		return( inet );
+	}
+
+	private static int compare( long hia, long loa, long hib, long lob )
+	{
+		int c = Long.compareUnsigned( hia, hib );
+		return( ( c != 0 ) ? c : Long.compareUnsigned( loa, lob ) );
+	}
+
+	/**
+	 *	Check the invariants of a deserialized range.
+	 */
+	private Object readResolve()
+	throws ObjectStreamException
+	{
+		try
+		{
+			return( new InetRange( this.ipv6, this.firstHigh, this.firstLow, this.lastHigh, this.lastLow ) );
+		}
+		catch( IllegalArgumentException e )
+		{
+			throw( new InvalidObjectException( e.getMessage() ) );
+		}
+	}
+}
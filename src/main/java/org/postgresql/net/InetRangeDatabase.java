@@ -0,0 +1,704 @@
+package org.postgresql.net;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.postgresql.util.GT;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.PSQLState;
+
+/**
+ *	An in memory copy of an IP range database such as an ASN, geo location
+ *	or hosting provider feed, for enriching addresses on the client instead
+ *	of joining against the database for each one.
+ *
+ *	<p>The database is loaded from CSV text with a header line.  The first
+ *	column holds a cidr network, {@link #loadCidrs(Reader)}, or the first
+ *	two columns hold the first and last address of a range,
+ *	{@link #loadRanges(Reader)}.  The remaining columns are attributes,
+ *	named by the header:</p>
+ *
+ *	<pre>
+ *	network,asn,organization
+ *	1.0.0.0/24,13335,"Cloudflare, Inc."
+ *	</pre>
+ *
+ *	<p>The ranges are held sorted in primitive arrays, 32 bit words for
+ *	IPv4 and 64 bit words for IPv6, and an address is found by binary
+ *	search.  Each attribute column is dictionary encoded: its distinct
+ *	values are stored once and each row holds a 1, 2 or 4 byte code,
+ *	whichever is enough for the column.  Ranges must not overlap.</p>
+ *
+ *	<p>A loaded database is immutable and safe to share between
+ *	threads.</p>
+ */
+public final class InetRangeDatabase
+{
+	private final String[] columns;
+	private final String[][] dictionaries;
+
+	// IPv4 ranges as unsigned values flipped to sort as signed ints
+	private final int[] first4;
+	private final int[] last4;
+	private final long[] firstHigh6;
+	private final long[] firstLow6;
+	private final long[] lastHigh6;
+	private final long[] lastLow6;
+
+	// the attribute codes of row i, IPv4 rows first, one array per column
+	private final byte[][] byteCodes;
+	private final char[][] charCodes;
+	private final int[][] intCodes;
+
+	private final long loadNanos;
+
+	private InetRangeDatabase( Builder b, int[] order, long start )
+	{
+		this.columns = b.columns;
+		int columnCount = this.columns.length;
+		this.dictionaries = new String[ columnCount ][];
+		for( int c = 0; c < columnCount; ++c )
+		{
+			this.dictionaries[c] = b.dictionaries.get( c ).toArray( new String[ 0 ] );
+		}
+		int n = b.size;
+		int count4 = 0;
+		while( ( count4 < n ) && !b.ipv6[order[count4]] )
+		{
+			++count4;
+		}
+		this.first4 = new int[ count4 ];
+		this.last4 = new int[ count4 ];
+		this.firstHigh6 = new long[ n - count4 ];
+		this.firstLow6 = new long[ n - count4 ];
+		this.lastHigh6 = new long[ n - count4 ];
+		this.lastLow6 = new long[ n - count4 ];
+		for( int i = 0; i < n; ++i )
+		{
+			int j = order[i];
+			if( i < count4 )
+			{
+				this.first4[i] = (int)b.firstLow[j] ^ Integer.MIN_VALUE;
+				this.last4[i] = (int)b.lastLow[j] ^ Integer.MIN_VALUE;
+			}
+			else
+			{
+				this.firstHigh6[i - count4] = b.firstHigh[j];
+				this.firstLow6[i - count4] = b.firstLow[j];
+				this.lastHigh6[i - count4] = b.lastHigh[j];
+				this.lastLow6[i - count4] = b.lastLow[j];
+			}
+		}
+		this.byteCodes = new byte[ columnCount ][];
+		this.charCodes = new char[ columnCount ][];
+		this.intCodes = new int[ columnCount ][];
+		for( int c = 0; c < columnCount; ++c )
+		{
+			int values = this.dictionaries[c].length;
+			if( values <= 256 )
+			{
+				this.byteCodes[c] = new byte[ n ];
+			}
+			else if( values <= 65536 )
+			{
+				this.charCodes[c] = new char[ n ];
+			}
+			else
+			{
+				this.intCodes[c] = new int[ n ];
+			}
+			for( int i = 0; i < n; ++i )
+			{
+				setCode( c, i, b.codes[c][order[i]] );
+			}
+		}
+		this.loadNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 *	Load a database whose first column is a cidr network.
+	 *
+	 *	@param in The CSV text, it is read to the end but not closed.
+	 *	@return The database.
+	 *	@exception IOException If reading fails.
+	 *	@exception SQLException If a line is not valid or ranges overlap.
+	 */
+	public static InetRangeDatabase loadCidrs( Reader in )
+	throws IOException, SQLException
+	{
+		return( load( in, 1 ) );
+	}
+
+	/**
+	 *	Load a database whose first two columns are the first and last
+	 *	address of a range.
+	 *
+	 *	@param in The CSV text, it is read to the end but not closed.
+	 *	@return The database.
+	 *	@exception IOException If reading fails.
+	 *	@exception SQLException If a line is not valid or ranges overlap.
+	 */
+	public static InetRangeDatabase loadRanges( Reader in )
+	throws IOException, SQLException
+	{
+		return( load( in, 2 ) );
+	}
+
+	private static InetRangeDatabase load( Reader in, int keyColumns )
+	throws IOException, SQLException
+	{
+		long start = System.nanoTime();
+		Object event = NetworkEvents.begin( NetworkEvents.PREFIX_TABLE_BUILD );
+		BufferedReader reader = ( in instanceof BufferedReader ) ? (BufferedReader)in : new BufferedReader( in );
+		Fields fields = new Fields();
+		String line = reader.readLine();
+		if( line == null )
+		{
+			throw( invalid( 1, "missing header" ) );
+		}
+		fields.split( line );
+		if( fields.count < keyColumns )
+		{
+			throw( invalid( 1, "expected at least " + keyColumns + " columns" ) );
+		}
+		String[] names = new String[ fields.count - keyColumns ];
+		for( int c = 0; c < names.length; ++c )
+		{
+			names[c] = fields.value( line, keyColumns + c );
+		}
+		Builder b = new Builder( names );
+		InetCursor first = new InetCursor();
+		InetCursor last = new InetCursor();
+		long chars = line.length();
+		int lineNumber = 1;
+		while( ( line = reader.readLine() ) != null )
+		{
+			++lineNumber;
+			chars += line.length() + 1;
+			if( line.length() == 0 )
+			{
+				continue;
+			}
+			fields.split( line );
+			if( fields.count != keyColumns + names.length )
+			{
+				throw( invalid( lineNumber, "expected " + ( keyColumns + names.length ) + " columns" ) );
+			}
+			try
+			{
+				first.setText( line, fields.start[0], fields.end[0] );
+				if( keyColumns == 2 )
+				{
+					last.setText( line, fields.start[1], fields.end[1] );
+				}
+			}
+			catch( SQLException e )
+			{
+				throw( invalid( lineNumber, e.getMessage() ) );
+			}
+			boolean ipv6 = first.isIPv6();
+			long fh;
+			long fl;
+			long lh;
+			long ll;
+			if( keyColumns == 1 )
+			{
+				int bits = first.getNetmask();
+				long mh = InetBits.maskHigh( bits, ipv6 );
+				long ml = InetBits.maskLow( bits, ipv6 );
+				fh = first.getHighWord() & mh;
+				fl = first.getLowWord() & ml;
+				lh = first.getHighWord() | ( ipv6 ? ~mh : 0L );
+				ll = first.getLowWord() | ( ( ipv6 ? -1L : 0xFFFFFFFFL ) & ~ml );
+			}
+			else
+			{
+				if( last.isIPv6() != ipv6 )
+				{
+					throw( invalid( lineNumber, "the addresses of a range must be of one family" ) );
+				}
+				fh = first.getHighWord();
+				fl = first.getLowWord();
+				lh = last.getHighWord();
+				ll = last.getLowWord();
+				int c = Long.compareUnsigned( fh, lh );
+				if( ( c > 0 ) || ( ( c == 0 ) && ( Long.compareUnsigned( fl, ll ) > 0 ) ) )
+				{
+					throw( invalid( lineNumber, "the first address is after the last" ) );
+				}
+			}
+			b.add( ipv6, fh, fl, lh, ll, lineNumber );
+			for( int c = 0; c < names.length; ++c )
+			{
+				b.code( c, fields.value( line, keyColumns + c ) );
+			}
+		}
+		int[] order = new int[ b.size ];
+		for( int i = 0; i < order.length; ++i )
+		{
+			order[i] = i;
+		}
+		sort( order, b );
+		checkOverlaps( b, order );
+		InetRangeDatabase db = new InetRangeDatabase( b, order, start );
+		NetworkEvents.end( event, b.size, chars );
+		return( db );
+	}
+
+	/**
+	 *	@return The number of ranges.
+	 */
+	public int size()
+	{
+		return( this.first4.length + this.firstHigh6.length );
+	}
+
+	/**
+	 *	@return The names of the attribute columns from the header.
+	 */
+	public String[] getColumnNames()
+	{
+		return( this.columns.clone() );
+	}
+
+	/**
+	 *	@param name The name of an attribute column.
+	 *	@return Its index, -1 if there is no such column.
+	 */
+	public int getColumn( String name )
+	{
+		for( int c = 0; c < this.columns.length; ++c )
+		{
+			if( this.columns[c].equals( name ) )
+			{
+				return( c );
+			}
+		}
+		return( -1 );
+	}
+
+	/**
+	 *	@param address An address, its netmask is ignored.
+	 *	@return The index of the range holding it, -1 if there is none.
+	 */
+	public int indexOf( PGinet address )
+	{
+		address.resolve();
+		return( indexOf( address.isIPv6(), address.getHighWord(), address.getLowWord() ) );
+	}
+
+	/**
+	 *	@param cursor The cursor holding an address.
+	 *	@return The index of the range holding it, -1 if there is none or
+	 *		the cursor holds SQL NULL.
+	 */
+	public int indexOf( InetCursor cursor )
+	{
+		return( cursor.isNull() ? -1 : indexOf( cursor.isIPv6(), cursor.getHighWord(), cursor.getLowWord() ) );
+	}
+
+	/**
+	 *	Find the range holding an address given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@return The index of the range, -1 if there is none.
+	 */
+	public int indexOf( boolean ipv6, long high, long low )
+	{
+		if( !ipv6 )
+		{
+			int key = (int)low ^ Integer.MIN_VALUE;
+			// the last range starting at or before the address
+			int lo = 0;
+			int hi = this.first4.length;
+			while( lo < hi )
+			{
+				int mid = ( lo + hi ) >>> 1;
+				if( this.first4[mid] <= key )
+				{
+					lo = mid + 1;
+				}
+				else
+				{
+					hi = mid;
+				}
+			}
+			return( ( ( lo > 0 ) && ( key <= this.last4[lo - 1] ) ) ? lo - 1 : -1 );
+		}
+		int lo = 0;
+		int hi = this.firstHigh6.length;
+		while( lo < hi )
+		{
+			int mid = ( lo + hi ) >>> 1;
+			int c = Long.compareUnsigned( this.firstHigh6[mid], high );
+			if( ( c < 0 ) || ( ( c == 0 ) && ( Long.compareUnsigned( this.firstLow6[mid], low ) <= 0 ) ) )
+			{
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid;
+			}
+		}
+		if( lo == 0 )
+		{
+			return( -1 );
+		}
+		int i = lo - 1;
+		int c = Long.compareUnsigned( high, this.lastHigh6[i] );
+		boolean inside = ( c < 0 ) || ( ( c == 0 ) && ( Long.compareUnsigned( low, this.lastLow6[i] ) <= 0 ) );
+		return( inside ? this.first4.length + i : -1 );
+	}
+
+	/**
+	 *	@param index The index of a range.
+	 *	@param column The index of an attribute column.
+	 *	@return The value of the attribute for the range.
+	 */
+	public String getValue( int index, int column )
+	{
+		return( this.dictionaries[column][getCode( index, column )] );
+	}
+
+	/**
+	 *	Look up one attribute of an address.
+	 *
+	 *	@param address An address, its netmask is ignored.
+	 *	@param column The name of an attribute column.
+	 *	@return The value, null if no range holds the address.
+	 */
+	public String lookup( PGinet address, String column )
+	{
+		int c = getColumn( column );
+		if( c < 0 )
+		{
+			throw( new IllegalArgumentException( "Unknown column: " + column ) );
+		}
+		int i = indexOf( address );
+		return( ( i < 0 ) ? null : getValue( i, c ) );
+	}
+
+	/**
+	 *	@param index The index of a range.
+	 *	@param column The index of an attribute column.
+	 *	@return The dictionary code of the attribute, for grouping
+	 *		without comparing strings.
+	 */
+	public int getCode( int index, int column )
+	{
+		if( this.byteCodes[column] != null )
+		{
+			return( this.byteCodes[column][index] & 0xFF );
+		}
+		if( this.charCodes[column] != null )
+		{
+			return( this.charCodes[column][index] );
+		}
+		return( this.intCodes[column][index] );
+	}
+
+	/**
+	 *	@param column The index of an attribute column.
+	 *	@return The number of distinct values in the column.
+	 */
+	public int getDictionarySize( int column )
+	{
+		return( this.dictionaries[column].length );
+	}
+
+	/**
+	 *	@param index The index of a range.
+	 *	@return The range.
+	 */
+	public InetRange getRange( int index )
+	{
+		if( index < this.first4.length )
+		{
+			return( InetRange.ofIPv4( this.first4[index] ^ Integer.MIN_VALUE, this.last4[index] ^ Integer.MIN_VALUE ) );
+		}
+		int i = index - this.first4.length;
+		return( InetRange.ofIPv6( this.firstHigh6[i], this.firstLow6[i], this.lastHigh6[i], this.lastLow6[i] ) );
+	}
+
+	/**
+	 *	@return The time the load took in nanoseconds.
+	 */
+	public long getLoadNanos()
+	{
+		return( this.loadNanos );
+	}
+
+	/**
+	 *	An estimate of the heap used by the index and the dictionaries,
+	 *	counting array payloads and string characters but not object
+	 *	headers.
+	 *
+	 *	@return The estimate in bytes.
+	 */
+	public long getMemoryBytes()
+	{
+		long bytes = 8L * this.first4.length + 32L * this.firstHigh6.length;
+		int n = size();
+		for( int c = 0; c < this.columns.length; ++c )
+		{
+			bytes += ( this.byteCodes[c] != null ) ? n : ( this.charCodes[c] != null ) ? 2L * n : 4L * n;
+			for( int i = 0; i < this.dictionaries[c].length; ++i )
+			{
+				bytes += 2L * this.dictionaries[c][i].length();
+			}
+		}
+		return( bytes );
+	}
+
+	public String toString()
+	{
+		return( size() + " ranges, " + this.columns.length + " columns, about " + getMemoryBytes() +
+			" bytes, loaded in " + ( this.loadNanos / 1000000L ) + " ms" );
+	}
+
+	private void setCode( int column, int index, int code )
+	{
+		if( this.byteCodes[column] != null )
+		{
+			this.byteCodes[column][index] = (byte)code;
+		}
+		else if( this.charCodes[column] != null )
+		{
+			this.charCodes[column][index] = (char)code;
+		}
+		else
+		{
+			this.intCodes[column][index] = code;
+		}
+	}
+
+	/**
+	 *	Report the first pair of sorted ranges which overlap, by the
+	 *	line numbers they were read from.
+	 */
+	private static void checkOverlaps( Builder b, int[] order )
+	throws SQLException
+	{
+		for( int i = 1; i < order.length; ++i )
+		{
+			int p = order[i - 1];
+			int q = order[i];
+			if( b.ipv6[p] != b.ipv6[q] )
+			{
+				continue;
+			}
+			int c = Long.compareUnsigned( b.firstHigh[q], b.lastHigh[p] );
+			if( ( c < 0 ) || ( ( c == 0 ) && ( Long.compareUnsigned( b.firstLow[q], b.lastLow[p] ) <= 0 ) ) )
+			{
+				throw( invalid( b.line[q], "the range overlaps the one on line " + b.line[p] ) );
+			}
+		}
+	}
+
+	/**
+	 *	Sort row numbers by family then first address, a merge sort so
+	 *	rows with equal keys keep their file order.
+	 */
+	private static void sort( int[] order, Builder b )
+	{
+		int[] tmp = new int[ order.length ];
+		for( int width = 1; width < order.length; width <<= 1 )
+		{
+			for( int lo = 0; lo < order.length; lo += 2 * width )
+			{
+				int mid = Math.min( lo + width, order.length );
+				int hi = Math.min( lo + 2 * width, order.length );
+				int i = lo;
+				int j = mid;
+				for( int k = lo; k < hi; ++k )
+				{
+					if( ( i < mid ) && ( ( j >= hi ) || ( compare( b, order[i], order[j] ) <= 0 ) ) )
+					{
+						tmp[k] = order[i++];
+					}
+					else
+					{
+						tmp[k] = order[j++];
+					}
+				}
+			}
+			System.arraycopy( tmp, 0, order, 0, order.length );
+		}
+	}
+
+	private static int compare( Builder b, int x, int y )
+	{
+		if( b.ipv6[x] != b.ipv6[y] )
+		{
+			return( b.ipv6[x] ? 1 : -1 );
+		}
+		int c = Long.compareUnsigned( b.firstHigh[x], b.firstHigh[y] );
+		return( ( c != 0 ) ? c : Long.compareUnsigned( b.firstLow[x], b.firstLow[y] ) );
+	}
+
+	private static PSQLException invalid( int line, String detail )
+	{
+		return( new PSQLException( GT.tr( "Invalid range database line {0}: {1}.",
+			new Object[]{ Integer.valueOf( line ), detail } ), PSQLState.DATA_ERROR ) );
+	}
+
+	/**
+	 *	The growable arrays a load fills before they are sorted.
+	 */
+	private static final class Builder
+	{
+		final String[] columns;
+		final List<List<String>> dictionaries = new ArrayList<List<String>>();
+		private final List<Map<String, Integer>> lookup = new ArrayList<Map<String, Integer>>();
+		boolean[] ipv6 = new boolean[ 1024 ];
+		long[] firstHigh = new long[ 1024 ];
+		long[] firstLow = new long[ 1024 ];
+		long[] lastHigh = new long[ 1024 ];
+		long[] lastLow = new long[ 1024 ];
+		int[] line = new int[ 1024 ];
+		int[][] codes;
+		int size;
+
+		Builder( String[] columns )
+		{
+			this.columns = columns;
+			this.codes = new int[ columns.length ][ 1024 ];
+			for( int c = 0; c < columns.length; ++c )
+			{
+				this.dictionaries.add( new ArrayList<String>() );
+				this.lookup.add( new HashMap<String, Integer>() );
+			}
+		}
+
+		void add( boolean v6, long fh, long fl, long lh, long ll, int lineNumber )
+		{
+			if( this.size == this.ipv6.length )
+			{
+				int n = this.size * 2;
+				this.ipv6 = Arrays.copyOf( this.ipv6, n );
+				this.firstHigh = Arrays.copyOf( this.firstHigh, n );
+				this.firstLow = Arrays.copyOf( this.firstLow, n );
+				this.lastHigh = Arrays.copyOf( this.lastHigh, n );
+				this.lastLow = Arrays.copyOf( this.lastLow, n );
+				this.line = Arrays.copyOf( this.line, n );
+				for( int c = 0; c < this.codes.length; ++c )
+				{
+					this.codes[c] = Arrays.copyOf( this.codes[c], n );
+				}
+			}
+			this.ipv6[this.size] = v6;
+			this.firstHigh[this.size] = fh;
+			this.firstLow[this.size] = fl;
+			this.lastHigh[this.size] = lh;
+			this.lastLow[this.size] = ll;
+			this.line[this.size] = lineNumber;
+			++this.size;
+		}
+
+		/**
+		 *	Set the code of a column of the row added last.
+		 */
+		void code( int column, String value )
+		{
+			Map<String, Integer> map = this.lookup.get( column );
+			Integer code = map.get( value );
+			if( code == null )
+			{
+				List<String> dictionary = this.dictionaries.get( column );
+				code = Integer.valueOf( dictionary.size() );
+				dictionary.add( value );
+				map.put( value, code );
+			}
+			this.codes[column][this.size - 1] = code.intValue();
+		}
+	}
+
+	/**
+	 *	The bounds of the fields of one CSV line, reused for every line.
+	 *	Quoted fields may contain commas and doubled quotes but not line
+	 *	breaks.
+	 */
+	private static final class Fields
+	{
+		int[] start = new int[ 16 ];
+		int[] end = new int[ 16 ];
+		boolean[] escaped = new boolean[ 16 ];
+		int count;
+
+		void split( String line )
+		{
+			this.count = 0;
+			int p = 0;
+			int n = line.length();
+			while( true )
+			{
+				if( this.count == this.start.length )
+				{
+					this.start = Arrays.copyOf( this.start, this.count * 2 );
+					this.end = Arrays.copyOf( this.end, this.count * 2 );
+					this.escaped = Arrays.copyOf( this.escaped, this.count * 2 );
+				}
+				boolean escaped = false;
+				int s;
+				int e;
+				if( ( p < n ) && ( line.charAt( p ) == '"' ) )
+				{
+					s = ++p;
+					while( p < n )
+					{
+						if( line.charAt( p ) == '"' )
+						{
+							if( ( p + 1 < n ) && ( line.charAt( p + 1 ) == '"' ) )
+							{
+								escaped = true;
+								p += 2;
+								continue;
+							}
+							break;
+						}
+						++p;
+					}
+					e = p;
+					// skip the closing quote and anything up to the comma
+					while( ( p < n ) && ( line.charAt( p ) != ',' ) )
+					{
+						++p;
+					}
+				}
+				else
+				{
+					s = p;
+					while( ( p < n ) && ( line.charAt( p ) != ',' ) )
+					{
+						++p;
+					}
+					e = p;
+				}
+				this.start[this.count] = s;
+				this.end[this.count] = e;
+				this.escaped[this.count] = escaped;
+				++this.count;
+				if( p >= n )
+				{
+					return;
+				}
+				++p;
+			}
+		}
+
+		String value( String line, int i )
+		{
+			String v = line.substring( this.start[i], this.end[i] );
+			return( this.escaped[i] ? v.replace( "\"\"", "\"" ) : v );
+		}
+	}
+}
@@ -0,0 +1,402 @@
+package org.postgresql.net;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ *	Maps inet and cidr values to a shard or partition number on the
+ *	client, so batches can be split and sent straight to the worker or
+ *	child table that owns them.
+ *
+ *	<p>Three strategies are provided, all immutable and thread safe:</p>
+ *	<ul>
+ *		<li>{@link #consistentHash(int[], int)}, a hash ring with virtual
+ *		nodes.  Removing or adding a shard only moves the keys that shard
+ *		owns or takes over.</li>
+ *		<li>{@link #range(String[])}, the partitions of a table declared
+ *		PARTITION BY RANGE on an inet or cidr column.</li>
+ *		<li>{@link #postgresHash(int)}, the partitions of a table declared
+ *		PARTITION BY HASH on an inet or cidr column, using the same hash
+ *		as the server.</li>
+ *	</ul>
+ *
+ *	<p>Equal values always route to the same place.  The netmask is part
+ *	of the value, so 10.0.0.1/32 and 10.0.0.1/24 may route differently,
+ *	as they do on the server.</p>
+ */
+public abstract class InetRouter
+{
+	InetRouter()
+	{
+	}
+
+	/**
+	 *	Route a ring of shards using consistent hashing.  Each shard is
+	 *	placed on the ring virtualNodes times, at points that only depend
+	 *	on its id, so every client given the same ids agrees on the
+	 *	routing whatever order they are listed in.
+	 *
+	 *	@param shardIds The distinct shard ids, returned by route().
+	 *	@param virtualNodes The number of ring points per shard, a few
+	 *		hundred gives an even spread.
+	 *	@return The router.
+	 */
+	public static InetRouter consistentHash( int[] shardIds, int virtualNodes )
+	{
+		if( ( shardIds == null ) || ( shardIds.length == 0 ) )
+		{
+			throw( new IllegalArgumentException( "At least one shard is required" ) );
+		}
+		if( virtualNodes <= 0 )
+		{
+			throw( new IllegalArgumentException( "Invalid number of virtual nodes: " + virtualNodes ) );
+		}
+		int[] sorted = shardIds.clone();
+		Arrays.sort( sorted );
+		for( int i = 1; i < sorted.length; ++i )
+		{
+			if( sorted[i] == sorted[i - 1] )
+			{
+				throw( new IllegalArgumentException( "Duplicate shard id: " + sorted[i] ) );
+			}
+		}
+		return( new Ring( sorted, virtualNodes ) );
+	}
+
+	/**
+	 *	Route to the partitions of a range partitioned table.  The bounds
+	 *	are given in ascending order as inet or cidr text, partition i
+	 *	holds the values from bounds[i] up to but not including
+	 *	bounds[i + 1] in the server's sort order.  The first bound may be
+	 *	null for MINVALUE and the last null for MAXVALUE.
+	 *
+	 *	<pre>
+	 *	// FROM (MINVALUE) TO ('10.0.0.0/8'), FROM ('10.0.0.0/8') TO ('11.0.0.0/8'),
+	 *	// FROM ('11.0.0.0/8') TO (MAXVALUE)
+	 *	InetRouter router = InetRouter.range( new String[]{ null, "10.0.0.0/8", "11.0.0.0/8", null } );
+	 *	</pre>
+	 *
+	 *	<p>Values outside every partition route to -1, the default
+	 *	partition if the table has one.</p>
+	 *
+	 *	@param bounds At least two bounds.
+	 *	@return The router.
+	 *	@exception SQLException If a bound is not valid inet text.
+	 */
+	public static InetRouter range( String[] bounds )
+	throws SQLException
+	{
+		if( ( bounds == null ) || ( bounds.length < 2 ) )
+		{
+			throw( new IllegalArgumentException( "At least two bounds are required" ) );
+		}
+		PGinet[] parsed = new PGinet[ bounds.length ];
+		for( int i = 0; i < bounds.length; ++i )
+		{
+			if( bounds[i] != null )
+			{
+				parsed[i] = new PGinet( bounds[i] );
+			}
+			else if( ( i != 0 ) && ( i != bounds.length - 1 ) )
+			{
+				throw( new IllegalArgumentException( "Only the first and last bound may be null" ) );
+			}
+		}
+		return( new Range( parsed ) );
+	}
+
+	/**
+	 *	Route to the partitions of a hash partitioned table whose
+	 *	partitions all use the given modulus.  The result is the
+	 *	REMAINDER of the partition the server would choose, computed
+	 *	with the server's own hash for inet and cidr.  SQL NULL routes to
+	 *	remainder 0, as on the server.
+	 *
+	 *	@param modulus The MODULUS of the partitions.
+	 *	@return The router.
+	 */
+	public static InetRouter postgresHash( int modulus )
+	{
+		if( modulus <= 0 )
+		{
+			throw( new IllegalArgumentException( "Invalid modulus: " + modulus ) );
+		}
+		return( new Hash( modulus ) );
+	}
+
+	/**
+	 *	Route an address given as words.
+	 *
+	 *	@param ipv6 true for a 128 bit address.
+	 *	@param high The first 64 bits of an IPv6 address, 0 for IPv4.
+	 *	@param low The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address.
+	 *	@param netmask The netmask.
+	 *	@return The shard or partition, -1 if there is none.
+	 */
+	public abstract int route( boolean ipv6, long high, long low, int netmask );
+
+	/**
+	 *	@return Where SQL NULL routes, -1 if nowhere.
+	 */
+	abstract int routeNull();
+
+	/**
+	 *	@param value The value to route, may be null.
+	 *	@return The shard or partition, -1 if there is none.
+	 */
+	public final int route( PGinet value )
+	{
+		return( routeNetwork( value ) );
+	}
+
+	/**
+	 *	@param value The value to route, may be null.
+	 *	@return The shard or partition, -1 if there is none.
+	 */
+	public final int route( PGcidr value )
+	{
+		return( routeNetwork( value ) );
+	}
+
+	/**
+	 *	@param value The value to route, may be null.
+	 *	@return The shard or partition, -1 if there is none.
+	 */
+	public final int route( InetValue value )
+	{
+		return( ( value == null ) ? routeNull() :
+			route( value.isIPv6(), value.getHighWord(), value.getLowWord(), value.getNetmask() ) );
+	}
+
+	/**
+	 *	@param value The value to route, may be null.
+	 *	@return The shard or partition, -1 if there is none.
+	 */
+	public final int route( CidrValue value )
+	{
+		return( ( value == null ) ? routeNull() :
+			route( value.isIPv6(), value.getHighWord(), value.getLowWord(), value.getNetmask() ) );
+	}
+
+	/**
+	 *	@param cursor The cursor holding the value to route.
+	 *	@return The shard or partition, -1 if there is none.
+	 */
+	public final int route( InetCursor cursor )
+	{
+		return( cursor.isNull() ? routeNull() :
+			route( cursor.isIPv6(), cursor.getHighWord(), cursor.getLowWord(), cursor.getNetmask() ) );
+	}
+
+	/**
+	 *	Route every element of a column, for splitting a batch.
+	 *
+	 *	@param column The values to route.
+	 *	@return The shard or partition of each element.
+	 */
+	public final int[] route( InetColumn column )
+	{
+		int[] result = new int[ column.size() ];
+		for( int i = 0; i < result.length; ++i )
+		{
+			result[i] = column.isNull( i ) ? routeNull() :
+				route( column.isIPv6( i ), column.getHighWord( i ), column.getLowWord( i ), column.getNetmask( i ) );
+		}
+		return( result );
+	}
+
+	private int routeNetwork( PGNetworkBase value )
+	{
+		if( value != null )
+		{
+			value.resolve();
+		}
+		if( ( value == null ) || ( value.addr == null ) )
+		{
+			return( routeNull() );
+		}
+		boolean ipv6 = value.addr.length == 16;
+		return( route( ipv6, InetBits.high( value.addr ), InetBits.low( value.addr ), value.netmask ) );
+	}
+
+	/**
+	 *	A consistent hash ring.  Ring points and keys are both hashed
+	 *	with the server's hash_bytes_extended() so the placement can be
+	 *	reproduced outside of Java.
+	 */
+	private static final class Ring extends InetRouter
+	{
+		private final long[] points;
+		private final int[] owners;
+
+		Ring( int[] shardIds, int virtualNodes )
+		{
+			int n = shardIds.length * virtualNodes;
+			final long[] hashes = new long[ n ];
+			final int[] ids = new int[ n ];
+			Integer[] order = new Integer[ n ];
+			byte[] key = new byte[ 8 ];
+			for( int s = 0, p = 0; s < shardIds.length; ++s )
+			{
+				for( int v = 0; v < virtualNodes; ++v, ++p )
+				{
+					InetBits.writeInt( shardIds[s], key, 0 );
+					InetBits.writeInt( v, key, 4 );
+					hashes[p] = PostgresHash.hashBytesExtended( key, 0, 8, 0L );
+					ids[p] = shardIds[s];
+					order[p] = Integer.valueOf( p );
+				}
+			}
+			Arrays.sort( order, new Comparator<Integer>()
+			{
+				public int compare( Integer x, Integer y )
+				{
+					int c = Long.compareUnsigned( hashes[x.intValue()], hashes[y.intValue()] );
+					return( ( c != 0 ) ? c : Integer.compare( ids[x.intValue()], ids[y.intValue()] ) );
+				}
+			} );
+			this.points = new long[ n ];
+			this.owners = new int[ n ];
+			for( int i = 0; i < n; ++i )
+			{
+				this.points[i] = hashes[order[i].intValue()];
+				this.owners[i] = ids[order[i].intValue()];
+			}
+		}
+
+		public int route( boolean ipv6, long high, long low, int netmask )
+		{
+			long h = PostgresHash.hashInetExtended( ipv6, high, low, netmask, 0L );
+			// the first point at or after h, wrapping to the start
+			int lo = 0;
+			int hi = this.points.length;
+			while( lo < hi )
+			{
+				int mid = ( lo + hi ) >>> 1;
+				if( InetBits.unsignedLess( this.points[mid], h ) )
+				{
+					lo = mid + 1;
+				}
+				else
+				{
+					hi = mid;
+				}
+			}
+			return( this.owners[( lo == this.points.length ) ? 0 : lo] );
+		}
+
+		int routeNull()
+		{
+			return( -1 );
+		}
+	}
+
+	/**
+	 *	Contiguous range partitions, held as parallel arrays of bounds.
+	 */
+	private static final class Range extends InetRouter
+	{
+		private final boolean[] ipv6;
+		private final long[] high;
+		private final long[] low;
+		private final int[] netmask;
+		private final boolean minValue;
+		private final boolean maxValue;
+
+		Range( PGinet[] bounds )
+		{
+			int n = bounds.length;
+			this.ipv6 = new boolean[ n ];
+			this.high = new long[ n ];
+			this.low = new long[ n ];
+			this.netmask = new int[ n ];
+			this.minValue = bounds[0] == null;
+			this.maxValue = bounds[n - 1] == null;
+			for( int i = 0; i < n; ++i )
+			{
+				if( bounds[i] != null )
+				{
+					this.ipv6[i] = bounds[i].isIPv6();
+					this.high[i] = bounds[i].getHighWord();
+					this.low[i] = bounds[i].getLowWord();
+					this.netmask[i] = bounds[i].getNetmask();
+				}
+			}
+			int first = this.minValue ? 1 : 0;
+			int last = this.maxValue ? n - 2 : n - 1;
+			for( int i = first; i < last; ++i )
+			{
+				if( compareTo( i, this.ipv6[i + 1], this.high[i + 1], this.low[i + 1], this.netmask[i + 1] ) >= 0 )
+				{
+					throw( new IllegalArgumentException( "Bounds are not in ascending order at " + bounds[i + 1] ) );
+				}
+			}
+		}
+
+		public int route( boolean ipv6, long high, long low, int netmask )
+		{
+			int n = this.netmask.length;
+			if( !this.minValue && ( compareTo( 0, ipv6, high, low, netmask ) > 0 ) )
+			{
+				return( -1 );
+			}
+			if( !this.maxValue && ( compareTo( n - 1, ipv6, high, low, netmask ) <= 0 ) )
+			{
+				return( -1 );
+			}
+			// count the interior bounds at or below the value
+			int lo = 1;
+			int hi = n - 1;
+			while( lo < hi )
+			{
+				int mid = ( lo + hi ) >>> 1;
+				if( compareTo( mid, ipv6, high, low, netmask ) <= 0 )
+				{
+					lo = mid + 1;
+				}
+				else
+				{
+					hi = mid;
+				}
+			}
+			return( lo - 1 );
+		}
+
+		int routeNull()
+		{
+			return( -1 );
+		}
+
+		private int compareTo( int i, boolean ipv6, long high, long low, int netmask )
+		{
+			return( InetBits.compare( this.ipv6[i], this.high[i], this.low[i], this.netmask[i],
+				ipv6, high, low, netmask ) );
+		}
+	}
+
+	/**
+	 *	Hash partitions with a single modulus.
+	 */
+	private static final class Hash extends InetRouter
+	{
+		private final int modulus;
+
+		Hash( int modulus )
+		{
+			this.modulus = modulus;
+		}
+
+		public int route( boolean ipv6, long high, long low, int netmask )
+		{
+			long h = PostgresHash.partitionHash( ipv6, high, low, netmask );
+			return( (int)Long.remainderUnsigned( h, this.modulus ) );
+		}
+
+		int routeNull()
+		{
+			return( 0 );
+		}
+	}
+}
@@ -0,0 +1,486 @@
+package org.postgresql.net;
+
+/**
+ *	A character level parser and formatter for the canonical text forms
+ *	of inet, cidr and macaddr values.
+ *
+ *	<p>This works on a range of a CharSequence and writes in to a caller
+ *	supplied buffer so that bulk decoders do not have to cut every value
+ *	out of its surrounding text.  It only accepts the strict forms the
+ *	server itself produces, a dotted quad or a colon separated IPv6
+ *	address with an optional /netmask.  Anything else is rejected and the
+ *	caller is expected to fall back to the full parser in setValue, which
+ *	also produces the error message for genuinely invalid input.</p>
+ */
+final class InetText
+{
+	/**
+	 *	Returned by parse() if the text is not in the strict format.
+	 */
+	static final int FAIL = -1;
+
+	/**
+	 *	Set in the result of parse() for a 16 byte address.
+	 */
+	static final int IPV6 = 0x100;
+
+	/**
+	 *	Set in the result of parse() if the IPv6 address ended in
+	 *	an embedded dotted quad.
+	 */
+	static final int EMBEDDED_IPV4 = 0x200;
+
+	/**
+	 *	Set in the result of parse() if the text carried a /netmask.
+	 */
+	static final int EXPLICIT_NETMASK = 0x400;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private InetText()
+	{
+	}
+
+	/**
+	 *	Parse an address with an optional netmask.
+	 *
+	 *	@param s The text to read from.
+	 *	@param start The index of the first character of the value.
+	 *	@param end One past the index of the last character of the value.
+	 *	@param dst A buffer of at least 16 bytes which receives the 4 or
+	 *		16 address bytes.
+	 *	@return FAIL, or the netmask in the low 8 bits combined with the
+	 *		IPV6, EMBEDDED_IPV4 and EXPLICIT_NETMASK flags.  If no netmask
+	 *		was given the maximum for the family is returned.
+	 */
+	static int parse( CharSequence s, int start, int end, byte[] dst )
+	{
+		int slash = -1;
+		boolean colon = false;
+		for( int p = start; p < end; ++p )
+		{
+			char c = s.charAt( p );
+			if( c == '/' )
+			{
+				if( slash != -1 )
+				{
+					return( FAIL );
+				}
+				slash = p;
+			}
+			else if( c == ':' )
+			{
+				colon = true;
+			}
+		}
+
+		int hostEnd = ( slash == -1 ) ? end : slash;
+		int flags;
+		int maxBits;
+		if( colon )
+		{
+			int r = parseIPv6( s, start, hostEnd, dst );
+			if( r == FAIL )
+			{
+				return( FAIL );
+			}
+			flags = IPV6 | r;
+			maxBits = 128;
+		}
+		else
+		{
+			if( !parseIPv4( s, start, hostEnd, dst, 0 ) )
+			{
+				return( FAIL );
+			}
+			flags = 0;
+			maxBits = 32;
+		}
+
+		int netmask = maxBits;
+		if( slash != -1 )
+		{
+			netmask = parseDecimal( s, slash + 1, end, maxBits );
+			if( netmask < 0 )
+			{
+				return( FAIL );
+			}
+			flags |= EXPLICIT_NETMASK;
+		}
+		return( flags | netmask );
+	}
+
+	/**
+	 *	Parse a dotted quad a.b.c.d in to 4 bytes of dst starting at off.
+	 */
+	static boolean parseIPv4( CharSequence s, int start, int end, byte[] dst, int off )
+	{
+		int octet = 0;
+		int value = 0;
+		int digits = 0;
+		for( int p = start; p < end; ++p )
+		{
+			char c = s.charAt( p );
+			if( c == '.' )
+			{
+				if( ( digits == 0 ) || ( octet == 3 ) )
+				{
+					return( false );
+				}
+				dst[off + octet++] = (byte)value;
+				value = 0;
+				digits = 0;
+			}
+			else if( ( c >= '0' ) && ( c <= '9' ) )
+			{
+				value = value * 10 + ( c - '0' );
+				if( ( ++digits > 3 ) || ( value > 255 ) )
+				{
+					return( false );
+				}
+			}
+			else
+			{
+				return( false );
+			}
+		}
+
+		if( ( digits == 0 ) || ( octet != 3 ) )
+		{
+			return( false );
+		}
+		dst[off + 3] = (byte)value;
+		return( true );
+	}
+
+	/**
+	 *	Parse a colon separated IPv6 address in to 16 bytes of dst.
+	 *
+	 *	@return FAIL, 0 or EMBEDDED_IPV4.
+	 */
+	static int parseIPv6( CharSequence s, int start, int end, byte[] dst )
+	{
+		if( end - start < 2 )
+		{
+			return( FAIL );
+		}
+
+		int groups = 0;
+		int gap = -1;
+		int embedded = 0;
+		int p = start;
+
+		if( s.charAt( p ) == ':' )
+		{
+			if( s.charAt( p + 1 ) != ':' )
+			{
+				return( FAIL );
+			}
+			gap = 0;
+			p += 2;
+		}
+
+		while( p < end )
+		{
+			int q = p;
+			boolean dot = false;
+			while( q < end )
+			{
+				char c = s.charAt( q );
+				if( c == ':' )
+				{
+					break;
+				}
+				if( c == '.' )
+				{
+					dot = true;
+				}
+				++q;
+			}
+
+			if( dot )
+			{
+				// a dotted quad may only appear as the last 32 bits.
+				if( ( q != end ) || ( groups > 6 ) || !parseIPv4( s, p, end, dst, groups * 2 ) )
+				{
+					return( FAIL );
+				}
+				groups += 2;
+				embedded = EMBEDDED_IPV4;
+				break;
+			}
+
+			int len = q - p;
+			if( ( len < 1 ) || ( len > 4 ) || ( groups == 8 ) )
+			{
+				return( FAIL );
+			}
+			int value = 0;
+			for( int i = p; i < q; ++i )
+			{
+				int d = hexValue( s.charAt( i ) );
+				if( d < 0 )
+				{
+					return( FAIL );
+				}
+				value = ( value << 4 ) | d;
+			}
+			dst[groups * 2] = (byte)( value >>> 8 );
+			dst[groups * 2 + 1] = (byte)value;
+			++groups;
+
+			if( q == end )
+			{
+				break;
+			}
+
+			// q is a ':', a second one marks the shorthand.
+			++q;
+			if( ( q < end ) && ( s.charAt( q ) == ':' ) )
+			{
+				if( gap != -1 )
+				{
+					return( FAIL );
+				}
+				gap = groups;
+				++q;
+			}
+			else if( q == end )
+			{
+				return( FAIL );
+			}
+			p = q;
+		}
+
+		if( gap == -1 )
+		{
+			if( groups != 8 )
+			{
+				return( FAIL );
+			}
+		}
+		else
+		{
+			if( groups >= 8 )
+			{
+				return( FAIL );
+			}
+			int tailBytes = ( groups - gap ) * 2;
+			System.arraycopy( dst, gap * 2, dst, 16 - tailBytes, tailBytes );
+			for( int i = gap * 2; i < 16 - tailBytes; ++i )
+			{
+				dst[i] = 0;
+			}
+		}
+		return( embedded );
+	}
+
+	/**
+	 *	Parse a mac address in the xx:xx:xx:xx:xx:xx form in to 6 bytes of dst.
+	 */
+	static boolean parseMacaddr( CharSequence s, int start, int end, byte[] dst )
+	{
+		if( end - start != 17 )
+		{
+			return( false );
+		}
+		for( int i = 0; i < 6; ++i )
+		{
+			int p = start + i * 3;
+			if( ( i > 0 ) && ( s.charAt( p - 1 ) != ':' ) )
+			{
+				return( false );
+			}
+			int h = hexValue( s.charAt( p ) );
+			int l = hexValue( s.charAt( p + 1 ) );
+			if( ( h < 0 ) || ( l < 0 ) )
+			{
+				return( false );
+			}
+			dst[i] = (byte)( ( h << 4 ) | l );
+		}
+		return( true );
+	}
+
+	/**
+	 *	Parse a small non-negative decimal number.
+	 *
+	 *	@return The value, or -1 if it is malformed or larger than max.
+	 */
+	static int parseDecimal( CharSequence s, int start, int end, int max )
+	{
+		if( ( end <= start ) || ( end - start > 3 ) )
+		{
+			return( -1 );
+		}
+		int value = 0;
+		for( int p = start; p < end; ++p )
+		{
+			char c = s.charAt( p );
+			if( ( c < '0' ) || ( c > '9' ) )
+			{
+				return( -1 );
+			}
+			value = value * 10 + ( c - '0' );
+		}
+		return( ( value > max ) ? -1 : value );
+	}
+
+	static int hexValue( char c )
+	{
+		if( ( c >= '0' ) && ( c <= '9' ) )
+		{
+			return( c - '0' );
+		}
+		if( ( c >= 'a' ) && ( c <= 'f' ) )
+		{
+			return( c - 'a' + 10 );
+		}
+		if( ( c >= 'A' ) && ( c <= 'F' ) )
+		{
+			return( c - 'A' + 10 );
+		}
+		return( -1 );
+	}
+
+	/**
+	 *	Append an address in the same literal format as
+	 *	{@link PGNetworkBase#getValue()}.
+	 *
+	 *	@param sb The buffer to append to.
+	 *	@param ipv6 true if the words hold an IPv6 address.
+	 *	@param hi The high word of the address.
+	 *	@param lo The low word of the address.
+	 *	@param netmask The netmask, only printed if it is shorter than
+	 *		the address.
+	 *	@param embedded Print the last 32 bits of an IPv6 address
+	 *		as a dotted quad.
+	 */
+	static void append( StringBuilder sb, boolean ipv6, long hi, long lo, int netmask, boolean embedded )
+	{
+		if( !ipv6 )
+		{
+			appendDottedQuad( sb, (int)lo );
+			if( netmask < 32 )
+			{
+				sb.append( '/' ).append( netmask );
+			}
+			return;
+		}
+
+		int groups = embedded ? 6 : 8;
+		for( int g = 0; g < groups; ++g )
+		{
+			long word = ( g < 4 ) ? hi : lo;
+			int group = (int)( word >>> ( ( 3 - ( g & 3 ) ) << 4 ) ) & 0xFFFF;
+			sb.append( HEX[( group >>> 12 ) & 0xF] );
+			sb.append( HEX[( group >>> 8 ) & 0xF] );
+			sb.append( HEX[( group >>> 4 ) & 0xF] );
+			sb.append( HEX[group & 0xF] );
+			if( g != 7 )
+			{
+				sb.append( ':' );
+			}
+		}
+		if( embedded )
+		{
+			appendDottedQuad( sb, (int)lo );
+		}
+		if( netmask < 128 )
+		{
+			sb.append( '/' ).append( netmask );
+		}
+	}
+
+	/**
+	 *	Append an IPv6 address with no netmask the way the server prints
+	 *	it: groups without leading zeros, the longest run of two or more
+	 *	zero groups as ::, and the last four bytes of an IPv4-compatible
+	 *	or IPv4-mapped address as a dotted quad.
+	 */
+	static void appendCompressed( StringBuilder sb, long hi, long lo )
+	{
+		int[] words = new int[ 8 ];
+		for( int g = 0; g < 8; ++g )
+		{
+			long word = ( g < 4 ) ? hi : lo;
+			words[g] = (int)( word >>> ( ( 3 - ( g & 3 ) ) << 4 ) ) & 0xFFFF;
+		}
+
+		// the first of the longest runs of zero groups, as inet_net_ntop
+		int bestBase = -1;
+		int bestLen = 0;
+		for( int g = 0; g < 8; )
+		{
+			if( words[g] != 0 )
+			{
+				++g;
+				continue;
+			}
+			int base = g;
+			while( ( g < 8 ) && ( words[g] == 0 ) )
+			{
+				++g;
+			}
+			if( g - base > bestLen )
+			{
+				bestBase = base;
+				bestLen = g - base;
+			}
+		}
+		if( bestLen < 2 )
+		{
+			bestBase = -1;
+		}
+
+		for( int g = 0; g < 8; ++g )
+		{
+			if( ( bestBase != -1 ) && ( g >= bestBase ) && ( g < bestBase + bestLen ) )
+			{
+				if( g == bestBase )
+				{
+					sb.append( ':' );
+				}
+				continue;
+			}
+			if( g != 0 )
+			{
+				sb.append( ':' );
+			}
+			if( ( g == 6 ) && ( bestBase == 0 ) && ( ( bestLen == 6 ) || ( ( bestLen == 5 ) && ( words[5] == 0xFFFF ) ) ) )
+			{
+				appendDottedQuad( sb, (int)lo );
+				return;
+			}
+			sb.append( Integer.toHexString( words[g] ) );
+		}
+		if( ( bestBase != -1 ) && ( bestBase + bestLen == 8 ) )
+		{
+			sb.append( ':' );
+		}
+	}
+
+	/**
+	 *	Append a mac address in the xx:xx:xx:xx:xx:xx format.
+	 */
+	static void appendMacaddr( StringBuilder sb, byte[] mac )
+	{
+		for( int i = 0; i < mac.length; ++i )
+		{
+			if( i > 0 )
+			{
+				sb.append( ':' );
+			}
+			sb.append( HEX[( mac[i] >>> 4 ) & 0xF] );
+			sb.append( HEX[mac[i] & 0xF] );
+		}
+	}
+
+	private static void appendDottedQuad( StringBuilder sb, int v )
+	{
+		sb.append( ( v >>> 24 ) & 0xFF ).append( '.' );
+		sb.append( ( v >>> 16 ) & 0xFF ).append( '.' );
+		sb.append( ( v >>> 8 ) & 0xFF ).append( '.' );
+		sb.append( v & 0xFF );
+	}
+}
@@ -0,0 +1,112 @@
+package org.postgresql.net;
+
+import java.io.ObjectStreamException;
+import java.net.InetAddress;
+import java.sql.SQLException;
+
+/**
+ *	An immutable inet value which can be shared between threads and
+ *	used as a key in shared caches without copying.
+ *
+ *	<p>Use {@link #of(PGinet)} and {@link #toPGinet()} to move between this
+ *	and the mutable PGinet used with JDBC, neither goes through the
+ *	string parser.</p>
+ */
+public final class InetValue extends NetworkValue
+{
+	private InetValue( boolean ipv6, long high, long low, int netmask, boolean embeddedIPv4, String text )
+	{
+		super( ipv6, high, low, netmask, embeddedIPv4, text );
+	}
+
+	/**
+	 *	Take an immutable snapshot of a PGinet.
+	 *
+	 *	@param inet The value to copy.
+	 *	@return A new InetValue equal to inet.
+	 */
+	public static InetValue of( PGinet inet )
+	{
+		inet.resolve();
+		return( new InetValue( inet.isIPv6(), inet.getHighWord(), inet.getLowWord(),
+			inet.netmask, inet.embedded_ipv4, inet.formattedText() ) );
+	}
+
+	/**
+	 *	@param address The address.
+	 *	@return A new host InetValue equal to new PGinet( address ).
+	 */
+	public static InetValue of( InetAddress address )
+	{
+		byte[] bytes = address.getAddress();
+		boolean ipv6 = bytes.length == 16;
+		return( new InetValue( ipv6, InetBits.high( bytes ), InetBits.low( bytes ), ipv6 ? 128 : 32,
+			PGNetworkBase.isMappedIPv4( bytes ), null ) );
+	}
+
+	/**
+	 *	Parse an inet value.
+	 *
+	 *	@param s The value in any format accepted by PGinet.
+	 *	@return A new InetValue.
+	 *	@exception SQLException If the string is not a valid inet address.
+	 */
+	public static InetValue valueOf( String s )
+	throws SQLException
+	{
+		return( of( new PGinet( s ) ) );
+	}
+
+	/**
+	 *	@param address The 32 bits of an IPv4 address.
+	 *	@param netmask The netmask, 0 to 32.
+	 *	@return A new InetValue.
+	 */
+	public static InetValue ofIPv4( int address, int netmask )
+	{
+		return( new InetValue( false, 0L, address & 0xFFFFFFFFL, netmask, false, null ) );
+	}
+
+	/**
+	 *	@param high The first 64 bits of an IPv6 address.
+	 *	@param low The last 64 bits of an IPv6 address.
+	 *	@param netmask The netmask, 0 to 128.
+	 *	@return A new InetValue.
+	 */
+	public static InetValue ofIPv6( long high, long low, int netmask )
+	{
+		return( new InetValue( true, high, low, netmask, false, null ) );
+	}
+
+	/**
+	 *	Build a value from packed words, keeping the dotted quad form of
+	 *	an IPv6 address which the factories above do not have.
+	 */
+	static InetValue of( boolean ipv6, long high, long low, int netmask, boolean embeddedIPv4 )
+	{
+		return( new InetValue( ipv6, high, low, netmask, embeddedIPv4, null ) );
+	}
+
+	/**
+	 *	@return A new PGinet equal to this value.
+	 */
+	public PGinet toPGinet()
+	{
+		return( copyTo( new PGinet() ) );
+	}
+
+	private Object writeReplace()
+	throws ObjectStreamException
+	{
+		return( CompactForm.of( this, InetCompactCodec.KIND_INET ) );
+	}
+
+	/**
+	 *	@param obj The object to compare with.
+	 *	@return true if obj is an InetValue with the same address and netmask.
+	 */
+	public boolean equals( Object obj )
+	{
+		return( ( obj instanceof InetValue ) && sameAddress( (InetValue)obj ) );
+	}
+}
@@ -0,0 +1,83 @@
+package org.postgresql.net;
+
+import java.sql.SQLException;
+
+/**
+ *	A PGcidr which keeps the text it is given and only parses it when the
+ *	address is first used, by equals(), hashCode() or any method which
+ *	reads the address bits.  getValue() returns the text as it was given
+ *	without parsing it.
+ *
+ *	<p>Register it in place of PGcidr with
+ *	{@link NetworkTypes#registerLazy(org.postgresql.PGConnection)} when
+ *	most values are read and passed on rather than inspected.  Invalid
+ *	text is reported on first use, as an SQLException from methods which
+ *	declare one and otherwise as an IllegalStateException with the
+ *	SQLException as its cause.</p>
+ *
+ *	<p>The first use writes the parsed fields, so an instance which has
+ *	not been used yet must not be shared between threads without
+ *	synchronization.</p>
+ */
+public final class LazyPGcidr extends PGcidr
+{
+	public LazyPGcidr()
+	{
+		super();
+	}
+
+	/**
+	 *	@param s The text of the value, which is not checked until it is used.
+	 *	@exception SQLException If s is null.
+	 */
+	public LazyPGcidr( String s )
+	throws SQLException
+	{
+		this();
+		setValue( s );
+	}
+
+	/**
+	 *	Keep the text to be parsed on first use.
+	 *
+	 *	@param v The text of the value.
+	 *	@exception SQLException If v is null.
+	 */
+	public void setValue( String v )
+	throws SQLException
+	{
+		if( v == null )
+		{
+			super.setValue( v );
+		}
+		defer( v );
+	}
+
+	/**
+	 *	@return A new LazyPGcidr with the same value, still unparsed if
+	 *		this one is.
+	 */
+	public Object clone()
+	{
+		LazyPGcidr copy = new LazyPGcidr();
+		copy.copyFrom( this );
+		return( copy );
+	}
+
+	/**
+	 *	Parse the text held back by setValue() and report any error.
+	 *
+	 *	@exception SQLException If the text is not a valid cidr value.
+	 */
+	public void validate()
+	throws SQLException
+	{
+		resolveChecked();
+	}
+
+	void parsePending( String v )
+	throws SQLException
+	{
+		super.setValue( v );
+	}
+}
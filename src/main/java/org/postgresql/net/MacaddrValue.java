@@ -0,0 +1,154 @@
+package org.postgresql.net;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.sql.SQLException;
+
+/**
+ *	An immutable macaddr value which can be shared between threads and
+ *	used as a key in shared caches without copying.
+ *
+ *	<p>The 48 bit address is held in a single final long and the hash code
+ *	is computed up front, unlike {@link PGmacaddr#getBytes()} nothing here
+ *	exposes mutable state.</p>
+ */
+public final class MacaddrValue implements Serializable
+{
+	private final long address;
+	private final int hash;
+	private transient String text;
+
+	private MacaddrValue( long address )
+	{
+		if( ( address & ~0xFFFFFFFFFFFFL ) != 0L )
+		{
+			throw( new IllegalArgumentException( "Not a 48 bit mac address: " + Long.toHexString( address ) ) );
+		}
+		this.address = address;
+
+		// the same value as PGmacaddr.hashCode().
+		int b0 = byteAt( 0 ), b1 = byteAt( 1 ), b2 = byteAt( 2 ), b3 = byteAt( 3 ), b4 = byteAt( 4 ), b5 = byteAt( 5 );
+		int hashValue = b4 | ( b5 << 8 ) | ( b4 << 16 ) | ( b5 << 24 );
+		hashValue ^= b0 ^ ( b1 << 8 ) ^ ( b2 << 16 ) ^ ( b3 << 24 );
+		this.hash = hashValue;
+	}
+
+	/**
+	 *	Take an immutable snapshot of a PGmacaddr.
+	 *
+	 *	@param mac The value to copy.
+	 *	@return A new MacaddrValue equal to mac.
+	 */
+	public static MacaddrValue of( PGmacaddr mac )
+	{
+		byte[] b = mac.getBytes();
+		long v = 0L;
+		for( int i = 0; i < 6; ++i )
+		{
+			v = ( v << 8 ) | ( b[i] & 0xFF );
+		}
+		return( new MacaddrValue( v ) );
+	}
+
+	/**
+	 *	Parse a mac address.
+	 *
+	 *	@param s The value in any format accepted by PGmacaddr.
+	 *	@return A new MacaddrValue.
+	 *	@exception SQLException If the string is not a valid mac address.
+	 */
+	public static MacaddrValue valueOf( String s )
+	throws SQLException
+	{
+		return( of( new PGmacaddr( s ) ) );
+	}
+
+	/**
+	 *	@param address The mac address in the low 48 bits.
+	 *	@return A new MacaddrValue.
+	 */
+	public static MacaddrValue of( long address )
+	{
+		return( new MacaddrValue( address ) );
+	}
+
+	/**
+	 *	@return The mac address in the low 48 bits.
+	 */
+	public long toLong()
+	{
+		return( this.address );
+	}
+
+	/**
+	 *	@return A new array holding the 6 address bytes.
+	 */
+	public byte[] getBytes()
+	{
+		byte[] b = new byte[ 6 ];
+		for( int i = 0; i < 6; ++i )
+		{
+			b[i] = (byte)byteAt( i );
+		}
+		return( b );
+	}
+
+	/**
+	 *	@return A new PGmacaddr equal to this value.
+	 */
+	public PGmacaddr toPGmacaddr()
+	{
+		PGmacaddr mac = new PGmacaddr();
+		mac.setBytes( getBytes() );
+		mac.hashCode = Integer.valueOf( this.hash );
+		return( mac );
+	}
+
+	/**
+	 *	@return The address in the xx:xx:xx:xx:xx:xx format the server uses.
+	 */
+	public String getValue()
+	{
+		String s = this.text;
+		if( s == null )
+		{
+			StringBuilder sb = new StringBuilder( 17 );
+			InetText.appendMacaddr( sb, getBytes() );
+			s = sb.toString();
+			this.text = s;
+		}
+		return( s );
+	}
+
+	public String toString()
+	{
+		return( getValue() );
+	}
+
+	/**
+	 *	@return The same hash code as the equivalent PGmacaddr.
+	 */
+	public int hashCode()
+	{
+		return( this.hash );
+	}
+
+	private Object writeReplace()
+	throws ObjectStreamException
+	{
+		return( CompactForm.of( this ) );
+	}
+
+	public boolean equals( Object obj )
+	{
+		return( ( obj instanceof MacaddrValue ) && ( ( (MacaddrValue)obj ).address == this.address ) );
+	}
+
+	/**
+	 *	@return The sign extended byte i, as the PGmacaddr hash uses it.
+	 */
+	private int byteAt( int i )
+	{
+		return( (byte)( this.address >>> ( 40 - ( i << 3 ) ) ) );
+	}
+}
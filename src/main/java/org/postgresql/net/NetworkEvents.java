@@ -0,0 +1,58 @@
+package org.postgresql.net;
+
+/**
+ *	Flight Recorder events for the bulk operations.
+ *
+ *	<p>This is the Java 8 version, which does nothing.  The jar is built
+ *	as a multi-release jar and on Java 11 and later the copy of this class
+ *	under src/main/java11 is loaded instead, which emits jdk.jfr events.
+ *	Both versions must keep the same package-private signatures.</p>
+ *
+ *	<p>Callers bracket an operation with {@link #begin(int)} and
+ *	{@link #end(Object, long, long)}.  The handle is null whenever the
+ *	event is not being recorded, so nothing is allocated and end() returns
+ *	straight away.</p>
+ */
+final class NetworkEvents
+{
+	/** Parsing an array literal. */
+	static final int ARRAY_PARSE = 0;
+	/** Decoding a binary array. */
+	static final int ARRAY_DECODE = 1;
+	/** Building an array literal. */
+	static final int ARRAY_FORMAT = 2;
+	/** Writing rows in COPY format. */
+	static final int COPY_ENCODE = 3;
+	/** Reading rows in COPY format. */
+	static final int COPY_DECODE = 4;
+	/** Building a prefix table or index. */
+	static final int PREFIX_TABLE_BUILD = 5;
+	/** A set operation over many addresses or ranges. */
+	static final int SET_OPERATION = 6;
+
+	private NetworkEvents()
+	{
+	}
+
+	/**
+	 *	Start timing an operation.
+	 *
+	 *	@param kind One of the constants above.
+	 *	@return A handle to pass to end(), null if the event is not enabled.
+	 */
+	static Object begin( int kind )
+	{
+		return( null );
+	}
+
+	/**
+	 *	Finish an operation started with begin() and commit its event.
+	 *
+	 *	@param handle The value begin() returned, may be null.
+	 *	@param items The number of values handled.
+	 *	@param bytes The number of bytes or characters read or written.
+	 */
+	static void end( Object handle, long items, long bytes )
+	{
+	}
+}
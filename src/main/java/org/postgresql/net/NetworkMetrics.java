@@ -0,0 +1,422 @@
+package org.postgresql.net;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ *	Optional counters, failure reasons, latency histograms and cache hit
+ *	ratios for the parse and format paths of the network types.
+ *
+ *	<p>Metrics are off unless the JVM is started with
+ *	-Dorg.postgresql.net.metrics=true.  Every call site tests the static
+ *	final {@link #ENABLED} flag first, so when it is false the JIT removes
+ *	the instrumentation entirely, including the System.nanoTime() calls.
+ *	When enabled the counters are registered with the platform MBean
+ *	server as {@value #OBJECT_NAME} and every event is also passed to the
+ *	registered {@link NetworkMetricsListener}s.</p>
+ */
+public final class NetworkMetrics implements NetworkMetricsMBean
+{
+	/**
+	 *	The operations which are recorded.
+	 */
+	public enum Operation
+	{
+		/** setValue() on PGinet, PGcidr or PGmacaddr. */
+		PARSE,
+		/** getValue() on PGinet, PGcidr or PGmacaddr. */
+		FORMAT,
+		/** hashCode() on PGinet, PGcidr or PGmacaddr. */
+		HASH,
+		/** Parsing an array literal with {@link InetArrayCodec}. */
+		ARRAY_PARSE,
+		/** Decoding a binary array with {@link InetArrayCodec}. */
+		ARRAY_DECODE,
+		/** Building an array literal with {@link InetArrayCodec}. */
+		ARRAY_FORMAT
+	}
+
+	/**
+	 *	The name of the system property which enables metrics.
+	 */
+	public static final String PROPERTY = "org.postgresql.net.metrics";
+
+	/**
+	 *	The JMX name the metrics are registered under.
+	 */
+	public static final String OBJECT_NAME = "org.postgresql.net:type=NetworkMetrics";
+
+	/**
+	 *	Whether the instrumented code records anything.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean( PROPERTY );
+
+	private static final NetworkMetrics INSTANCE = new NetworkMetrics();
+
+	private static volatile NetworkMetricsListener[] listeners = new NetworkMetricsListener[ 0 ];
+
+	static
+	{
+		if( ENABLED )
+		{
+			try
+			{
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName( OBJECT_NAME );
+				if( !server.isRegistered( name ) )
+				{
+					server.registerMBean( INSTANCE, name );
+				}
+			}
+			catch( JMException e )
+			{
+				// another copy of the driver got there first, the counters
+				// are still available through getInstance().
+			}
+		}
+	}
+
+	private final Stats[] stats;
+
+	private NetworkMetrics()
+	{
+		Operation[] ops = Operation.values();
+		this.stats = new Stats[ ops.length ];
+		for( int i = 0; i < ops.length; ++i )
+		{
+			this.stats[i] = new Stats();
+		}
+	}
+
+	/**
+	 *	@return The single instance which holds the counters.
+	 */
+	public static NetworkMetrics getInstance()
+	{
+		return( INSTANCE );
+	}
+
+	/**
+	 *	Register a listener for every recorded event.
+	 *
+	 *	@param listener The listener to add.
+	 */
+	public static synchronized void addListener( NetworkMetricsListener listener )
+	{
+		NetworkMetricsListener[] current = listeners;
+		NetworkMetricsListener[] next = new NetworkMetricsListener[ current.length + 1 ];
+		System.arraycopy( current, 0, next, 0, current.length );
+		next[ current.length ] = listener;
+		listeners = next;
+	}
+
+	/**
+	 *	Remove a listener added with {@link #addListener(NetworkMetricsListener)}.
+	 *
+	 *	@param listener The listener to remove.
+	 */
+	public static synchronized void removeListener( NetworkMetricsListener listener )
+	{
+		List<NetworkMetricsListener> next = new ArrayList<NetworkMetricsListener>();
+		for( NetworkMetricsListener l : listeners )
+		{
+			if( l != listener )
+			{
+				next.add( l );
+			}
+		}
+		listeners = next.toArray( new NetworkMetricsListener[ next.size() ] );
+	}
+
+	/**
+	 *	Record a completed operation.  Instrumented code only calls this
+	 *	when {@link #ENABLED} is true.
+	 *
+	 *	@param operation The operation.
+	 *	@param nanos The elapsed time, 0 if it was not timed.
+	 *	@param items The number of values handled.
+	 */
+	public static void recordCompleted( Operation operation, long nanos, int items )
+	{
+		INSTANCE.stats[ operation.ordinal() ].completed( nanos, items );
+		for( NetworkMetricsListener l : listeners )
+		{
+			l.completed( operation, nanos, items );
+		}
+	}
+
+	/**
+	 *	Record an operation answered from a cache.
+	 *
+	 *	@param operation The operation.
+	 */
+	public static void recordCacheHit( Operation operation )
+	{
+		Stats s = INSTANCE.stats[ operation.ordinal() ];
+		s.count.increment();
+		s.items.increment();
+		s.cacheHits.increment();
+		for( NetworkMetricsListener l : listeners )
+		{
+			l.cacheHit( operation );
+		}
+	}
+
+	/**
+	 *	Record a failed operation.
+	 *
+	 *	@param operation The operation.
+	 *	@param reason A short fixed description of the failure.
+	 */
+	public static void recordFailure( Operation operation, String reason )
+	{
+		Stats s = INSTANCE.stats[ operation.ordinal() ];
+		s.count.increment();
+		s.failures.increment();
+		LongAdder byReason = s.reasons.get( reason );
+		if( byReason == null )
+		{
+			LongAdder created = new LongAdder();
+			byReason = s.reasons.putIfAbsent( reason, created );
+			if( byReason == null )
+			{
+				byReason = created;
+			}
+		}
+		byReason.increment();
+		for( NetworkMetricsListener l : listeners )
+		{
+			l.failed( operation, reason );
+		}
+	}
+
+	/**
+	 *	Work out why a value was rejected by setValue().  This is only
+	 *	called on the failure path so it does not need to be fast, but it
+	 *	must only ever return one of a few fixed strings.
+	 */
+	static String failureReason( String type, String v )
+	{
+		if( v == null )
+		{
+			return( "null" );
+		}
+		if( v.trim().length() == 0 )
+		{
+			return( "empty" );
+		}
+		if( "macaddr".equals( type ) )
+		{
+			return( "syntax" );
+		}
+		int slash = v.indexOf( '/' );
+		if( slash >= 0 )
+		{
+			String mask = v.substring( slash + 1 );
+			int maxBits = ( v.indexOf( ':' ) >= 0 ) ? 128 : 32;
+			if( ( mask.length() == 0 ) || ( mask.length() > 3 ) )
+			{
+				return( "netmask" );
+			}
+			for( int i = 0; i < mask.length(); ++i )
+			{
+				if( !Character.isDigit( mask.charAt( i ) ) )
+				{
+					return( "netmask" );
+				}
+			}
+			if( Integer.parseInt( mask ) > maxBits )
+			{
+				return( "netmask" );
+			}
+		}
+		return( "syntax" );
+	}
+
+	public boolean isEnabled()
+	{
+		return( ENABLED );
+	}
+
+	public String[] getOperations()
+	{
+		Operation[] ops = Operation.values();
+		String[] names = new String[ ops.length ];
+		for( int i = 0; i < ops.length; ++i )
+		{
+			names[i] = ops[i].name();
+		}
+		return( names );
+	}
+
+	public long getParseCount()
+	{
+		return( this.stats[ Operation.PARSE.ordinal() ].count.sum() );
+	}
+
+	public long getParseFailureCount()
+	{
+		return( this.stats[ Operation.PARSE.ordinal() ].failures.sum() );
+	}
+
+	public long getFormatCount()
+	{
+		return( this.stats[ Operation.FORMAT.ordinal() ].count.sum() );
+	}
+
+	public double getFormatCacheHitRatio()
+	{
+		return( this.stats[ Operation.FORMAT.ordinal() ].hitRatio() );
+	}
+
+	public long getHashCount()
+	{
+		return( this.stats[ Operation.HASH.ordinal() ].count.sum() );
+	}
+
+	public double getHashCacheHitRatio()
+	{
+		return( this.stats[ Operation.HASH.ordinal() ].hitRatio() );
+	}
+
+	public String[] getFailureReasons()
+	{
+		List<String> result = new ArrayList<String>();
+		Operation[] ops = Operation.values();
+		for( int i = 0; i < ops.length; ++i )
+		{
+			for( Map.Entry<String, LongAdder> e : this.stats[i].reasons.entrySet() )
+			{
+				result.add( ops[i].name() + " " + e.getKey() + "=" + e.getValue().sum() );
+			}
+		}
+		return( result.toArray( new String[ result.size() ] ) );
+	}
+
+	public long getCount( String operation )
+	{
+		return( stats( operation ).count.sum() );
+	}
+
+	public long getItemCount( String operation )
+	{
+		return( stats( operation ).items.sum() );
+	}
+
+	public long getFailureCount( String operation )
+	{
+		return( stats( operation ).failures.sum() );
+	}
+
+	public double getCacheHitRatio( String operation )
+	{
+		return( stats( operation ).hitRatio() );
+	}
+
+	public long[] getLatencyHistogram( String operation )
+	{
+		AtomicLongArray h = stats( operation ).latency;
+		long[] result = new long[ h.length() ];
+		for( int i = 0; i < result.length; ++i )
+		{
+			result[i] = h.get( i );
+		}
+		return( result );
+	}
+
+	public long getLatencyPercentile( String operation, double percentile )
+	{
+		if( ( percentile < 0.0 ) || ( percentile > 100.0 ) )
+		{
+			throw( new IllegalArgumentException( "Invalid percentile: " + percentile ) );
+		}
+		long[] h = getLatencyHistogram( operation );
+		long total = 0L;
+		for( int i = 0; i < h.length; ++i )
+		{
+			total += h[i];
+		}
+		if( total == 0L )
+		{
+			return( 0L );
+		}
+		long target = Math.max( 1L, (long)Math.ceil( total * percentile / 100.0 ) );
+		long seen = 0L;
+		for( int i = 0; i < h.length; ++i )
+		{
+			seen += h[i];
+			if( seen >= target )
+			{
+				return( ( i == 0 ) ? 0L : ( ( i >= 63 ) ? Long.MAX_VALUE : ( 1L << i ) - 1L ) );
+			}
+		}
+		return( Long.MAX_VALUE );
+	}
+
+	public void reset()
+	{
+		for( int i = 0; i < this.stats.length; ++i )
+		{
+			this.stats[i].reset();
+		}
+	}
+
+	private Stats stats( String operation )
+	{
+		if( operation == null )
+		{
+			throw( new IllegalArgumentException( "No operation name given" ) );
+		}
+		return( this.stats[ Operation.valueOf( operation ).ordinal() ] );
+	}
+
+	/**
+	 *	The counters for one operation.
+	 */
+	private static final class Stats
+	{
+		final LongAdder count = new LongAdder();
+		final LongAdder items = new LongAdder();
+		final LongAdder cacheHits = new LongAdder();
+		final LongAdder failures = new LongAdder();
+		final ConcurrentHashMap<String, LongAdder> reasons = new ConcurrentHashMap<String, LongAdder>();
+		final AtomicLongArray latency = new AtomicLongArray( 64 );
+
+		void completed( long nanos, int n )
+		{
+			this.count.increment();
+			this.items.add( n );
+			if( nanos > 0L )
+			{
+				this.latency.incrementAndGet( Math.min( 63, 64 - Long.numberOfLeadingZeros( nanos ) ) );
+			}
+		}
+
+		double hitRatio()
+		{
+			long total = this.count.sum();
+			return( ( total == 0L ) ? 0.0 : (double)this.cacheHits.sum() / total );
+		}
+
+		void reset()
+		{
+			this.count.reset();
+			this.items.reset();
+			this.cacheHits.reset();
+			this.failures.reset();
+			this.reasons.clear();
+			for( int i = 0; i < this.latency.length(); ++i )
+			{
+				this.latency.set( i, 0L );
+			}
+		}
+	}
+}
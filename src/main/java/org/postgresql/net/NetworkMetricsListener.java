@@ -0,0 +1,36 @@
+package org.postgresql.net;
+
+/**
+ *	Receives every event recorded by {@link NetworkMetrics}, for example to
+ *	forward them to an application's own metrics library.
+ *
+ *	<p>Listeners are called on the thread doing the work, inside the
+ *	parse or format call, so they should be cheap and must not throw.</p>
+ */
+public interface NetworkMetricsListener
+{
+	/**
+	 *	An operation completed without using a cache.
+	 *
+	 *	@param operation The operation.
+	 *	@param nanos The elapsed time, 0 for operations which are not timed.
+	 *	@param items The number of values handled, 1 except for bulk operations.
+	 */
+	void completed( NetworkMetrics.Operation operation, long nanos, int items );
+
+	/**
+	 *	An operation was answered from a cached value.
+	 *
+	 *	@param operation The operation.
+	 */
+	void cacheHit( NetworkMetrics.Operation operation );
+
+	/**
+	 *	An operation failed.
+	 *
+	 *	@param operation The operation.
+	 *	@param reason A short, fixed description of the failure such as
+	 *		"netmask", never the rejected value itself.
+	 */
+	void failed( NetworkMetrics.Operation operation, String reason );
+}
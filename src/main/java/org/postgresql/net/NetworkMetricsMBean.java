@@ -0,0 +1,85 @@
+package org.postgresql.net;
+
+/**
+ *	The JMX view of {@link NetworkMetrics}, registered as
+ *	org.postgresql.net:type=NetworkMetrics when metrics are enabled.
+ *
+ *	<p>Operation names are those of {@link NetworkMetrics.Operation}, for
+ *	example PARSE or FORMAT.</p>
+ */
+public interface NetworkMetricsMBean
+{
+	/**
+	 *	@return true if the org.postgresql.net.metrics system property was
+	 *		set when the driver classes were loaded.
+	 */
+	boolean isEnabled();
+
+	/**
+	 *	@return The names of the recorded operations.
+	 */
+	String[] getOperations();
+
+	long getParseCount();
+
+	long getParseFailureCount();
+
+	long getFormatCount();
+
+	double getFormatCacheHitRatio();
+
+	long getHashCount();
+
+	double getHashCacheHitRatio();
+
+	/**
+	 *	@return One "OPERATION reason=count" entry per failure reason.
+	 */
+	String[] getFailureReasons();
+
+	/**
+	 *	@param operation The operation name.
+	 *	@return The number of calls, including cache hits and failures.
+	 */
+	long getCount( String operation );
+
+	/**
+	 *	@param operation The operation name.
+	 *	@return The number of values handled, larger than the count for
+	 *		bulk operations.
+	 */
+	long getItemCount( String operation );
+
+	/**
+	 *	@param operation The operation name.
+	 *	@return The number of failed calls.
+	 */
+	long getFailureCount( String operation );
+
+	/**
+	 *	@param operation The operation name.
+	 *	@return The fraction of calls answered from a cache, 0 if there
+	 *		have been no calls.
+	 */
+	double getCacheHitRatio( String operation );
+
+	/**
+	 *	@param operation The operation name.
+	 *	@return 64 counts, entry i counts the timed calls which took from
+	 *		2^(i-1) up to 2^i - 1 nanoseconds.
+	 */
+	long[] getLatencyHistogram( String operation );
+
+	/**
+	 *	@param operation The operation name.
+	 *	@param percentile The percentile, 0 to 100.
+	 *	@return An upper bound in nanoseconds on the given percentile of
+	 *		the timed calls, 0 if there have been none.
+	 */
+	long getLatencyPercentile( String operation, double percentile );
+
+	/**
+	 *	Clear all counters.
+	 */
+	void reset();
+}
@@ -0,0 +1,46 @@
+package org.postgresql.net;
+
+import java.sql.SQLException;
+import org.postgresql.PGConnection;
+
+/**
+ *	Registers the network types with a connection so the driver returns
+ *	them from getObject().
+ */
+public final class NetworkTypes
+{
+	private NetworkTypes()
+	{
+	}
+
+	/**
+	 *	Map inet, cidr and macaddr to PGinet, PGcidr and PGmacaddr, which
+	 *	parse every value as it is read.
+	 *
+	 *	@param connection The connection to register the types with.
+	 *	@exception SQLException If the driver rejects the registration.
+	 */
+	public static void register( PGConnection connection )
+	throws SQLException
+	{
+		connection.addDataType( "inet", PGinet.class );
+		connection.addDataType( "cidr", PGcidr.class );
+		connection.addDataType( "macaddr", PGmacaddr.class );
+	}
+
+	/**
+	 *	Map inet, cidr and macaddr to LazyPGinet, LazyPGcidr and
+	 *	LazyPGmacaddr, which keep the text as it is read and only parse
+	 *	a value when it is first used.
+	 *
+	 *	@param connection The connection to register the types with.
+	 *	@exception SQLException If the driver rejects the registration.
+	 */
+	public static void registerLazy( PGConnection connection )
+	throws SQLException
+	{
+		connection.addDataType( "inet", LazyPGinet.class );
+		connection.addDataType( "cidr", LazyPGcidr.class );
+		connection.addDataType( "macaddr", LazyPGmacaddr.class );
+	}
+}
@@ -0,0 +1,149 @@
+package org.postgresql.net;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+
+/**
+ *	The shared state of the immutable {@link InetValue} and {@link CidrValue}.
+ *
+ *	<p>All fields are final and the hash code is computed up front, so an
+ *	instance can be handed between threads without synchronization.  The
+ *	only lazily computed field is the literal text, which uses the same
+ *	racy single check as String.hashCode(): every thread computes an
+ *	equal immutable String, so it does not matter which one is seen.</p>
+ */
+abstract class NetworkValue implements Serializable
+{
+	final boolean ipv6;
+	final long high;
+	final long low;
+	final int netmask;
+	final boolean embeddedIPv4;
+	private final int hash;
+	private transient String text;
+
+	NetworkValue( boolean ipv6, long high, long low, int netmask, boolean embeddedIPv4, String text )
+	{
+		int maxBits = ipv6 ? 128 : 32;
+		if( ( netmask < 0 ) || ( netmask > maxBits ) )
+		{
+			throw( new IllegalArgumentException( "Invalid netmask: " + netmask ) );
+		}
+		if( !ipv6 && ( ( high != 0L ) || ( ( low & ~0xFFFFFFFFL ) != 0L ) ) )
+		{
+			throw( new IllegalArgumentException( "Invalid IPv4 address words" ) );
+		}
+		this.ipv6 = ipv6;
+		this.high = high;
+		this.low = low;
+		this.netmask = netmask;
+		this.embeddedIPv4 = ipv6 && embeddedIPv4;
+		this.hash = InetBits.hash( ipv6, high, low, netmask );
+		this.text = text;
+	}
+
+	/**
+	 *	@return true for a 128 bit IPv6 address.
+	 */
+	public boolean isIPv6()
+	{
+		return( this.ipv6 );
+	}
+
+	/**
+	 *	@return 4 for IPv4, 6 for IPv6.
+	 */
+	public int family()
+	{
+		return( this.ipv6 ? 6 : 4 );
+	}
+
+	/**
+	 *	@return The first 64 bits of an IPv6 address, always 0 for IPv4.
+	 */
+	public long getHighWord()
+	{
+		return( this.high );
+	}
+
+	/**
+	 *	@return The last 64 bits of an IPv6 address, or the 32 bits
+	 *		of an IPv4 address as an unsigned value.
+	 */
+	public long getLowWord()
+	{
+		return( this.low );
+	}
+
+	/**
+	 *	@return The netmask of the address.
+	 */
+	public int getNetmask()
+	{
+		return( this.netmask );
+	}
+
+	/**
+	 *	@return A new array holding the 4 or 16 address bytes.
+	 */
+	public byte[] getBytes()
+	{
+		return( InetBits.toBytes( this.ipv6, this.high, this.low ) );
+	}
+
+	/**
+	 *	@return The address as an InetAddress without a host name, see
+	 *		{@link PGinet#toInetAddress()}.
+	 */
+	public InetAddress toInetAddress()
+	{
+		return( PGNetworkBase.toInetAddress( getBytes() ) );
+	}
+
+	/**
+	 *	@return The address in the same literal format as the
+	 *		JDBC-facing classes.
+	 */
+	public String getValue()
+	{
+		String s = this.text;
+		if( s == null )
+		{
+			StringBuilder sb = new StringBuilder( 48 );
+			InetText.append( sb, this.ipv6, this.high, this.low, this.netmask, this.embeddedIPv4 );
+			s = sb.toString();
+			this.text = s;
+		}
+		return( s );
+	}
+
+	public String toString()
+	{
+		return( getValue() );
+	}
+
+	/**
+	 *	@return The same hash code as the equivalent PGinet or PGcidr.
+	 */
+	public int hashCode()
+	{
+		return( this.hash );
+	}
+
+	boolean sameAddress( NetworkValue other )
+	{
+		return( ( this.ipv6 == other.ipv6 ) && ( this.netmask == other.netmask ) &&
+			( this.high == other.high ) && ( this.low == other.low ) );
+	}
+
+	/**
+	 *	Copy this value in to a JDBC-facing object, including the caches.
+	 */
+	<T extends PGNetworkBase> T copyTo( T target )
+	{
+		target.setAddress( getBytes(), this.netmask, this.embeddedIPv4 );
+		target.addrString = this.text;
+		target.hashCode = Integer.valueOf( this.hash );
+		return( target );
+	}
+}
@@ -1,6 +1,10 @@
 package org.postgresql.net;
 
 import java.io.Serializable;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.SQLException;
 import org.postgresql.util.GT;
 import org.postgresql.util.PGobject;
 import org.postgresql.util.PGtokenizer;
@@ -21,6 +25,18 @@ class PGNetworkBase extends PGobject implements Serializable, Cloneable
 	protected String addrString = null;
 	protected Integer hashCode = null;
 
+	/**
+	 *	Text given to a lazy subclass which has not been parsed yet, the
+	 *	address fields are not valid while this is set.
+	 */
+	String pending = null;
+
+	/**
+	 *	True while addrString is the text a lazy subclass was given rather
+	 *	than the value formatted by getValue().
+	 */
+	boolean textGiven = false;
+
 	/**
 	 *	This will read an IPv4 address string in to the instance
 	 *	variable addr.
@@ -82,6 +98,7 @@ class PGNetworkBase extends PGobject implements Serializable, Cloneable
 		this.addr = address;
 		this.hashCode = null;
 		this.addrString = null;
+		this.textGiven = false;
 		return( true );
 	}
 
@@ -95,6 +112,9 @@ class PGNetworkBase extends PGobject implements Serializable, Cloneable
 	 */
 	protected boolean isIPv6Address( String host )
 	{
+		// the flag of a previous value must not leak in to this one.
+		this.embedded_ipv4 = false;
+
 		// Lets get some easy checks out of the way.
 		if( host == null )
 		{
@@ -235,6 +255,7 @@ class PGNetworkBase extends PGobject implements Serializable, Cloneable
 		this.addr = address;
 		this.hashCode = null;
 		this.addrString = null;
+		this.textGiven = false;
 		return( true );
 	}
 
@@ -303,6 +324,7 @@ class PGNetworkBase extends PGobject implements Serializable, Cloneable
 	 */
 	public int hashCode()
 	{
+		resolve();
 		if( this.hashCode == null )
 		{
 			// Seems like it will generate a decent hash?
@@ -312,6 +334,14 @@ class PGNetworkBase extends PGobject implements Serializable, Cloneable
 				hashValue ^= this.addr[i] << ((i % 4) << 3);
 			}
 			this.hashCode = new Integer( hashValue );
+			if( NetworkMetrics.ENABLED )
+			{
+				NetworkMetrics.recordCompleted( NetworkMetrics.Operation.HASH, 0L, 1 );
+			}
+		}
+		else if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordCacheHit( NetworkMetrics.Operation.HASH );
 		}
 
 		return( this.hashCode.intValue() );
@@ -326,56 +356,519 @@ class PGNetworkBase extends PGobject implements Serializable, Cloneable
 	{
 		if( this.addrString == null )
 		{
-			StringBuffer s = new StringBuffer();
-			boolean isIPv4 = (this.addr.length == 4) ? true : false;
-			boolean isIPv6 = (this.addr.length == 16) ? true : false;
+			long start = NetworkMetrics.ENABLED ? System.nanoTime() : 0L;
+			StringBuilder s = new StringBuilder( 48 );
+			InetText.append( s, this.addr.length == 16, InetBits.high( this.addr ),
+				InetBits.low( this.addr ), this.netmask, this.embedded_ipv4 );
+			this.addrString = s.toString();
+			if( NetworkMetrics.ENABLED )
+			{
+				NetworkMetrics.recordCompleted( NetworkMetrics.Operation.FORMAT, System.nanoTime() - start, 1 );
+			}
+		}
+		else if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordCacheHit( NetworkMetrics.Operation.FORMAT );
+		}
+			
+		return( this.addrString );
+	}
 
-			for( int i = 0; i < this.addr.length; ++i )
+	/**
+	 *	This will return the netmask of the current network address.
+	 *
+	 *	@return The netmask of the PGinet object.
+	 */
+	public int getNetmask()
+	{
+		resolve();
+		return( this.netmask );
+	}
+
+	/**
+	 *	This will return true if this is a 128 bit IPv6 address.
+	 *
+	 *	@return true for IPv6, false for IPv4.
+	 */
+	public boolean isIPv6()
+	{
+		resolve();
+		return( this.addr.length == 16 );
+	}
+
+	/**
+	 *	Returns the first 64 bits of an IPv6 address.
+	 *
+	 *	@return The high word of the address in network order, always
+	 *		0 for IPv4.
+	 */
+	public long getHighWord()
+	{
+		resolve();
+		return( InetBits.high( this.addr ) );
+	}
+
+	/**
+	 *	Returns the last 64 bits of an IPv6 address, or the 32 bits
+	 *	of an IPv4 address as an unsigned value.
+	 *
+	 *	@return The low word of the address in network order.
+	 */
+	public long getLowWord()
+	{
+		resolve();
+		return( InetBits.low( this.addr ) );
+	}
+
+	/**
+	 *	Set the address directly from bytes which are already known to be
+	 *	valid, bypassing the string parser.
+	 *
+	 *	@param address The 4 or 16 address bytes, this array is kept.
+	 *	@param netmask The netmask of the address.
+	 *	@param embedded Whether an IPv6 address should be printed with
+	 *		the last 32 bits as a dotted quad.
+	 */
+	void setAddress( byte[] address, int netmask, boolean embedded )
+	{
+		this.pending = null;
+		this.addr = address;
+		this.netmask = netmask;
+		this.embedded_ipv4 = embedded && ( address.length == 16 );
+		this.hashCode = null;
+		this.addrString = null;
+		this.textGiven = false;
+	}
+
+	/**
+	 *	Set the address from the bytes of an InetAddress with the full
+	 *	netmask.  An IPv4-mapped address, ::ffff:a.b.c.d, keeps its last
+	 *	32 bits as a dotted quad, as it would have if it were parsed.
+	 *
+	 *	@param address The address, not null.
+	 */
+	final void setInetAddress( InetAddress address )
+	{
+		// getAddress() returns a new array each time so it can be kept.
+		byte[] bytes = address.getAddress();
+		setAddress( bytes, bytes.length * 8, isMappedIPv4( bytes ) );
+	}
+
+	/**
+	 *	@return true if the bytes are an IPv4-mapped IPv6 address.
+	 */
+	static boolean isMappedIPv4( byte[] bytes )
+	{
+		if( bytes.length != 16 )
+		{
+			return( false );
+		}
+		for( int i = 0; i < 10; ++i )
+		{
+			if( bytes[i] != 0 )
+			{
+				return( false );
+			}
+		}
+		return( ( bytes[10] == (byte)0xFF ) && ( bytes[11] == (byte)0xFF ) );
+	}
+
+	/**
+	 *	Build an InetAddress from address bytes without a host name, so
+	 *	no lookup is ever made.  Both address classes copy the bytes.
+	 *
+	 *	<p>16 bytes always give an Inet6Address.  InetAddress.getByAddress()
+	 *	would turn an IPv4-mapped address in to an Inet4Address, which
+	 *	changes the family of the value.</p>
+	 */
+	static InetAddress toInetAddress( byte[] bytes )
+	{
+		try
+		{
+			if( bytes.length == 16 )
 			{
-				if(	isIPv4 || ( ( i >= 12 ) && ( embedded_ipv4 == true ) ) )
+				return( Inet6Address.getByAddress( null, bytes, -1 ) );
+			}
+			return( InetAddress.getByAddress( bytes ) );
+		}
+		catch( UnknownHostException e )
+		{
+			// only thrown for an array of the wrong length.
+			throw( new IllegalStateException( e ) );
+		}
+	}
+
+	/**
+	 *	Copy the address of another value, including the cached string
+	 *	and hash code, without going through the parser.
+	 *
+	 *	@param other The value to copy, which may not have a value yet.
+	 */
+	void copyFrom( PGNetworkBase other )
+	{
+		this.addr = ( other.addr == null ) ? null : other.addr.clone();
+		this.netmask = other.netmask;
+		this.embedded_ipv4 = other.embedded_ipv4;
+		this.hashCode = other.hashCode;
+		this.addrString = other.addrString;
+		this.pending = other.pending;
+		this.textGiven = other.textGiven;
+	}
+
+	/**
+	 *	The deferred text handling of the lazy subclasses.
+	 */
+	private static final DeferredText<PGNetworkBase> DEFERRED = new DeferredText<PGNetworkBase>()
+	{
+		String pending( PGNetworkBase value )
+		{
+			return( value.pending );
+		}
+
+		void defer( PGNetworkBase value, String v )
+		{
+			value.pending = v;
+			value.addr = null;
+			value.netmask = 0;
+			value.embedded_ipv4 = false;
+			value.hashCode = null;
+			value.addrString = v;
+			value.textGiven = true;
+		}
+
+		void parse( PGNetworkBase value, String v )
+		throws SQLException
+		{
+			value.parsePending( v );
+		}
+
+		void parsed( PGNetworkBase value, String v )
+		{
+			value.addrString = v;
+			value.textGiven = true;
+		}
+	};
+
+	/**
+	 *	Keep the text of a value to be parsed on first use, used by the
+	 *	lazy subclasses.  getValue() returns the text as it was given.
+	 *
+	 *	@param v The text, not null.
+	 */
+	final void defer( String v )
+	{
+		DEFERRED.defer( this, v );
+	}
+
+	/**
+	 *	Parse the text held back by {@link #defer(String)}, if any.
+	 *
+	 *	@exception IllegalStateException If the text is not valid, with
+	 *		the SQLException from the parser as its cause.
+	 */
+	final void resolve()
+	{
+		if( this.pending != null )
+		{
+			DEFERRED.resolve( this );
+		}
+	}
+
+	/**
+	 *	Parse the text held back by {@link #defer(String)}, if any.
+	 *
+	 *	@exception SQLException If the text is not valid.
+	 */
+	final void resolveChecked()
+	throws SQLException
+	{
+		DEFERRED.resolveChecked( this );
+	}
+
+	/**
+	 *	@return The formatted text if it has been computed, null if not or
+	 *		if the text is what a lazy subclass was given, which need not
+	 *		be in the canonical form.
+	 */
+	final String formattedText()
+	{
+		return( this.textGiven ? null : this.addrString );
+	}
+
+	/**
+	 *	Run the real parser on deferred text.  The lazy subclasses override
+	 *	this to reach the parser of the class they extend.
+	 */
+	void parsePending( String v )
+	throws SQLException
+	{
+		setValue( v );
+	}
+
+	/**
+	 *	Convert the address to an InetAddress for use with the socket
+	 *	APIs, straight from the address bytes without going through a
+	 *	string or the resolver.  The netmask is dropped.
+	 *
+	 *	<p>An IPv6 value is always an Inet6Address, including an
+	 *	IPv4-mapped one, without a scope.  The result has no host name;
+	 *	use getHostAddress() on it, getHostName() does a reverse lookup.</p>
+	 *
+	 *	@return The address, or null if this has no value.
+	 */
+	public InetAddress toInetAddress()
+	{
+		resolve();
+		if( this.addr == null )
+		{
+			return( null );
+		}
+		return( toInetAddress( this.addr ) );
+	}
+
+	/**
+	 *	The equivalent of the server function family(inet).
+	 *
+	 *	@return 4 for IPv4, 6 for IPv6.
+	 */
+	public int family()
+	{
+		resolve();
+		return( ( this.addr.length == 16 ) ? 6 : 4 );
+	}
+
+	/**
+	 *	The equivalent of the server function masklen(inet).
+	 *
+	 *	@return The netmask length.
+	 */
+	public int masklen()
+	{
+		resolve();
+		return( this.netmask );
+	}
+
+	/**
+	 *	The equivalent of the server function host(inet), the address
+	 *	without its netmask.  IPv6 addresses are compressed as the server
+	 *	prints them, so ::1 rather than the full form getValue() gives.
+	 *
+	 *	@return The address in literal format.
+	 */
+	public String host()
+	{
+		resolve();
+		StringBuilder s = new StringBuilder( 48 );
+		if( isIPv6() )
+		{
+			InetText.appendCompressed( s, InetBits.high( this.addr ), InetBits.low( this.addr ) );
+		}
+		else
+		{
+			InetText.append( s, false, 0L, InetBits.low( this.addr ), 32, false );
+		}
+		return( s.toString() );
+	}
+
+	/**
+	 *	The equivalent of the server function network(inet), the address
+	 *	with all bits to the right of the netmask cleared.
+	 *
+	 *	@return The network part of the address.
+	 */
+	public PGcidr network()
+	{
+		resolve();
+		boolean ipv6 = isIPv6();
+		PGcidr result = new PGcidr();
+		result.setAddress( InetBits.toBytes( ipv6,
+			InetBits.high( this.addr ) & InetBits.maskHigh( this.netmask, ipv6 ),
+			InetBits.low( this.addr ) & InetBits.maskLow( this.netmask, ipv6 ) ),
+			this.netmask, this.embedded_ipv4 );
+		return( result );
+	}
+
+	/**
+	 *	The equivalent of the server function broadcast(inet), the address
+	 *	with all bits to the right of the netmask set.
+	 *
+	 *	@return The broadcast address with the same netmask.
+	 */
+	public PGinet broadcast()
+	{
+		resolve();
+		boolean ipv6 = isIPv6();
+		PGinet result = new PGinet();
+		result.setAddress( InetBits.toBytes( ipv6,
+			InetBits.high( this.addr ) | ~InetBits.maskHigh( this.netmask, ipv6 ),
+			InetBits.low( this.addr ) | ~InetBits.maskLow( this.netmask, ipv6 ) ),
+			this.netmask, this.embedded_ipv4 );
+		return( result );
+	}
+
+	/**
+	 *	The equivalent of the server function netmask(inet).
+	 *
+	 *	@return The netmask as an address, 255.255.255.0 for a /24.
+	 */
+	public PGinet netmask()
+	{
+		resolve();
+		boolean ipv6 = isIPv6();
+		PGinet result = new PGinet();
+		result.setAddress( InetBits.toBytes( ipv6, InetBits.maskHigh( this.netmask, ipv6 ),
+			InetBits.maskLow( this.netmask, ipv6 ) ), ipv6 ? 128 : 32, false );
+		return( result );
+	}
+
+	/**
+	 *	The equivalent of the server function hostmask(inet).
+	 *
+	 *	@return The inverse of the netmask as an address, 0.0.0.255 for a /24.
+	 */
+	public PGinet hostmask()
+	{
+		resolve();
+		boolean ipv6 = isIPv6();
+		PGinet result = new PGinet();
+		result.setAddress( InetBits.toBytes( ipv6, ~InetBits.maskHigh( this.netmask, ipv6 ),
+			~InetBits.maskLow( this.netmask, ipv6 ) ), ipv6 ? 128 : 32, false );
+		return( result );
+	}
+
+	/**
+	 *	The equivalent of the server operator inet + bigint.
+	 *
+	 *	@param addend The value to add to the address, may be negative.
+	 *	@return A new address with the same netmask.
+	 *	@exception SQLException If the result does not fit in the address family.
+	 */
+	public PGinet add( long addend )
+	throws SQLException
+	{
+		resolveChecked();
+		boolean ipv6 = isIPv6();
+		long hi = InetBits.high( this.addr );
+		long lo = InetBits.low( this.addr );
+		if( ipv6 )
+		{
+			long sum = lo + addend;
+			if( addend >= 0 )
+			{
+				if( InetBits.unsignedLess( sum, lo ) )
 				{
-					String digit = Integer.toString( ((int)this.addr[i]) & 0xFF );
-					s.append( digit );
-					if( ( isIPv4 && ( i < 3 ) ) || ( isIPv6 && ( i < 15 ) ) )
+					if( hi == -1L )
 					{
-						s.append( "." );
+						throw( outOfRange() );
 					}
+					++hi;
 				}
-				else
-				{	
-					String hexDigit = Integer.toHexString( ((int)this.addr[i]) & 0xFF );
-					if( hexDigit.length() == 1 )
-					{
-						s.append( "0" );
-					}
-					s.append( hexDigit );
-		
-					if( ( (i % 2) == 1 ) && ( i != 15 ) )
-					{
-						s.append( ":" );
-					}
+			}
+			else if( InetBits.unsignedLess( lo, sum ) )
+			{
+				if( hi == 0L )
+				{
+					throw( outOfRange() );
 				}
+				--hi;
 			}
-
-			if(	( ( this.addr.length == 16 ) && ( this.netmask < 128 ) ) ||
-				( ( this.addr.length == 4 ) && ( this.netmask < 32 ) ) )
+			lo = sum;
+		}
+		else
+		{
+			if( ( addend > 0xFFFFFFFFL - lo ) || ( addend < -lo ) )
 			{
-				s.append( "/" + this.netmask );
+				throw( outOfRange() );
 			}
-			this.addrString = s.toString();
+			lo += addend;
 		}
-			
-		return( this.addrString );
+
+		PGinet result = new PGinet();
+		result.setAddress( InetBits.toBytes( ipv6, hi, lo ), this.netmask, this.embedded_ipv4 );
+		return( result );
 	}
 
 	/**
-	 *	This will return the netmask of the current network address.
+	 *	The equivalent of the server operator inet - bigint.
 	 *
-	 *	@return The netmask of the PGinet object.
+	 *	@param subtrahend The value to subtract from the address, may be negative.
+	 *	@return A new address with the same netmask.
+	 *	@exception SQLException If the result does not fit in the address family.
 	 */
-	public int getNetmask()
+	public PGinet subtract( long subtrahend )
+	throws SQLException
 	{
-		return( this.netmask );
+		if( subtrahend == Long.MIN_VALUE )
+		{
+			// -subtrahend would overflow, take it in two steps.
+			return( add( Long.MAX_VALUE ).add( 1L ) );
+		}
+		return( add( -subtrahend ) );
+	}
+
+	/**
+	 *	The equivalent of the server operator inet - inet.
+	 *
+	 *	@param other The address to subtract from this one.
+	 *	@return The numeric difference between the two addresses.
+	 *	@exception SQLException If the addresses are of a different family
+	 *		or the difference does not fit in a long.
+	 */
+	public long subtract( PGNetworkBase other )
+	throws SQLException
+	{
+		resolveChecked();
+		other.resolveChecked();
+		if( other.addr.length != this.addr.length )
+		{
+			throw( new PSQLException( GT.tr( "cannot subtract inet values of different sizes" ),
+				PSQLState.INVALID_PARAMETER_VALUE ) );
+		}
+
+		long lo = InetBits.low( this.addr );
+		long otherLo = InetBits.low( other.addr );
+		if( !isIPv6() )
+		{
+			return( lo - otherLo );
+		}
+
+		long diffLo = lo - otherLo;
+		long diffHi = InetBits.high( this.addr ) - InetBits.high( other.addr ) -
+			( InetBits.unsignedLess( lo, otherLo ) ? 1L : 0L );
+		if( diffHi != ( diffLo >> 63 ) )
+		{
+			throw( outOfRange() );
+		}
+		return( diffLo );
+	}
+
+	/**
+	 *	Validate a new netmask for set_masklen().
+	 *
+	 *	@param bits The netmask, -1 means the full length of the address.
+	 *	@return The netmask to use.
+	 *	@exception PSQLException If bits is out of range for this address.
+	 */
+	protected int checkMasklen( int bits )
+	throws PSQLException
+	{
+		int maxBits = this.addr.length * 8;
+		if( bits == -1 )
+		{
+			return( maxBits );
+		}
+		if( ( bits < 0 ) || ( bits > maxBits ) )
+		{
+			throw( new PSQLException( GT.tr( "invalid mask length: {0}", new Object[]{ bits } ),
+				PSQLState.INVALID_PARAMETER_VALUE ) );
+		}
+		return( bits );
+	}
+
+	private static PSQLException outOfRange()
+	{
+		return( new PSQLException( GT.tr( "result is out of range" ),
+			PSQLState.NUMERIC_VALUE_OUT_OF_RANGE ) );
 	}
 
 	public boolean equals( Object obj )
@@ -383,6 +876,8 @@ class PGNetworkBase extends PGobject implements Serializable, Cloneable
 		if( obj instanceof PGNetworkBase )
 		{
 			PGNetworkBase inet = (PGNetworkBase)obj;
+			resolve();
+			inet.resolve();
 			if( inet.netmask == this.netmask )
 			{
 				if( inet.addr.length == this.addr.length )
@@ -6,8 +6,11 @@
 */
 package org.postgresql.net;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.sql.SQLException;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 import org.postgresql.util.GT;
 import org.postgresql.util.PGtokenizer;
 import org.postgresql.util.PSQLException;
@@ -46,6 +49,18 @@ public class PGcidr extends PGNetworkBase implements Serializable, Cloneable
 		setType( "cidr" );
 	}
 
+	/**
+	 *	Copy constructor, the address, netmask and the cached string and
+	 *	hash code are copied directly rather than reparsed.
+	 *
+	 *	@param other The PGcidr to copy.
+	 */
+	public PGcidr( PGcidr other )
+	{
+		this();
+		copyFrom( other );
+	}
+
 	/**
 	 *	Compare two PGcidr objects for equality.
 	 *
@@ -64,23 +79,149 @@ public class PGcidr extends PGNetworkBase implements Serializable, Cloneable
 		return( false );
 	}
 
+	/**
+	 *	Serialize as the few bytes of the {@link InetCompactCodec} encoding
+	 *	rather than the default form.  A PGcidr without a value keeps the
+	 *	default form.  Protected so the lazy subclass resolves and writes
+	 *	the same form, it reads back as a PGcidr.
+	 */
+	protected Object writeReplace()
+	throws ObjectStreamException
+	{
+		resolve();
+		if( this.addr == null )
+		{
+			return( this );
+		}
+		return( CompactForm.of( this ) );
+	}
+
 	/**
 	 *	This will make a duplicate of the current PGcidr object.
 	 *
-	 *	@return null on failure, or a new PGcidr object which
-	 *		represents the same network address as the invoking
-	 *		object.
+	 *	@return A new PGcidr object which represents the same network
+	 *		address as the invoking object, copied without going
+	 *		through the parser.
 	 */
 	public Object clone()
 	{
-		try
+		return( new PGcidr( this ) );
+	}
+
+	/**
+	 *	The equivalent of the server function set_masklen(cidr, int),
+	 *	any bits to the right of the new netmask are cleared.
+	 *
+	 *	@param bits The new netmask, -1 for the full length of the address.
+	 *	@return A new PGcidr with the new netmask.
+	 *	@exception SQLException If bits is out of range for this address.
+	 */
+	public PGcidr setMasklen( int bits )
+	throws SQLException
+	{
+		resolveChecked();
+		int mask = checkMasklen( bits );
+		boolean ipv6 = isIPv6();
+		PGcidr result = new PGcidr();
+		result.setAddress( InetBits.toBytes( ipv6,
+			InetBits.high( this.addr ) & InetBits.maskHigh( mask, ipv6 ),
+			InetBits.low( this.addr ) & InetBits.maskLow( mask, ipv6 ) ),
+			mask, this.embedded_ipv4 );
+		return( result );
+	}
+
+	/**
+	 *	A spliterator over every address in this network.
+	 *
+	 *	@return See {@link #spliterator(int)}.
+	 */
+	public CidrSpliterator spliterator()
+	{
+		resolve();
+		return( spliterator( this.addr.length * 8 ) );
+	}
+
+	/**
+	 *	A spliterator over the subnets of the given prefix length within
+	 *	this network, for example every /24 within a /16.  Each value is
+	 *	the network address of a subnet.
+	 *
+	 *	<p>For IPv4 the values are the unsigned 32 bit addresses.  For IPv6
+	 *	they are the low words, which requires a netmask of at least 64,
+	 *	the high word of every value is that of this network.  There may be
+	 *	at most 2^62 values, so every address of an IPv6 network needs a
+	 *	netmask of at least 66; use {@link #spliterator128(int)} for the
+	 *	addresses of a /64 or /65.</p>
+	 *
+	 *	@param prefixLength The length of the subnets, from the netmask of
+	 *		this network to the length of the address.
+	 *	@return A new spliterator.
+	 *	@exception IllegalStateException If this is an IPv6 network shorter
+	 *		than /64 or there would be more than 2^62 values, use
+	 *		{@link #spliterator128(int)} instead.
+	 */
+	public CidrSpliterator spliterator( int prefixLength )
+	{
+		resolve();
+		int depth = checkPrefixLength( prefixLength );
+		boolean ipv6 = isIPv6();
+		if( ( ipv6 && ( this.netmask < 64 ) ) || ( depth > 62 ) )
 		{
-			return( new PGcidr( this.getValue() ) );
+			throw( new IllegalStateException( "Too many addresses for a 64 bit spliterator in " +
+				getValue() + ", use spliterator128()" ) );
 		}
-		catch( SQLException e )
+		return( new CidrSpliterator( InetBits.low( this.addr ), this.addr.length * 8 - prefixLength,
+			1L << depth, !ipv6 || ( this.netmask > 64 ) ) );
+	}
+
+	/**
+	 *	A spliterator over the subnets of the given prefix length within
+	 *	this network which works for any network size.
+	 *
+	 *	@param prefixLength The length of the subnets, from the netmask of
+	 *		this network to the length of the address.
+	 *	@return A new spliterator.
+	 */
+	public CidrSpliterator128 spliterator128( int prefixLength )
+	{
+		resolve();
+		int depth = checkPrefixLength( prefixLength );
+		return( new CidrSpliterator128( InetBits.high( this.addr ), InetBits.low( this.addr ),
+			this.addr.length * 8 - prefixLength, depth ) );
+	}
+
+	/**
+	 *	Every address in this network as a stream, see {@link #spliterator(int)}
+	 *	for the values and restrictions.  Call parallel() on the stream to
+	 *	spread the work over several threads.
+	 *
+	 *	@return A new sequential stream.
+	 */
+	public LongStream addresses()
+	{
+		return( StreamSupport.longStream( spliterator(), false ) );
+	}
+
+	/**
+	 *	The subnets of the given prefix length within this network as a
+	 *	stream, see {@link #spliterator(int)} for the values and restrictions.
+	 *
+	 *	@param prefixLength The length of the subnets.
+	 *	@return A new sequential stream.
+	 */
+	public LongStream subnets( int prefixLength )
+	{
+		return( StreamSupport.longStream( spliterator( prefixLength ), false ) );
+	}
+
+	private int checkPrefixLength( int prefixLength )
+	{
+		if( ( prefixLength < this.netmask ) || ( prefixLength > this.addr.length * 8 ) )
 		{
-			return( null );
+			throw( new IllegalArgumentException( "Invalid prefix length " + prefixLength +
+				" for " + getValue() ) );
 		}
+		return( prefixLength - this.netmask );
 	}
 
 	/**
@@ -103,6 +244,39 @@ public class PGcidr extends PGNetworkBase implements Serializable, Cloneable
 	 */
 	public void setValue( String v )
 	throws SQLException
+	{
+		this.pending = null;
+		if( !NetworkMetrics.ENABLED )
+		{
+			parseValue( v );
+			ensureHostBitsAreZero();
+			return;
+		}
+
+		long start = System.nanoTime();
+		try
+		{
+			parseValue( v );
+		}
+		catch( SQLException e )
+		{
+			NetworkMetrics.recordFailure( NetworkMetrics.Operation.PARSE, NetworkMetrics.failureReason( type, v ) );
+			throw( e );
+		}
+		try
+		{
+			ensureHostBitsAreZero();
+		}
+		catch( SQLException e )
+		{
+			NetworkMetrics.recordFailure( NetworkMetrics.Operation.PARSE, "host bits" );
+			throw( e );
+		}
+		NetworkMetrics.recordCompleted( NetworkMetrics.Operation.PARSE, System.nanoTime() - start, 1 );
+	}
+
+	private void parseValue( String v )
+	throws SQLException
 	{
 		if( v == null )
 		{
@@ -139,8 +313,6 @@ public class PGcidr extends PGNetworkBase implements Serializable, Cloneable
 			throw( new PSQLException( GT.tr( "Conversion to type {0} failed: {1}.",
 				new Object[]{ type, v } ), PSQLState.DATA_TYPE_MISMATCH ) );
 		}
-
-		ensureHostBitsAreZero();
 	}
 
 	/**
@@ -6,7 +6,9 @@
 */
 package org.postgresql.net;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.net.InetAddress;
 import java.sql.SQLException;
 import org.postgresql.util.GT;
 import org.postgresql.util.PSQLException;
@@ -50,6 +52,37 @@ public class PGinet extends PGNetworkBase implements Serializable, Cloneable
 		setType( "inet" );
 	}
 
+	/**
+	 *	Copy constructor, the address, netmask and the cached string and
+	 *	hash code are copied directly rather than reparsed.
+	 *
+	 *	@param other The PGinet to copy.
+	 */
+	public PGinet( PGinet other )
+	{
+		this();
+		copyFrom( other );
+	}
+
+	/**
+	 *	Create a host address from an InetAddress, with a netmask of 32
+	 *	for IPv4 or 128 for IPv6, straight from the address bytes.  No
+	 *	string is built or parsed and no lookup is made.  The scope of an
+	 *	Inet6Address is dropped, inet has no place for it.
+	 *
+	 *	@param address The address.
+	 *	@exception IllegalArgumentException If address is null.
+	 */
+	public PGinet( InetAddress address )
+	{
+		this();
+		if( address == null )
+		{
+			throw( new IllegalArgumentException( "The address must not be null" ) );
+		}
+		setInetAddress( address );
+	}
+
 	/**
 	 *	Compare two PGinet's for equality.
 	 *
@@ -67,22 +100,49 @@ public class PGinet extends PGNetworkBase implements Serializable, Cloneable
 		return( false );
 	}
 
+	/**
+	 *	Serialize as the few bytes of the {@link InetCompactCodec} encoding
+	 *	rather than the default form.  A PGinet without a value keeps the
+	 *	default form.  Protected so the lazy subclass resolves and writes
+	 *	the same form, it reads back as a PGinet.
+	 */
+	protected Object writeReplace()
+	throws ObjectStreamException
+	{
+		resolve();
+		if( this.addr == null )
+		{
+			return( this );
+		}
+		return( CompactForm.of( this ) );
+	}
+
 	/**
  	 *	Make a duplicate of this PGinet object.
 	 *
-	 *	@return null on failure, or a new PGinet address
-	 *		which is equal to this object.
+	 *	@return A new PGinet address which is equal to this object,
+	 *		copied without going through the parser.
 	 */
 	public Object clone()
 	{
-		try
-		{
-			return( new PGinet( this.getValue() ) );
-		}
-		catch( SQLException e )
-		{
-			return( null );
-		}
+		return( new PGinet( this ) );
+	}
+
+	/**
+	 *	The equivalent of the server function set_masklen(inet, int),
+	 *	the address bits are kept as they are.
+	 *
+	 *	@param bits The new netmask, -1 for the full length of the address.
+	 *	@return A new PGinet with the same address and the new netmask.
+	 *	@exception SQLException If bits is out of range for this address.
+	 */
+	public PGinet setMasklen( int bits )
+	throws SQLException
+	{
+		resolveChecked();
+		PGinet result = new PGinet();
+		result.setAddress( this.addr.clone(), checkMasklen( bits ), this.embedded_ipv4 );
+		return( result );
 	}
 
 	/**
@@ -93,6 +153,29 @@ public class PGinet extends PGNetworkBase implements Serializable, Cloneable
 	 */
 	public void setValue( String v )
 	throws SQLException
+	{
+		this.pending = null;
+		if( !NetworkMetrics.ENABLED )
+		{
+			parseValue( v );
+			return;
+		}
+
+		long start = System.nanoTime();
+		try
+		{
+			parseValue( v );
+		}
+		catch( SQLException e )
+		{
+			NetworkMetrics.recordFailure( NetworkMetrics.Operation.PARSE, NetworkMetrics.failureReason( type, v ) );
+			throw( e );
+		}
+		NetworkMetrics.recordCompleted( NetworkMetrics.Operation.PARSE, System.nanoTime() - start, 1 );
+	}
+
+	private void parseValue( String v )
+	throws SQLException
 	{
 		if( v == null )
 		{
@@ -6,6 +6,7 @@
 */
 package org.postgresql.net;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.sql.SQLException;
 import org.postgresql.util.GT;
@@ -39,6 +40,12 @@ public class PGmacaddr extends PGobject implements Serializable, Cloneable
 	Integer hashCode = null;
 	String strMac = null;
 
+	/**
+	 *	Text given to {@link LazyPGmacaddr} which has not been parsed yet,
+	 *	macaddress is not valid while this is set.
+	 */
+	String pending = null;
+
 	/**
 	 *	Construct a new mac address from a string in one of the formats
 	 *	specified above.
@@ -59,6 +66,32 @@ public class PGmacaddr extends PGobject implements Serializable, Cloneable
 		setType( "macaddr" );
 	}
 
+	/**
+	 *	Copy constructor, the address and the cached string and hash
+	 *	code are copied directly rather than reparsed.
+	 *
+	 *	@param other The PGmacaddr to copy.
+	 */
+	public PGmacaddr( PGmacaddr other )
+	{
+		this();
+		copyFrom( other );
+	}
+
+	/**
+	 *	Copy the address of another value, including the cached string
+	 *	and hash code and any text not parsed yet.
+	 *
+	 *	@param other The value to copy.
+	 */
+	void copyFrom( PGmacaddr other )
+	{
+		this.macaddress = ( other.macaddress == null ) ? null : other.macaddress.clone();
+		this.hashCode = other.hashCode;
+		this.strMac = other.strMac;
+		this.pending = other.pending;
+	}
+
 	/**
 	 *	This method will get an array of bytes which make up the mac address.
 	 *
@@ -67,9 +100,100 @@ public class PGmacaddr extends PGobject implements Serializable, Cloneable
 	 */
 	public byte[] getBytes()
 	{
+		resolve();
 		return( this.macaddress );
 	}
 
+	/**
+	 *	Set the mac address directly from 6 bytes which are already known
+	 *	to be valid, bypassing the string parser.
+	 *
+	 *	@param mac The 6 address bytes, this array is kept.
+	 */
+	void setBytes( byte[] mac )
+	{
+		this.pending = null;
+		this.macaddress = mac;
+		this.hashCode = null;
+		this.strMac = null;
+	}
+
+	/**
+	 *	The deferred text handling of {@link LazyPGmacaddr}.
+	 */
+	private static final DeferredText<PGmacaddr> DEFERRED = new DeferredText<PGmacaddr>()
+	{
+		String pending( PGmacaddr value )
+		{
+			return( value.pending );
+		}
+
+		void defer( PGmacaddr value, String v )
+		{
+			value.pending = v;
+			value.macaddress = null;
+			value.hashCode = null;
+			value.strMac = v;
+		}
+
+		void parse( PGmacaddr value, String v )
+		throws SQLException
+		{
+			value.parsePending( v );
+		}
+
+		void parsed( PGmacaddr value, String v )
+		{
+			value.strMac = v;
+		}
+	};
+
+	/**
+	 *	Keep the text of a value to be parsed on first use, used by
+	 *	{@link LazyPGmacaddr}.  getValue() returns the text as it was given.
+	 *
+	 *	@param v The text, not null.
+	 */
+	final void defer( String v )
+	{
+		DEFERRED.defer( this, v );
+	}
+
+	/**
+	 *	Parse the text held back by {@link #defer(String)}, if any.
+	 *
+	 *	@exception IllegalStateException If the text is not valid, with
+	 *		the SQLException from the parser as its cause.
+	 */
+	final void resolve()
+	{
+		if( this.pending != null )
+		{
+			DEFERRED.resolve( this );
+		}
+	}
+
+	/**
+	 *	Parse the text held back by {@link #defer(String)}, if any.
+	 *
+	 *	@exception SQLException If the text is not valid.
+	 */
+	final void resolveChecked()
+	throws SQLException
+	{
+		DEFERRED.resolveChecked( this );
+	}
+
+	/**
+	 *	Run the real parser on deferred text, {@link LazyPGmacaddr}
+	 *	overrides this to reach the parser of this class.
+	 */
+	void parsePending( String v )
+	throws SQLException
+	{
+		setValue( v );
+	}
+
 	/**
 	 *	Set the value of the mac address.
 	 *
@@ -86,6 +210,29 @@ public class PGmacaddr extends PGobject implements Serializable, Cloneable
 	 */
 	public void setValue( String v )
 	throws SQLException
+	{
+		this.pending = null;
+		if( !NetworkMetrics.ENABLED )
+		{
+			parseValue( v );
+			return;
+		}
+
+		long start = System.nanoTime();
+		try
+		{
+			parseValue( v );
+		}
+		catch( SQLException e )
+		{
+			NetworkMetrics.recordFailure( NetworkMetrics.Operation.PARSE, NetworkMetrics.failureReason( type, v ) );
+			throw( e );
+		}
+		NetworkMetrics.recordCompleted( NetworkMetrics.Operation.PARSE, System.nanoTime() - start, 1 );
+	}
+
+	private void parseValue( String v )
+	throws SQLException
 	{
 		if( v == null )
 		{
@@ -181,6 +328,7 @@ public class PGmacaddr extends PGobject implements Serializable, Cloneable
 		if( obj instanceof PGmacaddr )
 		{
 			PGmacaddr addr = (PGmacaddr)obj;
+			resolve();
 			byte[] thatBytes = addr.getBytes();
 			if( ( this.macaddress == null ) || ( thatBytes == null ) )
 			{
@@ -205,6 +353,33 @@ public class PGmacaddr extends PGobject implements Serializable, Cloneable
 		return( false );
 	}
 
+	/**
+	 *	Make a duplicate of this PGmacaddr object.
+	 *
+	 *	@return A new PGmacaddr which is equal to this object.
+	 */
+	public Object clone()
+	{
+		return( new PGmacaddr( this ) );
+	}
+
+	/**
+	 *	Serialize as the few bytes of the {@link InetCompactCodec} encoding
+	 *	rather than the default form.  A PGmacaddr without a value keeps the
+	 *	default form.  Protected so the lazy subclass resolves and writes
+	 *	the same form, it reads back as a PGmacaddr.
+	 */
+	protected Object writeReplace()
+	throws ObjectStreamException
+	{
+		resolve();
+		if( this.macaddress == null )
+		{
+			return( this );
+		}
+		return( CompactForm.of( this ) );
+	}
+
 	/**
 	 *	Get a hash code for this mac address.
 	 *
@@ -212,6 +387,7 @@ public class PGmacaddr extends PGobject implements Serializable, Cloneable
 	 */
 	public int hashCode()
 	{
+		resolve();
 		if( this.hashCode == null )
 		{
 			int hashValue = this.macaddress[4] | (this.macaddress[5] << 8) | 
@@ -221,6 +397,14 @@ public class PGmacaddr extends PGobject implements Serializable, Cloneable
 				hashValue ^= this.macaddress[i] << (i << 3);
 			}
 			this.hashCode = new Integer( hashValue );
+			if( NetworkMetrics.ENABLED )
+			{
+				NetworkMetrics.recordCompleted( NetworkMetrics.Operation.HASH, 0L, 1 );
+			}
+		}
+		else if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordCacheHit( NetworkMetrics.Operation.HASH );
 		}
 
 		return( this.hashCode.intValue() );
@@ -230,23 +414,25 @@ public class PGmacaddr extends PGobject implements Serializable, Cloneable
 	 *	This method will print the value of this mac address as a string.
 	 *
 	 *	@return A string representation of this mac address in the
-	 *		xx:xx:xx:xx:xx:xx format.
+	 *		xx:xx:xx:xx:xx:xx format the server prints, each octet as two
+	 *		lower case hex digits.
 	 */
 	public String getValue()
 	{
 		if( this.strMac == null )
 		{
-			StringBuffer val = new StringBuffer();
-	
-			for( int i = 0; i < this.macaddress.length; ++i )
+			long start = NetworkMetrics.ENABLED ? System.nanoTime() : 0L;
+			StringBuilder val = new StringBuilder( 17 );
+			InetText.appendMacaddr( val, this.macaddress );
+			this.strMac = val.toString();
+			if( NetworkMetrics.ENABLED )
 			{
-				if( i > 0 )
-				{
-					val.append( ":" );
-				}
-				val.append( Integer.toHexString( ((int)this.macaddress[i]) & 0xFF ) );
+				NetworkMetrics.recordCompleted( NetworkMetrics.Operation.FORMAT, System.nanoTime() - start, 1 );
 			}
-			this.strMac = val.toString();
+		}
+		else if( NetworkMetrics.ENABLED )
+		{
+			NetworkMetrics.recordCacheHit( NetworkMetrics.Operation.FORMAT );
 		}
 
 		return( this.strMac );
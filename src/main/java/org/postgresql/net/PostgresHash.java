@@ -0,0 +1,163 @@
+package org.postgresql.net;
+
+/**
+ *	The hash functions the server uses for inet and cidr values, so a
+ *	client can tell which hash partition a row belongs to.
+ *
+ *	<p>hashBytes() and hashBytesExtended() follow hash_bytes() and
+ *	hash_bytes_extended() in src/common/hashfn.c, Bob Jenkins' lookup3
+ *	mix as the server computes it on a little endian machine.  The inet
+ *	functions hash the same bytes as hashinet() and hashinetextended(),
+ *	the family (2 for IPv4, 3 for IPv6), the netmask and the 4 or 16
+ *	address bytes.</p>
+ */
+final class PostgresHash
+{
+	/**
+	 *	HASH_PARTITION_SEED from src/include/catalog/partition.h.
+	 */
+	static final long PARTITION_SEED = 0x7A5B22367996DCFDL;
+
+	/**
+	 *	The constant hash_combine64() adds to each column hash.
+	 */
+	private static final long COMBINE = 0x49a0f4dd15e5a8e3L;
+
+	private PostgresHash()
+	{
+	}
+
+	/**
+	 *	The 32 bit hash of a range of bytes, hash_bytes() on the server.
+	 */
+	static int hashBytes( byte[] k, int off, int len )
+	{
+		return( (int)hashBytesExtended( k, off, len, 0L ) );
+	}
+
+	/**
+	 *	The seeded 64 bit hash of a range of bytes, hash_bytes_extended()
+	 *	on the server.  With a seed of 0 the low 32 bits are hashBytes().
+	 */
+	@SuppressWarnings( "fallthrough" )
+	static long hashBytesExtended( byte[] k, int off, int len, long seed )
+	{
+		int a = 0x9e3779b9 + len + 3923095;
+		int b = a;
+		int c = a;
+		if( seed != 0L )
+		{
+			a += (int)( seed >>> 32 );
+			b += (int)seed;
+			// mix( a, b, c )
+			a -= c; a ^= Integer.rotateLeft( c, 4 ); c += b;
+			b -= a; b ^= Integer.rotateLeft( a, 6 ); a += c;
+			c -= b; c ^= Integer.rotateLeft( b, 8 ); b += a;
+			a -= c; a ^= Integer.rotateLeft( c, 16 ); c += b;
+			b -= a; b ^= Integer.rotateLeft( a, 19 ); a += c;
+			c -= b; c ^= Integer.rotateLeft( b, 4 ); b += a;
+		}
+		int p = off;
+		int remaining = len;
+		while( remaining >= 12 )
+		{
+			a += word( k, p );
+			b += word( k, p + 4 );
+			c += word( k, p + 8 );
+			a -= c; a ^= Integer.rotateLeft( c, 4 ); c += b;
+			b -= a; b ^= Integer.rotateLeft( a, 6 ); a += c;
+			c -= b; c ^= Integer.rotateLeft( b, 8 ); b += a;
+			a -= c; a ^= Integer.rotateLeft( c, 16 ); c += b;
+			b -= a; b ^= Integer.rotateLeft( a, 19 ); a += c;
+			c -= b; c ^= Integer.rotateLeft( b, 4 ); b += a;
+			p += 12;
+			remaining -= 12;
+		}
+		// the last 11 bytes, the lowest byte of c is left for the length
+		switch( remaining )
+		{
+			case 11:
+				c += ( k[p + 10] & 0xFF ) << 24;
+				// fall through
+			case 10:
+				c += ( k[p + 9] & 0xFF ) << 16;
+				// fall through
+			case 9:
+				c += ( k[p + 8] & 0xFF ) << 8;
+				// fall through
+			case 8:
+				b += ( k[p + 7] & 0xFF ) << 24;
+				// fall through
+			case 7:
+				b += ( k[p + 6] & 0xFF ) << 16;
+				// fall through
+			case 6:
+				b += ( k[p + 5] & 0xFF ) << 8;
+				// fall through
+			case 5:
+				b += k[p + 4] & 0xFF;
+				// fall through
+			case 4:
+				a += ( k[p + 3] & 0xFF ) << 24;
+				// fall through
+			case 3:
+				a += ( k[p + 2] & 0xFF ) << 16;
+				// fall through
+			case 2:
+				a += ( k[p + 1] & 0xFF ) << 8;
+				// fall through
+			case 1:
+				a += k[p] & 0xFF;
+				// fall through
+			default:
+				break;
+		}
+		// final( a, b, c )
+		c ^= b; c -= Integer.rotateLeft( b, 14 );
+		a ^= c; a -= Integer.rotateLeft( c, 11 );
+		b ^= a; b -= Integer.rotateLeft( a, 25 );
+		c ^= b; c -= Integer.rotateLeft( b, 16 );
+		a ^= c; a -= Integer.rotateLeft( c, 4 );
+		b ^= a; b -= Integer.rotateLeft( a, 14 );
+		c ^= b; c -= Integer.rotateLeft( b, 24 );
+		return( ( (long)b << 32 ) | ( c & 0xFFFFFFFFL ) );
+	}
+
+	/**
+	 *	The seeded 64 bit hash of an inet or cidr value,
+	 *	hashinetextended() on the server.
+	 */
+	static long hashInetExtended( boolean ipv6, long hi, long lo, int netmask, long seed )
+	{
+		byte[] k = new byte[ 18 ];
+		k[0] = (byte)( ipv6 ? 3 : 2 );
+		k[1] = (byte)netmask;
+		if( ipv6 )
+		{
+			InetBits.writeLong( hi, k, 2 );
+			InetBits.writeLong( lo, k, 10 );
+			return( hashBytesExtended( k, 0, 18, seed ) );
+		}
+		InetBits.writeInt( (int)lo, k, 2 );
+		return( hashBytesExtended( k, 0, 6, seed ) );
+	}
+
+	/**
+	 *	The row hash the server computes for a single column inet or
+	 *	cidr hash partition key.  A row belongs to the partition with
+	 *	the remainder of this value, taken as unsigned, by its modulus.
+	 */
+	static long partitionHash( boolean ipv6, long hi, long lo, int netmask )
+	{
+		return( hashInetExtended( ipv6, hi, lo, netmask, PARTITION_SEED ) + COMBINE );
+	}
+
+	/**
+	 *	Read four bytes as a little endian word.
+	 */
+	private static int word( byte[] k, int p )
+	{
+		return( ( k[p] & 0xFF ) | ( ( k[p + 1] & 0xFF ) << 8 ) |
+			( ( k[p + 2] & 0xFF ) << 16 ) | ( ( k[p + 3] & 0xFF ) << 24 ) );
+	}
+}
@@ -0,0 +1,20 @@
+package org.postgresql.net;
+
+/**
+ *	Receives prefixes in their packed two word form, see
+ *	{@link PGNetworkBase#getHighWord()} and {@link PGNetworkBase#getLowWord()},
+ *	together with their prefix length.
+ *
+ *	<p>This is the cidr counterpart of {@link AddressConsumer}, used by
+ *	the bulk decompositions to hand out results without building a PGcidr
+ *	or a String for each one.</p>
+ */
+public interface PrefixConsumer
+{
+	/**
+	 *	@param high The high word of the network address, 0 for IPv4.
+	 *	@param low The low word of the network address.
+	 *	@param prefixLength The prefix length.
+	 */
+	void accept( long high, long low, int prefixLength );
+}
@@ -0,0 +1,75 @@
+package org.postgresql.net;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ *	The Flight Recorder events emitted through {@link NetworkEvents}.
+ *	Each operation has its own event type so they can be enabled and
+ *	given thresholds separately in a .jfc settings file.
+ */
+@Category( { "PostgreSQL", "Network Types" } )
+abstract class NetworkBulkEvent extends Event
+{
+	@Label( "Items" )
+	@Description( "The number of values handled" )
+	long items;
+
+	@Label( "Bytes" )
+	@Description( "The number of bytes or characters read or written" )
+	@DataAmount
+	long bytes;
+
+	@Name( "org.postgresql.net.ArrayParse" )
+	@Label( "Network Array Parse" )
+	@Description( "Parsing an inet[], cidr[] or macaddr[] literal" )
+	static final class ArrayParse extends NetworkBulkEvent
+	{
+	}
+
+	@Name( "org.postgresql.net.ArrayDecode" )
+	@Label( "Network Array Decode" )
+	@Description( "Decoding a binary inet[], cidr[] or macaddr[] array" )
+	static final class ArrayDecode extends NetworkBulkEvent
+	{
+	}
+
+	@Name( "org.postgresql.net.ArrayFormat" )
+	@Label( "Network Array Format" )
+	@Description( "Building an inet[], cidr[] or macaddr[] literal" )
+	static final class ArrayFormat extends NetworkBulkEvent
+	{
+	}
+
+	@Name( "org.postgresql.net.CopyEncode" )
+	@Label( "Network COPY Encode" )
+	@Description( "Writing network values in COPY format" )
+	static final class CopyEncode extends NetworkBulkEvent
+	{
+	}
+
+	@Name( "org.postgresql.net.CopyDecode" )
+	@Label( "Network COPY Decode" )
+	@Description( "Reading network values in COPY format" )
+	static final class CopyDecode extends NetworkBulkEvent
+	{
+	}
+
+	@Name( "org.postgresql.net.PrefixTableBuild" )
+	@Label( "Network Prefix Table Build" )
+	@Description( "Building a prefix table or index" )
+	static final class PrefixTableBuild extends NetworkBulkEvent
+	{
+	}
+
+	@Name( "org.postgresql.net.SetOperation" )
+	@Label( "Network Set Operation" )
+	@Description( "A set operation over many addresses or ranges" )
+	static final class SetOperation extends NetworkBulkEvent
+	{
+	}
+}
@@ -0,0 +1,107 @@
+package org.postgresql.net;
+
+import jdk.jfr.EventType;
+
+/**
+ *	Flight Recorder events for the bulk operations.
+ *
+ *	<p>This is the Java 11 version, loaded from the multi-release jar in
+ *	place of the no-op Java 8 class.  An event object is only created when
+ *	its type is enabled in a running recording, so with recording off
+ *	begin() is a single volatile read and returns null.</p>
+ */
+final class NetworkEvents
+{
+	/** Parsing an array literal. */
+	static final int ARRAY_PARSE = 0;
+	/** Decoding a binary array. */
+	static final int ARRAY_DECODE = 1;
+	/** Building an array literal. */
+	static final int ARRAY_FORMAT = 2;
+	/** Writing rows in COPY format. */
+	static final int COPY_ENCODE = 3;
+	/** Reading rows in COPY format. */
+	static final int COPY_DECODE = 4;
+	/** Building a prefix table or index. */
+	static final int PREFIX_TABLE_BUILD = 5;
+	/** A set operation over many addresses or ranges. */
+	static final int SET_OPERATION = 6;
+
+	private static final EventType[] TYPES = {
+		EventType.getEventType( NetworkBulkEvent.ArrayParse.class ),
+		EventType.getEventType( NetworkBulkEvent.ArrayDecode.class ),
+		EventType.getEventType( NetworkBulkEvent.ArrayFormat.class ),
+		EventType.getEventType( NetworkBulkEvent.CopyEncode.class ),
+		EventType.getEventType( NetworkBulkEvent.CopyDecode.class ),
+		EventType.getEventType( NetworkBulkEvent.PrefixTableBuild.class ),
+		EventType.getEventType( NetworkBulkEvent.SetOperation.class )
+	};
+
+	private NetworkEvents()
+	{
+	}
+
+	/**
+	 *	Start timing an operation.
+	 *
+	 *	@param kind One of the constants above.
+	 *	@return A handle to pass to end(), null if the event is not enabled.
+	 */
+	static Object begin( int kind )
+	{
+		if( !TYPES[ kind ].isEnabled() )
+		{
+			return( null );
+		}
+		NetworkBulkEvent event;
+		switch( kind )
+		{
+			case ARRAY_PARSE:
+				event = new NetworkBulkEvent.ArrayParse();
+				break;
+			case ARRAY_DECODE:
+				event = new NetworkBulkEvent.ArrayDecode();
+				break;
+			case ARRAY_FORMAT:
+				event = new NetworkBulkEvent.ArrayFormat();
+				break;
+			case COPY_ENCODE:
+				event = new NetworkBulkEvent.CopyEncode();
+				break;
+			case COPY_DECODE:
+				event = new NetworkBulkEvent.CopyDecode();
+				break;
+			case PREFIX_TABLE_BUILD:
+				event = new NetworkBulkEvent.PrefixTableBuild();
+				break;
+			default:
+				event = new NetworkBulkEvent.SetOperation();
+				break;
+		}
+		event.begin();
+		return( event );
+	}
+
+	/**
+	 *	Finish an operation started with begin() and commit its event.
+	 *
+	 *	@param handle The value begin() returned, may be null.
+	 *	@param items The number of values handled.
+	 *	@param bytes The number of bytes or characters read or written.
+	 */
+	static void end( Object handle, long items, long bytes )
+	{
+		if( handle == null )
+		{
+			return;
+		}
+		NetworkBulkEvent event = (NetworkBulkEvent)handle;
+		event.end();
+		if( event.shouldCommit() )
+		{
+			event.items = items;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.postgresql.test.net;
+
+import java.sql.SQLException;
+import java.util.Random;
+import org.postgresql.net.InetAcl;
+import org.postgresql.net.PGcidr;
+
+/**
+ *	A rough comparison of first match evaluation of an IPv4 policy by a
+ *	linear scan of the rules against the compiled InetAcl.  Run it with
+ *	the test classpath:
+ *
+ *	<pre>java org.postgresql.test.net.AclBenchmark [rules] [lookups]</pre>
+ */
+public class AclBenchmark
+{
+	private static volatile int sink;
+
+	public static void main( String[] args )
+	throws SQLException
+	{
+		int rules = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 10000;
+		int lookups = ( args.length > 1 ) ? Integer.parseInt( args[1] ) : 200000;
+		Random random = new Random( 1 );
+		// one source and one destination prefix per rule, 0 bits for any
+		int[] source = new int[ rules ];
+		int[] sourceBits = new int[ rules ];
+		int[] destination = new int[ rules ];
+		int[] destinationBits = new int[ rules ];
+		InetAcl.Builder builder = new InetAcl.Builder();
+		for( int r = 0; r < rules; ++r )
+		{
+			// specific rules first and a few broad ones at the end, as policies are written
+			boolean broad = r >= rules - rules / 100;
+			sourceBits[r] = broad ? random.nextInt( 3 ) * 8 : 20 + random.nextInt( 13 );
+			destinationBits[r] = broad ? 16 + random.nextInt( 3 ) * 4 : 24 + random.nextInt( 9 );
+			source[r] = ( 10 << 24 | random.nextInt( 1 << 18 ) ) & mask( sourceBits[r] );
+			destination[r] = ( 192 << 24 | 168 << 16 | random.nextInt( 1 << 16 ) ) & mask( destinationBits[r] );
+			builder.add( r, cidrs( source[r], sourceBits[r] ), cidrs( destination[r], destinationBits[r] ) );
+		}
+		long start = System.nanoTime();
+		InetAcl acl = builder.build();
+		long build = System.nanoTime() - start;
+		System.out.printf( "%d rules compiled in %.1f ms, %d rule sets%n", rules, build / 1e6, acl.getClassCount() );
+
+		int[] from = new int[ lookups ];
+		int[] to = new int[ lookups ];
+		for( int i = 0; i < lookups; ++i )
+		{
+			from[i] = 10 << 24 | random.nextInt( 1 << 18 );
+			to[i] = 192 << 24 | 168 << 16 | random.nextInt( 1 << 16 );
+		}
+
+		// warm up both paths before timing them.
+		for( int round = 0; round < 3; ++round )
+		{
+			start = System.nanoTime();
+			int misses = 0;
+			for( int i = 0; i < lookups; ++i )
+			{
+				int rule = -1;
+				for( int r = 0; r < rules; ++r )
+				{
+					if( ( ( from[i] & mask( sourceBits[r] ) ) == source[r] ) &&
+						( ( to[i] & mask( destinationBits[r] ) ) == destination[r] ) )
+					{
+						rule = r;
+						break;
+					}
+				}
+				misses += ( rule < 0 ) ? 1 : 0;
+				sink = rule;
+			}
+			long scan = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for( int i = 0; i < lookups; ++i )
+			{
+				sink = acl.firstMatch( false, 0L, from[i] & 0xFFFFFFFFL, false, 0L, to[i] & 0xFFFFFFFFL );
+			}
+			long compiled = System.nanoTime() - start;
+			if( round == 2 )
+			{
+				System.out.printf( "scan %8.1f ns/op   compiled %6.1f ns/op   %5.1fx   %d misses%n",
+					(double)scan / lookups, (double)compiled / lookups, (double)scan / compiled, misses );
+			}
+		}
+	}
+
+	private static int mask( int bits )
+	{
+		return( ( bits == 0 ) ? 0 : -1 << ( 32 - bits ) );
+	}
+
+	private static PGcidr[] cidrs( int address, int bits )
+	throws SQLException
+	{
+		if( bits == 0 )
+		{
+			return( null );
+		}
+		return( new PGcidr[]{ new PGcidr( ( address >>> 24 ) + "." + ( ( address >>> 16 ) & 0xFF ) + "." +
+			( ( address >>> 8 ) & 0xFF ) + "." + ( address & 0xFF ) + "/" + bits ) } );
+	}
+}
@@ -0,0 +1,104 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import org.postgresql.net.CidrAllocator;
+import org.postgresql.net.PGcidr;
+
+/**
+ *	Unit tests for the CidrAllocator.
+ */
+public class CidrAllocatorTest
+{
+	@Test
+	public void testBestFitAndCoalescing() throws SQLException
+	{
+		CidrAllocator allocator = new CidrAllocator();
+		allocator.addPool( new PGcidr( "10.0.0.0/16" ) );
+
+		PGcidr a = allocator.allocate( 4, 24 );
+		PGcidr b = allocator.allocate( 4, 25 );
+		PGcidr c = allocator.allocate( 4, 24 );
+		PGcidr d = allocator.allocate( 4, 25 );
+		assertEquals( new PGcidr( "10.0.0.0/24" ), a );
+		assertEquals( new PGcidr( "10.0.1.0/25" ), b );
+		assertEquals( new PGcidr( "10.0.2.0/24" ), c );
+		assertEquals( new PGcidr( "10.0.1.128/25" ), d );
+
+		assertTrue( allocator.release( b ) );
+		assertFalse( allocator.release( b ) );
+		assertTrue( allocator.release( a ) );
+		assertTrue( allocator.release( d ) );
+		assertTrue( allocator.release( c ) );
+		assertEquals( Collections.singletonList( new PGcidr( "10.0.0.0/16" ) ), allocator.getFree() );
+		assertTrue( allocator.getAllocated().isEmpty() );
+	}
+
+	@Test
+	public void testExhaustion() throws SQLException
+	{
+		CidrAllocator allocator = new CidrAllocator();
+		allocator.addPool( new PGcidr( "192.168.0.0/30" ) );
+		for( int i = 0; i < 4; ++i )
+		{
+			assertEquals( new PGcidr( "192.168.0." + i + "/32" ), allocator.allocate( 4, 32 ) );
+		}
+		assertNull( allocator.allocate( 4, 32 ) );
+		assertNull( allocator.allocate( 6, 64 ) );
+	}
+
+	@Test
+	public void testReserveAndWithin() throws SQLException
+	{
+		CidrAllocator allocator = new CidrAllocator(
+			Arrays.asList( new PGcidr( "10.0.0.0/16" ), new PGcidr( "2001:db8::/32" ) ),
+			Arrays.asList( new PGcidr( "10.0.5.0/24" ) ) );
+
+		assertFalse( allocator.reserve( new PGcidr( "10.0.5.128/25" ) ) );
+		assertFalse( allocator.reserve( new PGcidr( "10.1.0.0/24" ) ) );
+		assertNull( allocator.allocate( 4, 16 ) );
+
+		PGcidr within = allocator.allocate( new PGcidr( "10.0.4.0/23" ), 24 );
+		assertEquals( new PGcidr( "10.0.4.0/24" ), within );
+		assertNull( allocator.allocate( new PGcidr( "10.0.4.0/23" ), 24 ) );
+
+		assertEquals( new PGcidr( "2001:db8::/48" ), allocator.allocate( 6, 48 ) );
+		assertEquals( new PGcidr( "2001:db8:1::/48" ), allocator.allocate( 6, 48 ) );
+
+		CidrAllocator copy = new CidrAllocator( allocator.getPools(), allocator.getAllocated() );
+		assertEquals( allocator.getFree(), copy.getFree() );
+		assertEquals( allocator.getAllocated(), copy.getAllocated() );
+	}
+
+	@Test
+	public void testOverlappingPools() throws SQLException
+	{
+		CidrAllocator allocator = new CidrAllocator();
+		allocator.addPool( new PGcidr( "10.0.0.0/16" ) );
+		allocator.addPool( new PGcidr( "10.1.0.0/16" ) );
+		try
+		{
+			allocator.addPool( new PGcidr( "10.0.0.0/8" ) );
+			fail( "An overlapping pool was accepted." );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+
+		// buddies of different pools must not merge.
+		PGcidr a = allocator.allocate( 4, 16 );
+		PGcidr b = allocator.allocate( 4, 16 );
+		allocator.release( a );
+		allocator.release( b );
+		assertEquals( 2, allocator.getFree().size() );
+	}
+}
@@ -0,0 +1,164 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import org.postgresql.net.AddressConsumer;
+import org.postgresql.net.CidrSpliterator;
+import org.postgresql.net.CidrSpliterator128;
+import org.postgresql.net.PGcidr;
+
+/**
+ *	Unit tests for iterating over the addresses within a PGcidr.
+ */
+public class CidrSpliteratorTest
+{
+	@Test
+	public void testIPv4Addresses() throws SQLException
+	{
+		PGcidr cidr = new PGcidr( "192.168.1.0/30" );
+		assertArrayEquals( new long[]{ 0xC0A80100L, 0xC0A80101L, 0xC0A80102L, 0xC0A80103L },
+			cidr.addresses().toArray() );
+		assertEquals( 1L << 32, new PGcidr( "0.0.0.0/0" ).spliterator().estimateSize() );
+	}
+
+	@Test
+	public void testIPv4Subnets() throws SQLException
+	{
+		long[] subnets = new PGcidr( "10.1.0.0/16" ).subnets( 24 ).toArray();
+		assertEquals( 256, subnets.length );
+		assertEquals( 0x0A010000L, subnets[0] );
+		assertEquals( 0x0A01FF00L, subnets[255] );
+		assertArrayEquals( new long[]{ 0x0A010000L }, new PGcidr( "10.1.0.0/16" ).subnets( 16 ).toArray() );
+	}
+
+	@Test
+	public void testParallelMatchesSequential() throws SQLException
+	{
+		PGcidr cidr = new PGcidr( "172.16.0.0/12" );
+		assertEquals( cidr.addresses().sum(), cidr.addresses().parallel().sum() );
+		assertEquals( 1L << 20, cidr.addresses().parallel().count() );
+	}
+
+	@Test
+	public void testEvenSplit() throws SQLException
+	{
+		CidrSpliterator right = new PGcidr( "10.0.0.0/8" ).spliterator( 24 );
+		CidrSpliterator left = right.trySplit();
+		assertNotNull( left );
+		assertEquals( 32768L, left.estimateSize() );
+		assertEquals( 32768L, right.estimateSize() );
+
+		CidrSpliterator single = new PGcidr( "10.0.0.1/32" ).spliterator();
+		assertNull( single.trySplit() );
+	}
+
+	@Test
+	public void testIPv6LowWord() throws SQLException
+	{
+		long[] values = new PGcidr( "2001:db8::/126" ).addresses().toArray();
+		assertArrayEquals( new long[]{ 0L, 1L, 2L, 3L }, values );
+
+		try
+		{
+			new PGcidr( "2001:db8::/32" ).spliterator();
+			fail( "A 64 bit spliterator was created for a /32 IPv6 network." );
+		}
+		catch( IllegalStateException e )
+		{
+			// expected
+		}
+
+		// at most 2^62 values: a /66 fits, the addresses of a /65 do not
+		assertEquals( 1L << 62, new PGcidr( "2001:db8::/66" ).spliterator().estimateSize() );
+		assertEquals( 1L << 62, new PGcidr( "2001:db8::/65" ).spliterator( 127 ).estimateSize() );
+		assertEquals( 1L << 62, new PGcidr( "2001:db8::/64" ).spliterator( 126 ).estimateSize() );
+		String[] tooLarge = { "2001:db8::/65", "2001:db8::/64" };
+		for( String v : tooLarge )
+		{
+			try
+			{
+				new PGcidr( v ).spliterator();
+				fail( "A 64 bit spliterator was created for every address of " + v );
+			}
+			catch( IllegalStateException e )
+			{
+				// expected
+			}
+		}
+		// too many to count in a long, the 128 bit spliterator reports Long.MAX_VALUE
+		assertEquals( Long.MAX_VALUE, new PGcidr( "2001:db8::/65" ).spliterator128( 128 ).estimateSize() );
+	}
+
+	@Test
+	public void testIPv6Subnets128() throws SQLException
+	{
+		final List<long[]> seen = new ArrayList<long[]>();
+		new PGcidr( "2001:db8::/32" ).spliterator128( 34 ).forEachRemaining( new AddressConsumer()
+		{
+			public void accept( long high, long low )
+			{
+				seen.add( new long[]{ high, low } );
+			}
+		} );
+		assertEquals( 4, seen.size() );
+		assertEquals( 0x20010db800000000L, seen.get( 0 )[0] );
+		assertEquals( 0x20010db840000000L, seen.get( 1 )[0] );
+		assertEquals( 0x20010db8c0000000L, seen.get( 3 )[0] );
+		assertEquals( 0L, seen.get( 3 )[1] );
+
+		CidrSpliterator128 all = new PGcidr( "::/0" ).spliterator128( 128 );
+		assertEquals( Long.MAX_VALUE, all.estimateSize() );
+		CidrSpliterator128 half = all.trySplit();
+		assertNotNull( half );
+
+		final long[] first = new long[ 2 ];
+		all.tryAdvance( new AddressConsumer()
+		{
+			public void accept( long high, long low )
+			{
+				first[0] = high;
+				first[1] = low;
+			}
+		} );
+		assertArrayEquals( new long[]{ Long.MIN_VALUE, 0L }, first );
+	}
+
+	@Test
+	public void testParallel128() throws SQLException
+	{
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong sum = new AtomicLong();
+		new PGcidr( "2001:db8::/104" ).spliterator128( 128 ).forEachParallel( new AddressConsumer()
+		{
+			public void accept( long high, long low )
+			{
+				count.incrementAndGet();
+				sum.addAndGet( low );
+			}
+		} );
+		assertEquals( 1L << 24, count.get() );
+		assertEquals( ( ( 1L << 24 ) - 1 ) * ( 1L << 23 ), sum.get() );
+
+		CidrSpliterator128 one = new PGcidr( "2001:db8::1/128" ).spliterator128( 128 );
+		assertNull( one.trySplit() );
+		assertEquals( 1L, one.estimateSize() );
+		one.forEachRemaining( new AddressConsumer()
+		{
+			public void accept( long high, long low )
+			{
+			}
+		} );
+		assertEquals( 0L, one.estimateSize() );
+		assertFalse( one.tryAdvance( null ) );
+	}
+}
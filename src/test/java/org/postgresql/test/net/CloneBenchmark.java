@@ -0,0 +1,82 @@
+package org.postgresql.test.net;
+
+import java.sql.SQLException;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+
+/**
+ *	A rough comparison of copying a value through the copy constructor
+ *	against rebuilding it from its string, which is what clone() used to
+ *	do.  Run it with the test classpath:
+ *
+ *	<pre>java org.postgresql.test.net.CloneBenchmark [iterations]</pre>
+ */
+public class CloneBenchmark
+{
+	private static volatile Object sink;
+
+	public static void main( String[] args )
+	throws SQLException
+	{
+		int iterations = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 2000000;
+		PGinet inet4 = new PGinet( "192.168.1.5/24" );
+		PGinet inet6 = new PGinet( "2001:db8:85a3::8a2e:370:7334/64" );
+		PGcidr cidr = new PGcidr( "10.0.0.0/8" );
+
+		// warm up both paths before timing them.
+		for( int round = 0; round < 3; ++round )
+		{
+			boolean report = round == 2;
+			run( "inet IPv4", inet4, iterations, report );
+			run( "inet IPv6", inet6, iterations, report );
+			run( "cidr", cidr, iterations, report );
+		}
+	}
+
+	private static void run( String name, PGinet value, int iterations, boolean report )
+	throws SQLException
+	{
+		long start = System.nanoTime();
+		for( int i = 0; i < iterations; ++i )
+		{
+			sink = new PGinet( value.getValue() );
+		}
+		long reparse = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for( int i = 0; i < iterations; ++i )
+		{
+			sink = new PGinet( value );
+		}
+		long copy = System.nanoTime() - start;
+		print( name, iterations, reparse, copy, report );
+	}
+
+	private static void run( String name, PGcidr value, int iterations, boolean report )
+	throws SQLException
+	{
+		long start = System.nanoTime();
+		for( int i = 0; i < iterations; ++i )
+		{
+			sink = new PGcidr( value.getValue() );
+		}
+		long reparse = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for( int i = 0; i < iterations; ++i )
+		{
+			sink = new PGcidr( value );
+		}
+		long copy = System.nanoTime() - start;
+		print( name, iterations, reparse, copy, report );
+	}
+
+	private static void print( String name, int iterations, long reparse, long copy, boolean report )
+	{
+		if( report )
+		{
+			System.out.printf( "%-10s reparse %8.1f ns/op   copy %6.1f ns/op   %5.1fx%n", name,
+				(double)reparse / iterations, (double)copy / iterations, (double)reparse / copy );
+		}
+	}
+}
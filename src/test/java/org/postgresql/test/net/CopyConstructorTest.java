@@ -0,0 +1,64 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.sql.SQLException;
+import org.junit.Test;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+import org.postgresql.net.PGmacaddr;
+
+/**
+ *	Unit tests for the copy constructors and clone().
+ */
+public class CopyConstructorTest
+{
+	@Test
+	public void testInetCopy() throws SQLException
+	{
+		String[] values = { "192.168.1.5/24", "::ffff:10.1.2.3", "2001:db8::1/64" };
+		for( int i = 0; i < values.length; ++i )
+		{
+			PGinet inet = new PGinet( values[i] );
+			inet.hashCode();
+			PGinet copy = new PGinet( inet );
+			assertEquals( inet, copy );
+			assertEquals( inet.hashCode(), copy.hashCode() );
+			assertEquals( inet.getValue(), copy.getValue() );
+			assertEquals( inet, inet.clone() );
+			assertNotSame( inet, inet.clone() );
+			assertEquals( "inet", copy.getType() );
+		}
+	}
+
+	@Test
+	public void testCidrCopy() throws SQLException
+	{
+		PGcidr cidr = new PGcidr( "10.0.0.0/8" );
+		PGcidr copy = new PGcidr( cidr );
+		assertEquals( cidr, copy );
+		assertEquals( cidr.getValue(), copy.getValue() );
+		assertEquals( cidr, cidr.clone() );
+		assertEquals( "cidr", copy.getType() );
+	}
+
+	@Test
+	public void testMacaddrCopy() throws SQLException
+	{
+		PGmacaddr mac = new PGmacaddr( "08:00:2b:01:02:03" );
+		PGmacaddr copy = (PGmacaddr)mac.clone();
+		assertEquals( mac, copy );
+		assertEquals( mac.hashCode(), copy.hashCode() );
+		assertNotSame( mac.getBytes(), copy.getBytes() );
+		assertEquals( mac.getValue(), new PGmacaddr( mac ).getValue() );
+	}
+
+	@Test
+	public void testCopyWithoutValue()
+	{
+		assertEquals( "inet", new PGinet( new PGinet() ).getType() );
+		assertNull( new PGmacaddr( new PGmacaddr() ).getBytes() );
+	}
+}
@@ -0,0 +1,263 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.postgresql.net.InetBloomFilter;
+import org.postgresql.net.InetColumn;
+import org.postgresql.net.InetCuckooFilter;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetBloomFilter and InetCuckooFilter.
+ */
+public class FilterTest
+{
+	@Test
+	public void testBloomFilter() throws IOException, SQLException
+	{
+		InetColumn column = new InetColumn();
+		for( int i = 0; i < 200000; ++i )
+		{
+			column.addIPv4( i * 3, 32 );
+		}
+		column.addIPv6( 0x20010db800000000L, 1L, 128 );
+		column.addNull();
+		InetBloomFilter filter = InetBloomFilter.build( column, 0.01, 32, 128 );
+		for( int i = 0; i < 200000; ++i )
+		{
+			assertTrue( filter.mightContain( false, 0L, i * 3L ) );
+		}
+		assertTrue( filter.mightContain( new PGinet( "2001:db8::1" ) ) );
+		assertFalse( filter.mightContain( (PGinet)null ) );
+		int hits = 0;
+		for( int i = 0; i < 100000; ++i )
+		{
+			hits += filter.mightContain( false, 0L, 1000000L + i ) ? 1 : 0;
+		}
+		assertTrue( "false positives " + hits, hits < 1500 );
+		assertTrue( filter.getFalsePositiveRate() < 0.015 );
+
+		InetBloomFilter copy = InetBloomFilter.fromByteArray( filter.toByteArray() );
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		filter.writeTo( out );
+		InetBloomFilter read = InetBloomFilter.readFrom( new ByteArrayInputStream( out.toByteArray() ) );
+		for( int i = 0; i < 1000; ++i )
+		{
+			assertEquals( filter.mightContain( false, 0L, i ), copy.mightContain( false, 0L, i ) );
+			assertEquals( filter.mightContain( false, 0L, i ), read.mightContain( false, 0L, i ) );
+		}
+
+		InetBloomFilter prefixes = new InetBloomFilter( 1000, 0.001, 24, 64 );
+		prefixes.add( new PGinet( "192.0.2.7" ) );
+		assertTrue( prefixes.mightContain( new PGinet( "192.0.2.200" ) ) );
+		assertFalse( prefixes.mightContain( new PGinet( "192.0.3.1" ) ) );
+	}
+
+	@Test
+	public void testCuckooFilter() throws IOException, SQLException
+	{
+		Random random = new Random( 7 );
+		long[] high = new long[ 100000 ];
+		long[] low = new long[ high.length ];
+		InetCuckooFilter filter = new InetCuckooFilter( high.length, 0.01 );
+		for( int i = 0; i < high.length; ++i )
+		{
+			high[i] = random.nextLong();
+			low[i] = random.nextLong();
+			assertTrue( filter.add( true, high[i], low[i] ) );
+		}
+		for( int i = 0; i < high.length; ++i )
+		{
+			assertTrue( filter.mightContain( true, high[i], low[i] ) );
+		}
+		int hits = 0;
+		for( int i = 0; i < 100000; ++i )
+		{
+			hits += filter.mightContain( true, random.nextLong(), random.nextLong() ) ? 1 : 0;
+		}
+		assertTrue( "false positives " + hits, hits < 1500 );
+
+		InetCuckooFilter copy = InetCuckooFilter.fromByteArray( filter.toByteArray() );
+		assertEquals( filter.size(), copy.size() );
+		// an address sharing both bucket and fingerprint with one already
+		// added was not stored again, so it has nothing of its own to remove
+		int removed = 0;
+		for( int i = 0; i < high.length; i += 2 )
+		{
+			removed += copy.remove( true, high[i], low[i] ) ? 1 : 0;
+		}
+		assertTrue( removed > high.length / 2 * 0.99 );
+		assertEquals( filter.size() - removed, copy.size() );
+		int remaining = 0;
+		for( int i = 0; i < high.length; i += 2 )
+		{
+			remaining += copy.mightContain( true, high[i], low[i] ) ? 1 : 0;
+		}
+		assertTrue( "remaining " + remaining, remaining < 1500 );
+
+		// rolled up duplicates take no room
+		InetCuckooFilter prefixes = new InetCuckooFilter( 16, 0.01, 24, 64 );
+		for( int i = 0; i < 10000; ++i )
+		{
+			assertTrue( prefixes.add( false, 0L, 0xC0000200L + ( i & 0xFF ) ) );
+		}
+		assertEquals( 1, prefixes.size() );
+		assertTrue( prefixes.mightContain( new PGinet( "192.0.2.99" ) ) );
+	}
+
+	@Test
+	public void testCuckooBuildAndFull()
+	{
+		InetColumn column = new InetColumn();
+		for( int i = 0; i < 300000; ++i )
+		{
+			column.addIPv4( i * 7 + 1, 32 );
+		}
+		InetCuckooFilter filter = InetCuckooFilter.build( column, 0.001, 32, 128 );
+		for( int i = 0; i < 300000; ++i )
+		{
+			assertTrue( filter.mightContain( false, 0L, i * 7L + 1 ) );
+		}
+		InetCuckooFilter small = new InetCuckooFilter( 100, 0.01 );
+		int added = 0;
+		while( small.add( false, 0L, added ) )
+		{
+			++added;
+		}
+		assertTrue( added >= 100 );
+		for( int i = 0; i < added; ++i )
+		{
+			assertTrue( small.mightContain( false, 0L, i ) );
+		}
+	}
+
+	@Test
+	public void testBackToBack() throws IOException, SQLException
+	{
+		InetColumn column = new InetColumn();
+		for( int i = 0; i < 100000; ++i )
+		{
+			column.addIPv4( i * 5, 32 );
+		}
+		InetBloomFilter bloom = InetBloomFilter.build( column, 0.01, 32, 128 );
+		InetCuckooFilter cuckoo = InetCuckooFilter.build( column, 0.01, 32, 128 );
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bloom.writeTo( out );
+		cuckoo.writeTo( out );
+		bloom.writeTo( out );
+		out.write( 42 );
+
+		// each read stops at the end of its own filter
+		ByteArrayInputStream in = new ByteArrayInputStream( out.toByteArray() );
+		InetBloomFilter first = InetBloomFilter.readFrom( in );
+		InetCuckooFilter second = InetCuckooFilter.readFrom( in );
+		InetBloomFilter third = InetBloomFilter.readFrom( in );
+		assertEquals( 42, in.read() );
+		assertEquals( -1, in.read() );
+		for( InetBloomFilter read : new InetBloomFilter[]{ first, third } )
+		{
+			assertArrayEquals( bloom.toByteArray(), read.toByteArray() );
+		}
+		assertArrayEquals( cuckoo.toByteArray(), second.toByteArray() );
+		for( int i = 0; i < 100000; ++i )
+		{
+			assertTrue( second.mightContain( false, 0L, i * 5L ) );
+		}
+	}
+
+	@Test
+	public void testInvalid()
+	{
+		byte[][] bad = { {}, { 'B', 0, 32, (byte)128, 0, 0, 0, 1 }, { 'B', 7, 32, (byte)128, 0, 0, 0, 1 } };
+		for( int i = 0; i < bad.length; ++i )
+		{
+			try
+			{
+				InetBloomFilter.fromByteArray( bad[i] );
+				fail( "Expected a failure for case " + i );
+			}
+			catch( SQLException e )
+			{
+			}
+		}
+		try
+		{
+			InetCuckooFilter.fromByteArray( new byte[]{ 'K', 8, 32, (byte)128, 0, 0, 0, 3 } );
+			fail( "Expected a failure" );
+		}
+		catch( SQLException e )
+		{
+		}
+	}
+
+	@Test
+	public void testHugeHeader() throws IOException
+	{
+		// headers claiming far more than follows fail without allocating
+		// the claimed size first
+		byte[] bloom = { 'B', 7, 32, (byte)128, 0x7F, (byte)0xFF, (byte)0xFF, (byte)0xF0, 1, 2, 3, 4, 5, 6, 7, 8 };
+		byte[] cuckoo = new byte[ 26 ];
+		cuckoo[0] = 'K';
+		cuckoo[1] = 8;
+		cuckoo[2] = 32;
+		cuckoo[3] = (byte)128;
+		cuckoo[4] = 0x10;
+		try
+		{
+			InetBloomFilter.fromByteArray( bloom );
+			fail( "Expected a failure" );
+		}
+		catch( SQLException e )
+		{
+		}
+		try
+		{
+			InetBloomFilter.readFrom( new ByteArrayInputStream( bloom ) );
+			fail( "Expected a failure" );
+		}
+		catch( SQLException e )
+		{
+		}
+		try
+		{
+			InetCuckooFilter.fromByteArray( cuckoo );
+			fail( "Expected a failure" );
+		}
+		catch( SQLException e )
+		{
+		}
+		try
+		{
+			InetCuckooFilter.readFrom( new ByteArrayInputStream( cuckoo ) );
+			fail( "Expected a failure" );
+		}
+		catch( SQLException e )
+		{
+		}
+
+		// a length one byte short or long of what the header says
+		byte[] good = new InetBloomFilter( 1000, 0.01 ).toByteArray();
+		for( byte[] b : new byte[][]{ Arrays.copyOf( good, good.length - 1 ), Arrays.copyOf( good, good.length + 1 ) } )
+		{
+			try
+			{
+				InetBloomFilter.fromByteArray( b );
+				fail( "Expected a failure" );
+			}
+			catch( SQLException e )
+			{
+			}
+		}
+	}
+}
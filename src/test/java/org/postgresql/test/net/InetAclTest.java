@@ -0,0 +1,178 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import java.util.Random;
+import org.junit.Test;
+import org.postgresql.net.InetAcl;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetAcl.
+ */
+public class InetAclTest
+{
+	private static final int ALLOW = 1;
+	private static final int DENY = 2;
+
+	@Test
+	public void testFirstMatch() throws SQLException
+	{
+		InetAcl acl = new InetAcl.Builder()
+			.add( DENY, cidrs( "10.1.0.0/16" ), null )
+			.add( ALLOW, cidrs( "10.0.0.0/8", "2001:db8::/32" ), cidrs( "192.168.0.0/16" ) )
+			.add( DENY, null, cidrs( "192.168.1.0/24" ) )
+			.add( ALLOW, cidrs( "0.0.0.0/0" ), cidrs( "::/0" ) )
+			.build();
+		assertEquals( 4, acl.size() );
+		assertEquals( 0, acl.firstMatch( new PGinet( "10.1.2.3" ), new PGinet( "192.168.1.1" ) ) );
+		assertEquals( 1, acl.firstMatch( new PGinet( "10.2.2.3" ), new PGinet( "192.168.1.1" ) ) );
+		assertEquals( 1, acl.firstMatch( new PGinet( "2001:db8::5" ), new PGinet( "192.168.7.1" ) ) );
+		assertEquals( 2, acl.firstMatch( new PGinet( "2001:db9::5" ), new PGinet( "192.168.1.1" ) ) );
+		assertEquals( 3, acl.firstMatch( new PGinet( "11.0.0.1" ), new PGinet( "::1" ) ) );
+		assertEquals( -1, acl.firstMatch( new PGinet( "11.0.0.1" ), new PGinet( "8.8.8.8" ) ) );
+		assertEquals( 7, acl.evaluate( new PGinet( "::1" ), new PGinet( "8.8.8.8" ), 7 ) );
+		assertEquals( DENY, acl.evaluate( new PGinet( "10.1.0.0" ), new PGinet( "::1" ), 7 ) );
+		assertEquals( -1, new InetAcl.Builder().build().firstMatch( new PGinet( "::1" ), new PGinet( "::1" ) ) );
+	}
+
+	@Test
+	public void testAgainstLinearScan()
+	{
+		Random random = new Random( 3 );
+		int rules = 700;
+		// { family, high, low, bits } per prefix, per rule
+		long[][][] sources = new long[ rules ][][];
+		long[][][] destinations = new long[ rules ][][];
+		InetAcl.Builder builder = new InetAcl.Builder();
+		for( int r = 0; r < rules; ++r )
+		{
+			sources[r] = randomPrefixes( random );
+			destinations[r] = randomPrefixes( random );
+			builder.add( r, toCidrs( sources[r] ), toCidrs( destinations[r] ) );
+		}
+		InetAcl acl = builder.build();
+		for( int i = 0; i < 20000; ++i )
+		{
+			long[] s = randomAddress( random );
+			long[] d = randomAddress( random );
+			int expected = -1;
+			for( int r = 0; ( r < rules ) && ( expected < 0 ); ++r )
+			{
+				if( matches( sources[r], s ) && matches( destinations[r], d ) )
+				{
+					expected = r;
+				}
+			}
+			assertEquals( expected, acl.firstMatch( s[0] == 1L, s[1], s[2], d[0] == 1L, d[1], d[2] ) );
+		}
+	}
+
+	private static long[][] randomPrefixes( Random random )
+	{
+		long[][] prefixes = new long[ random.nextInt( 4 ) ][];
+		for( int i = 0; i < prefixes.length; ++i )
+		{
+			long[] a = randomAddress( random );
+			int bits = ( a[0] == 1L ) ? 100 + random.nextInt( 29 ) : 14 + random.nextInt( 19 );
+			if( random.nextInt( 20 ) == 0 )
+			{
+				bits = random.nextInt( 3 );
+			}
+			int width = ( a[0] == 1L ) ? 128 : 32;
+			int host = width - bits;
+			// clear the host bits
+			if( host >= 64 )
+			{
+				a[1] &= ( host == 128 ) ? 0L : -1L << ( host - 64 );
+				a[2] = 0L;
+			}
+			else
+			{
+				a[2] &= ( host == 0 ) ? -1L : -1L << host;
+			}
+			prefixes[i] = new long[]{ a[0], a[1], a[2], bits };
+		}
+		return( prefixes );
+	}
+
+	/**
+	 *	Addresses from a small space so prefixes overlap often.
+	 */
+	private static long[] randomAddress( Random random )
+	{
+		if( random.nextInt( 3 ) == 0 )
+		{
+			return( new long[]{ 1L, 0x20010db800000000L, random.nextInt( 1 << 20 ) << 8 } );
+		}
+		return( new long[]{ 0L, 0L, 0x0A000000L | ( random.nextInt( 1 << 14 ) << 6 ) | random.nextInt( 64 ) } );
+	}
+
+	private static boolean matches( long[][] prefixes, long[] a )
+	{
+		if( prefixes.length == 0 )
+		{
+			return( true );
+		}
+		for( long[] p : prefixes )
+		{
+			if( p[0] != a[0] )
+			{
+				continue;
+			}
+			int host = ( ( p[0] == 1L ) ? 128 : 32 ) - (int)p[3];
+			long maskHigh = ( host >= 128 ) ? 0L : ( host > 64 ) ? -1L << ( host - 64 ) : -1L;
+			long maskLow = ( host >= 64 ) ? 0L : -1L << host;
+			if( ( ( a[1] & maskHigh ) == p[1] ) && ( ( a[2] & maskLow ) == p[2] ) )
+			{
+				return( true );
+			}
+		}
+		return( false );
+	}
+
+	private static PGcidr[] toCidrs( long[][] prefixes )
+	{
+		PGcidr[] cidrs = new PGcidr[ prefixes.length ];
+		StringBuilder sb = new StringBuilder();
+		for( int i = 0; i < prefixes.length; ++i )
+		{
+			long[] p = prefixes[i];
+			sb.setLength( 0 );
+			if( p[0] == 1L )
+			{
+				for( int g = 0; g < 8; ++g )
+				{
+					long word = ( g < 4 ) ? p[1] : p[2];
+					sb.append( Long.toHexString( ( word >>> ( 48 - 16 * ( g & 3 ) ) ) & 0xFFFFL ) ).append( ( g < 7 ) ? ":" : "" );
+				}
+			}
+			else
+			{
+				sb.append( p[2] >>> 24 ).append( '.' ).append( ( p[2] >>> 16 ) & 0xFF ).append( '.' )
+					.append( ( p[2] >>> 8 ) & 0xFF ).append( '.' ).append( p[2] & 0xFF );
+			}
+			try
+			{
+				cidrs[i] = new PGcidr( sb.append( '/' ).append( p[3] ).toString() );
+			}
+			catch( SQLException e )
+			{
+				throw( new IllegalStateException( e ) );
+			}
+		}
+		return( cidrs );
+	}
+
+	private static PGcidr[] cidrs( String... values ) throws SQLException
+	{
+		PGcidr[] cidrs = new PGcidr[ values.length ];
+		for( int i = 0; i < values.length; ++i )
+		{
+			cidrs[i] = new PGcidr( values[i] );
+		}
+		return( cidrs );
+	}
+}
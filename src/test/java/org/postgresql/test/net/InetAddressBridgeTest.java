@@ -0,0 +1,105 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.SQLException;
+import org.junit.Test;
+import org.postgresql.net.InetAddressCache;
+import org.postgresql.net.InetValue;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for the conversions between the inet types and
+ *	java.net.InetAddress.
+ */
+public class InetAddressBridgeTest
+{
+	@Test
+	public void testToInetAddress() throws SQLException, UnknownHostException
+	{
+		InetAddress v4 = new PGinet( "192.168.1.20/24" ).toInetAddress();
+		assertTrue( v4 instanceof Inet4Address );
+		assertArrayEquals( new byte[]{ (byte)192, (byte)168, 1, 20 }, v4.getAddress() );
+		assertEquals( "192.168.1.20", v4.getHostAddress() );
+
+		InetAddress v6 = new PGinet( "2001:db8::1/64" ).toInetAddress();
+		assertTrue( v6 instanceof Inet6Address );
+		assertEquals( InetAddress.getByName( "2001:db8::1" ), v6 );
+		assertEquals( 0, ( (Inet6Address)v6 ).getScopeId() );
+
+		// an IPv4-mapped address keeps its family
+		InetAddress mapped = new PGinet( "::ffff:10.1.2.3" ).toInetAddress();
+		assertTrue( mapped instanceof Inet6Address );
+		assertEquals( 16, mapped.getAddress().length );
+
+		assertEquals( InetAddress.getByName( "10.0.0.0" ), new PGcidr( "10.0.0.0/8" ).toInetAddress() );
+		assertEquals( v4, InetValue.valueOf( "192.168.1.20/24" ).toInetAddress() );
+		assertNull( new PGinet().toInetAddress() );
+	}
+
+	@Test
+	public void testFromInetAddress() throws SQLException, UnknownHostException
+	{
+		assertEquals( new PGinet( "10.1.2.3" ), new PGinet( InetAddress.getByName( "10.1.2.3" ) ) );
+		assertEquals( "10.1.2.3", new PGinet( InetAddress.getByName( "10.1.2.3" ) ).getValue() );
+		PGinet v6 = new PGinet( Inet6Address.getByAddress( null, InetAddress.getByName( "fe80::1" ).getAddress(), 3 ) );
+		assertEquals( new PGinet( "fe80::1/128" ), v6 );
+
+		// the mapped form prints as it would have been parsed
+		byte[] bytes = new byte[ 16 ];
+		bytes[10] = (byte)0xFF;
+		bytes[11] = (byte)0xFF;
+		bytes[12] = 10;
+		bytes[15] = 1;
+		PGinet mapped = new PGinet( Inet6Address.getByAddress( null, bytes, -1 ) );
+		assertEquals( new PGinet( "::ffff:10.0.0.1" ).getValue(), mapped.getValue() );
+		assertEquals( new PGinet( "::ffff:10.0.0.1" ), mapped );
+		PGinet round = new PGinet( "::ffff:10.0.0.1/128" );
+		assertEquals( round.getValue(), new PGinet( round.toInetAddress() ).getValue() );
+		assertEquals( mapped.getValue(), InetValue.of( mapped.toInetAddress() ).getValue() );
+	}
+
+	@Test
+	public void testEmbeddedFlagIsReset() throws SQLException
+	{
+		PGinet inet = new PGinet( "::ffff:10.0.0.1" );
+		inet.setValue( "::1" );
+		assertEquals( new PGinet( "::1" ).getValue(), inet.getValue() );
+		PGcidr cidr = new PGcidr( "::ffff:10.0.0.0/120" );
+		cidr.setValue( "2001:db8::/32" );
+		assertEquals( new PGcidr( "2001:db8::/32" ).getValue(), cidr.getValue() );
+	}
+
+	@Test
+	public void testCache() throws SQLException, UnknownHostException
+	{
+		InetAddressCache cache = new InetAddressCache( 4 );
+		InetAddress a = InetAddress.getByName( "172.16.0.1" );
+		PGinet first = cache.toPGinet( a );
+		PGinet second = cache.toPGinet( InetAddress.getByName( "172.16.0.1" ) );
+		assertEquals( new PGinet( a ), first );
+		assertEquals( first, second );
+		assertSame( first.getValue(), second.getValue() );
+		assertSame( cache.toInetValue( a ), cache.toInetValue( a ) );
+		// the copies are independent of the cache
+		second.setValue( "172.16.0.1/16" );
+		assertEquals( "172.16.0.1", cache.toPGinet( a ).getValue() );
+		for( int i = 0; i < 100; ++i )
+		{
+			InetAddress b = InetAddress.getByAddress( new byte[]{ 10, 0, 0, (byte)i } );
+			assertEquals( new PGinet( b ), cache.toPGinet( b ) );
+		}
+		cache.clear();
+		assertEquals( new PGinet( a ), cache.toPGinet( a ) );
+		assertNull( cache.toPGinet( null ) );
+	}
+}
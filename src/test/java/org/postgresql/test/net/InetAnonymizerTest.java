@@ -0,0 +1,107 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Random;
+import org.junit.Test;
+import org.postgresql.net.InetAnonymizer;
+import org.postgresql.net.InetColumn;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetAnonymizer.
+ */
+public class InetAnonymizerTest
+{
+	/** The key of the sample program shipped with Crypto-PAn. */
+	private static final int[] SAMPLE_KEY = { 21, 34, 23, 141, 51, 164, 207, 128, 19, 10, 91, 22, 73, 144, 125, 16,
+		216, 152, 143, 131, 121, 121, 101, 39, 98, 87, 76, 45, 42, 132, 34, 2 };
+
+	@Test
+	public void testReferenceTrace() throws SQLException
+	{
+		// from the sample trace shipped with Crypto-PAn
+		String[][] trace = {
+			{ "128.11.68.132", "135.242.180.132" },
+			{ "129.118.74.4", "134.136.186.123" },
+			{ "130.132.252.244", "133.68.164.234" },
+			{ "141.223.7.43", "141.167.8.160" },
+			{ "141.233.145.108", "141.129.237.235" },
+			{ "152.163.225.39", "151.140.114.167" },
+			{ "156.29.3.236", "147.225.12.42" },
+			{ "165.247.96.84", "162.9.99.234" },
+			{ "166.107.77.190", "160.132.178.185" },
+			{ "192.102.249.13", "252.138.62.131" },
+		};
+		InetAnonymizer anonymizer = new InetAnonymizer( key() );
+		for( String[] pair : trace )
+		{
+			assertEquals( new PGinet( pair[1] ), anonymizer.anonymize( new PGinet( pair[0] ) ) );
+		}
+		// the second pass is served from the cache
+		long calls = anonymizer.getCipherCalls();
+		for( String[] pair : trace )
+		{
+			assertEquals( new PGinet( pair[1] + "/16" ), anonymizer.anonymize( new PGinet( pair[0] + "/16" ) ) );
+		}
+		assertEquals( calls, anonymizer.getCipherCalls() );
+		assertEquals( new PGcidr( "141.167.0.0/16" ), anonymizer.anonymize( new PGcidr( "141.223.0.0/16" ) ) );
+		assertNull( anonymizer.anonymize( (PGinet)null ) );
+	}
+
+	@Test
+	public void testPrefixPreserving()
+	{
+		Random random = new Random( 9 );
+		InetAnonymizer anonymizer = new InetAnonymizer( key(), 64 );
+		InetAnonymizer uncached = new InetAnonymizer( key(), 1 );
+		InetColumn column = new InetColumn();
+		for( int i = 0; i < 3000; ++i )
+		{
+			int a = random.nextInt();
+			int b = a ^ ( random.nextInt() >>> random.nextInt( 32 ) );
+			int x = anonymizer.anonymizeIPv4( a );
+			int y = anonymizer.anonymizeIPv4( b );
+			assertEquals( Integer.numberOfLeadingZeros( a ^ b ), Integer.numberOfLeadingZeros( x ^ y ) );
+			assertEquals( x, uncached.anonymizeIPv4( a ) );
+			column.addIPv4( a, 32 );
+
+			long high = random.nextLong();
+			long low = random.nextLong();
+			long otherLow = low ^ ( 1L << random.nextInt( 64 ) );
+			column.addIPv6( high, low, 64 );
+			column.addIPv6( high, otherLow, 128 );
+		}
+		column.addNull();
+		InetColumn anonymized = anonymizer.anonymize( column );
+		assertEquals( column.size(), anonymized.size() );
+		assertTrue( anonymized.isNull( column.size() - 1 ) );
+		for( int i = 0; i < column.size() - 1; i += 3 )
+		{
+			assertEquals( anonymizer.anonymizeIPv4( (int)column.getLowWord( i ) ), (int)anonymized.getLowWord( i ) );
+			assertEquals( column.getNetmask( i + 1 ), anonymized.getNetmask( i + 1 ) );
+			assertTrue( anonymized.isIPv6( i + 1 ) );
+			// the two IPv6 addresses first differ at the same bit
+			assertEquals( anonymized.getHighWord( i + 1 ), anonymized.getHighWord( i + 2 ) );
+			assertEquals( Long.numberOfLeadingZeros( column.getLowWord( i + 1 ) ^ column.getLowWord( i + 2 ) ),
+				Long.numberOfLeadingZeros( anonymized.getLowWord( i + 1 ) ^ anonymized.getLowWord( i + 2 ) ) );
+			assertFalse( ( column.getHighWord( i + 1 ) == anonymized.getHighWord( i + 1 ) ) &&
+				( column.getLowWord( i + 1 ) == anonymized.getLowWord( i + 1 ) ) );
+		}
+	}
+
+	private static byte[] key()
+	{
+		byte[] key = new byte[ SAMPLE_KEY.length ];
+		for( int i = 0; i < key.length; ++i )
+		{
+			key[i] = (byte)SAMPLE_KEY[i];
+		}
+		return( key );
+	}
+}
@@ -0,0 +1,181 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.junit.Test;
+import org.postgresql.net.InetArrayCodec;
+import org.postgresql.net.InetColumn;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+import org.postgresql.net.PGmacaddr;
+import org.postgresql.util.PGobject;
+
+/**
+ *	Unit tests for the InetArrayCodec, these do not need a database.
+ */
+public class InetArrayCodecTest
+{
+	@Test
+	public void testParseInetArray() throws SQLException
+	{
+		PGinet[] values = InetArrayCodec.parseInetArray(
+			"{192.168.1.10,10.0.0.1/8,NULL,\"::1\",1234:5678::abcd/64,::ffff:1.2.3.4}" );
+
+		assertEquals( 6, values.length );
+		assertEquals( new PGinet( "192.168.1.10" ), values[0] );
+		assertEquals( new PGinet( "10.0.0.1/8" ), values[1] );
+		assertNull( values[2] );
+		assertEquals( new PGinet( "::1" ), values[3] );
+		assertEquals( new PGinet( "1234:5678::abcd/64" ), values[4] );
+		assertEquals( new PGinet( "::ffff:1.2.3.4" ), values[5] );
+		assertEquals( new PGinet( "::ffff:1.2.3.4" ).getValue(), values[5].getValue() );
+	}
+
+	@Test
+	public void testParseEmptyAndBoundedArrays() throws SQLException
+	{
+		assertEquals( 0, InetArrayCodec.parseInetArray( "{}" ).length );
+		assertEquals( 2, InetArrayCodec.parseInetArray( "[0:1]={1.2.3.4,5.6.7.8}" ).length );
+	}
+
+	@Test
+	public void testParseInvalidArrays()
+	{
+		String[] invalid = {
+			"",
+			"1.2.3.4",
+			"{1.2.3.4",
+			"{1.2.3.4,}",
+			"{{1.2.3.4}}",
+			"{300.1.1.1}",
+			"{1.2.3.4} junk"
+		};
+		for( String literal : invalid )
+		{
+			try
+			{
+				InetArrayCodec.parseInetArray( literal );
+				fail( "An invalid array literal was accepted: " + literal );
+			}
+			catch( SQLException e )
+			{
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testParseCidrArray() throws SQLException
+	{
+		PGcidr[] values = InetArrayCodec.parseCidrArray( "{10.0.0.0/8,192.168.1,2001:db8::/32}" );
+		assertEquals( new PGcidr( "10.0.0.0/8" ), values[0] );
+		assertEquals( new PGcidr( "192.168.1.0/24" ), values[1] );
+		assertEquals( new PGcidr( "2001:db8::/32" ), values[2] );
+
+		try
+		{
+			InetArrayCodec.parseCidrArray( "{10.0.0.1/8}" );
+			fail( "A cidr with host bits set was accepted." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testParseMacaddrArray() throws SQLException
+	{
+		PGmacaddr[] values = InetArrayCodec.parseMacaddrArray( "{08:00:2b:01:02:03,NULL,0800.2b01.0204}" );
+		assertEquals( new PGmacaddr( "08:00:2b:01:02:03" ), values[0] );
+		assertNull( values[1] );
+		assertEquals( new PGmacaddr( "08:00:2b:01:02:04" ), values[2] );
+	}
+
+	@Test
+	public void testParseColumn() throws SQLException
+	{
+		InetColumn column = InetArrayCodec.parseColumn( "{192.168.1.10/24,NULL,::1}" );
+		assertEquals( 3, column.size() );
+		assertFalse( column.isIPv6( 0 ) );
+		assertEquals( 0xC0A8010AL, column.getLowWord( 0 ) );
+		assertEquals( 24, column.getNetmask( 0 ) );
+		assertTrue( column.isNull( 1 ) );
+		assertTrue( column.isIPv6( 2 ) );
+		assertEquals( 0L, column.getHighWord( 2 ) );
+		assertEquals( 1L, column.getLowWord( 2 ) );
+		assertEquals( new PGinet( "::1" ), column.getInet( 2 ) );
+	}
+
+	@Test
+	public void testArrayLiteralRoundTrip() throws SQLException
+	{
+		PGinet[] values = {
+			new PGinet( "192.168.1.10/24" ),
+			null,
+			new PGinet( "1234:5678::abcd" ),
+			new PGinet( "::192.168.1.1" )
+		};
+		String literal = InetArrayCodec.toArrayLiteral( Arrays.asList( values ) );
+		assertEquals( "{192.168.1.10/24,NULL,1234:5678:0000:0000:0000:0000:0000:abcd," +
+			"0000:0000:0000:0000:0000:0000:192.168.1.1}", literal );
+		assertArrayEquals( values, InetArrayCodec.parseInetArray( literal ) );
+
+		InetColumn column = InetArrayCodec.parseColumn( literal );
+		assertEquals( literal, InetArrayCodec.toArrayLiteral( column ) );
+
+		PGobject parameter = InetArrayCodec.toArrayParameter( Arrays.asList( values ), "inet" );
+		assertEquals( "_inet", parameter.getType() );
+		assertEquals( literal, parameter.getValue() );
+	}
+
+	@Test
+	public void testDecodeBinaryArrays() throws SQLException, IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( bytes );
+		out.writeInt( 1 );		// dimensions
+		out.writeInt( 1 );		// has nulls
+		out.writeInt( 869 );	// inet
+		out.writeInt( 3 );		// elements
+		out.writeInt( 1 );		// lower bound
+		out.writeInt( 8 );
+		out.write( new byte[]{ 2, 24, 0, 4, (byte)192, (byte)168, 1, 10 } );
+		out.writeInt( -1 );
+		out.writeInt( 20 );
+		out.write( new byte[]{ 3, (byte)128, 0, 16, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 } );
+		byte[] data = bytes.toByteArray();
+
+		PGinet[] values = InetArrayCodec.decodeInetArray( data );
+		assertEquals( 3, values.length );
+		assertEquals( new PGinet( "192.168.1.10/24" ), values[0] );
+		assertNull( values[1] );
+		assertEquals( new PGinet( "::1" ), values[2] );
+
+		InetColumn column = InetArrayCodec.decodeColumn( data );
+		assertEquals( 3, column.size() );
+		assertEquals( 24, column.getNetmask( 0 ) );
+		assertTrue( column.isNull( 1 ) );
+		assertEquals( 1L, column.getLowWord( 2 ) );
+
+		try
+		{
+			InetArrayCodec.decodeInetArray( Arrays.copyOf( data, data.length - 1 ) );
+			fail( "A truncated binary array was accepted." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+	}
+}
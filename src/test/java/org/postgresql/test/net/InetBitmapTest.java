@@ -0,0 +1,168 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import org.junit.Test;
+import org.postgresql.net.InetBitmap;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetBitmap.
+ */
+public class InetBitmapTest
+{
+	// addresses are drawn from 10.0.0.0 to 10.3.255.255, four blocks
+	private static final int BASE = 0x0A000000;
+	private static final int SPAN = 4 << 16;
+
+	@Test
+	public void testAgainstBitSet()
+	{
+		Random random = new Random( 3 );
+		for( int round = 0; round < 20; ++round )
+		{
+			BitSet x = new BitSet();
+			BitSet y = new BitSet();
+			InetBitmap a = fill( random, x );
+			InetBitmap b = fill( random, y );
+			check( a, x );
+			check( b, y );
+			BitSet or = (BitSet)x.clone();
+			or.or( y );
+			check( InetBitmap.or( a, b ), or );
+			BitSet and = (BitSet)x.clone();
+			and.and( y );
+			check( InetBitmap.and( a, b ), and );
+			BitSet andNot = (BitSet)x.clone();
+			andNot.andNot( y );
+			check( InetBitmap.andNot( a, b ), andNot );
+			// the operands are left alone
+			check( a, x );
+			check( b, y );
+		}
+	}
+
+	@Test
+	public void testCidrs() throws SQLException
+	{
+		List<PGcidr> cidrs = new ArrayList<PGcidr>();
+		cidrs.add( new PGcidr( "0.0.0.0/1" ) );
+		cidrs.add( new PGcidr( "192.168.0.0/16" ) );
+		cidrs.add( new PGcidr( "192.168.1.0/24" ) );
+		cidrs.add( new PGcidr( "192.169.0.0/16" ) );
+		cidrs.add( new PGcidr( "255.255.255.255/32" ) );
+		InetBitmap bitmap = InetBitmap.fromCidrs( cidrs );
+		assertEquals( ( 1L << 31 ) + 2 * 65536 + 1, bitmap.cardinality() );
+		assertTrue( bitmap.getSizeInBytes() < 400 * 1024 );
+		List<PGcidr> minimal = bitmap.toCidrs();
+		assertEquals( 3, minimal.size() );
+		assertEquals( new PGcidr( "0.0.0.0/1" ), minimal.get( 0 ) );
+		assertEquals( new PGcidr( "192.168.0.0/15" ), minimal.get( 1 ) );
+		assertEquals( new PGcidr( "255.255.255.255/32" ), minimal.get( 2 ) );
+		assertTrue( bitmap.contains( new PGinet( "127.0.0.1" ) ) );
+		assertTrue( bitmap.contains( -1 ) );
+		assertFalse( bitmap.contains( new PGinet( "128.0.0.0" ) ) );
+		assertFalse( bitmap.contains( new PGinet( "::1" ) ) );
+		assertEquals( 1L << 31, bitmap.rank( 0x7FFFFFFF ) );
+
+		assertTrue( bitmap.remove( 0x7F000001 ) );
+		assertFalse( bitmap.contains( new PGinet( "127.0.0.1" ) ) );
+		assertEquals( ( 1L << 31 ) + 2 * 65536, bitmap.cardinality() );
+		assertEquals( 31 + 2, bitmap.toCidrs().size() );
+		InetBitmap everything = new InetBitmap();
+		everything.addRange( 0, -1 );
+		assertEquals( 1L << 32, everything.cardinality() );
+		assertEquals( new PGcidr( "0.0.0.0/0" ), everything.toCidrs().get( 0 ) );
+		assertTrue( InetBitmap.andNot( everything, everything ).isEmpty() );
+	}
+
+	@Test
+	public void testIteration() throws SQLException
+	{
+		InetBitmap bitmap = new InetBitmap();
+		bitmap.add( new PGinet( "10.0.0.2" ) );
+		bitmap.add( new PGinet( "10.0.0.1" ) );
+		bitmap.add( -1 );
+		bitmap.addRange( 0x0A0000FF, 0x0A000101 );
+		Iterator<PGinet> it = bitmap.iterator();
+		String[] expected = { "10.0.0.1", "10.0.0.2", "10.0.0.255", "10.0.1.0", "10.0.1.1", "255.255.255.255" };
+		for( int i = 0; i < expected.length; ++i )
+		{
+			assertEquals( new PGinet( expected[i] ), it.next() );
+		}
+		assertFalse( it.hasNext() );
+	}
+
+	private static InetBitmap fill( Random random, BitSet expected )
+	{
+		InetBitmap bitmap = new InetBitmap();
+		// one sparse block, one dense, one complete and one by ranges
+		for( int i = 0; i < 1000; ++i )
+		{
+			put( bitmap, expected, random.nextInt( 65536 ) );
+		}
+		for( int i = 0; i < 30000; ++i )
+		{
+			put( bitmap, expected, 65536 + random.nextInt( 65536 ) );
+		}
+		if( random.nextBoolean() )
+		{
+			bitmap.addRange( BASE + 2 * 65536, BASE + 3 * 65536 - 1 );
+			expected.set( 2 * 65536, 3 * 65536 );
+		}
+		for( int i = 0; i < 20; ++i )
+		{
+			int first = random.nextInt( SPAN - 2 * 65536 ) + 65536;
+			int last = first + random.nextInt( 5000 );
+			bitmap.addRange( BASE + first, BASE + last );
+			expected.set( first, last + 1 );
+		}
+		for( int i = 0; i < 2000; ++i )
+		{
+			int v = random.nextInt( SPAN );
+			assertEquals( expected.get( v ), bitmap.remove( BASE + v ) );
+			expected.clear( v );
+		}
+		return( bitmap );
+	}
+
+	private static void put( InetBitmap bitmap, BitSet expected, int v )
+	{
+		assertEquals( !expected.get( v ), bitmap.add( BASE + v ) );
+		expected.set( v );
+	}
+
+	private static void check( InetBitmap bitmap, BitSet expected )
+	{
+		assertEquals( expected.cardinality(), bitmap.cardinality() );
+		PrimitiveIterator.OfInt it = bitmap.intIterator();
+		for( int v = expected.nextSetBit( 0 ); v >= 0; v = expected.nextSetBit( v + 1 ) )
+		{
+			assertEquals( BASE + v, it.nextInt() );
+		}
+		assertFalse( it.hasNext() );
+		Random random = new Random( 5 );
+		for( int i = 0; i < 1000; ++i )
+		{
+			int v = random.nextInt( SPAN );
+			assertEquals( expected.get( v ), bitmap.contains( BASE + v ) );
+			assertEquals( expected.get( 0, v + 1 ).cardinality(), bitmap.rank( BASE + v ) );
+		}
+		long covered = 0L;
+		for( PGcidr cidr : bitmap.toCidrs() )
+		{
+			covered += 1L << ( 32 - cidr.getNetmask() );
+		}
+		assertEquals( expected.cardinality(), covered );
+	}
+}
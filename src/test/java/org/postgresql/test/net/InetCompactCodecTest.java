@@ -0,0 +1,152 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import org.junit.Test;
+import org.postgresql.net.CidrValue;
+import org.postgresql.net.InetCompactCodec;
+import org.postgresql.net.InetValue;
+import org.postgresql.net.LazyPGcidr;
+import org.postgresql.net.LazyPGinet;
+import org.postgresql.net.LazyPGmacaddr;
+import org.postgresql.net.MacaddrValue;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+import org.postgresql.net.PGmacaddr;
+import org.postgresql.util.PGobject;
+
+/**
+ *	Unit tests for the compact binary encoding and the serialized form
+ *	built on it.
+ */
+public class InetCompactCodecTest
+{
+	@Test
+	public void testEncodedSizes() throws SQLException
+	{
+		assertEquals( 5, InetCompactCodec.encode( new PGinet( "10.0.0.1" ) ).length );
+		assertEquals( 6, InetCompactCodec.encode( new PGinet( "10.0.0.1/8" ) ).length );
+		assertEquals( 17, InetCompactCodec.encode( new PGinet( "2001:db8::1" ) ).length );
+		assertEquals( 18, InetCompactCodec.encode( new PGcidr( "2001:db8::/32" ) ).length );
+		assertEquals( 7, InetCompactCodec.encode( new PGmacaddr( "08:00:2b:01:02:03" ) ).length );
+	}
+
+	@Test
+	public void testBufferRoundTrip() throws SQLException
+	{
+		PGobject[] values = {
+			new PGinet( "192.168.1.5/24" ),
+			new PGinet( "::ffff:10.1.2.3" ),
+			new PGcidr( "10.0.0.0/8" ),
+			new PGcidr( "2001:db8::/32" ),
+			new PGmacaddr( "08:00:2b:01:02:03" )
+		};
+		ByteBuffer buf = ByteBuffer.allocate( values.length * InetCompactCodec.MAX_ENCODED_SIZE );
+		for( int i = 0; i < values.length; ++i )
+		{
+			InetCompactCodec.encode( values[i], buf );
+		}
+		buf.flip();
+		for( int i = 0; i < values.length; ++i )
+		{
+			PGobject decoded = InetCompactCodec.decode( buf );
+			assertEquals( values[i], decoded );
+			assertEquals( values[i].getValue(), decoded.getValue() );
+		}
+		assertTrue( !buf.hasRemaining() );
+	}
+
+	@Test
+	public void testInvalidEncodings() throws SQLException
+	{
+		byte[] cidr = InetCompactCodec.encode( new PGcidr( "10.0.0.0/8" ) );
+		cidr[ cidr.length - 1 ] = 1;
+		assertInvalid( cidr );
+
+		byte[] inet = InetCompactCodec.encode( new PGinet( "10.0.0.1/8" ) );
+		inet[1] = 33;
+		assertInvalid( inet );
+		assertInvalid( new byte[]{ 0, 24, 10 } );
+		assertInvalid( new byte[]{ (byte)0x80, 10, 0, 0, 1 } );
+		try
+		{
+			InetCompactCodec.decodeCidr( ByteBuffer.wrap( InetCompactCodec.encode( new PGinet( "10.0.0.1" ) ) ) );
+			fail( "An inet should not decode as a cidr." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testSerialization() throws Exception
+	{
+		PGinet inet = new PGinet( "2001:db8::1/64" );
+		byte[] stream = serialize( inet );
+		assertTrue( "serialized size " + stream.length, stream.length < 80 );
+		PGinet copy = (PGinet)deserialize( stream );
+		assertEquals( inet, copy );
+		assertEquals( inet.getValue(), copy.getValue() );
+
+		assertEquals( new PGcidr( "10.0.0.0/8" ), deserialize( serialize( new PGcidr( "10.0.0.0/8" ) ) ) );
+		assertEquals( new PGmacaddr( "08:00:2b:01:02:03" ), deserialize( serialize( new PGmacaddr( "08:00:2b:01:02:03" ) ) ) );
+		assertTrue( deserialize( serialize( new PGinet() ) ) instanceof PGinet );
+
+		// the lazy types use the same compact form, whether parsed yet or not
+		LazyPGinet lazy = new LazyPGinet( "2001:db8::1/64" );
+		assertEquals( stream.length, serialize( lazy ).length );
+		assertEquals( inet, deserialize( serialize( lazy ) ) );
+		assertEquals( stream.length, serialize( lazy ).length );
+		assertEquals( serialize( new PGcidr( "10.0.0.0/8" ) ).length, serialize( new LazyPGcidr( "10.0.0.0/8" ) ).length );
+		assertEquals( new PGcidr( "10.0.0.0/8" ), deserialize( serialize( new LazyPGcidr( "10.0.0.0/8" ) ) ) );
+		assertEquals( serialize( new PGmacaddr( "08:00:2b:01:02:03" ) ).length,
+			serialize( new LazyPGmacaddr( "08:00:2b:01:02:03" ) ).length );
+		assertEquals( new PGmacaddr( "08:00:2b:01:02:03" ), deserialize( serialize( new LazyPGmacaddr( "08:00:2b:01:02:03" ) ) ) );
+
+		InetValue inetValue = InetValue.valueOf( "::ffff:10.1.2.3" );
+		assertEquals( inetValue, deserialize( serialize( inetValue ) ) );
+		assertEquals( inetValue.getValue(), deserialize( serialize( inetValue ) ).toString() );
+		CidrValue cidrValue = CidrValue.valueOf( "192.168.0.0/16" );
+		assertEquals( cidrValue, deserialize( serialize( cidrValue ) ) );
+		MacaddrValue macValue = MacaddrValue.of( 0x08002B010203L );
+		assertEquals( macValue, deserialize( serialize( macValue ) ) );
+	}
+
+	private static void assertInvalid( byte[] b )
+	{
+		try
+		{
+			InetCompactCodec.decode( b );
+			fail( "Decoding should have failed." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+	}
+
+	private static byte[] serialize( Object o ) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream( bytes );
+		out.writeObject( o );
+		out.close();
+		return( bytes.toByteArray() );
+	}
+
+	private static Object deserialize( byte[] b ) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( b ) );
+		return( in.readObject() );
+	}
+}
@@ -0,0 +1,95 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import org.junit.Test;
+import org.postgresql.net.InetCounterMap;
+import org.postgresql.net.InetCounts;
+import org.postgresql.net.InetCursor;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetCounterMap and InetCounts.
+ */
+public class InetCounterMapTest
+{
+	@Test
+	public void testConcurrentIncrements() throws InterruptedException
+	{
+		final InetCounterMap map = new InetCounterMap( 32, 128, 8, 16 );
+		Thread[] threads = new Thread[ 4 ];
+		for( int t = 0; t < threads.length; ++t )
+		{
+			threads[t] = new Thread()
+			{
+				public void run()
+				{
+					for( int i = 0; i < 50000; ++i )
+					{
+						map.add( false, 0L, 0x0A000000L + ( i % 5000 ), 1L );
+						map.add( true, 0x20010db800000000L, i % 1000, 2L );
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for( int t = 0; t < threads.length; ++t )
+		{
+			threads[t].join();
+		}
+		assertEquals( 6000, map.size() );
+		assertEquals( 40L, map.get( false, 0L, 0x0A000007L ) );
+		assertEquals( 400L, map.get( true, 0x20010db800000000L, 7L ) );
+		InetCounts counts = map.snapshotAndReset();
+		assertEquals( 4 * 50000 * 3L, counts.total() );
+		assertEquals( 0, map.size() );
+		assertEquals( 0L, map.get( false, 0L, 0x0A000007L ) );
+	}
+
+	@Test
+	public void testTopN() throws SQLException
+	{
+		InetCounterMap map = new InetCounterMap();
+		for( int i = 1; i <= 100; ++i )
+		{
+			map.add( false, 0L, 0xC0A80000L + i, i );
+		}
+		map.add( false, 0L, 0xC0A80000L + 200, 100 );
+		InetCounts top = map.top( 3 );
+		assertEquals( 3, top.size() );
+		assertEquals( 100L, top.getCount( 0 ) );
+		// equal counts are ordered by address
+		assertEquals( "192.168.0.100", top.getValue( 0 ).getValue() );
+		assertEquals( "192.168.0.200", top.getValue( 1 ).getValue() );
+		assertEquals( 99L, top.getCount( 2 ) );
+		assertEquals( 0, map.top( 0 ).size() );
+		assertEquals( 101, map.top( 500 ).size() );
+	}
+
+	@Test
+	public void testRollUp() throws SQLException
+	{
+		InetCounterMap map = new InetCounterMap( 24, 64 );
+		InetCursor cursor = new InetCursor();
+		String[] values = { "10.1.2.3", "10.1.2.200/8", "10.1.3.1", "2001:db8:0:1::1", "2001:db8:0:1:ffff::9" };
+		for( int i = 0; i < values.length; ++i )
+		{
+			cursor.setText( values[i] );
+			map.increment( cursor );
+		}
+		assertEquals( 2L, map.get( new PGinet( "10.1.2.77" ) ) );
+		assertEquals( 3, map.size() );
+		InetCounts top = map.top( 1 );
+		assertEquals( "10.1.2.0/24", top.getValue( 0 ).getValue() );
+		assertEquals( 24, top.getNetmask( 0 ) );
+
+		InetCounts wider = map.snapshot().rollUp( 16, 32 );
+		assertEquals( 2, wider.size() );
+		InetCounts sorted = wider.top( 2 );
+		assertEquals( 3L, sorted.getCount( 0 ) );
+		assertEquals( 16, sorted.getNetmask( 0 ) );
+		assertEquals( 2L, sorted.getCount( 1 ) );
+		assertEquals( 32, sorted.getNetmask( 1 ) );
+	}
+}
@@ -0,0 +1,141 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import org.junit.Test;
+import org.postgresql.net.InetCursor;
+import org.postgresql.net.InetValue;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetCursor.
+ */
+public class InetCursorTest
+{
+	@Test
+	public void testTextMatchesPGinet() throws SQLException
+	{
+		String[] values = { "10.1.2.3", "192.168.0.0/16", "2001:db8::1/64", "::ffff:1.2.3.4", "::",
+			"::1.2.3.4", "1:2:3:4:5:6:1.2.3.4/96" };
+		InetCursor cursor = new InetCursor();
+		for( int i = 0; i < values.length; ++i )
+		{
+			PGinet inet = new PGinet( values[i] );
+			cursor.setText( values[i] );
+			assertFalse( cursor.isNull() );
+			assertEquals( inet.isIPv6(), cursor.isIPv6() );
+			assertEquals( inet.getHighWord(), cursor.getHighWord() );
+			assertEquals( inet.getLowWord(), cursor.getLowWord() );
+			assertEquals( inet.getNetmask(), cursor.getNetmask() );
+			assertEquals( inet.hashCode(), cursor.valueHash() );
+			assertTrue( cursor.sameValue( inet ) );
+			assertEquals( inet.getValue(), cursor.toString() );
+			assertEquals( inet, cursor.toPGinet() );
+			assertEquals( InetValue.of( inet ), cursor.toInetValue() );
+			// equals() ignores the dotted quad form, the text does not
+			assertEquals( inet.getValue(), cursor.toPGinet().getValue() );
+			assertEquals( inet.getValue(), cursor.toInetValue().toString() );
+		}
+	}
+
+	@Test
+	public void testTextRangeAndFallback() throws SQLException
+	{
+		InetCursor cursor = new InetCursor();
+		cursor.setText( "a\t10.0.0.1/8\tb", 2, 12 );
+		assertEquals( "10.0.0.1/8", cursor.toString() );
+		cursor.setText( "2001:DB8::A" );
+		assertEquals( new PGinet( "2001:DB8::A" ).getLowWord(), cursor.getLowWord() );
+		try
+		{
+			cursor.setText( "10.0.0.256" );
+			fail( "expected an SQLException" );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+		cursor.setText( "9.9.9.9" );
+		try
+		{
+			cursor.setText( "bogus" );
+			fail( "expected an SQLException" );
+		}
+		catch( SQLException e )
+		{
+			// a failed row does not leave the previous one behind
+			assertTrue( cursor.isNull() );
+		}
+		cursor.setText( "9.9.9.9" );
+		try
+		{
+			cursor.setBinary( new byte[]{ 2, 32, 0, 4 }, 0, 4 );
+			fail( "expected an SQLException" );
+		}
+		catch( SQLException e )
+		{
+			assertTrue( cursor.isNull() );
+		}
+		cursor.setText( null );
+		assertTrue( cursor.isNull() );
+		assertNull( cursor.toInetValue() );
+		assertEquals( 0, cursor.valueHash() );
+	}
+
+	@Test
+	public void testBinaryAndWords() throws SQLException
+	{
+		InetCursor cursor = new InetCursor();
+		byte[] row = { 9, 9, 2, 24, 0, 4, (byte)192, (byte)168, 1, 0, 9 };
+		cursor.setBinary( row, 2, 8 );
+		assertEquals( "192.168.1.0/24", cursor.toString() );
+		assertEquals( 4, cursor.family() );
+		cursor.setIPv6( 0x20010db800000000L, 1L, 128 );
+		assertEquals( new PGinet( "2001:db8::1" ).getValue(), cursor.toString() );
+		cursor.setIPv4( 0x7F000001, 32 );
+		assertEquals( "127.0.0.1", cursor.toString() );
+		cursor.setBinary( row, 0, -1 );
+		assertTrue( cursor.isNull() );
+		try
+		{
+			cursor.setBinary( row, 2, 7 );
+			fail( "expected an SQLException" );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+		try
+		{
+			cursor.setIPv4( 0, 33 );
+			fail( "expected an IllegalArgumentException" );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testSetFromPGinet() throws SQLException
+	{
+		InetCursor cursor = new InetCursor();
+		PGinet inet = new PGinet( "fe80::1/10" );
+		cursor.set( inet );
+		assertTrue( cursor.sameValue( inet ) );
+		assertEquals( inet, cursor.toPGinet() );
+		cursor.set( (PGinet)null );
+		assertTrue( cursor.isNull() );
+		assertFalse( cursor.sameValue( inet ) );
+		PGcidr cidr = new PGcidr( "10.20.0.0/16" );
+		cursor.set( cidr );
+		assertTrue( cursor.sameValue( cidr ) );
+		assertEquals( cidr.hashCode(), cursor.valueHash() );
+	}
+}
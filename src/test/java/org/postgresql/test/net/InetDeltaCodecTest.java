@@ -0,0 +1,193 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.postgresql.net.InetDeltaList;
+import org.postgresql.net.InetDeltaReader;
+import org.postgresql.net.InetDeltaWriter;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetDeltaWriter, InetDeltaReader and InetDeltaList.
+ */
+public class InetDeltaCodecTest
+{
+	@Test
+	public void testRoundTrip() throws IOException, SQLException
+	{
+		Random random = new Random( 11 );
+		long[] v4 = new long[ 5000 ];
+		for( int i = 0; i < v4.length; ++i )
+		{
+			v4[i] = random.nextInt() & 0xFFFFFFFFL;
+		}
+		v4[0] = 0L;
+		v4[1] = 0xFFFFFFFFL;
+		Arrays.sort( v4 );
+		long[][] v6 = new long[ 3000 ][];
+		for( int i = 0; i < v6.length; ++i )
+		{
+			v6[i] = new long[]{ 0x20010db800000000L | ( random.nextInt( 4 ) ), random.nextLong() };
+		}
+		v6[0] = new long[]{ 0L, 0L };
+		v6[1] = new long[]{ -1L, -1L };
+		v6[2] = new long[]{ 5L, -1L };
+		v6[3] = new long[]{ 6L, 0L };
+		Arrays.sort( v6, new java.util.Comparator<long[]>()
+		{
+			public int compare( long[] a, long[] b )
+			{
+				int c = Long.compareUnsigned( a[0], b[0] );
+				return( ( c != 0 ) ? c : Long.compareUnsigned( a[1], b[1] ) );
+			}
+		} );
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InetDeltaWriter w = new InetDeltaWriter( out, 64 );
+		for( int i = 0; i < v4.length; ++i )
+		{
+			w.add( false, 0L, v4[i] );
+			w.add( false, 0L, v4[i] );
+		}
+		for( int i = 0; i < v6.length; ++i )
+		{
+			w.add( true, v6[i][0], v6[i][1] );
+		}
+		w.finish();
+		byte[] bytes = out.toByteArray();
+		assertTrue( bytes.length < 16L * ( v4.length + v6.length ) / 2 );
+
+		InetDeltaReader r = new InetDeltaReader( new ByteArrayInputStream( bytes ) );
+		int n4 = check( r, v4, v6 );
+		// both kinds of buffer are left positioned after the list
+		ByteBuffer direct = ByteBuffer.allocateDirect( bytes.length + 1 );
+		direct.put( bytes ).put( (byte)7 ).flip();
+		assertEquals( n4, check( new InetDeltaReader( direct ), v4, v6 ) );
+		assertEquals( bytes.length, direct.position() );
+		ByteBuffer heap = ByteBuffer.allocate( bytes.length + 3 );
+		heap.put( (byte)9 ).put( bytes ).put( (byte)7 ).flip().position( 1 );
+		ByteBuffer slice = heap.slice();
+		assertEquals( n4, check( new InetDeltaReader( slice ), v4, v6 ) );
+		assertEquals( bytes.length, slice.position() );
+
+		InetDeltaList list = new InetDeltaList( bytes );
+		assertEquals( n4 + v6.length, list.size() );
+		for( int i = 0; i < 200; ++i )
+		{
+			int k = random.nextInt( list.size() );
+			PGinet inet = list.get( k );
+			assertEquals( k, list.indexOf( inet ) );
+			InetDeltaReader from = list.reader( k );
+			assertTrue( from.next() );
+			assertEquals( inet, from.getInet() );
+		}
+		long[] high = new long[ 100 ];
+		long[] low = new long[ 100 ];
+		InetDeltaReader bulk = new InetDeltaReader( ByteBuffer.wrap( bytes ) );
+		int total = 0;
+		for( int n; ( n = bulk.read( high, low, 0, high.length ) ) > 0; total += n )
+		{
+			assertTrue( n <= 64 );
+			assertEquals( list.get( total + n - 1 ), bulk.getInet() );
+			assertEquals( list.get( total ).getLowWord(), low[0] );
+			assertEquals( list.get( total + n - 1 ).getHighWord(), high[n - 1] );
+		}
+		assertEquals( list.size(), total );
+		assertFalse( list.contains( new PGinet( "2001:db8:0:4::" ) ) );
+		// :: is the first IPv6 address, so ::1 would go after it
+		assertEquals( -( n4 + 1 ) - 1, list.indexOf( true, 0L, 1L ) );
+		assertFalse( list.reader( list.size() ).next() );
+	}
+
+	@Test
+	public void testEmptyAndOrder() throws IOException, SQLException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate( 64 );
+		InetDeltaWriter w = new InetDeltaWriter( buffer );
+		w.finish();
+		buffer.flip();
+		assertFalse( new InetDeltaReader( buffer ).next() );
+		assertEquals( 0, buffer.remaining() );
+		byte[] empty = Arrays.copyOf( buffer.array(), buffer.limit() );
+		assertEquals( 0, new InetDeltaList( empty ).size() );
+		assertFalse( new InetDeltaList( empty ).reader( 0 ).next() );
+
+		w = new InetDeltaWriter( new ByteArrayOutputStream() );
+		w.add( new PGinet( "::1" ) );
+		try
+		{
+			w.add( new PGinet( "10.0.0.1" ) );
+			fail( "Expected IPv4 after IPv6 to be refused" );
+		}
+		catch( IllegalArgumentException e )
+		{
+		}
+	}
+
+	@Test
+	public void testInvalid() throws IOException
+	{
+		byte[][] bad = {
+			{},
+			{ 'D', 2, 0 },
+			{ 'D', 1 },
+			{ 'D', 1, 2, 1, 5 },
+			// a block of two IPv4 addresses, the second past 2^32
+			{ 'D', 1, 4, 6, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x0F, 1, 0 },
+			// an IPv6 block followed by an IPv4 block
+			{ 'D', 1, 3, 1, 1, 2, 1, 1, 0 },
+			// two IPv4 blocks out of order
+			{ 'D', 1, 2, 1, 5, 2, 1, 4, 0 },
+		};
+		for( int i = 0; i < bad.length; ++i )
+		{
+			try
+			{
+				new InetDeltaList( bad[i] );
+				fail( "Expected a failure for case " + i );
+			}
+			catch( SQLException e )
+			{
+			}
+		}
+	}
+
+	private static int check( InetDeltaReader r, long[] v4, long[][] v6 ) throws IOException, SQLException
+	{
+		int n4 = 0;
+		long previous = -1L;
+		for( int i = 0; i < v4.length; ++i )
+		{
+			if( v4[i] == previous )
+			{
+				continue;
+			}
+			previous = v4[i];
+			assertTrue( r.next() );
+			assertFalse( r.isIPv6() );
+			assertEquals( v4[i], r.getLowWord() );
+			++n4;
+		}
+		for( int i = 0; i < v6.length; ++i )
+		{
+			assertTrue( r.next() );
+			assertTrue( r.isIPv6() );
+			assertEquals( v6[i][0], r.getHighWord() );
+			assertEquals( v6[i][1], r.getLowWord() );
+		}
+		assertFalse( r.next() );
+		assertFalse( r.next() );
+		return( n4 );
+	}
+}
@@ -0,0 +1,168 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+import org.postgresql.net.InetCursor;
+import org.postgresql.net.InetExternalSorter;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetExternalSorter.
+ */
+public class InetExternalSorterTest
+{
+	/**
+	 *	network_cmp() over { family, high, low, netmask }.
+	 */
+	private static final Comparator<long[]> ORDER = new Comparator<long[]>()
+	{
+		public int compare( long[] a, long[] b )
+		{
+			if( a[0] != b[0] )
+			{
+				return( Long.compare( a[0], b[0] ) );
+			}
+			int width = ( a[0] == 1L ) ? 128 : 32;
+			int common = (int)Math.min( a[3], b[3] );
+			for( int bit = 0; bit < common; ++bit )
+			{
+				int c = bit( a, bit, width ) - bit( b, bit, width );
+				if( c != 0 )
+				{
+					return( c );
+				}
+			}
+			if( a[3] != b[3] )
+			{
+				return( Long.compare( a[3], b[3] ) );
+			}
+			int c = Long.compareUnsigned( a[1], b[1] );
+			return( ( c != 0 ) ? c : Long.compareUnsigned( a[2], b[2] ) );
+		}
+	};
+
+	private static int bit( long[] v, int bit, int width )
+	{
+		int from = 128 - width + bit;
+		long word = ( from < 64 ) ? v[1] : v[2];
+		return( (int)( word >>> ( 63 - ( from & 63 ) ) ) & 1 );
+	}
+
+	@Test
+	public void testSortAndDedupe() throws IOException
+	{
+		File dir = Files.createTempDirectory( "inetsort" ).toFile();
+		Random random = new Random( 5 );
+		TreeSet<long[]> expected = new TreeSet<long[]>( ORDER );
+		InetExternalSorter sorter = new InetExternalSorter( dir, 64 << 10, 2 );
+		try
+		{
+			for( int i = 0; i < 60000; ++i )
+			{
+				boolean ipv6 = random.nextInt( 4 ) == 0;
+				long high = ipv6 ? 0x20010db800000000L | random.nextInt( 3 ) : 0L;
+				long low = ipv6 ? random.nextInt( 5000 ) : 0x0A000000L | random.nextInt( 20000 );
+				int netmask = ipv6 ? 128 - random.nextInt( 2 ) * 64 : ( random.nextInt( 3 ) == 0 ) ? 8 * random.nextInt( 5 ) : 32;
+				sorter.add( ipv6, high, low, netmask );
+				expected.add( new long[]{ ipv6 ? 1L : 0L, high, low, netmask } );
+			}
+			assertEquals( 60000L, sorter.getCount() );
+			// more runs than one merge can read at once
+			assertTrue( sorter.getRunCount() > 3 );
+			InetCursor cursor = new InetCursor();
+			for( long[] v : expected )
+			{
+				assertTrue( sorter.next( cursor ) );
+				assertEquals( v[0] == 1L, cursor.isIPv6() );
+				assertEquals( v[1], cursor.getHighWord() );
+				assertEquals( v[2], cursor.getLowWord() );
+				assertEquals( v[3], cursor.getNetmask() );
+			}
+			assertFalse( sorter.next( cursor ) );
+			try
+			{
+				sorter.add( false, 0L, 1L, 32 );
+				fail( "Expected adding after reading to be refused" );
+			}
+			catch( IllegalStateException e )
+			{
+			}
+		}
+		finally
+		{
+			sorter.close();
+		}
+		assertEquals( 0, dir.list().length );
+		dir.delete();
+	}
+
+	@Test
+	public void testInMemory() throws IOException, SQLException
+	{
+		InetExternalSorter sorter = new InetExternalSorter();
+		try
+		{
+			assertEquals( 5L, sorter.addText( new StringReader( "::1\n10.0.0.1\n\n\\N\n10.0.0.0/8\n10.0.0.1\n 9.9.9.9 \n" ) ) );
+			sorter.add( new PGinet( "10.0.0.0/8" ) );
+			sorter.add( (PGinet)null );
+			StringWriter out = new StringWriter();
+			assertEquals( 4L, sorter.writeCopyText( out ) );
+			assertEquals( "9.9.9.9\n10.0.0.0/8\n10.0.0.1\n" + new PGinet( "::1" ).getValue() + "\n", out.toString() );
+			assertEquals( 0, sorter.getRunCount() );
+		}
+		finally
+		{
+			sorter.close();
+		}
+	}
+
+	@Test
+	public void testCopyBinary() throws IOException, SQLException
+	{
+		InetExternalSorter sorter = new InetExternalSorter( null, 1 << 20, 1 );
+		sorter.add( new PGinet( "2001:db8::/32" ) );
+		sorter.add( new PGinet( "192.168.0.1/24" ) );
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		assertEquals( 2L, sorter.writeCopyBinary( bytes ) );
+		sorter.close();
+
+		DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+		byte[] signature = new byte[ 11 ];
+		in.readFully( signature );
+		assertArrayEquals( new byte[]{ 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte)0xFF, '\r', '\n', 0 }, signature );
+		assertEquals( 0, in.readInt() );
+		assertEquals( 0, in.readInt() );
+		List<PGinet> values = new ArrayList<PGinet>();
+		InetCursor cursor = new InetCursor();
+		for( short fields; ( fields = in.readShort() ) != -1; )
+		{
+			assertEquals( 1, fields );
+			byte[] value = new byte[ in.readInt() ];
+			in.readFully( value );
+			cursor.setBinary( value, 0, value.length );
+			values.add( cursor.toPGinet() );
+		}
+		assertEquals( -1, in.read() );
+		assertEquals( new PGinet( "192.168.0.1/24" ), values.get( 0 ) );
+		assertEquals( new PGinet( "2001:db8::/32" ), values.get( 1 ) );
+	}
+}
@@ -0,0 +1,73 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import org.junit.Test;
+import org.postgresql.net.InetPrefixAggregator;
+import org.postgresql.net.InetPrefixTotals;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetPrefixAggregator.
+ */
+public class InetPrefixAggregatorTest
+{
+	@Test
+	public void testAllLevelsInOnePass() throws SQLException
+	{
+		InetPrefixAggregator agg = new InetPrefixAggregator();
+		agg.add( new PGinet( "10.1.2.3" ), 100 );
+		agg.add( new PGinet( "10.1.2.4/8" ), 50 );
+		agg.add( new PGinet( "10.1.3.1" ), 25 );
+		agg.add( new PGinet( "2001:db8:1:2::1" ), 7 );
+		agg.add( (PGinet)null, 1000 );
+		InetPrefixTotals totals = agg.getTotals();
+		// 10/8, 10.1/16, 10.1.2/24, 10.1.3/24, three /32s, and three IPv6 levels
+		assertEquals( 10, totals.size() );
+		assertEquals( "10.0.0.0/8", totals.getCidr( 0 ).getValue() );
+		assertEquals( 3L, totals.getCount( 0 ) );
+		assertEquals( 175L, totals.getSum( 0 ) );
+		assertEquals( "10.1.0.0/16", totals.getCidr( 1 ).getValue() );
+		assertEquals( "10.1.2.0/24", totals.getCidr( 2 ).getValue() );
+		assertEquals( 150L, totals.getSum( 2 ) );
+		int i = totals.indexOf( new PGcidr( "10.1.3.0/24" ) );
+		assertEquals( 25L, totals.getSum( i ) );
+		assertEquals( -1, totals.indexOf( new PGcidr( "10.2.0.0/16" ) ) );
+		i = totals.indexOf( new PGcidr( "2001:db8:1::/48" ) );
+		assertEquals( 1L, totals.getCount( i ) );
+		assertEquals( 7L, totals.getSum( i ) );
+		assertEquals( true, totals.isIPv6( totals.size() - 1 ) );
+		assertEquals( 64, totals.getNetmask( totals.size() - 1 ) );
+	}
+
+	@Test
+	public void testMergeMatchesSinglePass()
+	{
+		int[] v4 = { 16, 24 };
+		int[] v6 = { 64 };
+		InetPrefixAggregator whole = new InetPrefixAggregator( v4, v6 );
+		InetPrefixAggregator a = new InetPrefixAggregator( v4, v6 );
+		InetPrefixAggregator b = new InetPrefixAggregator( v4, v6 );
+		for( int i = 0; i < 20000; ++i )
+		{
+			long address = 0xC0A80000L + ( i * 7919L ) % 65536;
+			whole.add( false, 0L, address, i );
+			( ( i % 3 == 0 ) ? a : b ).add( false, 0L, address, i );
+		}
+		a.merge( b );
+		InetPrefixTotals x = whole.getTotals();
+		InetPrefixTotals y = a.getTotals();
+		assertEquals( 257, x.size() );
+		assertEquals( x.size(), y.size() );
+		for( int i = 0; i < x.size(); ++i )
+		{
+			assertEquals( x.getLowWord( i ), y.getLowWord( i ) );
+			assertEquals( x.getNetmask( i ), y.getNetmask( i ) );
+			assertEquals( x.getCount( i ), y.getCount( i ) );
+			assertEquals( x.getSum( i ), y.getSum( i ) );
+		}
+		assertEquals( 20000L, x.getCount( 0 ) );
+	}
+}
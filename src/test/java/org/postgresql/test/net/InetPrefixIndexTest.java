@@ -0,0 +1,161 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import org.junit.Test;
+import org.postgresql.net.InetColumn;
+import org.postgresql.net.InetPrefixIndex;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetPrefixIndex.
+ */
+public class InetPrefixIndexTest
+{
+	@Test
+	public void testCoveringAndOverlapping() throws SQLException
+	{
+		InetPrefixIndex.Builder<String> builder = new InetPrefixIndex.Builder<String>();
+		builder.add( new PGcidr( "10.0.0.0/8" ), "allocation" );
+		builder.add( new PGcidr( "10.1.0.0/16" ), "reassignment" );
+		builder.add( new PGcidr( "10.1.2.0/24" ), "blocklist" );
+		builder.add( new PGcidr( "10.1.2.0/24" ), "abuse" );
+		builder.add( new PGcidr( "10.3.0.0/16" ), "other" );
+		builder.add( new PGcidr( "0.0.0.0/0" ), "everything" );
+		builder.add( new PGcidr( "2001:db8::/32" ), "v6" );
+		InetPrefixIndex<String> index = builder.build();
+		assertEquals( 7, index.size() );
+
+		assertArrayEquals( new int[]{ 5, 0, 1, 2, 3 }, index.covering( new PGinet( "10.1.2.3" ) ) );
+		assertArrayEquals( new int[]{ 5, 0 }, index.covering( new PGinet( "10.2.2.3" ) ) );
+		assertArrayEquals( new int[]{ 5 }, index.covering( new PGinet( "192.168.0.1/24" ) ) );
+		assertArrayEquals( new int[]{ 6 }, index.covering( new PGinet( "2001:db8::1" ) ) );
+		assertArrayEquals( new int[ 0 ], index.covering( new PGinet( "::1" ) ) );
+		assertArrayEquals( new int[]{ 5, 0, 1, 2, 3, 4 }, index.overlapping( new PGcidr( "10.0.0.0/14" ) ) );
+		assertArrayEquals( new int[]{ 5, 0, 1, 2, 3 }, index.overlapping( new PGcidr( "10.1.2.0/24" ) ) );
+		assertArrayEquals( new int[]{ 5 }, index.overlapping( new PGcidr( "11.0.0.0/8" ) ) );
+		assertArrayEquals( new int[]{ 6 }, index.overlapping( new PGcidr( "::/0" ) ) );
+		assertEquals( "abuse", index.getValue( 3 ) );
+		assertEquals( new PGcidr( "10.1.2.0/24" ), index.getPrefix( 3 ) );
+	}
+
+	@Test
+	public void testAgainstScan()
+	{
+		Random random = new Random( 17 );
+		InetPrefixIndex.Builder<Integer> builder = new InetPrefixIndex.Builder<Integer>();
+		List<long[]> prefixes = new ArrayList<long[]>();
+		for( int i = 0; i < 3000; ++i )
+		{
+			boolean ipv6 = random.nextInt( 4 ) == 0;
+			int bits = ipv6 ? 96 + random.nextInt( 33 ) : random.nextInt( 33 );
+			long[] p = address( random, ipv6 );
+			p[1] &= mask( p, bits, 1 );
+			p[2] &= mask( p, bits, 2 );
+			p[3] = bits;
+			prefixes.add( p );
+			assertEquals( i, builder.add( ipv6, p[1], p[2], bits, Integer.valueOf( i ) ) );
+		}
+		InetPrefixIndex<Integer> index = builder.build();
+
+		InetColumn queries = new InetColumn();
+		List<long[]> expected = new ArrayList<long[]>();
+		for( int q = 0; q < 20000; ++q )
+		{
+			boolean ipv6 = random.nextInt( 4 ) == 0;
+			long[] a = address( random, ipv6 );
+			int bits = ipv6 ? 100 + random.nextInt( 29 ) : 8 + random.nextInt( 25 );
+			if( ipv6 )
+			{
+				queries.addIPv6( a[1], a[2], bits );
+			}
+			else
+			{
+				queries.addIPv4( (int)a[2], bits );
+			}
+			// overlapping: either prefix covers the other
+			long[] found = new long[ 0 ];
+			for( int i = 0; i < prefixes.size(); ++i )
+			{
+				long[] p = prefixes.get( i );
+				int common = (int)Math.min( bits, p[3] );
+				if( ( p[0] == a[0] ) && ( ( a[1] & mask( a, common, 1 ) ) == ( p[1] & mask( p, common, 1 ) ) ) &&
+					( ( a[2] & mask( a, common, 2 ) ) == ( p[2] & mask( p, common, 2 ) ) ) )
+				{
+					found = Arrays.copyOf( found, found.length + 1 );
+					found[found.length - 1] = i;
+				}
+			}
+			expected.add( found );
+		}
+		queries.addNull();
+		InetPrefixIndex.Matches matches = index.overlapping( queries );
+		assertEquals( queries.size(), matches.size() );
+		int total = 0;
+		for( int q = 0; q < expected.size(); ++q )
+		{
+			int[] got = matches.get( q ).clone();
+			Arrays.sort( got );
+			long[] want = expected.get( q );
+			assertEquals( want.length, got.length );
+			for( int k = 0; k < got.length; ++k )
+			{
+				assertEquals( want[k], got[k] );
+			}
+			total += got.length;
+		}
+		assertEquals( 0, matches.count( expected.size() ) );
+		assertEquals( total, matches.total() );
+
+		// a covering query is an overlapping query of a host prefix
+		InetPrefixIndex.Matches covering = index.covering( queries );
+		final List<Integer> host = new ArrayList<Integer>();
+		IntConsumer collect = new IntConsumer()
+		{
+			public void accept( int record )
+			{
+				host.add( Integer.valueOf( record ) );
+			}
+		};
+		for( int q = 0; q < expected.size(); ++q )
+		{
+			host.clear();
+			boolean ipv6 = queries.isIPv6( q );
+			index.overlapping( ipv6, queries.getHighWord( q ), queries.getLowWord( q ), ipv6 ? 128 : 32, collect );
+			assertEquals( host.size(), covering.count( q ) );
+			for( int k = 0; k < host.size(); ++k )
+			{
+				assertEquals( host.get( k ).intValue(), covering.get( q, k ) );
+			}
+		}
+	}
+
+	/**
+	 *	Addresses from a small space so prefixes overlap often, as
+	 *	{ family, high, low, 0 }.
+	 */
+	private static long[] address( Random random, boolean ipv6 )
+	{
+		if( ipv6 )
+		{
+			return( new long[]{ 1L, 0x20010db800000000L, (long)random.nextInt( 1 << 16 ) << 16, 0L } );
+		}
+		return( new long[]{ 0L, 0L, 0x0A000000L | random.nextInt( 1 << 16 ) << 4, 0L } );
+	}
+
+	private static long mask( long[] p, int bits, int word )
+	{
+		int from = ( ( p[0] == 1L ) ? 0 : 96 ) + bits;
+		int start = ( word == 1 ) ? 0 : 64;
+		int keep = Math.max( 0, Math.min( 64, from - start ) );
+		return( ( keep == 0 ) ? 0L : -1L << ( 64 - keep ) );
+	}
+}
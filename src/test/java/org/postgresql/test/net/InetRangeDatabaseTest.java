@@ -0,0 +1,119 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.Random;
+import org.junit.Test;
+import org.postgresql.net.InetRange;
+import org.postgresql.net.InetRangeDatabase;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetRangeDatabase.
+ */
+public class InetRangeDatabaseTest
+{
+	@Test
+	public void testLoadCidrs() throws IOException, SQLException
+	{
+		String csv = "network,asn,organization\n" +
+			"10.0.0.0/8,64500,\"Example, Inc.\"\n" +
+			"192.168.1.0/24,64501,\"Say \"\"hi\"\"\"\n" +
+			"\n" +
+			"2001:db8::/32,64502,Example6\n" +
+			"192.168.0.0/24,64500,\"Example, Inc.\"\n";
+		InetRangeDatabase db = InetRangeDatabase.loadCidrs( new StringReader( csv ) );
+		assertEquals( 4, db.size() );
+		assertEquals( 1, db.getColumn( "organization" ) );
+		assertEquals( "Example, Inc.", db.lookup( new PGinet( "10.200.3.4" ), "organization" ) );
+		assertEquals( "Say \"hi\"", db.lookup( new PGinet( "192.168.1.255" ), "organization" ) );
+		assertEquals( "64500", db.lookup( new PGinet( "192.168.0.7/16" ), "asn" ) );
+		assertEquals( "64502", db.lookup( new PGinet( "2001:db8:ffff::1" ), "asn" ) );
+		assertNull( db.lookup( new PGinet( "192.168.2.1" ), "asn" ) );
+		assertNull( db.lookup( new PGinet( "9.255.255.255" ), "asn" ) );
+		assertNull( db.lookup( new PGinet( "2001:db9::" ), "asn" ) );
+		assertEquals( 3, db.getDictionarySize( 0 ) );
+		int i = db.indexOf( new PGinet( "10.0.0.1" ) );
+		assertEquals( db.getCode( i, 0 ), db.getCode( db.indexOf( new PGinet( "192.168.0.1" ) ), 0 ) );
+		assertEquals( InetRange.valueOf( "10.0.0.0/8" ), db.getRange( i ) );
+		assertTrue( db.getMemoryBytes() > 0 );
+	}
+
+	@Test
+	public void testLoadRangesAgainstScan() throws IOException, SQLException
+	{
+		Random random = new Random( 42 );
+		StringBuilder csv = new StringBuilder( "first,last,country\n" );
+		long[] first = new long[ 2000 ];
+		long[] last = new long[ 2000 ];
+		long next = 0L;
+		for( int i = 0; i < first.length; ++i )
+		{
+			first[i] = next + random.nextInt( 1000 );
+			last[i] = first[i] + random.nextInt( 1000 );
+			next = last[i] + 1;
+			csv.append( ipv4( first[i] ) ).append( ',' ).append( ipv4( last[i] ) ).append( ",C" ).append( i % 300 ).append( '\n' );
+		}
+		InetRangeDatabase db = InetRangeDatabase.loadRanges( new StringReader( csv.toString() ) );
+		assertEquals( first.length, db.size() );
+		for( int k = 0; k < 10000; ++k )
+		{
+			long a = (long)( random.nextDouble() * next );
+			int expected = -1;
+			for( int i = 0; i < first.length; ++i )
+			{
+				if( ( first[i] <= a ) && ( a <= last[i] ) )
+				{
+					expected = i;
+				}
+			}
+			int found = db.indexOf( false, 0L, a );
+			assertEquals( expected, found );
+			if( found >= 0 )
+			{
+				assertEquals( "C" + ( expected % 300 ), db.getValue( found, 0 ) );
+			}
+		}
+	}
+
+	@Test
+	public void testInvalid() throws IOException
+	{
+		String[] bad = {
+			"",
+			"network,asn\n10.0.0.0/8\n",
+			"network,asn\nnonsense,1\n",
+			"network,asn\n10.0.0.0/8,1\n10.1.0.0/16,2\n",
+		};
+		for( int i = 0; i < bad.length; ++i )
+		{
+			try
+			{
+				InetRangeDatabase.loadCidrs( new StringReader( bad[i] ) );
+				fail( "Expected a failure for case " + i );
+			}
+			catch( SQLException e )
+			{
+			}
+		}
+		try
+		{
+			InetRangeDatabase.loadRanges( new StringReader( "first,last\n10.0.0.2,10.0.0.1\n" ) );
+			fail( "Expected a failure for a reversed range" );
+		}
+		catch( SQLException e )
+		{
+		}
+	}
+
+	private static String ipv4( long a )
+	{
+		return( ( a >>> 24 ) + "." + ( ( a >>> 16 ) & 0xFF ) + "." + ( ( a >>> 8 ) & 0xFF ) + "." + ( a & 0xFF ) );
+	}
+}
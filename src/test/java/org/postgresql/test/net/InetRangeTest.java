@@ -0,0 +1,94 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.postgresql.net.InetRange;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+import org.postgresql.net.PrefixConsumer;
+
+/**
+ *	Unit tests for InetRange.
+ */
+public class InetRangeTest
+{
+	@Test
+	public void testDecompose() throws SQLException
+	{
+		List<PGcidr> cidrs = InetRange.valueOf( "10.0.0.5-10.0.0.20" ).toCidrs();
+		String[] expected = { "10.0.0.5/32", "10.0.0.6/31", "10.0.0.8/29", "10.0.0.16/30", "10.0.0.20/32" };
+		assertEquals( expected.length, cidrs.size() );
+		for( int i = 0; i < expected.length; ++i )
+		{
+			assertEquals( new PGcidr( expected[i] ), cidrs.get( i ) );
+		}
+		assertEquals( 1, InetRange.valueOf( "0.0.0.0-255.255.255.255" ).toCidrs().size() );
+		assertEquals( new PGcidr( "0.0.0.0/0" ), InetRange.valueOf( "0.0.0.0-255.255.255.255" ).toCidrs().get( 0 ) );
+		assertEquals( 62, InetRange.valueOf( "0.0.0.1-255.255.255.254" ).toCidrs().size() );
+		assertEquals( new PGcidr( "::/0" ), InetRange.valueOf( "::-ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff" ).toCidrs().get( 0 ) );
+		assertEquals( 254, InetRange.valueOf( "::1-ffff:ffff:ffff:ffff:ffff:ffff:ffff:fffe" ).toCidrs().size() );
+		List<PGcidr> v6 = InetRange.valueOf( "2001:db8::ffff:ffff:ffff:ffff-2001:db8:0:1::1" ).toCidrs();
+		assertEquals( 2, v6.size() );
+		assertEquals( new PGcidr( "2001:db8:0:1::/127" ), v6.get( 1 ) );
+	}
+
+	@Test
+	public void testCidrRoundTrip() throws SQLException
+	{
+		String[] values = { "192.168.0.0/16", "10.1.2.3/32", "2001:db8::/32", "::/0", "0.0.0.0/0" };
+		for( int i = 0; i < values.length; ++i )
+		{
+			PGcidr cidr = new PGcidr( values[i] );
+			InetRange range = InetRange.of( cidr );
+			assertEquals( 1, range.toCidrs().size() );
+			assertEquals( cidr, range.toCidrs().get( 0 ) );
+			assertEquals( range, InetRange.valueOf( values[i] ) );
+		}
+		InetRange range = InetRange.of( new PGcidr( "192.168.0.0/16" ) );
+		assertEquals( new PGinet( "192.168.0.0" ), range.getFirst() );
+		assertEquals( new PGinet( "192.168.255.255" ), range.getLast() );
+		assertEquals( "192.168.0.0-192.168.255.255", range.toString() );
+		assertTrue( range.contains( new PGinet( "192.168.7.7/8" ) ) );
+		assertFalse( range.contains( new PGinet( "192.169.0.0" ) ) );
+		try
+		{
+			InetRange.valueOf( "10.0.0.2-10.0.0.1" );
+			fail( "expected an SQLException" );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testRandomRangesAreCoveredExactly()
+	{
+		Random random = new Random( 42 );
+		for( int n = 0; n < 2000; ++n )
+		{
+			final long first = random.nextInt( 1 << 20 );
+			final long last = first + random.nextInt( 1 << 12 );
+			final long[] next = { first };
+			int blocks = InetRange.decomposeIPv4( (int)first, (int)last, new PrefixConsumer()
+			{
+				public void accept( long high, long low, int prefixLength )
+				{
+					long size = 1L << ( 32 - prefixLength );
+					assertEquals( next[0], low );
+					assertEquals( 0L, low & ( size - 1 ) );
+					next[0] = low + size;
+				}
+			} );
+			assertEquals( last + 1, next[0] );
+			assertTrue( blocks <= 62 );
+		}
+	}
+}
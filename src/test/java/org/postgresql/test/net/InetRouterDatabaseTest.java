@@ -0,0 +1,141 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.postgresql.net.InetRouter;
+import org.postgresql.net.PGinet;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+/**
+ *	Checks InetRouter.postgresHash() against the partition routing of a
+ *	server.  Hash partitioning needs PostgreSQL 11 or later, newer than
+ *	the default image of BaseDatabaseTest.
+ */
+public class InetRouterDatabaseTest
+{
+	@ClassRule
+	public static PostgreSQLContainer dbServer = new PostgreSQLContainer( "postgres:13" );
+
+	private static final int MODULUS = 8;
+
+	/** A large prime, so nearly all the bits of the row hash are checked. */
+	private static final int PRIME = 1000000007;
+
+	private Connection dbConn;
+
+	@Before
+	public void setUp() throws SQLException
+	{
+		dbConn = DriverManager.getConnection( dbServer.getJdbcUrl(), dbServer.getUsername(), dbServer.getPassword() );
+		try( Statement stmt = dbConn.createStatement() )
+		{
+			stmt.executeUpdate( "CREATE TABLE hashed ( address inet ) PARTITION BY HASH ( address )" );
+			for( int r = 0; r < MODULUS; ++r )
+			{
+				stmt.executeUpdate( "CREATE TABLE hashed_" + r + " PARTITION OF hashed " +
+					"FOR VALUES WITH ( MODULUS " + MODULUS + ", REMAINDER " + r + " )" );
+			}
+		}
+	}
+
+	@After
+	public void tearDown() throws SQLException
+	{
+		try( Statement stmt = dbConn.createStatement() )
+		{
+			stmt.executeUpdate( "DROP TABLE hashed" );
+		}
+		dbConn.close();
+	}
+
+	@Test
+	public void testPartitionOfEachRow() throws SQLException
+	{
+		List<String> values = values();
+		try( PreparedStatement insert = dbConn.prepareStatement( "INSERT INTO hashed VALUES ( ?::inet )" ) )
+		{
+			for( String v : values )
+			{
+				insert.setString( 1, v );
+				insert.addBatch();
+			}
+			insert.setString( 1, null );
+			insert.addBatch();
+			insert.executeBatch();
+		}
+
+		InetRouter router = InetRouter.postgresHash( MODULUS );
+		int rows = 0;
+		try( Statement stmt = dbConn.createStatement();
+			ResultSet rs = stmt.executeQuery( "SELECT address::text, tableoid::regclass::text FROM hashed" ) )
+		{
+			while( rs.next() )
+			{
+				String v = rs.getString( 1 );
+				String partition = "hashed_" + ( ( v == null ) ? 0 : router.route( new PGinet( v ) ) );
+				assertEquals( v, partition, rs.getString( 2 ) );
+				++rows;
+			}
+		}
+		assertEquals( values.size() + 1, rows );
+	}
+
+	@Test
+	public void testSatisfiesHashPartition() throws SQLException
+	{
+		InetRouter router = InetRouter.postgresHash( PRIME );
+		try( PreparedStatement check = dbConn.prepareStatement(
+			"SELECT satisfies_hash_partition( 'hashed'::regclass, " + PRIME + ", ?, ?::inet )" ) )
+		{
+			for( String v : values() )
+			{
+				check.setInt( 1, router.route( new PGinet( v ) ) );
+				check.setString( 2, v );
+				try( ResultSet rs = check.executeQuery() )
+				{
+					assertTrue( rs.next() );
+					assertTrue( v, rs.getBoolean( 1 ) );
+				}
+			}
+		}
+	}
+
+	/**
+	 *	IPv4 and IPv6 values, host addresses and non-default netmasks.
+	 */
+	private static List<String> values()
+	{
+		List<String> values = new ArrayList<String>();
+		String[] fixed = { "10.0.0.1", "192.168.0.0/16", "10.1.2.3/8", "0.0.0.0/0", "2001:db8::1",
+			"2001:db8::/32", "::ffff:1.2.3.4/96", "::/0" };
+		for( String v : fixed )
+		{
+			values.add( v );
+		}
+		Random random = new Random( 5 );
+		for( int i = 0; i < 500; ++i )
+		{
+			int a = random.nextInt();
+			values.add( ( a >>> 24 ) + "." + ( ( a >>> 16 ) & 0xFF ) + "." + ( ( a >>> 8 ) & 0xFF ) + "." +
+				( a & 0xFF ) + "/" + random.nextInt( 33 ) );
+			values.add( Integer.toHexString( random.nextInt( 0x10000 ) ) + ":" +
+				Integer.toHexString( random.nextInt( 0x10000 ) ) + "::" + Integer.toHexString( random.nextInt( 0x10000 ) ) +
+				"/" + random.nextInt( 129 ) );
+		}
+		return( values );
+	}
+}
@@ -0,0 +1,124 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import org.junit.Test;
+import org.postgresql.net.InetColumn;
+import org.postgresql.net.InetRouter;
+import org.postgresql.net.InetValue;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetRouter.
+ */
+public class InetRouterTest
+{
+	@Test
+	public void testConsistentHashSpreadAndStability()
+	{
+		InetRouter four = InetRouter.consistentHash( new int[]{ 7, 3, 11, 5 }, 200 );
+		InetRouter reordered = InetRouter.consistentHash( new int[]{ 5, 11, 3, 7 }, 200 );
+		InetRouter three = InetRouter.consistentHash( new int[]{ 3, 5, 7 }, 200 );
+		int[] counts = new int[ 12 ];
+		for( int i = 0; i < 20000; ++i )
+		{
+			int address = 0x0A000000 + i * 7919;
+			int shard = four.route( false, 0L, address & 0xFFFFFFFFL, 32 );
+			++counts[shard];
+			assertEquals( shard, reordered.route( false, 0L, address & 0xFFFFFFFFL, 32 ) );
+			if( shard != 11 )
+			{
+				// only the keys of the removed shard move
+				assertEquals( shard, three.route( false, 0L, address & 0xFFFFFFFFL, 32 ) );
+			}
+		}
+		int[] ids = { 3, 5, 7, 11 };
+		for( int i = 0; i < ids.length; ++i )
+		{
+			assertTrue( "shard " + ids[i] + " got " + counts[ids[i]], counts[ids[i]] > 3000 );
+		}
+		assertEquals( -1, four.route( (PGinet)null ) );
+	}
+
+	@Test
+	public void testRangeFollowsServerOrder() throws SQLException
+	{
+		InetRouter router = InetRouter.range( new String[]{ null, "10.0.0.0/8", "11.0.0.0/8", "::/0" } );
+		assertEquals( 0, router.route( new PGinet( "9.255.255.255" ) ) );
+		assertEquals( 1, router.route( new PGinet( "10.0.0.0/8" ) ) );
+		assertEquals( 1, router.route( new PGinet( "10.200.1.1" ) ) );
+		assertEquals( 2, router.route( new PGcidr( "11.0.0.0/8" ) ) );
+		assertEquals( 2, router.route( new PGinet( "255.255.255.255" ) ) );
+		// IPv6 sorts after all of IPv4, ::/0 is the exclusive upper bound
+		assertEquals( -1, router.route( new PGinet( "::1" ) ) );
+		assertEquals( -1, router.route( (PGinet)null ) );
+
+		InetRouter bounded = InetRouter.range( new String[]{ "10.0.0.0/8", "10.128.0.0/9", null } );
+		assertEquals( -1, bounded.route( new PGinet( "9.1.1.1" ) ) );
+		// 10.0.0.0/7 sorts before 10.0.0.0/8 on the netmask
+		assertEquals( -1, bounded.route( new PGcidr( "10.0.0.0/7" ) ) );
+		assertEquals( 0, bounded.route( InetValue.valueOf( "10.127.255.255" ) ) );
+		assertEquals( 1, bounded.route( InetValue.valueOf( "2001:db8::1" ) ) );
+		try
+		{
+			InetRouter.range( new String[]{ "11.0.0.0/8", "10.0.0.0/8" } );
+			fail( "expected an IllegalArgumentException" );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testPostgresHash() throws SQLException
+	{
+		InetRouter router = InetRouter.postgresHash( 8 );
+		InetColumn column = new InetColumn();
+		int[] counts = new int[ 8 ];
+		for( int i = 0; i < 8000; ++i )
+		{
+			column.addIPv4( 0xC0A80000 + i, 32 );
+		}
+		column.addNull();
+		int[] routes = router.route( column );
+		for( int i = 0; i < 8000; ++i )
+		{
+			assertEquals( routes[i], router.route( column.getInet( i ) ) );
+			++counts[routes[i]];
+		}
+		for( int i = 0; i < counts.length; ++i )
+		{
+			assertTrue( counts[i] > 700 );
+		}
+		assertEquals( 0, routes[8000] );
+		PGinet v6 = new PGinet( "2001:db8::1/64" );
+		int r = router.route( v6 );
+		assertTrue( ( r >= 0 ) && ( r < 8 ) );
+		assertEquals( r, router.route( InetValue.of( v6 ) ) );
+	}
+
+	@Test
+	public void testPostgresHashVectors() throws SQLException
+	{
+		// the row hash of hash_bytes_extended() in src/common/hashfn.c as
+		// the server runs it, modulo a large prime so most of the bits
+		// are checked, and modulo 8.  InetRouterDatabaseTest checks the
+		// same routing against a server.
+		String[] values = { "10.0.0.1", "192.168.0.0/16", "10.1.2.3/8", "2001:db8::1", "2001:db8::/32",
+			"::ffff:1.2.3.4/96" };
+		int[] large = { 266143943, 721650381, 276396594, 28917835, 892229450, 801380932 };
+		int[] small = { 6, 5, 2, 1, 5, 5 };
+		InetRouter prime = InetRouter.postgresHash( 1000000007 );
+		InetRouter eight = InetRouter.postgresHash( 8 );
+		for( int i = 0; i < values.length; ++i )
+		{
+			assertEquals( values[i], large[i], prime.route( new PGinet( values[i] ) ) );
+			assertEquals( values[i], small[i], eight.route( new PGinet( values[i] ) ) );
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.junit.Test;
+import org.postgresql.net.CidrValue;
+import org.postgresql.net.InetArrayCodec;
+import org.postgresql.net.InetCompactCodec;
+import org.postgresql.net.InetValue;
+import org.postgresql.net.LazyPGcidr;
+import org.postgresql.net.LazyPGinet;
+import org.postgresql.net.LazyPGmacaddr;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+import org.postgresql.net.PGmacaddr;
+import org.postgresql.util.PGobject;
+
+/**
+ *	Unit tests for the lazily parsed types.
+ */
+public class LazyTypesTest
+{
+	@Test
+	public void testLazyInetMatchesEager() throws SQLException
+	{
+		String[] values = { "192.168.1.5/24", "2001:db8::1", "::ffff:10.1.2.3" };
+		for( int i = 0; i < values.length; ++i )
+		{
+			LazyPGinet lazy = new LazyPGinet( values[i] );
+			PGinet eager = new PGinet( values[i] );
+			assertEquals( values[i], lazy.getValue() );
+			assertEquals( eager.hashCode(), lazy.hashCode() );
+			assertEquals( eager, lazy );
+			assertEquals( lazy, eager );
+			assertEquals( eager.getHighWord(), lazy.getHighWord() );
+			assertEquals( eager.getLowWord(), lazy.getLowWord() );
+			assertEquals( eager.getNetmask(), lazy.getNetmask() );
+			assertEquals( values[i], lazy.getValue() );
+			assertEquals( InetValue.of( eager ), InetValue.of( new LazyPGinet( values[i] ) ) );
+			// the immutable values format themselves rather than keep the given text
+			assertEquals( InetValue.of( eager ).toString(), InetValue.of( new LazyPGinet( values[i] ) ).toString() );
+			assertEquals( InetValue.of( eager ).toString(), InetValue.of( new PGinet( lazy ) ).toString() );
+		}
+		assertEquals( CidrValue.of( new PGcidr( "2001:db8::/32" ) ).toString(),
+			CidrValue.of( new LazyPGcidr( "2001:db8::/32" ) ).toString() );
+	}
+
+	@Test
+	public void testErrorsOnFirstUse() throws SQLException
+	{
+		LazyPGinet lazy = new LazyPGinet( "not an address" );
+		assertEquals( "not an address", lazy.getValue() );
+		try
+		{
+			lazy.hashCode();
+			fail( "An invalid value should fail on first use." );
+		}
+		catch( IllegalStateException e )
+		{
+			assertTrue( e.getCause() instanceof SQLException );
+		}
+		try
+		{
+			lazy.validate();
+			fail( "The error should be reported again." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+		try
+		{
+			lazy.add( 1 );
+			fail( "Checked methods should throw the SQLException." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+
+		LazyPGcidr cidr = new LazyPGcidr( "10.0.0.1/8" );
+		try
+		{
+			cidr.validate();
+			fail( "Host bits should be reported on first use." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+
+		try
+		{
+			new LazyPGinet( null );
+			fail( "A null value should be rejected straight away." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testLazyMacaddr() throws SQLException
+	{
+		LazyPGmacaddr lazy = new LazyPGmacaddr( "08:00:2b:01:02:03" );
+		PGmacaddr eager = new PGmacaddr( "08:00:2b:01:02:03" );
+		assertEquals( "08:00:2b:01:02:03", lazy.getValue() );
+		assertEquals( eager.hashCode(), lazy.hashCode() );
+		assertEquals( eager, lazy );
+		assertEquals( lazy, eager );
+		try
+		{
+			new LazyPGmacaddr( "zz" ).hashCode();
+			fail( "An invalid value should fail on first use." );
+		}
+		catch( IllegalStateException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testPassThrough() throws SQLException
+	{
+		LazyPGinet lazy = new LazyPGinet( "10.0.0.1" );
+		PGinet copy = new PGinet( lazy );
+		assertEquals( "10.0.0.1", copy.getValue() );
+		assertEquals( new PGinet( "10.0.0.1" ), copy );
+
+		String literal = InetArrayCodec.toArrayLiteral( Arrays.<PGobject>asList(
+			new LazyPGinet( "10.0.0.1" ), new LazyPGcidr( "10.0.0.0/8" ), new LazyPGmacaddr( "08:00:2b:01:02:03" ) ) );
+		assertEquals( "{10.0.0.1,10.0.0.0/8,08:00:2b:01:02:03}", literal );
+
+		// text which is not valid fails here rather than at the server,
+		// even when it has nothing which would need quoting.
+		String[] bad = { "10.0.0.256", "1:2:3:4:5:6:7:8:9", "0a:0b", "10.0.0.0/33" };
+		for( String v : bad )
+		{
+			PGobject element = v.startsWith( "0a" ) ? new LazyPGmacaddr( v ) : new LazyPGinet( v );
+			try
+			{
+				InetArrayCodec.toArrayLiteral( Arrays.<PGobject>asList( element ) );
+				fail( "The text should have been parsed: " + v );
+			}
+			catch( IllegalStateException e )
+			{
+				// expected
+			}
+		}
+		assertEquals( "{10.0.0.1/8}", InetArrayCodec.toArrayLiteral( Arrays.<PGobject>asList( new LazyPGinet( "10.0.0.1/8" ) ) ) );
+
+		// text which would need quoting is parsed and written normally.
+		LazyPGinet spaced = new LazyPGinet();
+		spaced.setValue( "10.0.0.2 " );
+		try
+		{
+			InetArrayCodec.toArrayLiteral( Arrays.<PGobject>asList( spaced ) );
+			fail( "The text should have been parsed." );
+		}
+		catch( IllegalStateException e )
+		{
+			// expected
+		}
+
+		assertEquals( new PGcidr( "10.0.0.0/8" ),
+			InetCompactCodec.decode( InetCompactCodec.encode( new LazyPGcidr( "10.0.0.0/8" ) ) ) );
+
+		PGinet reused = new PGinet( new LazyPGinet( "10.0.0.1" ) );
+		reused.setValue( "10.0.0.9" );
+		assertEquals( new PGinet( "10.0.0.9" ), reused );
+	}
+
+	@Test
+	public void testClone() throws SQLException
+	{
+		LazyPGinet inet = new LazyPGinet( "::1" );
+		Object copy = inet.clone();
+		assertEquals( LazyPGinet.class, copy.getClass() );
+		assertEquals( "::1", ( (LazyPGinet)copy ).getValue() );
+		assertEquals( inet, copy );
+		// a clone of invalid text fails on use like the original
+		LazyPGcidr bad = new LazyPGcidr( "10.0.0.1/8" );
+		LazyPGcidr badCopy = (LazyPGcidr)bad.clone();
+		assertEquals( LazyPGcidr.class, badCopy.getClass() );
+		try
+		{
+			badCopy.validate();
+			fail( "The copy should hold the unparsed text." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+		LazyPGmacaddr mac = new LazyPGmacaddr( "08:00:2b:01:02:03" );
+		mac.validate();
+		Object macCopy = mac.clone();
+		assertEquals( LazyPGmacaddr.class, macCopy.getClass() );
+		assertEquals( mac, macCopy );
+		assertEquals( "08:00:2b:01:02:03", ( (LazyPGmacaddr)macCopy ).getValue() );
+	}
+}
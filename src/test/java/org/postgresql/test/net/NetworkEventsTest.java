@@ -0,0 +1,153 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.junit.Test;
+import org.postgresql.net.InetAcl;
+import org.postgresql.net.InetAnonymizer;
+import org.postgresql.net.InetArrayCodec;
+import org.postgresql.net.InetColumn;
+import org.postgresql.net.InetCursor;
+import org.postgresql.net.InetExternalSorter;
+import org.postgresql.net.InetPrefixIndex;
+import org.postgresql.net.InetRangeDatabase;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+import org.postgresql.net.PGmacaddr;
+import org.postgresql.util.PGobject;
+
+/**
+ *	Runs each operation which is bracketed by a Flight Recorder event.
+ *	Built for Java 8 the events are no-ops, these check that the
+ *	instrumented paths still return the same results with them in place.
+ */
+public class NetworkEventsTest
+{
+	@Test
+	public void testArrayEvents() throws IOException, SQLException
+	{
+		// ARRAY_PARSE
+		PGinet[] inets = InetArrayCodec.parseInetArray( "{10.0.0.1,NULL,2001:db8::/32}" );
+		assertEquals( 3, inets.length );
+		assertEquals( new PGinet( "2001:db8::/32" ), inets[2] );
+		assertEquals( new PGcidr( "10.0.0.0/8" ), InetArrayCodec.parseCidrArray( "{10.0.0.0/8}" )[0] );
+		assertEquals( new PGmacaddr( "08:00:2b:01:02:03" ), InetArrayCodec.parseMacaddrArray( "{08:00:2b:01:02:03}" )[0] );
+		InetColumn column = InetArrayCodec.parseColumn( "{10.0.0.1,NULL,2001:db8::/32}" );
+		assertEquals( 3, column.size() );
+
+		// ARRAY_FORMAT
+		String literal = InetArrayCodec.toArrayLiteral( Arrays.<PGobject>asList( inets ) );
+		assertEquals( literal, InetArrayCodec.toArrayLiteral( column ) );
+
+		// ARRAY_DECODE
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( bytes );
+		out.writeInt( 1 );		// dimensions
+		out.writeInt( 0 );		// has nulls
+		out.writeInt( 869 );	// inet
+		out.writeInt( 1 );		// elements
+		out.writeInt( 1 );		// lower bound
+		out.writeInt( 8 );
+		out.write( new byte[]{ 2, 24, 0, 4, (byte)192, (byte)168, 1, 10 } );
+		byte[] data = bytes.toByteArray();
+		assertEquals( new PGinet( "192.168.1.10/24" ), InetArrayCodec.decodeInetArray( data )[0] );
+		assertEquals( 24, InetArrayCodec.decodeColumn( data ).getNetmask( 0 ) );
+	}
+
+	@Test
+	public void testCopyEvents() throws IOException, SQLException
+	{
+		File dir = Files.createTempDirectory( "inetevents" ).toFile();
+		InetExternalSorter sorter = new InetExternalSorter( dir, 64 << 10, 1 );
+		try
+		{
+			// COPY_DECODE
+			assertEquals( 3L, sorter.addText( new StringReader( "10.0.0.2\n10.0.0.1\n::1\n" ) ) );
+			// enough runs that merging them takes more than one pass, a
+			// SET_OPERATION
+			for( int i = 0; i < 200000; ++i )
+			{
+				sorter.add( false, 0L, 0x0B000000L + ( i * 7919L & 0xFFFFFFL ), 32 );
+			}
+			assertTrue( sorter.getRunCount() > 8 );
+
+			// COPY_ENCODE
+			StringWriter text = new StringWriter();
+			long rows = sorter.writeCopyText( text );
+			assertEquals( 200003L, rows );
+			assertTrue( text.toString().startsWith( "10.0.0.1\n10.0.0.2\n11.0.0.0\n" ) );
+		}
+		finally
+		{
+			sorter.close();
+		}
+		assertEquals( 0, dir.list().length );
+		dir.delete();
+
+		sorter = new InetExternalSorter( null, 1 << 20, 1 );
+		sorter.add( new PGinet( "192.168.0.1/24" ) );
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		assertEquals( 1L, sorter.writeCopyBinary( binary ) );
+		sorter.close();
+		assertTrue( binary.size() > 19 );
+	}
+
+	@Test
+	public void testBuildEvents() throws IOException, SQLException
+	{
+		// PREFIX_TABLE_BUILD
+		InetAcl acl = new InetAcl.Builder()
+			.add( 0, new PGcidr[]{ new PGcidr( "10.0.0.0/8" ) }, null )
+			.build();
+		assertEquals( 0, acl.firstMatch( new PGinet( "10.1.2.3" ), new PGinet( "::1" ) ) );
+
+		InetPrefixIndex.Builder<String> builder = new InetPrefixIndex.Builder<String>();
+		builder.add( new PGcidr( "10.0.0.0/8" ), "ten" );
+		builder.add( new PGcidr( "10.1.0.0/16" ), "ten one" );
+		InetPrefixIndex<String> index = builder.build();
+		assertArrayEquals( new int[]{ 0, 1 }, index.covering( new PGinet( "10.1.2.3" ) ) );
+
+		InetRangeDatabase db = InetRangeDatabase.loadRanges( new StringReader(
+			"first,last,country\n10.0.0.0,10.255.255.255,A\n192.168.0.0,192.168.255.255,B\n" ) );
+		assertEquals( "B", db.lookup( new PGinet( "192.168.4.4" ), "country" ) );
+	}
+
+	@Test
+	public void testSetOperationEvents() throws SQLException
+	{
+		InetPrefixIndex.Builder<String> builder = new InetPrefixIndex.Builder<String>();
+		builder.add( new PGcidr( "10.0.0.0/8" ), "ten" );
+		InetPrefixIndex<String> index = builder.build();
+		InetColumn queries = InetArrayCodec.parseColumn( "{10.1.0.0/16,11.0.0.0/8,NULL}" );
+		InetPrefixIndex.Matches matches = index.overlapping( queries );
+		assertArrayEquals( new int[]{ 0 }, matches.get( 0 ) );
+		assertEquals( 0, matches.get( 1 ).length );
+
+		byte[] key = new byte[ 32 ];
+		for( int i = 0; i < key.length; ++i )
+		{
+			key[i] = (byte)i;
+		}
+		InetAnonymizer anonymizer = new InetAnonymizer( key );
+		InetColumn anonymized = anonymizer.anonymize( queries );
+		assertEquals( 3, anonymized.size() );
+		assertTrue( anonymized.isNull( 2 ) );
+		InetCursor cursor = new InetCursor();
+		cursor.setText( "10.1.0.0/16" );
+		anonymizer.anonymize( cursor );
+		assertEquals( cursor.getLowWord(), anonymized.getLowWord( 0 ) );
+		assertFalse( anonymized.getLowWord( 0 ) == queries.getLowWord( 0 ) );
+	}
+}
@@ -0,0 +1,105 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.postgresql.net.NetworkMetrics;
+import org.postgresql.net.NetworkMetricsListener;
+
+/**
+ *	Unit tests for the metrics counters and listener SPI.  The counters
+ *	are driven directly since the instrumented call sites are compiled
+ *	out unless the JVM was started with metrics enabled.
+ */
+public class NetworkMetricsTest
+{
+	@Test
+	public void testCounters()
+	{
+		NetworkMetrics metrics = NetworkMetrics.getInstance();
+		metrics.reset();
+		NetworkMetrics.recordCompleted( NetworkMetrics.Operation.FORMAT, 100L, 1 );
+		NetworkMetrics.recordCacheHit( NetworkMetrics.Operation.FORMAT );
+		NetworkMetrics.recordCacheHit( NetworkMetrics.Operation.FORMAT );
+		NetworkMetrics.recordCacheHit( NetworkMetrics.Operation.FORMAT );
+		assertEquals( 4L, metrics.getFormatCount() );
+		assertEquals( 0.75, metrics.getFormatCacheHitRatio(), 1e-9 );
+
+		NetworkMetrics.recordCompleted( NetworkMetrics.Operation.ARRAY_PARSE, 5000L, 250 );
+		assertEquals( 1L, metrics.getCount( "ARRAY_PARSE" ) );
+		assertEquals( 250L, metrics.getItemCount( "ARRAY_PARSE" ) );
+
+		NetworkMetrics.recordFailure( NetworkMetrics.Operation.PARSE, "netmask" );
+		NetworkMetrics.recordFailure( NetworkMetrics.Operation.PARSE, "netmask" );
+		NetworkMetrics.recordFailure( NetworkMetrics.Operation.PARSE, "syntax" );
+		assertEquals( 3L, metrics.getParseFailureCount() );
+		List<String> reasons = Arrays.asList( metrics.getFailureReasons() );
+		assertTrue( reasons.toString(), reasons.contains( "PARSE netmask=2" ) );
+		assertTrue( reasons.toString(), reasons.contains( "PARSE syntax=1" ) );
+
+		metrics.reset();
+		assertEquals( 0L, metrics.getFormatCount() );
+		assertEquals( 0, metrics.getFailureReasons().length );
+	}
+
+	@Test
+	public void testLatencyHistogram()
+	{
+		NetworkMetrics metrics = NetworkMetrics.getInstance();
+		metrics.reset();
+		assertEquals( 0L, metrics.getLatencyPercentile( "PARSE", 99.0 ) );
+		for( int i = 0; i < 99; ++i )
+		{
+			NetworkMetrics.recordCompleted( NetworkMetrics.Operation.PARSE, 100L, 1 );
+		}
+		NetworkMetrics.recordCompleted( NetworkMetrics.Operation.PARSE, 1000000L, 1 );
+		long[] histogram = metrics.getLatencyHistogram( "PARSE" );
+		assertEquals( 99L, histogram[7] );
+		assertEquals( 1L, histogram[20] );
+		assertEquals( 127L, metrics.getLatencyPercentile( "PARSE", 50.0 ) );
+		assertEquals( 127L, metrics.getLatencyPercentile( "PARSE", 99.0 ) );
+		assertEquals( ( 1L << 20 ) - 1L, metrics.getLatencyPercentile( "PARSE", 100.0 ) );
+		metrics.reset();
+	}
+
+	@Test
+	public void testListener()
+	{
+		final List<String> events = new ArrayList<String>();
+		NetworkMetricsListener listener = new NetworkMetricsListener()
+		{
+			public void completed( NetworkMetrics.Operation operation, long nanos, int items )
+			{
+				events.add( operation + " " + items );
+			}
+
+			public void cacheHit( NetworkMetrics.Operation operation )
+			{
+				events.add( operation + " hit" );
+			}
+
+			public void failed( NetworkMetrics.Operation operation, String reason )
+			{
+				events.add( operation + " " + reason );
+			}
+		};
+		NetworkMetrics.addListener( listener );
+		try
+		{
+			NetworkMetrics.recordCompleted( NetworkMetrics.Operation.ARRAY_DECODE, 10L, 3 );
+			NetworkMetrics.recordCacheHit( NetworkMetrics.Operation.HASH );
+			NetworkMetrics.recordFailure( NetworkMetrics.Operation.PARSE, "null" );
+		}
+		finally
+		{
+			NetworkMetrics.removeListener( listener );
+		}
+		NetworkMetrics.recordCacheHit( NetworkMetrics.Operation.HASH );
+		assertEquals( Arrays.asList( "ARRAY_DECODE 3", "HASH hit", "PARSE null" ), events );
+		NetworkMetrics.getInstance().reset();
+	}
+}
@@ -0,0 +1,116 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import org.junit.Test;
+import org.postgresql.net.CidrValue;
+import org.postgresql.net.InetValue;
+import org.postgresql.net.MacaddrValue;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+import org.postgresql.net.PGmacaddr;
+
+/**
+ *	Unit tests for the immutable value types.
+ */
+public class NetworkValueTest
+{
+	@Test
+	public void testInetRoundTrip() throws SQLException
+	{
+		String[] values = { "192.168.1.5", "10.0.0.1/8", "2001:db8::1/64", "::ffff:10.1.2.3", "::" };
+		for( int i = 0; i < values.length; ++i )
+		{
+			PGinet inet = new PGinet( values[i] );
+			InetValue value = InetValue.of( inet );
+			assertEquals( inet.getValue(), value.getValue() );
+			assertEquals( inet.hashCode(), value.hashCode() );
+			assertEquals( inet, value.toPGinet() );
+			assertEquals( inet.getValue(), value.toPGinet().getValue() );
+			assertEquals( value, InetValue.valueOf( values[i] ) );
+		}
+		assertEquals( new PGinet( "192.168.1.5/24" ), InetValue.ofIPv4( 0xC0A80105, 24 ).toPGinet() );
+		assertEquals( new PGinet( "2001:db8::1" ), InetValue.ofIPv6( 0x20010db800000000L, 1L, 128 ).toPGinet() );
+		assertEquals( new PGinet( "2001:db8::1" ).hashCode(), InetValue.ofIPv6( 0x20010db800000000L, 1L, 128 ).hashCode() );
+	}
+
+	@Test
+	public void testCidr() throws SQLException
+	{
+		PGcidr cidr = new PGcidr( "192.168.0.0/16" );
+		CidrValue value = CidrValue.of( cidr );
+		assertEquals( cidr.hashCode(), value.hashCode() );
+		assertEquals( cidr, value.toPGcidr() );
+		assertEquals( value, CidrValue.ofIPv4( 0xC0A80000, 16 ) );
+		assertFalse( value.equals( InetValue.ofIPv4( 0xC0A80000, 16 ) ) );
+		try
+		{
+			CidrValue.ofIPv4( 0xC0A80001, 16 );
+			fail( "Host bits should be rejected." );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testGetBytesIsACopy()
+	{
+		InetValue value = InetValue.ofIPv4( 0x0A000001, 32 );
+		value.getBytes()[0] = 99;
+		assertEquals( 10, value.getBytes()[0] );
+
+		MacaddrValue mac = MacaddrValue.of( 0x08002B010203L );
+		mac.getBytes()[0] = 99;
+		assertEquals( 8, mac.getBytes()[0] );
+	}
+
+	@Test
+	public void testMacaddr() throws SQLException
+	{
+		String[] values = { "08:00:2b:01:02:03", "ff:ff:ff:ff:ff:ff", "00:00:00:00:00:00", "80:7f:81:fe:01:ab" };
+		for( int i = 0; i < values.length; ++i )
+		{
+			PGmacaddr mac = new PGmacaddr( values[i] );
+			MacaddrValue value = MacaddrValue.of( mac );
+			assertEquals( values[i], value.getValue() );
+			assertEquals( mac.getValue(), value.getValue() );
+			assertEquals( mac.hashCode(), value.hashCode() );
+			assertEquals( mac, value.toPGmacaddr() );
+			assertEquals( value, MacaddrValue.valueOf( values[i] ) );
+		}
+		assertEquals( 0x08002B010203L, MacaddrValue.valueOf( "08:00:2b:01:02:03" ).toLong() );
+
+		// both print the server's form, whatever form they were given in
+		assertEquals( "08:00:2b:01:02:03", new PGmacaddr( "0800.2b01.0203" ).getValue() );
+		assertEquals( "08:00:2b:01:02:03", MacaddrValue.valueOf( "08-00-2B-01-02-03" ).getValue() );
+	}
+
+	@Test
+	public void testInvalidArguments()
+	{
+		try
+		{
+			InetValue.ofIPv4( 1, 33 );
+			fail( "Netmask 33 should be rejected." );
+		}
+		catch( IllegalArgumentException e )
+		{
+			assertTrue( e.getMessage().indexOf( "33" ) >= 0 );
+		}
+		try
+		{
+			MacaddrValue.of( 1L << 48 );
+			fail( "A 49 bit address should be rejected." );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import org.junit.Test;
+import org.postgresql.net.PGcidr;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for the client side equivalents of the server inet
+ *	functions, the expected values are those the server returns.
+ */
+public class PGinetFunctionsTest
+{
+	@Test
+	public void testIPv4Functions() throws SQLException
+	{
+		PGinet inet = new PGinet( "192.168.1.5/24" );
+		assertEquals( 4, inet.family() );
+		assertEquals( 24, inet.masklen() );
+		assertEquals( "192.168.1.5", inet.host() );
+		assertEquals( new PGcidr( "192.168.1.0/24" ), inet.network() );
+		assertEquals( new PGinet( "192.168.1.255/24" ), inet.broadcast() );
+		assertEquals( new PGinet( "255.255.255.0" ), inet.netmask() );
+		assertEquals( new PGinet( "0.0.0.3" ), new PGinet( "192.168.23.20/30" ).hostmask() );
+		assertEquals( new PGinet( "192.168.1.5/16" ), inet.setMasklen( 16 ) );
+		assertEquals( new PGinet( "192.168.1.5" ), inet.setMasklen( -1 ) );
+		assertEquals( new PGcidr( "192.168.0.0/16" ), new PGcidr( "192.168.1.0/24" ).setMasklen( 16 ) );
+		assertEquals( new PGinet( "0.0.0.0/0" ).broadcast(), new PGinet( "255.255.255.255/0" ) );
+	}
+
+	@Test
+	public void testIPv6Functions() throws SQLException
+	{
+		PGinet inet = new PGinet( "2001:db8::1234/64" );
+		assertEquals( 6, inet.family() );
+		assertEquals( new PGcidr( "2001:db8::/64" ), inet.network() );
+		assertEquals( new PGinet( "2001:db8::ffff:ffff:ffff:ffff/64" ), inet.broadcast() );
+		assertEquals( new PGinet( "ffff:ffff:ffff:ffff::" ), inet.netmask() );
+		assertEquals( new PGinet( "::ffff:ffff:ffff:ffff" ), inet.hostmask() );
+		assertEquals( new PGinet( "ffff:ffff:ffff:ffff:ffff:ffff:ffff:fffe" ),
+			new PGinet( "::1/127" ).netmask() );
+		assertEquals( new PGcidr( "2001:d00::/24" ), new PGcidr( "2001:db8::/32" ).setMasklen( 24 ) );
+
+		// host() prints the compressed form the server does
+		String[][] hosts = {
+			{ "2001:db8::1234/64", "2001:db8::1234" }, { "::1", "::1" }, { "::", "::" }, { "fe80::/10", "fe80::" },
+			{ "::ffff:1.2.3.4/96", "::ffff:1.2.3.4" }, { "::ffff:0102:0304", "::ffff:1.2.3.4" }, { "::1.2.3.4", "::1.2.3.4" },
+			{ "::ffff:0:0", "::ffff:0.0.0.0" }, { "::2", "::2" }, { "0:0:0:0:0:1:0:0", "::1:0:0" },
+			{ "1:0:0:1:0:0:0:1", "1:0:0:1::1" }, { "1:0:0:2:0:0:3:4", "1::2:0:0:3:4" }, { "0:0:1::", "0:0:1::" },
+			{ "1:0:2:3:4:5:6:7", "1:0:2:3:4:5:6:7" }, { "ABCD:0DB8:0000:0000:0000:0000:0000:0001", "abcd:db8::1" } };
+		for( String[] h : hosts )
+		{
+			assertEquals( h[0], h[1], new PGinet( h[0] ).host() );
+		}
+		assertEquals( "2001:db8::", new PGcidr( "2001:db8::/32" ).host() );
+	}
+
+	@Test
+	public void testArithmetic() throws SQLException
+	{
+		assertEquals( new PGinet( "192.168.1.31" ), new PGinet( "192.168.1.6" ).add( 25 ) );
+		assertEquals( new PGinet( "192.168.1.7" ), new PGinet( "192.168.1.43" ).subtract( 36 ) );
+		assertEquals( 24L, new PGinet( "192.168.1.43" ).subtract( new PGinet( "192.168.1.19" ) ) );
+		assertEquals( -24L, new PGinet( "192.168.1.19" ).subtract( new PGinet( "192.168.1.43" ) ) );
+		assertEquals( new PGinet( "0:0:0:1::/64" ), new PGinet( "::ffff:ffff:ffff:ffff/64" ).add( 1 ) );
+		assertEquals( new PGinet( "::ffff:ffff:ffff:ffff" ), new PGinet( "0:0:0:1::" ).add( -1 ) );
+		assertEquals( 1L, new PGinet( "0:0:0:1::" ).subtract( new PGinet( "::ffff:ffff:ffff:ffff" ) ) );
+		assertEquals( new PGinet( "10.0.0.0" ), new PGcidr( "10.0.0.0/8" ).add( 0 ).setMasklen( 32 ) );
+	}
+
+	@Test
+	public void testArithmeticOutOfRange() throws SQLException
+	{
+		expectFailure( new PGinet( "255.255.255.255" ), 1 );
+		expectFailure( new PGinet( "0.0.0.0" ), -1 );
+		expectFailure( new PGinet( "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff" ), 1 );
+		expectFailure( new PGinet( "::" ), -1 );
+		expectFailure( new PGinet( "::" ), Long.MIN_VALUE );
+
+		try
+		{
+			new PGinet( "::1" ).subtract( new PGinet( "1.2.3.4" ) );
+			fail( "Subtracting addresses of different families succeeded." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+
+		try
+		{
+			new PGinet( "ffff::" ).subtract( new PGinet( "::" ) );
+			fail( "A difference larger than a long succeeded." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+
+		try
+		{
+			new PGinet( "1.2.3.4" ).setMasklen( 33 );
+			fail( "An invalid netmask was accepted." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+	}
+
+	private void expectFailure( PGinet inet, long addend )
+	{
+		try
+		{
+			inet.add( addend );
+			fail( "Adding " + addend + " to " + inet + " succeeded." );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+	}
+}
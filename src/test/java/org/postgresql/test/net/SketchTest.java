@@ -0,0 +1,113 @@
+package org.postgresql.test.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import org.junit.Test;
+import org.postgresql.net.InetCountMinSketch;
+import org.postgresql.net.InetCounts;
+import org.postgresql.net.InetHyperLogLog;
+import org.postgresql.net.PGinet;
+
+/**
+ *	Unit tests for InetCountMinSketch and InetHyperLogLog.
+ */
+public class SketchTest
+{
+	/**
+	 *	Address i is seen 1000 / i times, so the first few dominate.
+	 */
+	private static void fill( InetCountMinSketch sketch, int from, int to )
+	{
+		for( int i = from; i < to; ++i )
+		{
+			sketch.add( false, 0L, 0x0A000000L + i, 1000 / i );
+		}
+	}
+
+	@Test
+	public void testHeavyHitters() throws SQLException
+	{
+		InetCountMinSketch sketch = new InetCountMinSketch( 2048, 5, 10 );
+		fill( sketch, 1, 5000 );
+		InetCounts top = sketch.topK();
+		assertEquals( 10, top.size() );
+		for( int i = 0; i < 10; ++i )
+		{
+			assertEquals( 0x0A000000L + i + 1, top.getLowWord( i ) );
+			assertTrue( top.getCount( i ) >= 1000 / ( i + 1 ) );
+		}
+		long exact = 1000 / 3;
+		long estimate = sketch.estimate( new PGinet( "10.0.0.3" ) );
+		assertTrue( ( estimate >= exact ) && ( estimate <= exact + 20 ) );
+	}
+
+	@Test
+	public void testCountMinMergeAndBytes() throws SQLException
+	{
+		InetCountMinSketch whole = new InetCountMinSketch( 1024, 4, 5, 24, 64 );
+		InetCountMinSketch a = new InetCountMinSketch( 1024, 4, 5, 24, 64 );
+		InetCountMinSketch b = new InetCountMinSketch( 1024, 4, 5, 24, 64 );
+		for( int i = 0; i < 3000; ++i )
+		{
+			long address = 0xC0A80000L + ( i * 37 ) % 4096;
+			whole.add( false, 0L, address, 1L );
+			( ( i % 2 == 0 ) ? a : b ).add( false, 0L, address, 1L );
+		}
+		a.merge( b );
+		assertEquals( whole.total(), a.total() );
+		assertEquals( whole.estimate( false, 0L, 0xC0A80105L ), a.estimate( false, 0L, 0xC0A80105L ) );
+		assertArrayEquals( whole.toByteArray(), InetCountMinSketch.fromByteArray( whole.toByteArray() ).toByteArray() );
+		InetCounts top = InetCountMinSketch.fromByteArray( a.toByteArray() ).topK();
+		assertEquals( whole.topK().getValue( 0 ), top.getValue( 0 ) );
+		assertEquals( 24, top.getNetmask( 0 ) );
+		try
+		{
+			byte[] bytes = a.toByteArray();
+			InetCountMinSketch.fromByteArray( java.util.Arrays.copyOf( bytes, bytes.length - 1 ) );
+			fail( "expected an SQLException" );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testHyperLogLog() throws SQLException
+	{
+		InetHyperLogLog a = new InetHyperLogLog();
+		InetHyperLogLog b = new InetHyperLogLog();
+		for( int i = 0; i < 100000; ++i )
+		{
+			a.add( false, 0L, 0x0A000000L + i );
+			b.add( true, 0x20010db800000000L, i * 3L );
+			b.add( false, 0L, 0x0A000000L + i / 2 );
+		}
+		assertEquals( 100000.0, a.cardinality(), 3000.0 );
+		a.merge( b );
+		assertEquals( 200000.0, a.cardinality(), 6000.0 );
+		InetHyperLogLog copy = InetHyperLogLog.fromByteArray( a.toByteArray() );
+		assertEquals( a.cardinality(), copy.cardinality() );
+
+		InetHyperLogLog networks = new InetHyperLogLog( 12, 24, 64 );
+		for( int i = 0; i < 256 * 50; ++i )
+		{
+			networks.add( false, 0L, 0x0A000000L + i );
+		}
+		assertEquals( 50.0, networks.cardinality(), 2.0 );
+		assertEquals( 0L, new InetHyperLogLog( 4 ).cardinality() );
+		try
+		{
+			InetHyperLogLog.fromByteArray( new byte[]{ 'H', 4, 32, (byte)128 } );
+			fail( "expected an SQLException" );
+		}
+		catch( SQLException e )
+		{
+			// expected
+		}
+	}
+}